@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the heap used per entry by caches of each of a range of builder configurations, with
+ * {@link ConcurrentHashMap} as a baseline. The keys and values are allocated before each cache is
+ * filled, so only the memory used by the cache itself is counted.
+ *
+ * <p>Usage: {@code CacheFootprintBenchmark [<entries>] [<configurations>]}, where {@code
+ * <configurations>} is a comma-separated list of {@link Configuration} names, all of which are
+ * measured by default. The results are printed as comma-separated values. They are estimates from
+ * the heap usage reported by the {@link Runtime} after garbage collection, so run with a fixed
+ * heap size, and with {@code -XX:-UseTLAB} for the most stable results.
+ */
+public class CacheFootprintBenchmark {
+
+  static final int DEFAULT_ENTRIES = 1000000;
+
+  /** The number of times to collect garbage before reading the heap usage. */
+  static final int GC_ROUNDS = 4;
+
+  enum Configuration {
+    CONCURRENT_HASH_MAP {
+      @Override Object fill(Long[] keys, Object[] values) {
+        ConcurrentMap<Long, Object> map = new ConcurrentHashMap<Long, Object>();
+        for (int i = 0; i < keys.length; i++) {
+          map.put(keys[i], values[i]);
+        }
+        return map;
+      }
+    },
+    UNBOUNDED {
+      @Override CacheBuilder<Object, Object> builder(int entries) {
+        return CacheBuilder.newBuilder();
+      }
+    },
+    MAXIMUM_SIZE {
+      @Override CacheBuilder<Object, Object> builder(int entries) {
+        return CacheBuilder.newBuilder().maximumSize(entries);
+      }
+    },
+    MAXIMUM_WEIGHT {
+      @Override CacheBuilder<Object, Object> builder(int entries) {
+        return CacheBuilder.newBuilder()
+            .maximumWeight(2L * entries)
+            .weigher(new Weigher<Object, Object>() {
+              @Override public int weigh(Object key, Object value) {
+                return 2;
+              }
+            });
+      }
+    },
+    EXPIRE_AFTER_ACCESS {
+      @Override CacheBuilder<Object, Object> builder(int entries) {
+        return CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS);
+      }
+    },
+    EXPIRE_AFTER_WRITE {
+      @Override CacheBuilder<Object, Object> builder(int entries) {
+        return CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.HOURS);
+      }
+    },
+    MAXIMUM_SIZE_EXPIRE_AFTER_WRITE {
+      @Override CacheBuilder<Object, Object> builder(int entries) {
+        return CacheBuilder.newBuilder()
+            .maximumSize(entries)
+            .expireAfterWrite(1, TimeUnit.HOURS);
+      }
+    },
+    WEAK_KEYS {
+      @Override CacheBuilder<Object, Object> builder(int entries) {
+        return CacheBuilder.newBuilder().weakKeys();
+      }
+    },
+    WEAK_VALUES {
+      @Override CacheBuilder<Object, Object> builder(int entries) {
+        return CacheBuilder.newBuilder().weakValues();
+      }
+    },
+    SOFT_VALUES {
+      @Override CacheBuilder<Object, Object> builder(int entries) {
+        return CacheBuilder.newBuilder().softValues();
+      }
+    },
+    LONG_KEYED {
+      @Override Object fill(Long[] keys, Object[] values) {
+        LongLoadingCache<Object> cache = CacheBuilder.newBuilder().buildLongKeyed(
+            new CacheLoader<Long, Object>() {
+              @Override public Object load(Long key) {
+                throw new UnsupportedOperationException();
+              }
+            });
+        for (int i = 0; i < keys.length; i++) {
+          cache.put(keys[i], values[i]);
+        }
+        return cache;
+      }
+
+      @Override boolean countsKeys() {
+        return false;
+      }
+    },
+    LONG_KEYED_MAXIMUM_SIZE {
+      @Override Object fill(Long[] keys, Object[] values) {
+        LongLoadingCache<Object> cache = CacheBuilder.newBuilder()
+            .maximumSize(keys.length)
+            .buildLongKeyed(new CacheLoader<Long, Object>() {
+              @Override public Object load(Long key) {
+                throw new UnsupportedOperationException();
+              }
+            });
+        for (int i = 0; i < keys.length; i++) {
+          cache.put(keys[i], values[i]);
+        }
+        return cache;
+      }
+
+      @Override boolean countsKeys() {
+        return false;
+      }
+    };
+
+    /** Returns the builder of the cache to measure, if the configuration uses a {@link Cache}. */
+    CacheBuilder<Object, Object> builder(int entries) {
+      throw new UnsupportedOperationException();
+    }
+
+    /** Returns a map or cache holding the given entries. */
+    Object fill(Long[] keys, Object[] values) {
+      Cache<Object, Object> cache = builder(keys.length).build();
+      for (int i = 0; i < keys.length; i++) {
+        cache.put(keys[i], values[i]);
+      }
+      return cache;
+    }
+
+    /**
+     * Returns whether the cache retains the boxed keys, which are then excluded from its
+     * footprint. Long-keyed caches store primitive keys instead, which are counted.
+     */
+    boolean countsKeys() {
+      return true;
+    }
+  }
+
+  /**
+   * Returns the heap used per entry by a cache of {@code configuration} holding {@code entries}
+   * entries.
+   */
+  static double bytesPerEntry(Configuration configuration, int entries) {
+    long start = usedMemory();
+    Long[] keys = new Long[entries];
+    for (int i = 0; i < entries; i++) {
+      keys[i] = Long.valueOf(i);
+    }
+    long keysSize = usedMemory() - start;
+    Object[] values = new Object[entries];
+    for (int i = 0; i < entries; i++) {
+      values[i] = new Object();
+    }
+
+    long before = usedMemory();
+    Object cache = configuration.fill(keys, values);
+    long after;
+    if (configuration.countsKeys()) {
+      after = usedMemory();
+    } else {
+      // the cache holds no references to the boxed keys, so they are collected once dropped
+      keys = null;
+      after = usedMemory() + keysSize;
+    }
+    // keeps the cache and values reachable until the measurement is done
+    if (cache.hashCode() == values.hashCode()) {
+      System.out.print("");
+    }
+    return (double) (after - before) / entries;
+  }
+
+  static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < GC_ROUNDS; i++) {
+      System.gc();
+      System.runFinalization();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  public static void main(String[] args) {
+    int entries = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_ENTRIES;
+    List<Configuration> configurations = Lists.newArrayList();
+    if (args.length > 1) {
+      for (String name : args[1].split(",")) {
+        configurations.add(Configuration.valueOf(name.trim()));
+      }
+    } else {
+      configurations.addAll(Arrays.asList(Configuration.values()));
+    }
+
+    System.out.println("configuration,entries,bytesPerEntry");
+    for (Configuration configuration : configurations) {
+      System.out.println(configuration + "," + entries + ","
+          + String.format("%.1f", bytesPerEntry(configuration, entries)));
+    }
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays a trace of key accesses against cache eviction policies, and reports the hits, misses
+ * and evictions of each policy at each of a range of maximum sizes. Each access which misses
+ * inserts its key, as a cache-aside client would.
+ *
+ * <p>Usage: {@code CacheSimulator <trace> <sizes> [<policies>]}, where
+ * <ul>
+ * <li>{@code <trace>} is either a trace file, a synthetic Zipfian trace {@code
+ *     zipf:<distinctKeys>:<skew>:<length>}, or a synthetic scan {@code
+ *     scan:<distinctKeys>:<length>} which cycles through the keys in order. Trace files whose
+ *     names end in {@code .bin} hold big-endian 64-bit keys; other trace files hold one decimal
+ *     key per line, and may contain blank lines and comment lines starting with {@code #}.
+ * <li>{@code <sizes>} is a comma-separated list of maximum sizes.
+ * <li>{@code <policies>} is a comma-separated list of {@link StandardPolicy} names, or of the
+ *     names of classes implementing {@link PolicyFactory} with a public no-argument constructor.
+ *     All of the standard policies are simulated by default.
+ * </ul>
+ *
+ * <p>The results are printed as comma-separated values, one line per policy and size.
+ */
+public class CacheSimulator {
+
+  /** A cache eviction policy being simulated. */
+  public interface Policy {
+    /** Records an access to {@code key}, and returns whether the key was present. */
+    boolean access(long key);
+
+    /** Returns the number of keys which the policy has evicted. */
+    long evictionCount();
+  }
+
+  /** Creates instances of a policy, for each maximum size being simulated. */
+  public interface PolicyFactory {
+    Policy create(int maximumSize);
+  }
+
+  /** The policies of {@link LocalCache}, and exact least-recently-used eviction for reference. */
+  public enum StandardPolicy implements PolicyFactory {
+    /** The segmented least-recently-used eviction of a cache with the default concurrency. */
+    LOCAL_CACHE {
+      @Override public Policy create(int maximumSize) {
+        return new CachePolicy(CacheBuilder.newBuilder().maximumSize(maximumSize));
+      }
+    },
+    /** A cache with a single segment, whose eviction is exactly least-recently-used. */
+    LOCAL_CACHE_SINGLE_SEGMENT {
+      @Override public Policy create(int maximumSize) {
+        return new CachePolicy(
+            CacheBuilder.newBuilder().concurrencyLevel(1).maximumSize(maximumSize));
+      }
+    },
+    /** See {@link CacheBuilder#frequencyAdmission}. */
+    LOCAL_CACHE_FREQUENCY_ADMISSION {
+      @Override public Policy create(int maximumSize) {
+        return new CachePolicy(
+            CacheBuilder.newBuilder().maximumSize(maximumSize).frequencyAdmission());
+      }
+    },
+    /** See {@link CacheBuilder#globalEviction}. */
+    LOCAL_CACHE_GLOBAL_EVICTION {
+      @Override public Policy create(int maximumSize) {
+        return new CachePolicy(CacheBuilder.newBuilder().maximumSize(maximumSize).globalEviction());
+      }
+    },
+    /** Least-recently-used eviction by a {@link LinkedHashMap}. */
+    LRU {
+      @Override public Policy create(int maximumSize) {
+        return new LinkedHashMapPolicy(maximumSize, true);
+      }
+    },
+    /** First-in, first-out eviction by a {@link LinkedHashMap}. */
+    FIFO {
+      @Override public Policy create(int maximumSize) {
+        return new LinkedHashMapPolicy(maximumSize, false);
+      }
+    };
+  }
+
+  /** Simulates a cache built by a {@link CacheBuilder}. */
+  static final class CachePolicy implements Policy {
+    final Cache<Long, Boolean> cache;
+
+    CachePolicy(CacheBuilder<Object, Object> builder) {
+      this.cache = builder.recordStats().build();
+    }
+
+    @Override public boolean access(long key) {
+      if (cache.getIfPresent(key) != null) {
+        return true;
+      }
+      cache.put(key, Boolean.TRUE);
+      return false;
+    }
+
+    @Override public long evictionCount() {
+      return cache.stats().evictionCount();
+    }
+  }
+
+  static final class LinkedHashMapPolicy implements Policy {
+    final Map<Long, Boolean> map;
+    long evictionCount;
+
+    LinkedHashMapPolicy(final int maximumSize, boolean accessOrder) {
+      this.map = new LinkedHashMap<Long, Boolean>(16, 0.75f, accessOrder) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+          if (size() > maximumSize) {
+            evictionCount++;
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+
+    @Override public boolean access(long key) {
+      if (map.get(key) != null) {
+        return true;
+      }
+      map.put(key, Boolean.TRUE);
+      return false;
+    }
+
+    @Override public long evictionCount() {
+      return evictionCount;
+    }
+  }
+
+  /** The outcome of replaying a trace against one policy with one maximum size. */
+  static final class Result {
+    final String policy;
+    final int maximumSize;
+    final long hitCount;
+    final long missCount;
+    final long evictionCount;
+
+    Result(String policy, int maximumSize, long hitCount, long missCount, long evictionCount) {
+      this.policy = policy;
+      this.maximumSize = maximumSize;
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+    }
+
+    double hitRate() {
+      long requestCount = hitCount + missCount;
+      return (requestCount == 0) ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    @Override public String toString() {
+      return policy + "," + maximumSize + "," + hitCount + "," + missCount + "," + evictionCount
+          + "," + hitRate();
+    }
+  }
+
+  static final String HEADER = "policy,maximumSize,hits,misses,evictions,hitRate";
+
+  /**
+   * Replays {@code trace} against each policy at each maximum size.
+   */
+  static List<Result> simulate(
+      long[] trace, List<? extends PolicyFactory> policies, List<Integer> sizes) {
+    List<Result> results = Lists.newArrayList();
+    for (PolicyFactory factory : policies) {
+      for (int maximumSize : sizes) {
+        Policy policy = factory.create(maximumSize);
+        long hitCount = 0;
+        for (long key : trace) {
+          if (policy.access(key)) {
+            hitCount++;
+          }
+        }
+        results.add(new Result(factory.toString(), maximumSize, hitCount,
+            trace.length - hitCount, policy.evictionCount()));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Returns a trace of {@code length} keys between {@code 0} and {@code distinctKeys - 1}, where
+   * key {@code k} is accessed with a probability proportional to {@code 1 / (k + 1)^skew}.
+   */
+  static long[] zipfTrace(int distinctKeys, double skew, int length, long seed) {
+    double[] cumulative = ConcurrentCacheBenchmark.zipfCumulativeWeights(distinctKeys, skew);
+    Random random = new Random(seed);
+    long[] trace = new long[length];
+    for (int i = 0; i < length; i++) {
+      trace[i] = ConcurrentCacheBenchmark.nextKey(cumulative, random);
+    }
+    return trace;
+  }
+
+  /**
+   * Returns a trace of {@code length} keys which cycles through the keys {@code 0} to {@code
+   * distinctKeys - 1} in order.
+   */
+  static long[] scanTrace(int distinctKeys, int length) {
+    long[] trace = new long[length];
+    for (int i = 0; i < length; i++) {
+      trace[i] = i % distinctKeys;
+    }
+    return trace;
+  }
+
+  /**
+   * Reads a trace file, which holds big-endian 64-bit keys if its name ends in {@code .bin}, and
+   * one decimal key per line otherwise.
+   */
+  static long[] readTrace(File file) throws IOException {
+    return file.getName().endsWith(".bin") ? readBinaryTrace(file) : readTextTrace(file);
+  }
+
+  private static long[] readBinaryTrace(File file) throws IOException {
+    checkArgument(file.length() % 8 == 0, "binary trace length must be a multiple of 8: %s", file);
+    long[] trace = new long[Ints.checkedCast(file.length() / 8)];
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      for (int i = 0; i < trace.length; i++) {
+        trace[i] = in.readLong();
+      }
+    } catch (EOFException e) {
+      throw new IOException("trace file was truncated: " + file);
+    } finally {
+      in.close();
+    }
+    return trace;
+  }
+
+  private static long[] readTextTrace(File file) throws IOException {
+    List<Long> keys = Lists.newArrayList();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() > 0 && !line.startsWith("#")) {
+          keys.add(Long.parseLong(line));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return Longs.toArray(keys);
+  }
+
+  /**
+   * Returns the trace described by {@code spec}: a synthetic trace {@code
+   * zipf:<distinctKeys>:<skew>:<length>} or {@code scan:<distinctKeys>:<length>}, or otherwise
+   * the name of a trace file.
+   */
+  static long[] parseTrace(String spec) throws IOException {
+    List<String> parts = ImmutableList.copyOf(Splitter.on(':').split(spec));
+    if (parts.get(0).equals("zipf")) {
+      checkArgument(parts.size() == 4, "expected zipf:<distinctKeys>:<skew>:<length>: %s", spec);
+      return zipfTrace(Integer.parseInt(parts.get(1)), Double.parseDouble(parts.get(2)),
+          Integer.parseInt(parts.get(3)), 0);
+    } else if (parts.get(0).equals("scan")) {
+      checkArgument(parts.size() == 3, "expected scan:<distinctKeys>:<length>: %s", spec);
+      return scanTrace(Integer.parseInt(parts.get(1)), Integer.parseInt(parts.get(2)));
+    }
+    return readTrace(new File(spec));
+  }
+
+  static PolicyFactory parsePolicy(String name) throws Exception {
+    for (StandardPolicy policy : StandardPolicy.values()) {
+      if (policy.name().equalsIgnoreCase(name)) {
+        return policy;
+      }
+    }
+    return Class.forName(name).asSubclass(PolicyFactory.class).newInstance();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2 || args.length > 3) {
+      System.err.println("usage: CacheSimulator <trace> <sizes> [<policies>]");
+      System.exit(1);
+    }
+    long[] trace = parseTrace(args[0]);
+    List<Integer> sizes = Lists.newArrayList();
+    for (String size : Splitter.on(',').trimResults().split(args[1])) {
+      sizes.add(Integer.parseInt(size));
+    }
+    List<PolicyFactory> policies = Lists.newArrayList();
+    if (args.length == 3) {
+      for (String name : Splitter.on(',').trimResults().split(args[2])) {
+        policies.add(parsePolicy(name));
+      }
+    } else {
+      policies.addAll(ImmutableList.copyOf(StandardPolicy.values()));
+    }
+
+    System.out.println(HEADER);
+    for (Result result : simulate(trace, policies, sizes)) {
+      System.out.println(result);
+    }
+  }
+}
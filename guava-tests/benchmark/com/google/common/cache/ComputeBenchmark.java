@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Multi-threaded benchmark of counting into a {@link Cache}, comparing {@link Cache#merge} with
+ * the retry loop over {@link ConcurrentMap#replace(Object, Object, Object)} that clients otherwise
+ * write. Each thread increments counters drawn uniformly from {@code hotKeys} keys, so fewer keys
+ * means more contention. The time reported is per increment per thread.
+ *
+ * <p>The number of failed {@code replace} calls is printed after each {@code REPLACE_LOOP}
+ * scenario.
+ */
+public class ComputeBenchmark extends SimpleBenchmark {
+  @Param({"1", "2", "4", "8"}) int threads;
+  @Param({"1", "16", "1024"}) int hotKeys;
+  @Param("16") int segments;
+  @Param Strategy strategy;
+
+  /** The number of keys precomputed for each thread, which are repeated as needed. */
+  static final int OPERATIONS = 1 << 16;
+
+  static final Function<Integer, Integer> INCREMENT = new Function<Integer, Integer>() {
+    @Override public Integer apply(Integer count) {
+      return count + 1;
+    }
+  };
+
+  enum Strategy {
+    MERGE {
+      @Override long increment(Cache<Integer, Integer> cache, Integer key) {
+        cache.merge(key, 1, INCREMENT);
+        return 0;
+      }
+    },
+    REPLACE_LOOP {
+      @Override long increment(Cache<Integer, Integer> cache, Integer key) {
+        ConcurrentMap<Integer, Integer> map = cache.asMap();
+        long retries = 0;
+        while (true) {
+          Integer count = map.get(key);
+          if (count == null) {
+            if (map.putIfAbsent(key, 1) == null) {
+              return retries;
+            }
+          } else if (map.replace(key, count, count + 1)) {
+            return retries;
+          }
+          retries++;
+        }
+      }
+    };
+
+    /** Increments the count of {@code key}, returning the number of attempts which failed. */
+    abstract long increment(Cache<Integer, Integer> cache, Integer key);
+  }
+
+  private Cache<Integer, Integer> cache;
+  private Integer[][] keys;
+  private ExecutorService threadPool;
+  private long retries;
+
+  @Override protected void setUp() {
+    cache = CacheBuilder.newBuilder().concurrencyLevel(segments).build();
+    keys = new Integer[threads][];
+    Random random = new Random(0);
+    for (int i = 0; i < threads; i++) {
+      keys[i] = new Integer[OPERATIONS];
+      for (int j = 0; j < OPERATIONS; j++) {
+        keys[i][j] = random.nextInt(hotKeys);
+      }
+    }
+    threadPool =
+        Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).build());
+    retries = 0;
+  }
+
+  public long time(int reps) throws InterruptedException, ExecutionException {
+    List<Future<Long>> futures = Lists.newArrayListWithCapacity(threads);
+    for (int i = 0; i < threads; i++) {
+      futures.add(threadPool.submit(new Worker(keys[i], reps)));
+    }
+    long dummy = 0;
+    for (Future<Long> future : futures) {
+      long workerRetries = future.get();
+      retries += workerRetries;
+      dummy += workerRetries;
+    }
+    return dummy + cache.size();
+  }
+
+  private final class Worker implements Callable<Long> {
+    final Integer[] keys;
+    final int reps;
+
+    Worker(Integer[] keys, int reps) {
+      this.keys = keys;
+      this.reps = reps;
+    }
+
+    @Override public Long call() {
+      long retries = 0;
+      for (int i = 0; i < reps; i++) {
+        retries += strategy.increment(cache, keys[i & (OPERATIONS - 1)]);
+      }
+      return retries;
+    }
+  }
+
+  @Override protected void tearDown() {
+    threadPool.shutdown();
+
+    // Like the time, this is only informative when the benchmark is run directly
+    if (strategy == Strategy.REPLACE_LOOP) {
+      System.out.println("failed replace calls: " + retries);
+    }
+  }
+
+  public static void main(String[] args) {
+    Runner.main(ComputeBenchmark.class, args);
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMakerInternalMaps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded benchmark for the map views of {@link LocalCache} and {@code
+ * MapMakerInternalMap}, with {@link ConcurrentHashMap} as a baseline. Each thread performs a mix of
+ * reads and writes on keys drawn from a Zipfian distribution; a read which misses writes the key,
+ * as a cache-aside client would. The time reported is per operation per thread, so throughput is
+ * {@code threads} divided by it.
+ *
+ * <p>One in every {@value #SAMPLE_INTERVAL} operations is timed individually, and the resulting
+ * latency percentiles are printed together with the hit rate after each scenario.
+ */
+public class ConcurrentCacheBenchmark extends SimpleBenchmark {
+  @Param({"1", "2", "4", "8"}) int threads;
+  @Param({"100", "90", "50"}) int readPercentage;
+
+  // 0 means uniform likelihood of keys; higher means some keys are more popular
+  @Param({"0.0", "0.8", "1.2"}) double skew;
+
+  @Param("100000") int distinctKeys;
+  @Param("10000") int maximumSize;
+  @Param("16") int segments;
+  @Param Eviction eviction;
+  @Param Implementation implementation;
+
+  /** The number of operations precomputed for each thread, which are repeated as needed. */
+  static final int OPERATIONS = 1 << 16;
+
+  static final int SAMPLE_INTERVAL = 64;
+
+  /** How long entries live when they expire, which is short enough for cold entries to expire. */
+  static final long EXPIRATION_SECONDS = 1;
+
+  enum Eviction {
+    NONE,
+    SIZE,
+    EXPIRE_AFTER_ACCESS,
+    EXPIRE_AFTER_WRITE
+  }
+
+  enum Implementation {
+    /** Ignores {@link Eviction}, as it is the baseline for all of the other implementations. */
+    CONCURRENT_HASH_MAP {
+      @Override ConcurrentMap<Integer, Integer> create(
+          Eviction eviction, int maximumSize, int segments) {
+        return new ConcurrentHashMap<Integer, Integer>(16, 0.75f, segments);
+      }
+    },
+    MAP_MAKER {
+      @Override ConcurrentMap<Integer, Integer> create(
+          Eviction eviction, int maximumSize, int segments) {
+        switch (eviction) {
+          case NONE:
+            return MapMakerInternalMaps.unbounded(segments);
+          case SIZE:
+            return MapMakerInternalMaps.maximumSize(segments, maximumSize);
+          case EXPIRE_AFTER_ACCESS:
+            return MapMakerInternalMaps.expireAfterAccess(
+                segments, EXPIRATION_SECONDS, TimeUnit.SECONDS);
+          case EXPIRE_AFTER_WRITE:
+            return MapMakerInternalMaps.expireAfterWrite(
+                segments, EXPIRATION_SECONDS, TimeUnit.SECONDS);
+          default:
+            throw new AssertionError(eviction);
+        }
+      }
+    },
+    CACHE_BUILDER {
+      @Override ConcurrentMap<Integer, Integer> create(
+          Eviction eviction, int maximumSize, int segments) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().concurrencyLevel(segments);
+        switch (eviction) {
+          case NONE:
+            break;
+          case SIZE:
+            builder.maximumSize(maximumSize);
+            break;
+          case EXPIRE_AFTER_ACCESS:
+            builder.expireAfterAccess(EXPIRATION_SECONDS, TimeUnit.SECONDS);
+            break;
+          case EXPIRE_AFTER_WRITE:
+            builder.expireAfterWrite(EXPIRATION_SECONDS, TimeUnit.SECONDS);
+            break;
+          default:
+            throw new AssertionError(eviction);
+        }
+        return builder.<Integer, Integer>build().asMap();
+      }
+    };
+
+    abstract ConcurrentMap<Integer, Integer> create(
+        Eviction eviction, int maximumSize, int segments);
+  }
+
+  private ConcurrentMap<Integer, Integer> map;
+  private Integer[][] keys;
+  private boolean[][] writes;
+  private ExecutorService threadPool;
+
+  private LatencyDistribution latency;
+  private long reads;
+  private long misses;
+
+  @Override protected void setUp() {
+    map = implementation.create(eviction, maximumSize, segments);
+    keys = new Integer[threads][];
+    writes = new boolean[threads][];
+    Random random = new Random(0);
+    double[] cumulative = zipfCumulativeWeights(distinctKeys, skew);
+    for (int i = 0; i < threads; i++) {
+      keys[i] = new Integer[OPERATIONS];
+      writes[i] = new boolean[OPERATIONS];
+      for (int j = 0; j < OPERATIONS; j++) {
+        keys[i][j] = nextKey(cumulative, random);
+        writes[i][j] = random.nextInt(100) >= readPercentage;
+      }
+    }
+
+    // To start, fill up the map with the keys that the first thread will use
+    for (Integer key : keys[0]) {
+      map.put(key, key);
+    }
+
+    threadPool =
+        Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).build());
+    latency = LatencyDistribution.EMPTY;
+    reads = 0;
+    misses = 0;
+  }
+
+  public long time(int reps) throws InterruptedException, ExecutionException {
+    List<Worker> workers = Lists.newArrayListWithCapacity(threads);
+    List<Future<Long>> futures = Lists.newArrayListWithCapacity(threads);
+    for (int i = 0; i < threads; i++) {
+      Worker worker = new Worker(keys[i], writes[i], reps);
+      workers.add(worker);
+      futures.add(threadPool.submit(worker));
+    }
+    long dummy = 0;
+    for (Future<Long> future : futures) {
+      dummy += future.get();
+    }
+    for (Worker worker : workers) {
+      latency = latency.plus(new LatencyDistribution(worker.latencyCounts));
+      reads += worker.reads;
+      misses += worker.misses;
+    }
+    return dummy;
+  }
+
+  private final class Worker implements Callable<Long> {
+    final Integer[] keys;
+    final boolean[] writes;
+    final int reps;
+    final long[] latencyCounts = new long[LatencyDistribution.BUCKET_COUNT];
+    long reads;
+    long misses;
+
+    Worker(Integer[] keys, boolean[] writes, int reps) {
+      this.keys = keys;
+      this.writes = writes;
+      this.reps = reps;
+    }
+
+    @Override public Long call() {
+      long dummy = 0;
+      for (int i = 0; i < reps; i++) {
+        int index = i & (OPERATIONS - 1);
+        if (i % SAMPLE_INTERVAL == 0) {
+          long start = System.nanoTime();
+          dummy += operate(keys[index], writes[index]);
+          latencyCounts[LatencyDistribution.bucketIndex(System.nanoTime() - start)]++;
+        } else {
+          dummy += operate(keys[index], writes[index]);
+        }
+      }
+      return dummy;
+    }
+
+    private int operate(Integer key, boolean write) {
+      if (write) {
+        map.put(key, key);
+        return 0;
+      }
+      reads++;
+      Integer value = map.get(key);
+      if (value == null) {
+        misses++;
+        map.put(key, key);
+        return 0;
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Returns the cumulative weights of the ranks {@code 0} to {@code distinctKeys - 1}, where rank
+   * {@code k} is weighted by {@code 1 / (k + 1)^skew}.
+   */
+  static double[] zipfCumulativeWeights(int distinctKeys, double skew) {
+    double[] cumulative = new double[distinctKeys];
+    double sum = 0;
+    for (int rank = 0; rank < distinctKeys; rank++) {
+      sum += 1.0 / Math.pow(rank + 1, skew);
+      cumulative[rank] = sum;
+    }
+    return cumulative;
+  }
+
+  static Integer nextKey(double[] cumulative, Random random) {
+    double target = random.nextDouble() * cumulative[cumulative.length - 1];
+    int rank = Arrays.binarySearch(cumulative, target);
+    return (rank >= 0) ? rank : Math.min(-rank - 1, cumulative.length - 1);
+  }
+
+  @Override protected void tearDown() {
+    threadPool.shutdown();
+    double hitRate = (reads == 0) ? 1.0 : (double) (reads - misses) / reads;
+
+    // Like the time, these are only informative when the benchmark is run directly
+    System.out.println("hit rate: " + hitRate + ", sampled latency (ns): " + latency);
+  }
+
+  public static void main(String[] args) {
+    Runner.main(ConcurrentCacheBenchmark.class, args);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.google.common.base.Equivalence;
+import com.google.common.collect.MapMakerInternalMap.ReferenceEntry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmarks the throughput of interners shared by several threads, each of which interns its own
+ * copies of the same strings in a different order, as when parsing logs.
+ */
+public class ConcurrentInternersBenchmark extends SimpleBenchmark {
+  @Param({"1", "2", "4", "8"}) int threads;
+  @Param({"1000", "1000000"}) int size;
+  /** The concurrency level of every interner, so that all of them are as finely locked. */
+  @Param({"4", "16"}) int concurrencyLevel;
+  @Param InternerSupplier implSupplier;
+
+  private Interner<String> interner;
+  private List<String[]> samples;
+  private ExecutorService threadPool;
+
+  @Override protected void setUp() throws Exception {
+    super.setUp();
+    interner = implSupplier.get(size, concurrencyLevel);
+    samples = Lists.newArrayListWithCapacity(threads);
+    Random random = new Random(0);
+    for (int t = 0; t < threads; t++) {
+      List<String> copies = Lists.newArrayListWithCapacity(size);
+      for (int i = 0; i < size; i++) {
+        copies.add(new String("key-" + i));
+      }
+      Collections.shuffle(copies, random);
+      samples.add(copies.toArray(new String[size]));
+    }
+    threadPool =
+        Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).build());
+  }
+
+  @Override protected void tearDown() {
+    threadPool.shutdown();
+  }
+
+  public long timeIntern(final int reps) throws ExecutionException, InterruptedException {
+    List<Future<Long>> futures = Lists.newArrayListWithCapacity(threads);
+    for (final String[] sample : samples) {
+      futures.add(threadPool.submit(new Callable<Long>() {
+        @Override public Long call() {
+          long dummy = 0;
+          for (int i = 0; i < reps; i++) {
+            dummy += interner.intern(sample[i % sample.length]).length();
+          }
+          return dummy;
+        }
+      }));
+    }
+    long total = 0;
+    for (Future<Long> future : futures) {
+      total += future.get();
+    }
+    return total;
+  }
+
+  public static void main(String[] args) {
+    Runner.main(ConcurrentInternersBenchmark.class, args);
+  }
+
+  private enum InternerSupplier {
+    MAP_MAKER_WEAK() {
+      @Override Interner<String> get(int size, int concurrencyLevel) {
+        return new OldWeakInterner<String>(concurrencyLevel);
+      }
+    },
+    /** Duplication of {@link Interners#newStrongInterner}, at the given concurrency level. */
+    MAP_MAKER_STRONG() {
+      @Override Interner<String> get(int size, int concurrencyLevel) {
+        final ConcurrentMap<String, String> map =
+            new MapMaker().concurrencyLevel(concurrencyLevel).makeMap();
+        return new Interner<String>() {
+          @Override public String intern(String sample) {
+            String canonical = map.putIfAbsent(sample, sample);
+            return (canonical == null) ? sample : canonical;
+          }
+        };
+      }
+    },
+    SHARDED_WEAK() {
+      @Override Interner<String> get(int size, int concurrencyLevel) {
+        return Interners.newBuilder().weak().concurrencyLevel(concurrencyLevel).build();
+      }
+    },
+    SHARDED_STRONG() {
+      @Override Interner<String> get(int size, int concurrencyLevel) {
+        return Interners.newBuilder().strong().concurrencyLevel(concurrencyLevel).build();
+      }
+    },
+    /** Retains half of the strings, so that half of the interning operations evict. */
+    SHARDED_BOUNDED() {
+      @Override Interner<String> get(int size, int concurrencyLevel) {
+        return Interners.newBuilder()
+            .concurrencyLevel(concurrencyLevel)
+            .maximumSize(size / 2)
+            .build();
+      }
+    },
+    ;
+
+    abstract Interner<String> get(int size, int concurrencyLevel);
+  }
+
+  /**
+   * Duplication of the old weak interner, which looked up an entry of a weak-keyed map and, if it
+   * was missing, inserted one with {@code putIfAbsent}, retrying if it lost a race.
+   */
+  private static final class OldWeakInterner<E> implements Interner<E> {
+    private final MapMakerInternalMap<E, Dummy> map;
+
+    OldWeakInterner(int concurrencyLevel) {
+      map = new MapMaker()
+          .weakKeys()
+          .keyEquivalence(Equivalence.equals())
+          .concurrencyLevel(concurrencyLevel)
+          .makeCustomMap();
+    }
+
+    @Override public E intern(E sample) {
+      while (true) {
+        ReferenceEntry<E, Dummy> entry = map.getEntry(sample);
+        if (entry != null) {
+          E canonical = entry.getKey();
+          if (canonical != null) {
+            return canonical;
+          }
+        }
+        Dummy sneaky = map.putIfAbsent(sample, Dummy.VALUE);
+        if (sneaky == null) {
+          return sample;
+        }
+      }
+    }
+
+    private enum Dummy { VALUE }
+  }
+}
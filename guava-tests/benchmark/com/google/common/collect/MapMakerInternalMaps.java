@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates {@link MapMakerInternalMap} instances, including ones configured with the deprecated
+ * eviction settings of {@link MapMaker}, for benchmarks outside of this package.
+ */
+@SuppressWarnings("deprecation") // the eviction settings of MapMaker are deprecated
+public final class MapMakerInternalMaps {
+  private MapMakerInternalMaps() {}
+
+  /**
+   * Returns an unbounded map. Unlike {@link MapMaker#makeMap}, this does not return a {@link
+   * java.util.concurrent.ConcurrentHashMap}.
+   */
+  public static <K, V> ConcurrentMap<K, V> unbounded(int concurrencyLevel) {
+    return new MapMakerInternalMap<K, V>(new MapMaker().concurrencyLevel(concurrencyLevel));
+  }
+
+  public static <K, V> ConcurrentMap<K, V> maximumSize(int concurrencyLevel, int maximumSize) {
+    return new MapMaker().concurrencyLevel(concurrencyLevel).maximumSize(maximumSize).makeMap();
+  }
+
+  public static <K, V> ConcurrentMap<K, V> expireAfterAccess(
+      int concurrencyLevel, long duration, TimeUnit unit) {
+    return new MapMaker()
+        .concurrencyLevel(concurrencyLevel)
+        .expireAfterAccess(duration, unit)
+        .makeMap();
+  }
+
+  public static <K, V> ConcurrentMap<K, V> expireAfterWrite(
+      int concurrencyLevel, long duration, TimeUnit unit) {
+    return new MapMaker()
+        .concurrencyLevel(concurrencyLevel)
+        .expireAfterWrite(duration, unit)
+        .makeMap();
+  }
+}
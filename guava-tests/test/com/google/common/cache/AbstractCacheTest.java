@@ -119,6 +119,7 @@ public class AbstractCacheTest extends TestCase {
 
   public void testSimpleStatsIncrementBy() {
     long totalLoadTime = 0;
+    long[] loadLatency = new long[LatencyDistribution.BUCKET_COUNT];
 
     SimpleStatsCounter counter1 = new SimpleStatsCounter();
     for (int i = 0; i < 11; i++) {
@@ -127,10 +128,12 @@ public class AbstractCacheTest extends TestCase {
     for (int i = 0; i < 13; i++) {
       counter1.recordLoadSuccess(i);
       totalLoadTime += i;
+      loadLatency[LatencyDistribution.bucketIndex(i)]++;
     }
     for (int i = 0; i < 17; i++) {
       counter1.recordLoadException(i);
       totalLoadTime += i;
+      loadLatency[LatencyDistribution.bucketIndex(i)]++;
     }
     for (int i = 0; i < 19; i++) {
       counter1.recordMisses(1);
@@ -146,10 +149,12 @@ public class AbstractCacheTest extends TestCase {
     for (int i = 0; i < 31; i++) {
       counter2.recordLoadSuccess(i);
       totalLoadTime += i;
+      loadLatency[LatencyDistribution.bucketIndex(i)]++;
     }
     for (int i = 0; i < 37; i++) {
       counter2.recordLoadException(i);
       totalLoadTime += i;
+      loadLatency[LatencyDistribution.bucketIndex(i)]++;
     }
     for (int i = 0; i < 41; i++) {
       counter2.recordMisses(1);
@@ -159,7 +164,8 @@ public class AbstractCacheTest extends TestCase {
     }
 
     counter1.incrementBy(counter2);
-    assertEquals(new CacheStats(38, 60, 44, 54, totalLoadTime, 66),
+    assertEquals(new CacheStats(38, 60, 44, 54, totalLoadTime, 66,
+        new LatencyDistribution(loadLatency), new long[RemovalCause.values().length], 0, 0, 0),
         counter1.snapshot());
   }
 
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingCacheLoaders.constantLoader;
+import static com.google.common.cache.TestingCacheLoaders.exceptionLoader;
+import static com.google.common.cache.TestingCacheLoaders.identityLoader;
+import static com.google.common.cache.TestingCacheLoaders.incrementingLoader;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.base.Function;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.TestingCacheLoaders.IncrementingLoader;
+import com.google.common.collect.Lists;
+import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tests for {@link AsyncLoadingCache}, as built by {@link CacheBuilder#buildAsync}.
+ */
+public class AsyncLoadingCacheTest extends TestCase {
+
+  public void testGet_loadsOnExecutor() throws Exception {
+    QueueingExecutor executor = new QueueingExecutor();
+    AsyncLoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .recordStats()
+        .buildAsync(TestingCacheLoaders.<Integer>identityLoader(), executor);
+
+    ListenableFuture<Integer> future = cache.get(1);
+    assertFalse(future.isDone());
+    assertEquals(1, executor.tasks.size());
+    assertNull(cache.synchronous().getIfPresent(1));
+
+    executor.runAll();
+    assertEquals(Integer.valueOf(1), future.get());
+    assertEquals(Integer.valueOf(1), cache.synchronous().getIfPresent(1));
+
+    ListenableFuture<Integer> hit = cache.get(1);
+    assertTrue(hit.isDone());
+    assertEquals(Integer.valueOf(1), hit.get());
+    assertTrue(executor.tasks.isEmpty());
+
+    CacheStats stats = cache.synchronous().stats();
+    assertEquals(2, stats.hitCount()); // includes getIfPresent
+    assertEquals(2, stats.missCount());
+    assertEquals(1, stats.loadSuccessCount());
+  }
+
+  public void testGet_sharesLoad() throws Exception {
+    QueueingExecutor executor = new QueueingExecutor();
+    IncrementingLoader loader = incrementingLoader();
+    AsyncLoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .buildAsync(loader, executor);
+
+    ListenableFuture<Integer> first = cache.get(1);
+    ListenableFuture<Integer> second = cache.get(1);
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals(Integer.valueOf(1), first.get());
+    assertEquals(Integer.valueOf(1), second.get());
+    assertEquals(1, loader.getLoadCount());
+  }
+
+  public void testGet_sharesLoadWithSynchronousView() throws Exception {
+    QueueingExecutor executor = new QueueingExecutor();
+    IncrementingLoader loader = incrementingLoader();
+    AsyncLoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .buildAsync(loader, executor);
+
+    assertEquals(Integer.valueOf(1), cache.synchronous().get(1));
+    assertEquals(Integer.valueOf(1), cache.get(1).get());
+    assertEquals(1, loader.getLoadCount());
+    assertTrue(executor.tasks.isEmpty());
+  }
+
+  public void testGet_cancelDoesNotAffectOtherCallers() throws Exception {
+    QueueingExecutor executor = new QueueingExecutor();
+    AsyncLoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .buildAsync(TestingCacheLoaders.<Integer>identityLoader(), executor);
+
+    ListenableFuture<Integer> first = cache.get(1);
+    ListenableFuture<Integer> second = cache.get(1);
+    assertTrue(first.cancel(true));
+
+    executor.runAll();
+    assertEquals(Integer.valueOf(1), second.get());
+    assertEquals(Integer.valueOf(1), cache.synchronous().getIfPresent(1));
+  }
+
+  public void testGet_exception() throws Exception {
+    Exception e = new Exception();
+    AsyncLoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .recordStats()
+        .buildAsync(exceptionLoader(e), MoreExecutors.sameThreadExecutor());
+
+    ListenableFuture<Object> future = cache.get(1);
+    assertTrue(future.isDone());
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(e, expected.getCause());
+    }
+
+    // failures are not cached, so the next call loads again
+    assertTrue(isFailed(cache.get(1)));
+    assertEquals(0, cache.synchronous().size());
+    assertEquals(2, cache.synchronous().stats().loadExceptionCount());
+  }
+
+  public void testGet_null() throws Exception {
+    AsyncLoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .buildAsync(constantLoader(null), MoreExecutors.sameThreadExecutor());
+    try {
+      cache.get(1).get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof InvalidCacheLoadException);
+    }
+    assertEquals(0, cache.synchronous().size());
+  }
+
+  public void testGet_rejected() throws Exception {
+    Executor executor = new Executor() {
+      @Override public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+    AsyncLoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .buildAsync(identityLoader(), executor);
+    try {
+      cache.get(1).get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof RejectedExecutionException);
+    }
+    assertEquals(0, cache.synchronous().size());
+    assertTrue(cache.synchronous().asMap().isEmpty());
+  }
+
+  public void testGet_invalidatedWhileLoading() throws Exception {
+    QueueingExecutor executor = new QueueingExecutor();
+    AsyncLoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .buildAsync(TestingCacheLoaders.<Integer>identityLoader(), executor);
+
+    ListenableFuture<Integer> future = cache.get(1);
+    cache.synchronous().invalidate(1);
+    executor.runAll();
+    assertEquals(Integer.valueOf(1), future.get());
+  }
+
+  public void testGet_transform() throws Exception {
+    QueueingExecutor executor = new QueueingExecutor();
+    AsyncLoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .buildAsync(TestingCacheLoaders.<Integer>identityLoader(), executor);
+
+    ListenableFuture<String> future = Futures.transform(cache.get(42),
+        new Function<Integer, String>() {
+          @Override public String apply(Integer value) {
+            return "value: " + value;
+          }
+        });
+    assertFalse(future.isDone());
+    executor.runAll();
+    assertEquals("value: 42", future.get());
+  }
+
+  public void testRefresh_onExecutor() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    QueueingExecutor executor = new QueueingExecutor();
+    IncrementingLoader loader = incrementingLoader();
+    AsyncLoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(1, MILLISECONDS)
+        .ticker(ticker)
+        .buildAsync(loader, executor);
+
+    ListenableFuture<Integer> future = cache.get(1);
+    executor.runAll();
+    assertEquals(Integer.valueOf(1), future.get());
+
+    ticker.advance(2, MILLISECONDS);
+    // the stale value is returned immediately, while a single refresh is submitted
+    assertEquals(Integer.valueOf(1), cache.get(1).get());
+    assertEquals(Integer.valueOf(1), cache.get(1).get());
+    assertEquals(1, executor.tasks.size());
+    assertEquals(0, loader.getReloadCount());
+
+    executor.runAll();
+    assertEquals(1, loader.getReloadCount());
+    assertEquals(Integer.valueOf(2), cache.get(1).get());
+  }
+
+  private static boolean isFailed(ListenableFuture<?> future) throws InterruptedException {
+    try {
+      future.get();
+      return false;
+    } catch (ExecutionException e) {
+      return true;
+    }
+  }
+
+  /** An executor that queues tasks until they are explicitly run. */
+  static final class QueueingExecutor implements Executor {
+    final List<Runnable> tasks = Lists.newArrayList();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+}
@@ -33,9 +33,11 @@ import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.testing.NullPointerTester;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import junit.framework.TestCase;
 
+import java.io.File;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -326,6 +328,434 @@ public class CacheBuilderTest extends TestCase {
     // well, it didn't blow up.
   }
 
+  @GwtIncompatible("expireAfter")
+  public void testExpireAfter_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().expireAfter(constantExpiry());
+    try {
+      builder.expireAfter(constantExpiry());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("expireAfter")
+  public void testExpireAfter_notWithFixedExpiration() {
+    try {
+      new CacheBuilder<Object, Object>()
+          .expireAfterWrite(3600, SECONDS)
+          .expireAfter(constantExpiry());
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      new CacheBuilder<Object, Object>()
+          .expireAfter(constantExpiry())
+          .expireAfterAccess(3600, SECONDS);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("expireAfter")
+  private static Expiry<Object, Object> constantExpiry() {
+    return new Expiry<Object, Object>() {
+      @Override public long expireAfterCreate(Object key, Object value, long currentTime) {
+        return SECONDS.toNanos(3600);
+      }
+      @Override public long expireAfterUpdate(
+          Object key, Object value, long currentTime, long currentDuration) {
+        return currentDuration;
+      }
+      @Override public long expireAfterRead(
+          Object key, Object value, long currentTime, long currentDuration) {
+        return currentDuration;
+      }
+    };
+  }
+
+  @GwtIncompatible("batchRefreshes")
+  public void testBatchRefreshes_zero() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.batchRefreshes(0, SECONDS);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("batchRefreshes")
+  public void testBatchRefreshes_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().batchRefreshes(1, SECONDS);
+    try {
+      builder.batchRefreshes(1, SECONDS);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("maintenanceExecutor")
+  public void testMaintenanceExecutor_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().maintenanceExecutor(MoreExecutors.sameThreadExecutor());
+    try {
+      builder.maintenanceExecutor(MoreExecutors.sameThreadExecutor());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("bulkLoadExecutor")
+  public void testBulkLoadExecutor_setTwice() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>()
+        .bulkLoadExecutor(MoreExecutors.sameThreadExecutor(), 4);
+    try {
+      builder.bulkLoadExecutor(MoreExecutors.sameThreadExecutor(), 4);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("bulkLoadExecutor")
+  public void testBulkLoadExecutor_badParallelism() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.bulkLoadExecutor(MoreExecutors.sameThreadExecutor(), 0);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("bulkLoadExecutor")
+  public void testBulkLoadExecutor_requiresLoadingCache() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>()
+        .bulkLoadExecutor(MoreExecutors.sameThreadExecutor(), 4);
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("batchRefreshes")
+  public void testBatchRefreshes_requiresRefresh() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().batchRefreshes(1, SECONDS);
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+
+    builder.refreshAfterWrite(1, SECONDS);
+    try {
+      builder.buildAsync(identityLoader(), MoreExecutors.sameThreadExecutor());
+      fail();
+    } catch (IllegalStateException expected) {}
+    builder.build(identityLoader());
+  }
+
+  @GwtIncompatible("refreshAhead")
+  public void testRefreshAhead_badArguments() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.refreshAhead(-0.1, 1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      builder.refreshAhead(1.0, 1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      builder.refreshAhead(0.5, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("refreshAhead")
+  public void testRefreshAhead_setTwice() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>().refreshAhead(0.5, 1);
+    try {
+      builder.refreshAhead(0.5, 1);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("refreshAhead")
+  public void testRefreshAhead_requiresRefresh() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>().refreshAhead(0.5, 1);
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+
+    builder.refreshAfterWrite(1, SECONDS);
+    try {
+      builder.buildAsync(identityLoader(), MoreExecutors.sameThreadExecutor());
+      fail();
+    } catch (IllegalStateException expected) {}
+    builder.build(identityLoader());
+
+    builder.batchRefreshes(1, SECONDS);
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("cacheNegativeResults")
+  public void testCacheNegativeResults_badArguments() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.cacheNegativeResults(0, SECONDS, 10);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      builder.cacheNegativeResults(1, SECONDS, -1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("cacheNegativeResults")
+  public void testCacheNegativeResults_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().cacheNegativeResults(1, SECONDS, 10);
+    try {
+      builder.cacheNegativeResults(1, SECONDS, 10);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("cacheNegativeResults")
+  public void testCacheNegativeResults_requiresLoadingCache() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().cacheNegativeResults(1, SECONDS, 10);
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      builder.buildAsync(identityLoader(), MoreExecutors.sameThreadExecutor());
+      fail();
+    } catch (IllegalStateException expected) {}
+    builder.build(identityLoader());
+  }
+
+  @GwtIncompatible("name")
+  public void testName_setTwice() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>().name("a");
+    try {
+      builder.name("b");
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      builder.registry(CacheRegistry.create()).registry(CacheRegistry.create());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("registry")
+  public void testRegistry_requiresName() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().registry(CacheRegistry.create());
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+    builder.name("a").build();
+  }
+
+  @GwtIncompatible("adaptToHeapPressure")
+  public void testAdaptToHeapPressure_badArguments() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.adaptToHeapPressure(0);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      builder.adaptToHeapPressure(1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("adaptToHeapPressure")
+  public void testAdaptToHeapPressure_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().adaptToHeapPressure(0.7);
+    try {
+      builder.adaptToHeapPressure(0.7);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("adaptToHeapPressure")
+  public void testAdaptToHeapPressure_requiresMaximum() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().adaptToHeapPressure(0.7);
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+    builder.maximumSize(10).build();
+  }
+
+  @GwtIncompatible("trackHotKeys")
+  public void testTrackHotKeys_badArguments() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.trackHotKeys(0, 1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      builder.trackHotKeys(10, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("trackHotKeys")
+  public void testTrackHotKeys_setTwice() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>().trackHotKeys(10, 1);
+    try {
+      builder.trackHotKeys(10, 1);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("threadLocalCache")
+  public void testThreadLocalCache_badArguments() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.threadLocalCache(0, 1, SECONDS);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      builder.threadLocalCache(10, 0, SECONDS);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("threadLocalCache")
+  public void testThreadLocalCache_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().threadLocalCache(10, 1, SECONDS);
+    try {
+      builder.threadLocalCache(10, 1, SECONDS);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("threadLocalCache")
+  public void testThreadLocalCache_weakKeys() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().threadLocalCache(10, 1, SECONDS).weakKeys();
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("tagger")
+  public void testTagger_setTwice() {
+    CacheBuilder<Integer, Integer> builder =
+        new CacheBuilder<Object, Object>().tagger(CacheManualTest.PARITY_TAGGER);
+    try {
+      builder.tagger(CacheManualTest.PARITY_TAGGER);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("offHeapTier")
+  public void testOffHeapTier_zero() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.offHeapTier(0, OffHeapTierTest.INTEGER_CODEC);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("offHeapTier")
+  public void testOffHeapTier_setTwice() {
+    CacheBuilder<Object, Integer> builder =
+        new CacheBuilder<Object, Object>().offHeapTier(1024, OffHeapTierTest.INTEGER_CODEC);
+    try {
+      builder.offHeapTier(1024, OffHeapTierTest.INTEGER_CODEC);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("offHeapTier")
+  public void testOffHeapTier_requiresMaximumSize() {
+    CacheBuilder<Object, Integer> builder =
+        new CacheBuilder<Object, Object>().offHeapTier(1024, OffHeapTierTest.INTEGER_CODEC);
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+
+    builder.maximumSize(10);
+    builder.build();
+  }
+
+  @GwtIncompatible("offHeapTier")
+  public void testOffHeapTier_notWithWeakKeysOrExpireAfterWrite() {
+    CacheBuilder<Object, Integer> builder = new CacheBuilder<Object, Object>()
+        .maximumSize(10)
+        .weakKeys()
+        .offHeapTier(1024, OffHeapTierTest.INTEGER_CODEC);
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+
+    builder = new CacheBuilder<Object, Object>()
+        .maximumSize(10)
+        .expireAfterWrite(1, SECONDS)
+        .offHeapTier(1024, OffHeapTierTest.INTEGER_CODEC);
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("offHeapTier")
+  public void testOffHeapTier_notWithExpireAfterAccessOrRefresh() {
+    CacheBuilder<Object, Integer> builder = new CacheBuilder<Object, Object>()
+        .maximumSize(10)
+        .expireAfterAccess(1, SECONDS)
+        .offHeapTier(1024, OffHeapTierTest.INTEGER_CODEC);
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+
+    builder = new CacheBuilder<Object, Object>()
+        .maximumSize(10)
+        .refreshAfterWrite(1, SECONDS)
+        .offHeapTier(1024, OffHeapTierTest.INTEGER_CODEC);
+    try {
+      builder.build(TestingCacheLoaders.<Integer>identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("diskTier")
+  public void testDiskTier_notWithOffHeapTier() {
+    CacheBuilder<Object, Integer> builder =
+        new CacheBuilder<Object, Object>().offHeapTier(1024, OffHeapTierTest.INTEGER_CODEC);
+    try {
+      builder.diskTier(new File("unused"), 1024, OffHeapTierTest.INTEGER_CODEC,
+          OffHeapTierTest.INTEGER_CODEC);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
   @GwtIncompatible("refreshAfterWrite")
   public void testRefresh_zero() {
     CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
@@ -605,6 +1035,9 @@ public class CacheBuilderTest extends TestCase {
   @GwtIncompatible("NullPointerTester")
   public void testNullParameters() throws Exception {
     NullPointerTester tester = new NullPointerTester();
+    tester.setDefault(CacheLoader.class, identityLoader());
+    tester.setDefault(CacheCodec.class, OffHeapTierTest.INTEGER_CODEC);
+    tester.setDefault(File.class, new File("unused"));
     CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
     tester.testAllPublicInstanceMethods(builder);
   }
@@ -25,10 +25,14 @@ import com.google.common.cache.CacheTesting.Receiver;
 import com.google.common.cache.LocalCache.ReferenceEntry;
 import com.google.common.cache.TestingCacheLoaders.IdentityLoader;
 import com.google.common.cache.TestingRemovalListeners.CountingRemovalListener;
+import com.google.common.collect.Lists;
+import com.google.common.testing.FakeTicker;
 
 import junit.framework.TestCase;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 /**
@@ -285,6 +289,200 @@ public class CacheEvictionTest extends TestCase {
     ASSERT.that(keySet).hasContentsAnyOrder(5, 6, 7, 8, 9, 10, 11, 12);
   }
 
+  public void testFrequencyAdmission_requiresMaximumSize() {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().frequencyAdmission();
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testFrequencyAdmission_rejectsOneHitWonder() {
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .frequencyAdmission()
+        .build(loader);
+    CacheTesting.warmUp(cache, 0, 10);
+
+    // make every resident key more popular than a newcomer
+    getAll(cache, asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+    CacheTesting.drainRecencyQueues(cache);
+
+    getAll(cache, asList(10));
+    CacheTesting.drainRecencyQueues(cache);
+    ASSERT.that(cache.asMap().keySet()).hasContentsAnyOrder(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+    // once the newcomer is more popular than the lru entry it is admitted
+    getAll(cache, asList(10, 10));
+    CacheTesting.drainRecencyQueues(cache);
+    ASSERT.that(cache.asMap().keySet()).hasContentsAnyOrder(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    CacheTesting.checkValidState(cache);
+  }
+
+  public void testFrequencyAdmission_removalNotification() {
+    CountingRemovalListener<Integer, Integer> removalListener = countingRemovalListener();
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(MAX_SIZE)
+        .frequencyAdmission()
+        .removalListener(removalListener)
+        .build(loader);
+    for (int i = 0; i < 2 * MAX_SIZE; i++) {
+      assertEquals(i, cache.getUnchecked(i).intValue());
+      assertTrue(cache.size() <= MAX_SIZE);
+    }
+
+    assertEquals(MAX_SIZE, cache.size());
+    CacheTesting.processPendingNotifications(cache);
+    assertEquals(MAX_SIZE, removalListener.getCount());
+    CacheTesting.checkValidState(cache);
+  }
+
+  /**
+   * Replays a trace of Zipf-distributed requests interleaved with long scans of keys that are never
+   * requested again, and checks that frequency admission keeps the popular keys resident where LRU
+   * flushes them out.
+   */
+  public void testFrequencyAdmission_hitRate_zipfWithScans() {
+    int[] trace = zipfWithScansTrace(new Random(42), 1000, 200000);
+    double lruHitRate = hitRate(CacheBuilder.newBuilder(), trace);
+    double admissionHitRate = hitRate(CacheBuilder.newBuilder().frequencyAdmission(), trace);
+    assertTrue("admission: " + admissionHitRate + ", lru: " + lruHitRate,
+        admissionHitRate > lruHitRate + 0.05);
+  }
+
+  public void testGlobalEviction_requiresMaximumSize() {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().globalEviction();
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testGlobalEviction_notWithFrequencyAdmission() {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+        .maximumSize(MAX_SIZE)
+        .frequencyAdmission()
+        .globalEviction();
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testGlobalEviction_skewedKeys() {
+    // every key lands in the same segment
+    LoadingCache<Integer, Integer> segmented = CacheBuilder.newBuilder()
+        .concurrencyLevel(16)
+        .maximumSize(MAX_SIZE * 4)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    LoadingCache<Integer, Integer> global = CacheBuilder.newBuilder()
+        .concurrencyLevel(16)
+        .maximumSize(MAX_SIZE * 4)
+        .globalEviction()
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    assertEquals(16, CacheTesting.toLocalCache(global).segments.length);
+
+    List<Integer> keys = keysInFirstSegment(CacheTesting.toLocalCache(global), MAX_SIZE * 4);
+    getAll(segmented, keys);
+    getAll(global, keys);
+    assertTrue(segmented.size() < MAX_SIZE * 4);
+    assertEquals(MAX_SIZE * 4, global.size());
+    CacheTesting.checkValidState(global);
+
+    // the bound still holds across segments
+    for (int i = 0; i < MAX_SIZE * 4; i++) {
+      global.getUnchecked(-1 - i);
+      assertEquals(MAX_SIZE * 4, global.size());
+    }
+    CacheTesting.checkValidState(global);
+  }
+
+  public void testGlobalEviction_lruAcrossSegments() {
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<Integer, Integer> removalListener = countingRemovalListener();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumSize(10)
+        .globalEviction()
+        .ticker(ticker)
+        .removalListener(removalListener)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    assertEquals(4, CacheTesting.toLocalCache(cache).segments.length);
+    for (int i = 0; i < 10; i++) {
+      ticker.advance(1);
+      cache.getUnchecked(i);
+    }
+    Set<Integer> keySet = cache.asMap().keySet();
+    ASSERT.that(keySet).hasContentsAnyOrder(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+    // re-order
+    for (int i : asList(0, 1, 2)) {
+      ticker.advance(1);
+      cache.getUnchecked(i);
+    }
+    CacheTesting.drainRecencyQueues(cache);
+
+    // evict 3, 4, 5
+    for (int i : asList(10, 11, 12)) {
+      ticker.advance(1);
+      cache.getUnchecked(i);
+    }
+    ASSERT.that(keySet).hasContentsAnyOrder(6, 7, 8, 9, 0, 1, 2, 10, 11, 12);
+    assertEquals(3, removalListener.getCount());
+  }
+
+  private static List<Integer> keysInFirstSegment(LocalCache<Integer, Integer> map, int count) {
+    List<Integer> keys = Lists.newArrayList();
+    for (int key = 0; keys.size() < count; key++) {
+      if (map.segmentFor(map.hash(key)) == map.segments[0]) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Returns a trace in which bursts of requests for keys drawn from a Zipf distribution over
+   * {@code distinctKeys} keys alternate with scans over unique keys.
+   */
+  private static int[] zipfWithScansTrace(Random random, int distinctKeys, int length) {
+    double[] cumulative = new double[distinctKeys];
+    double sum = 0;
+    for (int i = 0; i < distinctKeys; i++) {
+      sum += 1.0 / Math.pow(i + 1, 0.9);
+      cumulative[i] = sum;
+    }
+
+    int[] trace = new int[length];
+    int nextScanKey = distinctKeys;
+    for (int i = 0; i < length; ) {
+      for (int j = 0; j < 5000 && i < length; j++, i++) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+        trace[i] = (index < 0) ? -index - 1 : index;
+      }
+      for (int j = 0; j < 2 * MAX_SIZE && i < length; j++, i++) {
+        trace[i] = nextScanKey++;
+      }
+    }
+    return trace;
+  }
+
+  private static double hitRate(CacheBuilder<Object, Object> builder, int[] trace) {
+    LoadingCache<Integer, Integer> cache = builder
+        .concurrencyLevel(1)
+        .maximumSize(MAX_SIZE)
+        .recordStats()
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    for (int key : trace) {
+      cache.getUnchecked(key);
+    }
+    return cache.stats().hitRate();
+  }
+
   private void getAll(LoadingCache<Integer, Integer> cache, List<Integer> keys) {
     for (int i : keys) {
       cache.getUnchecked(i);
@@ -17,7 +17,12 @@ package com.google.common.cache;
 import static com.google.common.cache.TestingCacheLoaders.identityLoader;
 import static com.google.common.cache.TestingRemovalListeners.countingRemovalListener;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.contrib.truth.Truth.ASSERT;
 
 import com.google.common.cache.TestingCacheLoaders.IdentityLoader;
@@ -70,6 +75,18 @@ public class CacheExpirationTest extends TestCase {
     checkExpiration(cache, loader, ticker, removalListener);
   }
 
+  public void testExpiration_expireAfter() {
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<String, Integer> removalListener = countingRemovalListener();
+    WatchedCreatorLoader loader = new WatchedCreatorLoader();
+    LoadingCache<String, Integer> cache = CacheBuilder.newBuilder()
+        .expireAfter(new ConstantExpiry(MILLISECONDS.toNanos(EXPIRING_TIME)))
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(loader);
+    checkExpiration(cache, loader, ticker, removalListener);
+  }
+
   private void checkExpiration(LoadingCache<String, Integer> cache, WatchedCreatorLoader loader,
       FakeTicker ticker, CountingRemovalListener<String, Integer> removalListener) {
 
@@ -119,6 +136,18 @@ public class CacheExpirationTest extends TestCase {
     runExpirationTest(cache, loader, ticker, removalListener);
   }
 
+  public void testExpiringGet_expireAfter() {
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<String, Integer> removalListener = countingRemovalListener();
+    WatchedCreatorLoader loader = new WatchedCreatorLoader();
+    LoadingCache<String, Integer> cache = CacheBuilder.newBuilder()
+        .expireAfter(new ConstantExpiry(MILLISECONDS.toNanos(EXPIRING_TIME)))
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(loader);
+    runExpirationTest(cache, loader, ticker, removalListener);
+  }
+
   private void runExpirationTest(LoadingCache<String, Integer> cache, WatchedCreatorLoader loader,
       FakeTicker ticker, CountingRemovalListener<String, Integer> removalListener) {
 
@@ -246,6 +275,18 @@ public class CacheExpirationTest extends TestCase {
     runRemovalScheduler(cache, removalListener, loader, ticker, KEY_PREFIX, EXPIRING_TIME);
   }
 
+  public void testRemovalScheduler_expireAfter() {
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<String, Integer> removalListener = countingRemovalListener();
+    WatchedCreatorLoader loader = new WatchedCreatorLoader();
+    LoadingCache<String, Integer> cache = CacheBuilder.newBuilder()
+        .expireAfter(new ConstantExpiry(MILLISECONDS.toNanos(EXPIRING_TIME)))
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(loader);
+    runRemovalScheduler(cache, removalListener, loader, ticker, KEY_PREFIX, EXPIRING_TIME);
+  }
+
   public void testExpirationOrder_access() {
     // test lru within a single segment
     FakeTicker ticker = new FakeTicker();
@@ -394,6 +435,136 @@ public class CacheExpirationTest extends TestCase {
     ASSERT.that(keySet).hasContentsAnyOrder(3, 6);
   }
 
+  public void testExpirationOrder_variable() {
+    // each key lives for as many milliseconds as its value
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<Integer, Integer> removalListener = countingRemovalListener();
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfter(new Expiry<Integer, Integer>() {
+          @Override public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+            return MILLISECONDS.toNanos(value);
+          }
+          @Override public long expireAfterUpdate(
+              Integer key, Integer value, long currentTime, long currentDuration) {
+            return MILLISECONDS.toNanos(value);
+          }
+          @Override public long expireAfterRead(
+              Integer key, Integer value, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(loader);
+    getAll(cache, asList(9, 7, 5, 3, 1, 8, 6, 4, 2));
+    Set<Integer> keySet = cache.asMap().keySet();
+    ASSERT.that(keySet).hasContentsAnyOrder(1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+    // reads don't change the durations
+    getAll(cache, asList(1, 2, 3));
+    CacheTesting.drainRecencyQueues(cache);
+    ticker.advance(3, MILLISECONDS);
+    ASSERT.that(keySet).hasContentsAnyOrder(4, 5, 6, 7, 8, 9);
+
+    // an update recomputes the duration
+    cache.asMap().put(4, 10);
+    ticker.advance(2, MILLISECONDS);
+    ASSERT.that(keySet).hasContentsAnyOrder(4, 6, 7, 8, 9);
+
+    ticker.advance(5, MILLISECONDS);
+    ASSERT.that(keySet).hasContentsAnyOrder(4);
+    ticker.advance(3, MILLISECONDS);
+    ASSERT.that(keySet).isEmpty();
+
+    // removal may lag expiration by up to a second; the put also replaced a value
+    ticker.advance(2, SECONDS);
+    cache.cleanUp();
+    assertEquals(10, removalListener.getCount());
+    assertEquals(0, CacheTesting.expirationQueueSize(cache));
+  }
+
+  public void testExpireAfterRead_extendsDuration() {
+    FakeTicker ticker = new FakeTicker();
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfter(new Expiry<Integer, Integer>() {
+          @Override public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+            return MILLISECONDS.toNanos(10);
+          }
+          @Override public long expireAfterUpdate(
+              Integer key, Integer value, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+          @Override public long expireAfterRead(
+              Integer key, Integer value, long currentTime, long currentDuration) {
+            return (key % 2 == 0) ? MILLISECONDS.toNanos(10) : currentDuration;
+          }
+        })
+        .ticker(ticker)
+        .build(loader);
+    getAll(cache, asList(0, 1, 2, 3));
+    ticker.advance(8, MILLISECONDS);
+
+    // reading even keys restarts their clocks
+    getAll(cache, asList(0, 1, 2, 3));
+    ticker.advance(4, MILLISECONDS);
+    Set<Integer> keySet = cache.asMap().keySet();
+    ASSERT.that(keySet).hasContentsAnyOrder(0, 2);
+    ticker.advance(6, MILLISECONDS);
+    ASSERT.that(keySet).isEmpty();
+  }
+
+  public void testExpireAfter_longDurations() {
+    FakeTicker ticker = new FakeTicker();
+    CountingRemovalListener<Long, Long> removalListener = countingRemovalListener();
+    LoadingCache<Long, Long> cache = CacheBuilder.newBuilder()
+        .expireAfter(new Expiry<Long, Long>() {
+          @Override public long expireAfterCreate(Long key, Long value, long currentTime) {
+            return value;
+          }
+          @Override public long expireAfterUpdate(
+              Long key, Long value, long currentTime, long currentDuration) {
+            return value;
+          }
+          @Override public long expireAfterRead(
+              Long key, Long value, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .removalListener(removalListener)
+        .ticker(ticker)
+        .build(TestingCacheLoaders.<Long>identityLoader());
+    long[] durations = {
+      SECONDS.toNanos(30), MINUTES.toNanos(30), HOURS.toNanos(30), DAYS.toNanos(30),
+      DAYS.toNanos(3000)
+    };
+    for (long duration : durations) {
+      cache.getUnchecked(duration);
+    }
+
+    int expired = 0;
+    long elapsed = 0;
+    for (long duration : durations) {
+      ticker.advance(duration - elapsed - 1, NANOSECONDS);
+      cache.cleanUp();
+      assertEquals(expired, removalListener.getCount());
+      assertTrue(cache.asMap().containsKey(duration));
+
+      ticker.advance(1, NANOSECONDS);
+      assertFalse(cache.asMap().containsKey(duration));
+
+      // removal may lag expiration by up to a second
+      ticker.advance(2, SECONDS);
+      cache.cleanUp();
+      assertEquals(++expired, removalListener.getCount());
+      elapsed = duration + SECONDS.toNanos(2);
+    }
+    assertEquals(0, CacheTesting.expirationQueueSize(cache));
+  }
+
   private void runRemovalScheduler(LoadingCache<String, Integer> cache,
       CountingRemovalListener<String, Integer> removalListener,
       WatchedCreatorLoader loader,
@@ -446,6 +617,29 @@ public class CacheExpirationTest extends TestCase {
     }
   }
 
+  /** Expires entries a fixed duration after they were created or last updated. */
+  private static class ConstantExpiry implements Expiry<Object, Object> {
+    final long durationNanos;
+
+    ConstantExpiry(long durationNanos) {
+      this.durationNanos = durationNanos;
+    }
+
+    @Override public long expireAfterCreate(Object key, Object value, long currentTime) {
+      return durationNanos;
+    }
+
+    @Override public long expireAfterUpdate(
+        Object key, Object value, long currentTime, long currentDuration) {
+      return durationNanos;
+    }
+
+    @Override public long expireAfterRead(
+        Object key, Object value, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+
   private static class WatchedCreatorLoader extends CacheLoader<String, Integer> {
     boolean wasCalled = false; // must be set in load()
     String keyPrefix = KEY_PREFIX;
@@ -33,12 +33,15 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.testing.FakeTicker;
+import com.google.common.testing.GcFinalization;
 import com.google.common.testing.TestLogHandler;
 import com.google.common.util.concurrent.Callables;
 import com.google.common.util.concurrent.ExecutionError;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import junit.framework.TestCase;
 
@@ -50,6 +53,11 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceArray;
@@ -588,6 +596,118 @@ public class CacheLoadingTest extends TestCase {
     assertSame(extraValue, cache.asMap().get(extraKey));
   }
 
+  public void testBulkLoad_executor() throws Exception {
+    final int parallelism = 4;
+    final CountDownLatch allLoading = new CountDownLatch(parallelism);
+    final AtomicInteger loading = new AtomicInteger();
+    final AtomicInteger maxLoading = new AtomicInteger();
+    CacheLoader<Integer, Integer> loader = new CacheLoader<Integer, Integer>() {
+      @Override
+      public Integer load(Integer key) throws InterruptedException {
+        int current = loading.incrementAndGet();
+        int max;
+        while (current > (max = maxLoading.get()) && !maxLoading.compareAndSet(max, current)) {}
+        allLoading.countDown();
+        // the first loads only complete once they are all running at once
+        assertTrue(allLoading.await(10, TimeUnit.SECONDS));
+        loading.decrementAndGet();
+        return -key;
+      }
+    };
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+          .recordStats()
+          .bulkLoadExecutor(executor, parallelism)
+          .build(loader);
+      cache.put(0, 0);
+
+      List<Integer> keys = ImmutableList.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+      Map<Integer, Integer> result = cache.getAll(keys);
+      ASSERT.that(result.keySet()).hasContentsInOrder(keys.toArray(new Integer[0]));
+      for (int key : keys) {
+        assertEquals(Integer.valueOf(-key), result.get(key));
+      }
+      assertEquals(parallelism, maxLoading.get());
+
+      CacheStats stats = cache.stats();
+      assertEquals(1, stats.hitCount());
+      assertEquals(9, stats.missCount());
+      assertEquals(9, stats.loadSuccessCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testBulkLoad_executorFailure() {
+    final Exception e = new IOException();
+    CacheLoader<Integer, Integer> loader = new CacheLoader<Integer, Integer>() {
+      @Override
+      public Integer load(Integer key) throws Exception {
+        if (key == 3) {
+          throw e;
+        }
+        return key;
+      }
+    };
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .recordStats()
+        .bulkLoadExecutor(MoreExecutors.sameThreadExecutor(), 2)
+        .build(loader);
+
+    try {
+      cache.getAll(ImmutableList.of(0, 1, 2, 3, 4, 5));
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(e, expected.getCause());
+    }
+    // no further loads are started after one fails
+    assertEquals(ImmutableMap.of(0, 0, 1, 1, 2, 2), ImmutableMap.copyOf(cache.asMap()));
+    CacheStats stats = cache.stats();
+    assertEquals(6, stats.missCount());
+    assertEquals(3, stats.loadSuccessCount());
+    assertEquals(1, stats.loadExceptionCount());
+  }
+
+  public void testBulkLoad_fromExecutorThread() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final LoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+          .recordStats()
+          .bulkLoadExecutor(executor, 2)
+          .build(identityLoader());
+      // the task submitted by getAll cannot run until getAll returns, so must not be waited for
+      Future<Map<Object, Object>> result = executor.submit(new Callable<Map<Object, Object>>() {
+        @Override
+        public Map<Object, Object> call() throws ExecutionException {
+          return cache.getAll(ImmutableList.<Object>of(1, 2, 3));
+        }
+      });
+      assertEquals(ImmutableMap.of(1, 1, 2, 2, 3, 3), result.get(10, TimeUnit.SECONDS));
+      assertEquals(3, cache.stats().loadSuccessCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testBulkLoad_executorRejected() throws ExecutionException {
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+    LoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .recordStats()
+        .bulkLoadExecutor(executor, 3)
+        .build(identityLoader());
+
+    List<Object> keys = ImmutableList.<Object>of(1, 2, 3, 4);
+    assertEquals(ImmutableMap.of(1, 1, 2, 2, 3, 3, 4, 4), cache.getAll(keys));
+    assertTrue(popLoggedThrowable() instanceof RejectedExecutionException);
+    assertEquals(4, cache.stats().loadSuccessCount());
+  }
+
   public void testLoadNull() throws ExecutionException {
     LoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
         .recordStats()
@@ -647,6 +767,290 @@ public class CacheLoadingTest extends TestCase {
     assertEquals(0, stats.hitCount());
   }
 
+  /** Loads each non-negative key as itself, and finds no value for negative keys. */
+  static class NonNegativeLoader extends CacheLoader<Integer, Integer> {
+    int loadCount;
+
+    @Override
+    public Integer load(Integer key) {
+      loadCount++;
+      return (key >= 0) ? key : null;
+    }
+  }
+
+  public void testNegativeResults() throws ExecutionException {
+    FakeTicker ticker = new FakeTicker();
+    NonNegativeLoader loader = new NonNegativeLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .cacheNegativeResults(10, MILLISECONDS, 100)
+        .ticker(ticker)
+        .recordStats()
+        .build(loader);
+
+    for (int i = 0; i < 3; i++) {
+      try {
+        cache.get(-1);
+        fail();
+      } catch (InvalidCacheLoadException expected) {}
+    }
+    assertEquals(1, loader.loadCount);
+    CacheStats stats = cache.stats();
+    assertEquals(1, stats.missCount());
+    assertEquals(1, stats.loadExceptionCount());
+    assertEquals(2, stats.negativeHitCount());
+    assertEquals(0, stats.hitCount());
+    assertNull(cache.getIfPresent(-1));
+    assertEquals(0, cache.size());
+
+    // a loader other than the cache's is unaffected
+    assertEquals(Integer.valueOf(5), cache.get(-1, Callables.returning(5)));
+    cache.invalidate(-1);
+
+    // invalidation discards the negative result, as does expiration
+    try {
+      cache.getUnchecked(-1);
+      fail();
+    } catch (InvalidCacheLoadException expected) {}
+    assertEquals(2, loader.loadCount);
+    ticker.advance(11, MILLISECONDS);
+    try {
+      cache.getUnchecked(-1);
+      fail();
+    } catch (InvalidCacheLoadException expected) {}
+    assertEquals(3, loader.loadCount);
+
+    // a value put for the key replaces it
+    cache.put(-1, 7);
+    assertEquals(Integer.valueOf(7), cache.get(-1));
+    cache.invalidate(-1);
+    try {
+      cache.get(-1);
+      fail();
+    } catch (InvalidCacheLoadException expected) {}
+    assertEquals(4, loader.loadCount);
+
+    cache.invalidateAll();
+    try {
+      cache.get(-1);
+      fail();
+    } catch (InvalidCacheLoadException expected) {}
+    assertEquals(5, loader.loadCount);
+    assertEquals(Integer.valueOf(1), cache.get(1));
+    assertEquals(6, loader.loadCount);
+  }
+
+  public void testNegativeResults_withoutStats() {
+    NonNegativeLoader loader = new NonNegativeLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .cacheNegativeResults(1, TimeUnit.HOURS, 100)
+        .build(loader);
+    for (int i = 0; i < 3; i++) {
+      try {
+        cache.getUnchecked(-1);
+        fail();
+      } catch (InvalidCacheLoadException expected) {}
+    }
+    assertEquals(1, loader.loadCount);
+    assertEquals(CacheBuilder.EMPTY_STATS, cache.stats());
+  }
+
+  public void testNegativeResults_maximumSize() throws ExecutionException {
+    NonNegativeLoader loader = new NonNegativeLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .cacheNegativeResults(1, TimeUnit.HOURS, 1)
+        .build(loader);
+    for (int key : new int[] {-1, -2, -1}) {
+      try {
+        cache.get(key);
+        fail();
+      } catch (InvalidCacheLoadException expected) {}
+    }
+    // the negative result for -1 was evicted by that for -2
+    assertEquals(3, loader.loadCount);
+  }
+
+  public void testNegativeResults_bulkLoad() throws ExecutionException {
+    final List<Iterable<? extends Integer>> batches = Lists.newArrayList();
+    NonNegativeLoader loader = new NonNegativeLoader() {
+      @Override
+      public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+        batches.add(ImmutableList.copyOf(keys));
+        Map<Integer, Integer> result = Maps.newHashMap();
+        for (Integer key : keys) {
+          if (key >= 0) {
+            result.put(key, key);
+          }
+        }
+        return result;
+      }
+    };
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .cacheNegativeResults(1, TimeUnit.HOURS, 100)
+        .recordStats()
+        .build(loader);
+
+    try {
+      cache.getAll(asList(1, -1));
+      fail();
+    } catch (InvalidCacheLoadException expected) {}
+    assertEquals(1, batches.size());
+    assertEquals(Integer.valueOf(1), cache.getIfPresent(1));
+
+    // keys omitted by loadAll are remembered
+    try {
+      cache.getAll(asList(2, -1));
+      fail();
+    } catch (InvalidCacheLoadException expected) {}
+    try {
+      cache.get(-1);
+      fail();
+    } catch (InvalidCacheLoadException expected) {}
+    assertEquals(1, batches.size());
+    assertEquals(0, loader.loadCount);
+    assertEquals(2, cache.stats().negativeHitCount());
+    assertEquals(ImmutableMap.of(1, 1, 2, 2), cache.getAll(asList(1, 2)));
+  }
+
+  public void testThreadLocalCache() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    CountingLoader loader = new CountingLoader();
+    final LoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .recordStats()
+        .threadLocalCache(10, 1, MILLISECONDS)
+        .ticker(ticker)
+        .build(loader);
+    final Object key = new Object();
+
+    Object value = cache.get(key);
+    assertSame(value, cache.get(key));
+    assertSame(value, cache.getIfPresent(key));
+    assertEquals(1, cache.stats().requestCount());
+    assertEquals(1, loader.getCount());
+
+    // copies are discarded once the value is replaced or invalidated, even by another thread
+    final Object newValue = new Object();
+    runInOtherThread(new Runnable() {
+      @Override public void run() {
+        cache.put(key, newValue);
+      }
+    });
+    assertSame(newValue, cache.get(key));
+    assertSame(newValue, cache.getUnchecked(key));
+    assertEquals(2, cache.stats().requestCount());
+    runInOtherThread(new Runnable() {
+      @Override public void run() {
+        cache.invalidate(key);
+      }
+    });
+    assertNull(cache.getIfPresent(key));
+    value = cache.get(key);
+    assertEquals(2, loader.getCount());
+
+    // and after the staleness bound
+    ticker.advance(1, MILLISECONDS);
+    assertSame(value, cache.get(key));
+    assertSame(value, cache.get(key));
+    assertEquals(5, cache.stats().requestCount());
+  }
+
+  public void testThreadLocalCache_discardedCacheIsCollected() {
+    // the current thread keeps its copies, but they must not keep the cache reachable
+    GcFinalization.awaitClear(readThroughThreadLocalCache());
+  }
+
+  public void testThreadLocalCache_readDuringReplace() throws Exception {
+    final Object key = new Object();
+    final Object oldValue = new Object();
+    final Object newValue = new Object();
+    final CountDownLatch weighing = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    // the new value is weighed after the old one has been superseded, but before it is replaced
+    final LoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .threadLocalCache(10, 1, TimeUnit.MINUTES)
+        .maximumWeight(1000)
+        .weigher(new Weigher<Object, Object>() {
+          @Override
+          public int weigh(Object k, Object value) {
+            if (value == newValue) {
+              weighing.countDown();
+              Uninterruptibles.awaitUninterruptibly(proceed);
+            }
+            return 1;
+          }
+        })
+        .build(identityLoader());
+    cache.put(key, oldValue);
+
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        cache.put(key, newValue);
+      }
+    };
+    writer.start();
+    weighing.await();
+    assertSame(oldValue, cache.getIfPresent(key));
+    proceed.countDown();
+    writer.join();
+
+    // the copy read during the write must not outlive it
+    assertSame(newValue, cache.getIfPresent(key));
+    assertSame(newValue, cache.getUnchecked(key));
+  }
+
+  private static WeakReference<LocalCache<Object, Object>> readThroughThreadLocalCache() {
+    LoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .threadLocalCache(10, 1, TimeUnit.MINUTES)
+        .build(identityLoader());
+    Object key = new Object();
+    cache.getUnchecked(key);
+    assertSame(key, cache.getIfPresent(key));
+    return new WeakReference<LocalCache<Object, Object>>(CacheTesting.toLocalCache(cache));
+  }
+
+  public void testHotKeyStats() throws ExecutionException {
+    CacheLoader<Integer, Integer> loader = new CacheLoader<Integer, Integer>() {
+      @Override
+      public Integer load(Integer key) throws InterruptedException {
+        if (key == 0) {
+          Thread.sleep(10);
+        }
+        return key;
+      }
+    };
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .trackHotKeys(2, 1)
+        .build(loader);
+    for (int key = 0; key < 10; key++) {
+      cache.get(key);
+    }
+    for (int i = 0; i < 100; i++) {
+      cache.get(7);
+      if (i % 2 == 0) {
+        cache.getIfPresent(3);
+      }
+    }
+    cache.cleanUp();
+
+    HotKeyStats<Integer> stats = cache.hotKeyStats();
+    assertEquals(ImmutableList.of(Maps.immutableEntry(7, 100L), Maps.immutableEntry(3, 50L)),
+        stats.byReadCount());
+    assertEquals(2, stats.byLoadTime().size());
+    assertEquals(0, stats.byLoadTime().get(0).getKey().intValue());
+    assertTrue(stats.byLoadTime().get(0).getValue() >= TimeUnit.MILLISECONDS.toNanos(10));
+
+    assertEquals(ImmutableList.of(),
+        CacheBuilder.newBuilder().build(identityLoader()).hotKeyStats().byReadCount());
+  }
+
+  static void runInOtherThread(Runnable runnable) throws InterruptedException {
+    Thread thread = new Thread(runnable);
+    thread.start();
+    thread.join();
+  }
+
   public void testReloadNull() throws ExecutionException {
     final Object one = new Object();
     CacheLoader<Object, Object> loader = new CacheLoader<Object, Object>() {
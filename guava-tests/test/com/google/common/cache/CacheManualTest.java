@@ -14,10 +14,17 @@
 
 package com.google.common.cache;
 
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+import static com.google.common.cache.TestingWeighers.intValueWeigher;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.common.base.Function;
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.testing.FakeTicker;
 
 import junit.framework.TestCase;
 
@@ -152,4 +159,216 @@ public class CacheManualTest extends TestCase {
     assertEquals(6, stats.hitCount());
   }
 
+  /** Tags each entry with the parity of its key, and with its value if it is negative. */
+  static final Tagger<Integer, Integer> PARITY_TAGGER = new Tagger<Integer, Integer>() {
+    @Override
+    public Iterable<?> tags(Integer key, Integer value) {
+      String parity = (key % 2 == 0) ? "even" : "odd";
+      return (value < 0) ? ImmutableList.of(parity, value) : ImmutableList.of(parity);
+    }
+  };
+
+  public void testInvalidateTag() {
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .tagger(PARITY_TAGGER)
+        .removalListener(listener)
+        .build();
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, i);
+    }
+
+    cache.invalidateTag("odd");
+    assertEquals(ImmutableSet.of(0, 2, 4, 6, 8), cache.asMap().keySet());
+    assertEquals(5, listener.size());
+    for (RemovalNotification<Integer, Integer> notification : listener) {
+      assertEquals(1, notification.getKey() % 2);
+      assertEquals(RemovalCause.EXPLICIT, notification.getCause());
+    }
+
+    // entries are retagged when their values change
+    cache.put(2, -1);
+    cache.put(4, -1);
+    cache.invalidateTag(-1);
+    assertEquals(ImmutableSet.of(0, 6, 8), cache.asMap().keySet());
+    cache.put(6, -1);
+    cache.put(6, 6);
+    cache.invalidateTag(-1);
+    assertEquals(ImmutableSet.of(0, 6, 8), cache.asMap().keySet());
+
+    // unknown tags are ignored, and removed entries are unindexed
+    cache.invalidateTag("none");
+    cache.invalidate(0);
+    cache.invalidateAll();
+    cache.put(1, 1);
+    cache.invalidateTag("even");
+    assertEquals(ImmutableSet.of(1), cache.asMap().keySet());
+  }
+
+  static final Function<Integer, Integer> INCREMENT = new Function<Integer, Integer>() {
+    @Override
+    public Integer apply(Integer value) {
+      return value + 1;
+    }
+  };
+
+  static final Function<Object, Integer> DISCARD = new Function<Object, Integer>() {
+    @Override
+    public Integer apply(Object value) {
+      return null;
+    }
+  };
+
+  public void testComputeIfAbsent() {
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder().removalListener(listener).build();
+    Function<Integer, Integer> negate = new Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer key) {
+        return -key;
+      }
+    };
+
+    assertEquals(-1, cache.computeIfAbsent(1, negate).intValue());
+    assertEquals(-1, cache.getIfPresent(1).intValue());
+    cache.put(2, 2);
+    assertEquals(2, cache.computeIfAbsent(2, negate).intValue());
+    assertEquals(2, cache.getIfPresent(2).intValue());
+
+    assertNull(cache.computeIfAbsent(3, DISCARD));
+    assertFalse(cache.asMap().containsKey(3));
+    assertEquals(2, cache.size());
+    assertTrue(listener.isEmpty());
+  }
+
+  public void testComputeIfPresent() {
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder().removalListener(listener).build();
+
+    assertNull(cache.computeIfPresent(1, INCREMENT));
+    assertFalse(cache.asMap().containsKey(1));
+
+    cache.put(1, 1);
+    assertEquals(2, cache.computeIfPresent(1, INCREMENT).intValue());
+    assertEquals(2, cache.getIfPresent(1).intValue());
+    RemovalNotification<Integer, Integer> notification = listener.remove();
+    assertEquals(1, notification.getValue().intValue());
+    assertEquals(RemovalCause.REPLACED, notification.getCause());
+
+    assertNull(cache.computeIfPresent(1, DISCARD));
+    assertEquals(0, cache.size());
+    notification = listener.remove();
+    assertEquals(2, notification.getValue().intValue());
+    assertEquals(RemovalCause.EXPLICIT, notification.getCause());
+  }
+
+  public void testMerge() {
+    Cache<String, Integer> cache = CacheBuilder.newBuilder().build();
+    for (String word : asList("a", "b", "a", "c", "a", "b")) {
+      cache.merge(word, 1, INCREMENT);
+    }
+    assertEquals(ImmutableMap.of("a", 3, "b", 2, "c", 1), ImmutableMap.copyOf(cache.asMap()));
+
+    assertNull(cache.merge("a", 1, DISCARD));
+    assertEquals(ImmutableSet.of("b", "c"), cache.asMap().keySet());
+  }
+
+  public void testMerge_concurrent() throws InterruptedException {
+    final Cache<Integer, Integer> cache = CacheBuilder.newBuilder().concurrencyLevel(1).build();
+    final int increments = 1000;
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < increments; j++) {
+            cache.merge(0, 1, INCREMENT);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(threads.length * increments, cache.getIfPresent(0).intValue());
+  }
+
+  public void testCompute_weight() {
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(10)
+        .weigher(intValueWeigher())
+        .removalListener(listener)
+        .build();
+    cache.put(1, 4);
+    cache.put(2, 4);
+
+    // growing a value reweighs it, evicting the other entry
+    assertEquals(5, cache.computeIfPresent(1, INCREMENT).intValue());
+    assertEquals(5, cache.merge(2, 1, INCREMENT).intValue());
+    assertEquals(2, listener.size());
+    cache.merge(2, 1, INCREMENT);
+    assertEquals(ImmutableSet.of(2), cache.asMap().keySet());
+    assertEquals(RemovalCause.REPLACED, listener.remove().getCause());
+    assertEquals(RemovalCause.REPLACED, listener.remove().getCause());
+    assertEquals(RemovalCause.REPLACED, listener.remove().getCause());
+    assertEquals(RemovalCause.SIZE, listener.remove().getCause());
+  }
+
+  public void testCompute_expiration() {
+    FakeTicker ticker = new FakeTicker();
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(10, MILLISECONDS)
+        .ticker(ticker)
+        .removalListener(listener)
+        .build();
+    cache.put(1, 1);
+
+    // remapping a value counts as writing it
+    ticker.advance(6, MILLISECONDS);
+    cache.computeIfPresent(1, INCREMENT);
+    ticker.advance(6, MILLISECONDS);
+    assertEquals(2, cache.getIfPresent(1).intValue());
+
+    // an expired value is absent
+    ticker.advance(20, MILLISECONDS);
+    assertNull(cache.computeIfPresent(1, INCREMENT));
+    assertEquals(1, cache.merge(1, 1, INCREMENT).intValue());
+    assertEquals(RemovalCause.REPLACED, listener.remove().getCause());
+    assertEquals(RemovalCause.EXPIRED, listener.remove().getCause());
+    assertTrue(listener.isEmpty());
+  }
+
+  public void testCompute_exception() {
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder().removalListener(listener).build();
+    cache.put(1, 1);
+    Function<Integer, Integer> failing = new Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer value) {
+        throw new IllegalStateException();
+      }
+    };
+
+    try {
+      cache.computeIfPresent(1, failing);
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      cache.computeIfAbsent(2, failing);
+      fail();
+    } catch (IllegalStateException expected) {}
+    assertEquals(ImmutableMap.of(1, 1), ImmutableMap.copyOf(cache.asMap()));
+    assertTrue(listener.isEmpty());
+  }
+
+  public void testInvalidateTag_untagged() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder().build();
+    cache.put(1, 1);
+    cache.invalidateTag("odd");
+    assertEquals(1, cache.size());
+  }
 }
@@ -18,10 +18,21 @@ import static com.google.common.cache.TestingCacheLoaders.incrementingLoader;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.common.cache.TestingCacheLoaders.IncrementingLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import junit.framework.TestCase;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tests relating to automatic cache refreshing.
  *
@@ -97,4 +108,236 @@ public class CacheRefreshTest extends TestCase {
     assertEquals(expectedLoads, loader.getLoadCount());
     assertEquals(expectedReloads, loader.getReloadCount());
   }
+
+  public void testBatchedRefresh() {
+    FakeTicker ticker = new FakeTicker();
+    BulkReloadingLoader loader = new BulkReloadingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(10, MILLISECONDS)
+        .batchRefreshes(2, MILLISECONDS)
+        .ticker(ticker)
+        .build(loader);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Integer.valueOf(i), cache.getUnchecked(i));
+    }
+    ticker.advance(11, MILLISECONDS);
+
+    // due refreshes are collected, and the old values are returned meanwhile
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Integer.valueOf(i), cache.getUnchecked(i));
+      ticker.advance(100, TimeUnit.MICROSECONDS);
+    }
+    assertTrue(loader.batches.isEmpty());
+
+    // once the window has elapsed, they are reloaded together
+    ticker.advance(2, MILLISECONDS);
+    assertEquals(Integer.valueOf(0), cache.getUnchecked(0));
+    assertEquals(ImmutableList.of(ImmutableSet.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)),
+        loader.batches);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Integer.valueOf(i + 100), cache.getUnchecked(i));
+    }
+    assertEquals(1, loader.batches.size());
+    assertEquals(10, loader.loadCount);
+  }
+
+  public void testBatchedRefresh_missingAndFailedKeys() {
+    FakeTicker ticker = new FakeTicker();
+    BulkReloadingLoader loader = new BulkReloadingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(10, MILLISECONDS)
+        .batchRefreshes(1, MILLISECONDS)
+        .ticker(ticker)
+        .build(loader);
+    cache.getUnchecked(-1);
+    cache.getUnchecked(1);
+    ticker.advance(11, MILLISECONDS);
+
+    // negative keys are omitted by loadAll, and keep their old values
+    cache.getUnchecked(-1);
+    cache.getUnchecked(1);
+    ticker.advance(1, MILLISECONDS);
+    cache.cleanUp();
+    assertEquals(1, loader.batches.size());
+    assertEquals(Integer.valueOf(-1), cache.getUnchecked(-1));
+    assertEquals(Integer.valueOf(101), cache.getUnchecked(1));
+
+    // a failed loadAll keeps all of the old values
+    loader.fail = true;
+    ticker.advance(11, MILLISECONDS);
+    cache.getUnchecked(-1);
+    cache.getUnchecked(1);
+    ticker.advance(1, MILLISECONDS);
+    cache.cleanUp();
+    assertTrue(loader.batches.size() > 1);
+    assertEquals(Integer.valueOf(-1), cache.getUnchecked(-1));
+    assertEquals(Integer.valueOf(101), cache.getUnchecked(1));
+    assertEquals(2, cache.size());
+  }
+
+  public void testBatchedRefresh_fallsBackToReload() {
+    FakeTicker ticker = new FakeTicker();
+    IncrementingLoader loader = incrementingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(10, MILLISECONDS)
+        .batchRefreshes(1, MILLISECONDS)
+        .ticker(ticker)
+        .build(loader);
+    for (int i = 0; i < 3; i++) {
+      cache.getUnchecked(i);
+    }
+    ticker.advance(11, MILLISECONDS);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Integer.valueOf(i), cache.getUnchecked(i));
+    }
+    assertEquals(0, loader.getReloadCount());
+
+    ticker.advance(1, MILLISECONDS);
+    cache.cleanUp();
+    assertEquals(3, loader.getReloadCount());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Integer.valueOf(i + 1), cache.getUnchecked(i));
+    }
+  }
+
+  public void testRefreshAhead() {
+    FakeTicker ticker = new FakeTicker();
+    FutureReloadingLoader loader = new FutureReloadingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(10, MILLISECONDS)
+        .refreshAhead(0.0, 2)
+        .ticker(ticker)
+        .build(loader);
+    for (int i = 0; i < 5; i++) {
+      cache.getUnchecked(i);
+    }
+    ticker.advance(11, MILLISECONDS);
+
+    // maintenance refreshes due entries without their being read, up to the limit
+    cache.cleanUp();
+    assertEquals(2, loader.reloads.size());
+    // reads of due entries can't exceed the limit either, and see the old values meanwhile
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Integer.valueOf(i), cache.getUnchecked(i));
+    }
+    assertEquals(2, loader.reloads.size());
+
+    // completing a refresh stores its value and lets another start
+    int first = loader.keys.get(0);
+    loader.reloads.get(0).set(first + 100);
+    assertEquals(Integer.valueOf(first + 100), cache.getUnchecked(first));
+    cache.cleanUp();
+    assertEquals(3, loader.reloads.size());
+
+    for (int i = 1; i < 5; i++) {
+      loader.reloads.get(i).set(loader.keys.get(i) + 100);
+      cache.cleanUp();
+    }
+    assertEquals(5, loader.reloads.size());
+    assertEquals(ImmutableSet.of(0, 1, 2, 3, 4), ImmutableSet.copyOf(loader.keys));
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Integer.valueOf(i + 100), cache.getUnchecked(i));
+    }
+    cache.cleanUp();
+    assertEquals(5, loader.reloads.size());
+  }
+
+  public void testRefreshAhead_failedReload() {
+    FakeTicker ticker = new FakeTicker();
+    FutureReloadingLoader loader = new FutureReloadingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(10, MILLISECONDS)
+        .refreshAhead(0.0, 1)
+        .ticker(ticker)
+        .build(loader);
+    cache.getUnchecked(0);
+    ticker.advance(11, MILLISECONDS);
+    cache.cleanUp();
+    assertEquals(1, loader.reloads.size());
+
+    // a failed refresh keeps the old value, and releases its permit
+    loader.reloads.get(0).setException(new IllegalStateException());
+    assertEquals(Integer.valueOf(0), cache.getIfPresent(0));
+    cache.cleanUp();
+    assertEquals(2, loader.reloads.size());
+  }
+
+  public void testRefreshAhead_jitter() {
+    FakeTicker ticker = new FakeTicker();
+    IncrementingLoader loader = incrementingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(1000, TimeUnit.NANOSECONDS)
+        .refreshAhead(0.5, 1000)
+        .ticker(ticker)
+        .build(loader);
+    for (int i = 0; i < 100; i++) {
+      cache.getUnchecked(i);
+    }
+
+    // entries loaded together become due over the last half of the refresh interval
+    ticker.advance(500, TimeUnit.NANOSECONDS);
+    cache.cleanUp();
+    assertEquals(0, loader.getReloadCount());
+    ticker.advance(250, TimeUnit.NANOSECONDS);
+    cache.cleanUp();
+    int reloaded = loader.getReloadCount();
+    assertTrue(reloaded > 0);
+    assertTrue(reloaded < 100);
+
+    ticker.advance(251, TimeUnit.NANOSECONDS);
+    for (int i = 0; i < 10; i++) {
+      cache.cleanUp();
+    }
+    assertEquals(100, loader.getReloadCount());
+  }
+
+  /** Loads each key as itself, and reloads keys with futures which the test completes. */
+  static final class FutureReloadingLoader extends CacheLoader<Integer, Integer> {
+    final List<Integer> keys = Lists.newArrayList();
+    final List<SettableFuture<Integer>> reloads = Lists.newArrayList();
+
+    @Override
+    public Integer load(Integer key) {
+      return key;
+    }
+
+    @Override
+    public ListenableFuture<Integer> reload(Integer key, Integer oldValue) {
+      SettableFuture<Integer> future = SettableFuture.create();
+      keys.add(key);
+      reloads.add(future);
+      return future;
+    }
+  }
+
+  /**
+   * Loads each key as itself, and bulk loads each non-negative key as itself plus 100, recording
+   * the keys of each bulk load.
+   */
+  static final class BulkReloadingLoader extends CacheLoader<Integer, Integer> {
+    final List<Set<Integer>> batches = Lists.newArrayList();
+    int loadCount;
+    boolean fail;
+
+    @Override
+    public Integer load(Integer key) {
+      loadCount++;
+      return key;
+    }
+
+    @Override
+    public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+      batches.add(ImmutableSet.copyOf(keys));
+      if (fail) {
+        throw new IllegalStateException();
+      }
+      Map<Integer, Integer> result = Maps.newHashMap();
+      for (Integer key : keys) {
+        if (key >= 0) {
+          result.put(key, key + 100);
+        }
+      }
+      return result;
+    }
+  }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingCacheLoaders.identityLoader;
+
+import com.google.common.cache.TestingCacheLoaders.IdentityLoader;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.testing.GcFinalization;
+
+import junit.framework.TestCase;
+
+import java.lang.ref.WeakReference;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+/**
+ * Unit tests for {@link CacheRegistry}.
+ */
+public class CacheRegistryTest extends TestCase {
+
+  public void testSnapshot() {
+    CacheRegistry registry = CacheRegistry.create();
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .name("numbers")
+        .registry(registry)
+        .recordStats()
+        .maximumWeight(1000)
+        .weigher(new Weigher<Integer, Integer>() {
+          @Override
+          public int weigh(Integer key, Integer value) {
+            return value;
+          }
+        })
+        .build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    cache.getUnchecked(2);
+
+    ImmutableSortedMap<String, CacheMetrics> snapshot = registry.snapshot();
+    assertEquals(1, snapshot.size());
+    CacheMetrics metrics = snapshot.get("numbers");
+    assertEquals("numbers", metrics.name());
+    assertEquals(2, metrics.size());
+    assertEquals(3, metrics.weightedSize());
+    assertEquals(cache.stats(), metrics.stats());
+    assertEquals(1, metrics.stats().hitCount());
+    assertEquals(2, metrics.stats().missCount());
+  }
+
+  public void testRegister_duplicateName() {
+    CacheRegistry registry = CacheRegistry.create();
+    CacheBuilder<Object, Object> builder =
+        CacheBuilder.newBuilder().name("a").registry(registry).recordStats();
+    Cache<Object, Object> cache = builder.build();
+    cache.getIfPresent("key");
+
+    // the new cache replaces the old one, which is still in use
+    Cache<Object, Object> replacement = builder.build();
+    assertEquals(1, cache.stats().missCount());
+    assertEquals(replacement.stats(), registry.snapshot().get("a").stats());
+
+    assertTrue(registry.unregister("a"));
+    assertFalse(registry.unregister("a"));
+    assertTrue(registry.snapshot().isEmpty());
+  }
+
+  public void testRegister_holdsCachesWeakly() {
+    CacheRegistry registry = CacheRegistry.create();
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().name("a").registry(registry);
+    WeakReference<Cache<Object, Object>> cache =
+        new WeakReference<Cache<Object, Object>>(builder.build());
+    GcFinalization.awaitClear(cache);
+
+    assertTrue(registry.snapshot().isEmpty());
+    builder.build();
+    assertEquals(1, registry.snapshot().size());
+  }
+
+  public void testMBean() throws Exception {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    CacheRegistry registry = CacheRegistry.create(server);
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .name("a \"quoted\" name")
+        .registry(registry)
+        .recordStats()
+        .maximumSize(1)
+        .build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+
+    ObjectName name = CacheRegistry.objectName("a \"quoted\" name");
+    assertEquals(CacheRegistry.DOMAIN, name.getDomain());
+    assertEquals("a \"quoted\" name", server.getAttribute(name, "Name"));
+    assertEquals(1L, server.getAttribute(name, "Size"));
+    assertEquals(1L, server.getAttribute(name, "HitCount"));
+    assertEquals(2L, server.getAttribute(name, "MissCount"));
+    assertEquals(1L, server.getAttribute(name, "SizeEvictionCount"));
+
+    registry.unregister("a \"quoted\" name");
+    assertFalse(server.isRegistered(name));
+  }
+
+  public void testMBean_replaced() throws Exception {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    CacheRegistry registry = CacheRegistry.create(server);
+    CacheBuilder<Object, Object> builder =
+        CacheBuilder.newBuilder().name("a").registry(registry).recordStats();
+    Cache<Object, Object> cache = builder.build();
+    cache.getIfPresent("key");
+
+    ObjectName name = CacheRegistry.objectName("a");
+    assertEquals(1L, server.getAttribute(name, "MissCount"));
+    Cache<Object, Object> replacement = builder.build();
+    assertEquals(0L, server.getAttribute(name, "MissCount"));
+    replacement.getIfPresent("key");
+    replacement.getIfPresent("key");
+    assertEquals(2L, server.getAttribute(name, "MissCount"));
+    assertEquals(1, cache.stats().missCount());
+  }
+}
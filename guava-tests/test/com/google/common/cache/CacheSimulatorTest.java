@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheSimulator.Policy;
+import com.google.common.cache.CacheSimulator.PolicyFactory;
+import com.google.common.cache.CacheSimulator.Result;
+import com.google.common.cache.CacheSimulator.StandardPolicy;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.primitives.Longs;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link CacheSimulator}.
+ */
+public class CacheSimulatorTest extends TestCase {
+
+  public void testSingleSegmentMatchesLru() {
+    long[] trace = CacheSimulator.zipfTrace(1000, 0.9, 20000, 1);
+    List<Result> results = CacheSimulator.simulate(trace,
+        ImmutableList.of(StandardPolicy.LRU, StandardPolicy.LOCAL_CACHE_SINGLE_SEGMENT),
+        ImmutableList.of(50, 200));
+    assertEquals(4, results.size());
+    for (int i = 0; i < 2; i++) {
+      Result lru = results.get(i);
+      Result cache = results.get(i + 2);
+      assertEquals(lru.maximumSize, cache.maximumSize);
+      assertEquals(lru.hitCount, cache.hitCount);
+      assertEquals(lru.evictionCount, cache.evictionCount);
+      assertEquals(trace.length, cache.hitCount + cache.missCount);
+    }
+    // a larger cache hits more often
+    assertTrue(results.get(1).hitRate() > results.get(0).hitRate());
+  }
+
+  public void testScanDefeatsLru() {
+    long[] trace = CacheSimulator.scanTrace(100, 1000);
+    Result result = CacheSimulator.simulate(
+        trace, ImmutableList.of(StandardPolicy.LRU), ImmutableList.of(99)).get(0);
+    assertEquals(0, result.hitCount);
+    assertEquals(1000 - 99, result.evictionCount);
+  }
+
+  public void testParseTrace_synthetic() throws IOException {
+    assertEquals(500, CacheSimulator.parseTrace("zipf:100:1.0:500").length);
+    assertTrue(Arrays.equals(new long[] {0, 1, 2, 0, 1},
+        CacheSimulator.parseTrace("scan:3:5")));
+    try {
+      CacheSimulator.parseTrace("zipf:100");
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testReadTrace() throws IOException {
+    File directory = Files.createTempDir();
+    try {
+      File text = new File(directory, "trace.txt");
+      Files.write("# keys\n3\n\n-1\n 3\n", text, Charsets.UTF_8);
+      assertTrue(Arrays.equals(new long[] {3, -1, 3}, CacheSimulator.readTrace(text)));
+
+      File binary = new File(directory, "trace.bin");
+      Files.write(Longs.toByteArray(Long.MAX_VALUE), binary);
+      assertTrue(Arrays.equals(new long[] {Long.MAX_VALUE}, CacheSimulator.readTrace(binary)));
+    } finally {
+      for (File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  public void testParsePolicy() throws Exception {
+    assertSame(StandardPolicy.FIFO, CacheSimulator.parsePolicy("fifo"));
+    PolicyFactory factory = CacheSimulator.parsePolicy(AlwaysMiss.class.getName());
+    assertTrue(factory instanceof AlwaysMiss);
+    assertFalse(factory.create(1).access(0));
+  }
+
+  public static class AlwaysMiss implements PolicyFactory, Policy {
+    @Override public Policy create(int maximumSize) {
+      return this;
+    }
+
+    @Override public boolean access(long key) {
+      return false;
+    }
+
+    @Override public long evictionCount() {
+      return 0;
+    }
+  }
+}
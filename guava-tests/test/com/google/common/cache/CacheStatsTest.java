@@ -98,4 +98,34 @@ public class CacheStatsTest extends TestCase {
 
     assertEquals(sum, one.plus(two));
   }
+
+  public void testExtras() {
+    long[] evictions = new long[RemovalCause.values().length];
+    evictions[RemovalCause.SIZE.ordinal()] = 5;
+    evictions[RemovalCause.EXPIRED.ordinal()] = 3;
+    LatencyDistribution latency = new LatencyDistribution(new long[] {0, 2, 0, 1});
+    CacheStats one = new CacheStats(0, 0, 3, 0, 5, 8, latency, evictions, 7, 11, 13);
+    assertEquals(5, one.evictionCount(RemovalCause.SIZE));
+    assertEquals(3, one.evictionCount(RemovalCause.EXPIRED));
+    assertEquals(0, one.evictionCount(RemovalCause.EXPLICIT));
+    assertEquals(latency, one.loadLatency());
+    assertEquals(7, one.lockContentionCount());
+    assertEquals(11, one.totalLockWaitTime());
+    assertEquals(13, one.negativeHitCount());
+
+    // the constructor copies the counts
+    evictions[RemovalCause.SIZE.ordinal()] = 0;
+    assertEquals(5, one.evictionCount(RemovalCause.SIZE));
+
+    CacheStats sum = one.plus(one);
+    assertEquals(10, sum.evictionCount(RemovalCause.SIZE));
+    assertEquals(6, sum.loadLatency().count());
+    assertEquals(14, sum.lockContentionCount());
+    assertEquals(22, sum.totalLockWaitTime());
+    assertEquals(26, sum.negativeHitCount());
+
+    assertEquals(one, sum.minus(one));
+    assertEquals(new CacheStats(0, 0, 0, 0, 0, 0), one.minus(sum));
+    assertFalse(one.equals(new CacheStats(0, 0, 3, 0, 5, 8)));
+  }
 }
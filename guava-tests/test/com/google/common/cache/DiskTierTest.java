@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.OffHeapTierTest.INTEGER_CODEC;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.cache.TestingCacheLoaders.IncrementingLoader;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Tests for {@link DiskTier}, and for caches built with {@link CacheBuilder#diskTier}.
+ */
+public class DiskTierTest extends TestCase {
+
+  // records of two integers take 16 bytes, so slabs of 52 bytes hold two records
+  private static final int SLAB_SIZE = DiskTier.HEADER_SIZE + 32;
+
+  private File directory;
+
+  @Override protected void setUp() throws Exception {
+    super.setUp();
+    directory = Files.createTempDir();
+  }
+
+  @Override protected void tearDown() throws Exception {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+    super.tearDown();
+  }
+
+  public void testPutAndPromote_keepsCopy() throws IOException {
+    DiskTier<Integer, Integer> tier = newTier(4);
+    tier.put(1, 10);
+    tier.put(2, 20);
+    assertEquals(2, tier.size());
+
+    Map.Entry<Integer, Integer> entry = tier.promote(1);
+    assertEquals(Integer.valueOf(1), entry.getKey());
+    assertEquals(Integer.valueOf(10), entry.getValue());
+    assertTrue(tier.contains(1));
+    assertNull(tier.promote(3));
+
+    // the copy is current, so evicting the key again does not append a record
+    int position = tier.position;
+    tier.put(1, 10);
+    assertEquals(position, tier.position);
+  }
+
+  public void testInvalidate() throws IOException {
+    DiskTier<Integer, Integer> tier = newTier(4);
+    tier.put(1, 10);
+    tier.invalidate(1);
+    assertFalse(tier.contains(1));
+    assertNull(tier.promote(1));
+
+    tier.put(1, 11);
+    assertEquals(Integer.valueOf(11), tier.promote(1).getValue());
+  }
+
+  public void testReopen_recoversRecords() throws IOException {
+    DiskTier<Integer, Integer> tier = newTier(4);
+    tier.put(1, 10);
+    tier.put(2, 20);
+    tier.put(3, 30);
+    tier.invalidate(2);
+    tier.invalidate(3);
+    tier.put(3, 31);
+
+    DiskTier<Integer, Integer> reopened = newTier(4);
+    assertEquals(2, reopened.size());
+    assertEquals(Integer.valueOf(10), reopened.promote(1).getValue());
+    assertNull(reopened.promote(2));
+    assertEquals(Integer.valueOf(31), reopened.promote(3).getValue());
+
+    // appends continue after the recovered records
+    reopened.put(4, 40);
+    assertEquals(Integer.valueOf(40), newTier(4).promote(4).getValue());
+  }
+
+  public void testReopen_afterWrapping() throws IOException {
+    DiskTier<Integer, Integer> tier = newTier(2);
+    for (int i = 0; i < 5; i++) {
+      tier.put(i, i);
+    }
+    // the first slab was reclaimed for the fifth record
+    assertFalse(tier.contains(0));
+    assertFalse(tier.contains(1));
+
+    DiskTier<Integer, Integer> reopened = newTier(2);
+    assertEquals(3, reopened.size());
+    for (int i = 2; i < 5; i++) {
+      assertEquals(Integer.valueOf(i), reopened.promote(i).getValue());
+    }
+
+    // the next slab to be reclaimed is the oldest one
+    reopened.put(5, 5);
+    reopened.put(6, 6);
+    assertFalse(reopened.contains(2));
+    assertFalse(reopened.contains(3));
+    assertTrue(reopened.contains(4));
+  }
+
+  public void testReopen_ignoresUnpublishedRecord() throws IOException {
+    DiskTier<Integer, Integer> tier = newTier(4);
+    tier.put(1, 10);
+    tier.put(2, 20);
+    // as though the process stopped before the second record was published
+    tier.slabs[tier.currentSlab].putInt(DiskTier.LIMIT_OFFSET, tier.position - 16);
+
+    DiskTier<Integer, Integer> reopened = newTier(4);
+    assertTrue(reopened.contains(1));
+    assertFalse(reopened.contains(2));
+  }
+
+  public void testReopen_differentMaximumDiscardsFiles() throws IOException {
+    DiskTier<Integer, Integer> tier = newTier(4);
+    tier.put(1, 10);
+
+    assertEquals(0, newTier(2).size());
+    assertEquals(0, newTier(4).size());
+  }
+
+  public void testClear() throws IOException {
+    DiskTier<Integer, Integer> tier = newTier(4);
+    tier.put(1, 10);
+    tier.clear();
+    assertEquals(0, tier.size());
+    assertEquals(0, newTier(4).size());
+  }
+
+  public void testCache_warmRestart() {
+    IncrementingLoader loader = TestingCacheLoaders.incrementingLoader();
+    LoadingCache<Integer, Integer> cache = newCache(loader);
+    for (int i = 0; i < 10; i++) {
+      cache.getUnchecked(i);
+    }
+    assertEquals(10, loader.getLoadCount());
+
+    // a new cache over the same directory recovers the evicted entries
+    LoadingCache<Integer, Integer> restarted = newCache(loader);
+    for (int i = 0; i < 8; i++) {
+      assertEquals(Integer.valueOf(i), restarted.getUnchecked(i));
+    }
+    assertEquals(10, loader.getLoadCount());
+    CacheTesting.checkValidState(restarted);
+  }
+
+  public void testCache_warmRestartThroughBulkReads() throws Exception {
+    IncrementingLoader loader = TestingCacheLoaders.incrementingLoader();
+    LoadingCache<Integer, Integer> cache = newCache(loader);
+    for (int i = 0; i < 4; i++) {
+      cache.getUnchecked(i);
+    }
+    assertEquals(4, loader.getLoadCount());
+
+    LoadingCache<Integer, Integer> restarted = newCache(loader);
+    assertEquals(ImmutableMap.of(0, 0), restarted.getAllPresent(asList(0, 4)));
+    assertEquals(ImmutableMap.of(1, 1, 5, 5), restarted.getAll(asList(1, 5)));
+    // only the key which was never cached is loaded
+    assertEquals(5, loader.getLoadCount());
+    CacheTesting.checkValidState(restarted);
+  }
+
+  public void testCache_notWithExpireAfterAccessOrRefresh() {
+    CacheBuilder<Integer, Integer> builder = CacheBuilder.newBuilder()
+        .maximumSize(2)
+        .expireAfterAccess(1, MINUTES)
+        .diskTier(directory, 1 << 16, INTEGER_CODEC, INTEGER_CODEC);
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+
+    // restored entries would be refreshed no sooner than if they had just been loaded
+    builder = CacheBuilder.newBuilder()
+        .maximumSize(2)
+        .refreshAfterWrite(1, MINUTES)
+        .diskTier(directory, 1 << 16, INTEGER_CODEC, INTEGER_CODEC);
+    try {
+      builder.build(TestingCacheLoaders.incrementingLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testCache_promotedEntryStaysRecoverable() {
+    IncrementingLoader loader = TestingCacheLoaders.incrementingLoader();
+    LoadingCache<Integer, Integer> cache = newCache(loader);
+    for (int i = 0; i < 3; i++) {
+      cache.getUnchecked(i);
+    }
+    // 0 and 1 are restored from the tier in turn, evicting 1 and then 2
+    assertEquals(Integer.valueOf(0), cache.getUnchecked(0));
+    assertEquals(Integer.valueOf(1), cache.getUnchecked(1));
+    assertEquals(3, loader.getLoadCount());
+    cache.put(1, 100);
+
+    LoadingCache<Integer, Integer> restarted = newCache(loader);
+    assertEquals(Integer.valueOf(0), restarted.getIfPresent(0));
+    assertEquals(Integer.valueOf(2), restarted.getIfPresent(2));
+    // the copy made stale by the write is not recovered
+    assertNull(restarted.getIfPresent(1));
+  }
+
+  public void testCache_invalidateIsPersisted() {
+    IncrementingLoader loader = TestingCacheLoaders.incrementingLoader();
+    LoadingCache<Integer, Integer> cache = newCache(loader);
+    for (int i = 0; i < 3; i++) {
+      cache.getUnchecked(i);
+    }
+    cache.invalidate(0);
+
+    LoadingCache<Integer, Integer> restarted = newCache(loader);
+    assertNull(restarted.getIfPresent(0));
+  }
+
+  private DiskTier<Integer, Integer> newTier(int slabCount) throws IOException {
+    return new DiskTier<Integer, Integer>(
+        directory, slabCount * SLAB_SIZE, SLAB_SIZE, INTEGER_CODEC, INTEGER_CODEC);
+  }
+
+  private LoadingCache<Integer, Integer> newCache(CacheLoader<Integer, Integer> loader) {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(2)
+        .diskTier(directory, 1 << 16, INTEGER_CODEC, INTEGER_CODEC)
+        .build(loader);
+  }
+}
@@ -21,6 +21,8 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
@@ -83,6 +85,42 @@ public class ForwardingCacheTest extends TestCase {
     verify(mock);
   }
 
+  public void testComputeIfAbsent() {
+    Function<Object, Boolean> function = Functions.constant(Boolean.TRUE);
+    expect(mock.computeIfAbsent("key", function)).andReturn(Boolean.TRUE);
+    replay(mock);
+    assertSame(Boolean.TRUE, forward.computeIfAbsent("key", function));
+    verify(mock);
+  }
+
+  public void testComputeIfPresent() {
+    expect(mock.computeIfPresent("key", Functions.<Boolean>identity())).andReturn(Boolean.TRUE);
+    replay(mock);
+    assertSame(Boolean.TRUE, forward.computeIfPresent("key", Functions.<Boolean>identity()));
+    verify(mock);
+  }
+
+  public void testMerge() {
+    expect(mock.merge("key", Boolean.TRUE, Functions.<Boolean>identity())).andReturn(Boolean.TRUE);
+    replay(mock);
+    assertSame(Boolean.TRUE, forward.merge("key", Boolean.TRUE, Functions.<Boolean>identity()));
+    verify(mock);
+  }
+
+  public void testHotKeyStats() {
+    expect(mock.hotKeyStats()).andReturn(null);
+    replay(mock);
+    assertNull(forward.hotKeyStats());
+    verify(mock);
+  }
+
+  public void testInvalidateTag() {
+    mock.invalidateTag("tag");
+    replay(mock);
+    forward.invalidateTag("tag");
+    verify(mock);
+  }
+
   public void testInvalidateAll() {
     mock.invalidateAll();
     replay(mock);
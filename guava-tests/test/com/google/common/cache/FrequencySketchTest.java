@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FrequencySketch}.
+ */
+public class FrequencySketchTest extends TestCase {
+
+  public void testEnsureCapacity() {
+    FrequencySketch sketch = new FrequencySketch(0);
+    assertEquals(1, sketch.table.length);
+
+    sketch.ensureCapacity(100);
+    assertEquals(128, sketch.table.length);
+    assertEquals(1280, sketch.sampleSize);
+
+    sketch.ensureCapacity(50);
+    assertEquals(128, sketch.table.length);
+
+    sketch.ensureCapacity(Long.MAX_VALUE);
+    assertEquals(FrequencySketch.MAXIMUM_TABLE_SIZE, sketch.table.length);
+  }
+
+  public void testEnsureCapacity_negative() {
+    try {
+      new FrequencySketch(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testIncrement_once() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    int hash = LocalCache.rehash(42);
+    assertEquals(0, sketch.frequency(hash));
+    sketch.increment(hash);
+    assertEquals(1, sketch.frequency(hash));
+  }
+
+  public void testIncrement_max() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    int hash = LocalCache.rehash(42);
+    for (int i = 0; i < 20; i++) {
+      sketch.increment(hash);
+    }
+    assertEquals(15, sketch.frequency(hash));
+  }
+
+  public void testIncrement_distinct() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    int hash = LocalCache.rehash(42);
+    sketch.increment(hash);
+    sketch.increment(LocalCache.rehash(43));
+    assertEquals(1, sketch.frequency(hash));
+    assertEquals(1, sketch.frequency(LocalCache.rehash(43)));
+    assertEquals(0, sketch.frequency(LocalCache.rehash(44)));
+  }
+
+  public void testReset() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    boolean reset = false;
+    for (int i = 1; i < 20 * sketch.table.length; i++) {
+      sketch.increment(LocalCache.rehash(i));
+      if (sketch.size != i) {
+        reset = true;
+        break;
+      }
+    }
+    assertTrue(reset);
+    assertTrue(sketch.size <= sketch.sampleSize / 2);
+  }
+
+  public void testReset_halvesCounts() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    int hash = LocalCache.rehash(42);
+    for (int i = 0; i < 10; i++) {
+      sketch.increment(hash);
+    }
+    sketch.reset();
+    assertEquals(5, sketch.frequency(hash));
+  }
+
+  public void testHeavyHitters() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    for (int i = 100; i < 100000; i++) {
+      sketch.increment(LocalCache.rehash(i));
+    }
+    for (int i = 0; i < 10; i += 2) {
+      for (int j = 0; j < i; j++) {
+        sketch.increment(LocalCache.rehash(i));
+      }
+    }
+
+    // A perfect popularity count yields an array [0, 0, 2, 0, 4, 0, 6, 0, 8, 0]
+    int[] popularity = new int[10];
+    for (int i = 0; i < 10; i++) {
+      popularity[i] = sketch.frequency(LocalCache.rehash(i));
+    }
+    for (int i = 0; i < popularity.length; i++) {
+      if ((i == 0) || (i == 1) || (i == 3) || (i == 5) || (i == 7) || (i == 9)) {
+        assertTrue(popularity[i] <= popularity[2]);
+      } else if (i == 2) {
+        assertTrue(popularity[2] <= popularity[4]);
+      } else if (i == 4) {
+        assertTrue(popularity[4] <= popularity[6]);
+      } else if (i == 6) {
+        assertTrue(popularity[6] <= popularity[8]);
+      }
+    }
+  }
+}
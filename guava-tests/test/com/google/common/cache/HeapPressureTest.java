@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.testing.FakeTicker;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link HeapPressure}.
+ */
+public class HeapPressureTest extends TestCase {
+
+  /** Reports whichever occupancy and collection count the test sets. */
+  static final class FakeHeapPressure extends HeapPressure {
+    double occupancy;
+    long collectionCount;
+
+    FakeHeapPressure(double targetOccupancy, FakeTicker ticker) {
+      super(targetOccupancy, ticker);
+    }
+
+    @Override
+    double occupancy() {
+      return occupancy;
+    }
+
+    @Override
+    long collectionCount() {
+      return collectionCount;
+    }
+
+    /** Simulates a collection of the old generation, then checks. */
+    void collectAndCheck() {
+      collectionCount++;
+      check();
+    }
+  }
+
+  public void testCheck_shrinksAndGrows() {
+    FakeTicker ticker = new FakeTicker();
+    FakeHeapPressure pressure = new FakeHeapPressure(0.7, ticker);
+    assertEquals(1000, pressure.scaledWeight(1000));
+
+    pressure.occupancy = 0.8;
+    pressure.collectAndCheck();
+    assertEquals(900, pressure.scaledWeight(1000));
+    // checks are rate limited
+    pressure.collectAndCheck();
+    assertEquals(900, pressure.scaledWeight(1000));
+    ticker.advance(1, SECONDS);
+    pressure.collectAndCheck();
+    assertEquals(810, pressure.scaledWeight(1000));
+
+    // no change within the hysteresis band
+    pressure.occupancy = 0.65;
+    ticker.advance(1, SECONDS);
+    pressure.collectAndCheck();
+    assertEquals(810, pressure.scaledWeight(1000));
+
+    pressure.occupancy = 0.5;
+    for (int i = 0; i < 10; i++) {
+      ticker.advance(1, SECONDS);
+      pressure.collectAndCheck();
+    }
+    assertEquals(1000, pressure.scaledWeight(1000));
+  }
+
+  public void testCheck_minimumScale() {
+    FakeTicker ticker = new FakeTicker();
+    FakeHeapPressure pressure = new FakeHeapPressure(0.7, ticker);
+    pressure.occupancy = 0.99;
+    for (int i = 0; i < 100; i++) {
+      pressure.collectAndCheck();
+      ticker.advance(1001, MILLISECONDS);
+    }
+    assertEquals(HeapPressure.MINIMUM_SCALE, pressure.scale);
+    assertEquals(50, pressure.scaledWeight(1000));
+  }
+
+  public void testCheck_ignoresStaleOccupancy() {
+    FakeTicker ticker = new FakeTicker();
+    FakeHeapPressure pressure = new FakeHeapPressure(0.7, ticker);
+    pressure.occupancy = 0.8;
+    pressure.collectAndCheck();
+    assertEquals(900, pressure.scaledWeight(1000));
+
+    // without another collection, the reading still predates the last adjustment
+    for (int i = 0; i < 10; i++) {
+      ticker.advance(1, SECONDS);
+      pressure.check();
+    }
+    assertEquals(900, pressure.scaledWeight(1000));
+
+    ticker.advance(1, SECONDS);
+    pressure.collectAndCheck();
+    assertEquals(810, pressure.scaledWeight(1000));
+  }
+
+  public void testCollectionCount() {
+    HeapPressure pressure = new HeapPressure(0.7, new FakeTicker());
+    assertTrue(pressure.collectionCount() >= 0);
+  }
+
+  public void testOccupancy() {
+    HeapPressure pressure = new HeapPressure(0.7, new FakeTicker());
+    double occupancy = pressure.occupancy();
+    assertTrue(occupancy >= 0);
+    assertTrue(occupancy <= 1);
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link HotKeyTracker}.
+ */
+public class HotKeyTrackerTest extends TestCase {
+
+  public void testRecord_belowCapacity() {
+    HotKeyTracker<String> tracker = new HotKeyTracker<String>(4);
+    tracker.record("a", 3);
+    tracker.record("b", 1);
+    tracker.record("a", 2);
+    tracker.record("c", 7);
+    assertEquals(ImmutableMap.of("a", 5L, "b", 1L, "c", 7L), totals(tracker));
+  }
+
+  public void testRecord_replacesSmallest() {
+    HotKeyTracker<String> tracker = new HotKeyTracker<String>(2);
+    tracker.record("a", 5);
+    tracker.record("b", 2);
+    tracker.record("c", 1);
+    // c inherits the total of b
+    assertEquals(ImmutableMap.of("a", 5L, "c", 3L), totals(tracker));
+    tracker.record("d", 1);
+    assertEquals(ImmutableMap.of("a", 5L, "d", 4L), totals(tracker));
+    tracker.record("a", 1);
+    tracker.record("e", 1);
+    assertEquals(ImmutableMap.of("a", 6L, "e", 5L), totals(tracker));
+  }
+
+  public void testRecord_findsHeavyHitters() {
+    HotKeyTracker<Integer> tracker = new HotKeyTracker<Integer>(16);
+    Random random = new Random(0);
+    for (int i = 0; i < 100000; i++) {
+      // a quarter of the records are for the four heavy hitters, the rest for many distinct keys
+      int key = (random.nextInt(4) == 0) ? random.nextInt(4) : 4 + random.nextInt(100000);
+      tracker.record(key, 1);
+    }
+    Map<Integer, Long> totals = totals(tracker);
+    assertEquals(16, totals.size());
+    for (int key = 0; key < 4; key++) {
+      long total = totals.get(key);
+      // true totals are about 6250, overestimated by at most the smallest total
+      assertTrue(total >= 6000);
+      assertTrue(total <= 6500 + 100000 / 16);
+    }
+  }
+
+  private static <K> Map<K, Long> totals(HotKeyTracker<K> tracker) {
+    List<Map.Entry<K, Long>> entries = Lists.newArrayList();
+    tracker.addTo(entries);
+    Map<K, Long> totals = Maps.newHashMap();
+    for (Map.Entry<K, Long> entry : entries) {
+      assertNull(totals.put(entry.getKey(), entry.getValue()));
+    }
+    return totals;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.LatencyDistribution.BUCKET_COUNT;
+import static com.google.common.cache.LatencyDistribution.MAXIMUM_DURATION;
+import static com.google.common.cache.LatencyDistribution.bucketIndex;
+import static com.google.common.cache.LatencyDistribution.bucketUpperBound;
+
+import com.google.common.testing.EqualsTester;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link LatencyDistribution}.
+ */
+public class LatencyDistributionTest extends TestCase {
+
+  public void testBuckets_contiguous() {
+    assertEquals(0, bucketIndex(0));
+    for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+      long upperBound = bucketUpperBound(bucket);
+      assertEquals(bucket, bucketIndex(upperBound));
+      assertEquals(bucket + 1, bucketIndex(upperBound + 1));
+    }
+    assertEquals(MAXIMUM_DURATION, bucketUpperBound(BUCKET_COUNT - 1));
+  }
+
+  public void testBuckets_relativeError() {
+    for (long nanos = 1; nanos < MAXIMUM_DURATION; nanos = nanos * 3 + 1) {
+      long upperBound = bucketUpperBound(bucketIndex(nanos));
+      assertTrue(upperBound >= nanos);
+      assertTrue(upperBound - nanos <= nanos / 8);
+    }
+  }
+
+  public void testBuckets_outOfRange() {
+    assertEquals(0, bucketIndex(-1));
+    assertEquals(BUCKET_COUNT - 1, bucketIndex(Long.MAX_VALUE));
+  }
+
+  public void testEmpty() {
+    assertEquals(0, LatencyDistribution.EMPTY.count());
+    assertEquals(0, LatencyDistribution.EMPTY.percentile(50));
+    assertEquals(LatencyDistribution.EMPTY, new LatencyDistribution(new long[BUCKET_COUNT]));
+  }
+
+  public void testPercentile() {
+    LatencyDistribution distribution = distributionOf(1, 2, 3, 4, 5, 6, 7, 8, 9, 1000);
+    assertEquals(10, distribution.count());
+    assertEquals(1, distribution.percentile(0));
+    assertEquals(5, distribution.percentile(50));
+    assertEquals(9, distribution.percentile(90));
+    assertEquals(bucketUpperBound(bucketIndex(1000)), distribution.percentile(99));
+    assertEquals(bucketUpperBound(bucketIndex(1000)), distribution.percentile(100));
+  }
+
+  public void testPercentile_outOfRange() {
+    try {
+      LatencyDistribution.EMPTY.percentile(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      LatencyDistribution.EMPTY.percentile(100.5);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testPlusAndMinus() {
+    LatencyDistribution one = distributionOf(1, 100);
+    LatencyDistribution two = distributionOf(1, 10000, 10000);
+
+    LatencyDistribution sum = one.plus(two);
+    assertEquals(5, sum.count());
+    assertEquals(2, sum.bucketCount(bucketIndex(1)));
+    assertEquals(sum, two.plus(one));
+    assertEquals(two, sum.minus(one));
+    assertEquals(one, sum.minus(two));
+    assertEquals(LatencyDistribution.EMPTY, one.minus(sum));
+  }
+
+  public void testEquals() {
+    new EqualsTester()
+        .addEqualityGroup(LatencyDistribution.EMPTY, distributionOf())
+        .addEqualityGroup(distributionOf(1), distributionOf(1))
+        .addEqualityGroup(distributionOf(1, 1000))
+        .testEquals();
+  }
+
+  private static LatencyDistribution distributionOf(long... durations) {
+    long[] counts = new long[BUCKET_COUNT];
+    for (long nanos : durations) {
+      counts[bucketIndex(nanos)]++;
+    }
+    return new LatencyDistribution(counts);
+  }
+}
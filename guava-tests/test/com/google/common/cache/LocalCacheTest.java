@@ -19,6 +19,7 @@ package com.google.common.cache;
 import static com.google.common.cache.CacheBuilder.NULL_TICKER;
 import static com.google.common.cache.LocalCache.DISCARDING_QUEUE;
 import static com.google.common.cache.LocalCache.DRAIN_THRESHOLD;
+import static com.google.common.cache.LocalCache.MAXIMUM_PENDING_NOTIFICATIONS;
 import static com.google.common.cache.LocalCache.nullEntry;
 import static com.google.common.cache.LocalCache.unset;
 import static com.google.common.cache.TestingCacheLoaders.identityLoader;
@@ -45,27 +46,35 @@ import com.google.common.cache.LocalCache.ValueReference;
 import com.google.common.cache.TestingCacheLoaders.CountingLoader;
 import com.google.common.cache.TestingRemovalListeners.CountingRemovalListener;
 import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+import com.google.common.collect.ForwardingMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.testing.FakeTicker;
 import com.google.common.testing.NullPointerTester;
 import com.google.common.testing.SerializableTester;
 import com.google.common.testing.TestLogHandler;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import junit.framework.TestCase;
 
 import java.io.Serializable;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.LogRecord;
@@ -382,6 +391,99 @@ public class LocalCacheTest extends TestCase {
     assertSame(testTicker, map.ticker);
   }
 
+  public void testTagIndex() {
+    LocalCache<Integer, Integer> map = makeLocalCache(createCacheBuilder()
+        .concurrencyLevel(1)
+        .initialCapacity(1)
+        .tagger(CacheManualTest.PARITY_TAGGER));
+    Segment<Integer, Integer> segment = map.segments[0];
+    // expanding the table and unlinking entries from shared buckets copies entries
+    for (int i = 0; i < 100; i++) {
+      map.put(i, i);
+    }
+    for (int i = 0; i < 100; i += 3) {
+      map.remove(i);
+    }
+    assertEquals(map.size(), segment.tagsByEntry.size());
+    for (Map.Entry<Object, Set<ReferenceEntry<Integer, Integer>>> tagged :
+        segment.entriesByTag.entrySet()) {
+      for (ReferenceEntry<Integer, Integer> entry : tagged.getValue()) {
+        assertSame(entry, segment.getEntry(entry.getKey(), entry.getHash()));
+      }
+    }
+
+    map.invalidateTag("even");
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i % 2 == 1 && i % 3 != 0, map.containsKey(i));
+    }
+    assertEquals(ImmutableSet.of("odd"), segment.entriesByTag.keySet());
+    assertEquals(map.size(), segment.tagsByEntry.size());
+    map.invalidateTag("odd");
+    assertTrue(map.isEmpty());
+    assertTrue(segment.entriesByTag.isEmpty());
+    assertTrue(segment.tagsByEntry.isEmpty());
+  }
+
+  public void testInlineValues() {
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
+        .maximumWeight(100)
+        .weigher(constantWeigher(3)));
+    Object key = new Object();
+    Object value = new Object();
+    map.put(key, value);
+    ReferenceEntry<Object, Object> entry = map.getEntry(key);
+    // strong values are held by the entry itself
+    assertSame(entry, entry.getValueReference());
+    assertSame(value, entry.getValueReference().get());
+    assertEquals(3, entry.getValueReference().getWeight());
+    assertEquals(3, map.segmentFor(entry.getHash()).totalWeight);
+
+    Object newValue = new Object();
+    map.put(key, newValue);
+    assertSame(entry, map.getEntry(key));
+    assertSame(newValue, entry.getValueReference().get());
+    assertEquals(3, map.segmentFor(entry.getHash()).totalWeight);
+
+    // other strengths keep their value references
+    map = makeLocalCache(createCacheBuilder().weakValues());
+    map.put(key, value);
+    entry = map.getEntry(key);
+    assertNotSame(entry, entry.getValueReference());
+    assertSame(value, entry.getValueReference().get());
+  }
+
+  public void testInlineValues_refresh() {
+    final SettableFuture<Object> reloaded = SettableFuture.create();
+    final Object value = new Object();
+    LocalCache<Object, Object> map = new LocalCache<Object, Object>(createCacheBuilder(),
+        new CacheLoader<Object, Object>() {
+          @Override
+          public Object load(Object key) {
+            return value;
+          }
+
+          @Override
+          public ListenableFuture<Object> reload(Object key, Object oldValue) {
+            return reloaded;
+          }
+        });
+    Object key = new Object();
+    map.put(key, value);
+    ReferenceEntry<Object, Object> entry = map.getEntry(key);
+    map.refresh(key);
+
+    // the loading value reference holds a copy of the value which was inlined
+    ValueReference<Object, Object> loading = entry.getValueReference();
+    assertTrue(loading.isLoading());
+    assertSame(value, loading.get());
+    assertSame(value, map.get(key));
+
+    Object newValue = new Object();
+    reloaded.set(newValue);
+    assertSame(entry, entry.getValueReference());
+    assertSame(newValue, map.get(key));
+  }
+
   public void testEntryFactory() {
     assertSame(EntryFactory.STRONG,
         EntryFactory.getFactory(Strength.STRONG, false, false));
@@ -1464,6 +1566,119 @@ public class LocalCacheTest extends TestCase {
     }
   }
 
+  public void testPutAll_groupsBySegment() {
+    QueuingRemovalListener<Object, Object> listener = queuingRemovalListener();
+    LocalCache<Object, Object> map =
+        makeLocalCache(createCacheBuilder().concurrencyLevel(4).removalListener(listener));
+    for (int i = 0; i < 10; i++) {
+      map.put(i, -i);
+    }
+
+    Map<Object, Object> entries = Maps.newLinkedHashMap();
+    for (int i = 0; i < 200; i++) {
+      entries.put(i, i);
+    }
+    map.putAll(entries);
+    assertEquals(entries, map);
+    int count = 0;
+    for (Segment<Object, Object> segment : map.segments) {
+      count += segment.count;
+    }
+    assertEquals(200, count);
+    assertEquals(10, listener.size());
+    for (RemovalNotification<Object, Object> notification : listener) {
+      assertEquals(RemovalCause.REPLACED, notification.getCause());
+      assertEquals(notification.getValue(), -(Integer) notification.getKey());
+    }
+
+    try {
+      map.putAll(Collections.singletonMap(null, 1));
+      fail();
+    } catch (NullPointerException expected) {}
+    entries.put(200, null);
+    try {
+      map.putAll(entries);
+      fail();
+    } catch (NullPointerException expected) {}
+  }
+
+  public void testPutAll_mapGrewConcurrently() {
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder());
+    final Map<Object, Object> entries = Maps.newLinkedHashMap();
+    entries.put(1, 1);
+    entries.put(2, 2);
+    entries.put(3, 3);
+    // reports one entry fewer than it iterates, as if it had grown after being sized
+    Map<Object, Object> growing = new ForwardingMap<Object, Object>() {
+      @Override protected Map<Object, Object> delegate() {
+        return entries;
+      }
+
+      @Override public int size() {
+        return entries.size() - 1;
+      }
+    };
+    map.putAll(growing);
+    assertEquals(entries, map);
+
+    map.clear();
+    entries.put(4, null);
+    try {
+      map.putAll(growing);
+      fail();
+    } catch (NullPointerException expected) {}
+    assertTrue(map.isEmpty());
+  }
+
+  public void testPutAll_evictsOncePerBatch() {
+    CountingRemovalListener<Object, Object> listener = countingRemovalListener();
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .removalListener(listener));
+    Map<Object, Object> entries = Maps.newLinkedHashMap();
+    for (int i = 0; i < 20; i++) {
+      entries.put(i, i);
+    }
+
+    // the entries written first are the least recently used once the batch is complete
+    map.putAll(entries);
+    assertEquals(10, map.size());
+    assertEquals(10, listener.getCount());
+    for (int i = 10; i < 20; i++) {
+      assertEquals(i, map.get(i));
+    }
+  }
+
+  public void testHeapPressure_evictsDownToScaledMaximum() {
+    CountingRemovalListener<Object, Object> listener = countingRemovalListener();
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(100)
+        .adaptToHeapPressure(0.7)
+        .removalListener(listener));
+    for (int i = 0; i < 100; i++) {
+      map.put(i, i);
+    }
+
+    map.heapPressure.scale = 0.5;
+    map.cleanUp();
+    assertEquals(50, map.size());
+    assertEquals(50, listener.getCount());
+    assertSame(RemovalCause.SIZE, listener.getLastNotification().getCause());
+    // the least recently used entries were evicted
+    for (int i = 50; i < 100; i++) {
+      assertEquals(i, map.get(i));
+    }
+
+    map.heapPressure.scale = 1.0;
+    for (int i = 100; i < 150; i++) {
+      map.put(i, i);
+    }
+    assertEquals(100, map.size());
+    assertEquals(50, listener.getCount());
+  }
+
   public void testReclaimKey() {
     CountingRemovalListener<Object, Object> listener = countingRemovalListener();
     LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
@@ -1635,7 +1850,6 @@ public class LocalCacheTest extends TestCase {
     DummyEntry<Object, Object> entry = createDummyEntry(key, hash, value, null);
     segment.recordWrite(entry, 1, map.ticker.read());
     segment.table.set(0, entry);
-    segment.readCount.incrementAndGet();
     segment.count = 1;
     segment.totalWeight = 1;
 
@@ -1647,7 +1861,6 @@ public class LocalCacheTest extends TestCase {
     assertNull(table.get(0));
     assertTrue(segment.accessQueue.isEmpty());
     assertTrue(segment.writeQueue.isEmpty());
-    assertEquals(0, segment.readCount.get());
     assertEquals(0, segment.count);
     assertEquals(0, segment.totalWeight);
   }
@@ -1670,7 +1883,6 @@ public class LocalCacheTest extends TestCase {
     DummyEntry<Object, Object> entry = createDummyEntry(key, hash, value, null);
     segment.recordWrite(entry, 1, map.ticker.read());
     segment.table.set(0, entry);
-    segment.readCount.incrementAndGet();
     segment.count = 1;
     segment.totalWeight = 1;
 
@@ -1682,7 +1894,6 @@ public class LocalCacheTest extends TestCase {
     assertNull(table.get(0));
     assertTrue(segment.accessQueue.isEmpty());
     assertTrue(segment.writeQueue.isEmpty());
-    assertEquals(0, segment.readCount.get());
     assertEquals(0, segment.count);
     assertEquals(0, segment.totalWeight);
     assertNotified(listener, key, value, RemovalCause.EXPLICIT);
@@ -1832,7 +2043,7 @@ public class LocalCacheTest extends TestCase {
       LocalCache<Object, Object> map = makeLocalCache(builder.concurrencyLevel(1));
       Segment<Object, Object> segment = map.segments[0];
 
-      if (segment.recencyQueue != DISCARDING_QUEUE) {
+      if (map.usesAccessQueue()) {
         Object keyOne = new Object();
         Object valueOne = new Object();
         Object keyTwo = new Object();
@@ -1857,7 +2068,7 @@ public class LocalCacheTest extends TestCase {
       LocalCache<Object, Object> map = makeLocalCache(builder.concurrencyLevel(1));
       Segment<Object, Object> segment = map.segments[0];
 
-      if (segment.recencyQueue != DISCARDING_QUEUE) {
+      if (map.usesAccessQueue()) {
         Object keyOne = new Object();
         Object valueOne = new Object();
 
@@ -1896,6 +2107,113 @@ public class LocalCacheTest extends TestCase {
     }
   }
 
+  public void testMaintenanceExecutor_defersNotifications() {
+    QueuingExecutor executor = new QueuingExecutor();
+    QueuingRemovalListener<Object, Object> listener = queuingRemovalListener();
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .removalListener(listener)
+        .maintenanceExecutor(executor));
+
+    map.put(1, 1);
+    assertTrue(executor.tasks.isEmpty());
+    map.put(2, 2);
+    map.put(3, 3);
+    assertTrue(listener.isEmpty());
+    // only one task is scheduled at a time
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals(2, listener.size());
+    assertEquals(0, map.pendingNotificationCount.get());
+    map.put(4, 4);
+    assertEquals(1, executor.tasks.size());
+  }
+
+  public void testMaintenanceExecutor_backPressure() {
+    QueuingExecutor executor = new QueuingExecutor();
+    CountingRemovalListener<Object, Object> listener = countingRemovalListener();
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .removalListener(listener)
+        .maintenanceExecutor(executor));
+
+    for (int i = 0; i <= MAXIMUM_PENDING_NOTIFICATIONS + 1; i++) {
+      map.put(i, i);
+    }
+    // the writer delivered the backlog once it grew too long
+    assertEquals(MAXIMUM_PENDING_NOTIFICATIONS + 1, listener.getCount());
+    assertEquals(1, executor.tasks.size());
+  }
+
+  public void testMaintenanceExecutor_rejected() {
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+    CountingRemovalListener<Object, Object> listener = countingRemovalListener();
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .removalListener(listener)
+        .maintenanceExecutor(executor));
+
+    map.put(1, 1);
+    map.put(2, 2);
+    assertEquals(1, listener.getCount());
+    assertFalse(map.maintenanceScheduled.get());
+  }
+
+  public void testMaintenanceExecutor_cleanupAfterReads() {
+    QueuingExecutor executor = new QueuingExecutor();
+    FakeTicker ticker = new FakeTicker();
+    QueuingRemovalListener<Object, Object> listener = queuingRemovalListener();
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
+        .concurrencyLevel(1)
+        .expireAfterWrite(1, MINUTES)
+        .ticker(ticker)
+        .removalListener(listener)
+        .maintenanceExecutor(executor));
+    Segment<Object, Object> segment = map.segments[0];
+
+    map.put(1, 1);
+    map.put(2, 2);
+    ticker.advance(30, SECONDS);
+    map.put(3, 3);
+    ticker.advance(45, SECONDS);
+    for (int i = 0; i <= DRAIN_THRESHOLD; i++) {
+      assertNull(map.get(1));
+    }
+    // the reads left the expired entries to the executor
+    assertEquals(3, segment.count);
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals(1, segment.count);
+    assertEquals(2, listener.size());
+  }
+
+  static class QueuingExecutor implements Executor {
+    final List<Runnable> tasks = Lists.newArrayList();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      List<Runnable> pending = Lists.newArrayList(tasks);
+      tasks.clear();
+      for (Runnable task : pending) {
+        task.run();
+      }
+    }
+  }
+
   public void testRecordRead() {
     for (CacheBuilder<Object, Object> builder : allEvictingMakers()) {
       LocalCache<Object, Object> map = makeLocalCache(builder.concurrencyLevel(1));
@@ -1923,7 +2241,8 @@ public class LocalCacheTest extends TestCase {
       Iterator<ReferenceEntry<Object, Object>> i = readOrder.iterator();
       while (i.hasNext()) {
         ReferenceEntry<Object, Object> entry = i.next();
-        if (random.nextBoolean()) {
+        // the read buffer drops reads once full, so stay within its capacity
+        if (random.nextBoolean() && (reads.size() < ReadBuffer.BUFFER_SIZE)) {
           segment.recordRead(entry, map.ticker.read());
           reads.add(entry);
           i.remove();
@@ -2208,7 +2527,7 @@ public class LocalCacheTest extends TestCase {
       it.next();
       it.remove();
     }
-    segment.evictEntries();
+    segment.evictEntries(null);
     assertEquals(maxSize, map.size());
     assertEquals(originalMap, map);
   }
@@ -2640,6 +2959,18 @@ public class LocalCacheTest extends TestCase {
     public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
       this.previousWrite = previous;
     }
+
+    private long expirationTime = Long.MAX_VALUE;
+
+    @Override
+    public long getExpirationTime() {
+      return expirationTime;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      this.expirationTime = time;
+    }
   }
 
   static class DummyValueReference<K, V> implements ValueReference<K, V> {
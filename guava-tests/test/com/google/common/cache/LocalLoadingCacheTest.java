@@ -26,6 +26,7 @@ import com.google.common.cache.LocalCache.Segment;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.testing.FakeTicker;
 import com.google.common.testing.NullPointerTester;
 import com.google.common.util.concurrent.Callables;
 
@@ -178,6 +179,57 @@ public class LocalLoadingCacheTest extends TestCase {
     assertEquals(EMPTY_STATS, cache.stats());
   }
 
+  public void testStats_loadLatencyAndEvictionCauses() {
+    FakeTicker ticker = new FakeTicker();
+    CacheBuilder<Object, Object> builder = createCacheBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(2)
+        .expireAfterWrite(1, TimeUnit.MINUTES)
+        .ticker(ticker);
+    LocalLoadingCache<Object, Object> cache = makeCache(builder, identityLoader());
+
+    for (int i = 0; i < 3; i++) {
+      cache.getUnchecked(i);
+    }
+    ticker.advance(2, TimeUnit.MINUTES);
+    cache.cleanUp();
+    cache.invalidate(0);
+
+    CacheStats stats = cache.stats();
+    assertEquals(3, stats.loadLatency().count());
+    assertEquals(3, stats.evictionCount());
+    assertEquals(1, stats.evictionCount(RemovalCause.SIZE));
+    assertEquals(2, stats.evictionCount(RemovalCause.EXPIRED));
+    assertEquals(0, stats.evictionCount(RemovalCause.EXPLICIT));
+  }
+
+  public void testStats_lockContention() throws InterruptedException {
+    final LocalLoadingCache<Object, Object> cache =
+        makeCache(createCacheBuilder().concurrencyLevel(1), identityLoader());
+    Segment<Object, Object> segment = cache.localCache.segments[0];
+    assertEquals(0, cache.stats().lockContentionCount());
+
+    Thread thread = new Thread() {
+      @Override public void run() {
+        cache.put(1, 1);
+      }
+    };
+    segment.lock();
+    try {
+      thread.start();
+      while (!segment.hasQueuedThreads()) {
+        Thread.yield();
+      }
+    } finally {
+      segment.unlock();
+    }
+    thread.join();
+
+    CacheStats stats = cache.stats();
+    assertEquals(1, stats.lockContentionCount());
+    assertTrue(stats.totalLockWaitTime() > 0);
+  }
+
   public void testNoStats() {
     CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
         .concurrencyLevel(1)
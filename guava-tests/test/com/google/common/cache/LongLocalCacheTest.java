@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+
+import com.google.common.cache.TestingRemovalListeners.NullRemovalListener;
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link LongLocalCache}.
+ */
+public class LongLocalCacheTest extends TestCase {
+
+  /** Loads the decimal representation of each key, counting the loads. */
+  static final class StringLoader extends CacheLoader<Long, String> {
+    final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public String load(Long key) {
+      count.incrementAndGet();
+      return key.toString();
+    }
+
+    @Override
+    public ListenableFuture<String> reload(Long key, String oldValue) {
+      count.incrementAndGet();
+      return Futures.immediateFuture(oldValue + "'");
+    }
+  }
+
+  public void testLoad() throws ExecutionException {
+    StringLoader loader = new StringLoader();
+    LongLoadingCache<String> cache =
+        CacheBuilder.newBuilder().recordStats().buildLongKeyed(loader);
+
+    assertNull(cache.getIfPresent(1));
+    assertEquals("1", cache.get(1));
+    assertEquals("1", cache.get(1));
+    assertEquals("1", cache.getIfPresent(1));
+    assertEquals("-7", cache.getUnchecked(-7));
+    assertEquals(Long.toString(Long.MIN_VALUE), cache.get(Long.MIN_VALUE));
+    assertEquals(3, cache.size());
+    assertEquals(3, loader.count.get());
+
+    CacheStats stats = cache.stats();
+    assertEquals(2, stats.hitCount());
+    assertEquals(4, stats.missCount());
+    assertEquals(3, stats.loadSuccessCount());
+  }
+
+  public void testPutAndInvalidate() throws ExecutionException {
+    QueuingRemovalListener<Long, String> listener = queuingRemovalListener();
+    LongLoadingCache<String> cache = CacheBuilder.newBuilder()
+        .buildLongKeyed(new StringLoader(), listener);
+
+    cache.put(1, "one");
+    assertEquals("one", cache.get(1));
+    cache.put(1, "uno");
+    RemovalNotification<Long, String> notification = listener.poll();
+    assertEquals(Long.valueOf(1), notification.getKey());
+    assertEquals("one", notification.getValue());
+    assertEquals(RemovalCause.REPLACED, notification.getCause());
+
+    cache.invalidate(1);
+    notification = listener.poll();
+    assertEquals("uno", notification.getValue());
+    assertEquals(RemovalCause.EXPLICIT, notification.getCause());
+    assertNull(cache.getIfPresent(1));
+    assertEquals(0, cache.size());
+
+    // the tombstone left by the removal is reused
+    assertEquals("1", cache.get(1));
+    assertEquals(1, cache.size());
+    cache.invalidate(2);
+    assertTrue(listener.isEmpty());
+  }
+
+  public void testInvalidateAll() throws ExecutionException {
+    QueuingRemovalListener<Long, String> listener = queuingRemovalListener();
+    LongLoadingCache<String> cache = CacheBuilder.newBuilder()
+        .buildLongKeyed(new StringLoader(), listener);
+    for (long i = 0; i < 100; i++) {
+      cache.get(i);
+    }
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+    assertEquals(100, listener.size());
+    assertNull(cache.getIfPresent(50));
+    assertEquals("50", cache.get(50));
+  }
+
+  public void testRebuild() throws ExecutionException {
+    LongLoadingCache<String> cache =
+        CacheBuilder.newBuilder().concurrencyLevel(1).buildLongKeyed(new StringLoader());
+    LongLocalCache.Segment<String> segment = ((LongLocalCache<String>) cache).segments[0];
+    int initialCapacity = segment.table.capacity();
+    // each key leaves a tombstone, which rebuilding the table discards without growing it
+    for (long i = 0; i < 10000; i++) {
+      cache.put(i, "value");
+      cache.invalidate(i - 1);
+    }
+    assertEquals(1, cache.size());
+    assertEquals(initialCapacity, segment.table.capacity());
+
+    for (long i = 0; i < 10000; i++) {
+      cache.get(i * 31);
+    }
+    assertEquals(10001, cache.size());
+    for (long i = 0; i < 10000; i++) {
+      assertEquals(Long.toString(i * 31), cache.getIfPresent(i * 31));
+    }
+  }
+
+  public void testMaximumSize() throws ExecutionException {
+    QueuingRemovalListener<Long, String> listener = queuingRemovalListener();
+    LongLoadingCache<String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(100)
+        .recordStats()
+        .buildLongKeyed(new StringLoader(), listener);
+    for (long i = 0; i < 1000; i++) {
+      cache.get(i);
+      // keep the first key in use, so that it keeps its second chance
+      cache.get(0);
+      assertTrue(cache.size() <= 100);
+    }
+    assertEquals(100, cache.size());
+    assertEquals("0", cache.getIfPresent(0));
+    assertEquals(900, listener.size());
+    for (RemovalNotification<Long, String> notification : listener) {
+      assertEquals(RemovalCause.SIZE, notification.getCause());
+    }
+    assertEquals(900, cache.stats().evictionCount());
+    assertEquals(900, cache.stats().evictionCount(RemovalCause.SIZE));
+  }
+
+  public void testExpireAfterWrite() throws ExecutionException {
+    FakeTicker ticker = new FakeTicker();
+    QueuingRemovalListener<Long, String> listener = queuingRemovalListener();
+    StringLoader loader = new StringLoader();
+    LongLoadingCache<String> cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(10, TimeUnit.NANOSECONDS)
+        .ticker(ticker)
+        .buildLongKeyed(loader, listener);
+
+    cache.get(1);
+    ticker.advance(5);
+    assertEquals("1", cache.getIfPresent(1));
+    ticker.advance(6);
+    assertNull(cache.getIfPresent(1));
+    assertEquals(RemovalCause.EXPIRED, listener.poll().getCause());
+    assertEquals("1", cache.get(1));
+    assertEquals(2, loader.count.get());
+
+    cache.get(2);
+    ticker.advance(11);
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+  }
+
+  public void testExpireAfterAccess() throws ExecutionException {
+    FakeTicker ticker = new FakeTicker();
+    LongLoadingCache<String> cache = CacheBuilder.newBuilder()
+        .expireAfterAccess(10, TimeUnit.NANOSECONDS)
+        .ticker(ticker)
+        .buildLongKeyed(new StringLoader());
+
+    cache.get(1);
+    for (int i = 0; i < 5; i++) {
+      ticker.advance(5);
+      assertEquals("1", cache.getIfPresent(1));
+    }
+    ticker.advance(11);
+    assertNull(cache.getIfPresent(1));
+  }
+
+  public void testRefreshAfterWrite() throws ExecutionException {
+    FakeTicker ticker = new FakeTicker();
+    StringLoader loader = new StringLoader();
+    QueuingRemovalListener<Long, String> listener = queuingRemovalListener();
+    LongLoadingCache<String> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(10, TimeUnit.NANOSECONDS)
+        .ticker(ticker)
+        .buildLongKeyed(loader, listener);
+
+    assertEquals("1", cache.get(1));
+    ticker.advance(11);
+    assertEquals("1'", cache.get(1));
+    assertEquals(RemovalCause.REPLACED, listener.poll().getCause());
+    assertEquals("1'", cache.get(1));
+    assertEquals(2, loader.count.get());
+
+    cache.refresh(1);
+    assertEquals("1''", cache.getIfPresent(1));
+    cache.refresh(2);
+    assertEquals("2", cache.getIfPresent(2));
+    assertEquals(2, cache.size());
+  }
+
+  public void testLoadException() {
+    IOException e = new IOException();
+    LongLoadingCache<String> cache = CacheBuilder.newBuilder()
+        .recordStats()
+        .buildLongKeyed(TestingCacheLoaders.<Long, String>exceptionLoader(e));
+    try {
+      cache.get(1);
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(e, expected.getCause());
+    }
+    try {
+      cache.getUnchecked(1);
+      fail();
+    } catch (UncheckedExecutionException expected) {
+      assertSame(e, expected.getCause());
+    }
+    assertEquals(0, cache.size());
+    assertEquals(2, cache.stats().loadExceptionCount());
+    cache.put(1, "one");
+    assertEquals("one", cache.getIfPresent(1));
+  }
+
+  public void testNullValue() throws ExecutionException {
+    LongLoadingCache<String> cache = CacheBuilder.newBuilder().buildLongKeyed(
+        new CacheLoader<Long, String>() {
+          @Override
+          public String load(Long key) {
+            return null;
+          }
+        });
+    try {
+      cache.get(1);
+      fail();
+    } catch (CacheLoader.InvalidCacheLoadException expected) {
+    }
+    try {
+      cache.put(1, null);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  public void testUnsupportedFeatures() {
+    StringLoader loader = new StringLoader();
+    assertUnsupported(CacheBuilder.newBuilder().weakValues(), loader);
+    assertUnsupported(CacheBuilder.newBuilder().softValues(), loader);
+    assertUnsupported(CacheBuilder.newBuilder().maximumSize(10).frequencyAdmission(), loader);
+    assertUnsupported(CacheBuilder.newBuilder().maximumSize(10).globalEviction(), loader);
+    assertUnsupported(
+        CacheBuilder.newBuilder().maintenanceExecutor(MoreExecutors.sameThreadExecutor()),
+        loader);
+    assertUnsupported(CacheBuilder.newBuilder()
+        .refreshAfterWrite(1, TimeUnit.SECONDS)
+        .batchRefreshes(1, TimeUnit.SECONDS), loader);
+    assertUnsupported(
+        CacheBuilder.newBuilder().bulkLoadExecutor(MoreExecutors.sameThreadExecutor(), 2),
+        loader);
+    assertUnsupported(CacheBuilder.newBuilder()
+        .maximumWeight(10)
+        .weigher(TestingWeighers.constantWeigher(1)), loader);
+    // the key type of a listener set on the builder could not be checked
+    assertUnsupported(
+        CacheBuilder.newBuilder().removalListener(new NullRemovalListener<Object, Object>()),
+        loader);
+  }
+
+  private static void assertUnsupported(
+      CacheBuilder<Object, Object> builder, CacheLoader<Long, String> loader) {
+    try {
+      builder.buildLongKeyed(loader);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
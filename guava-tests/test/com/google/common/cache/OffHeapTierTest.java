@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingCacheLoaders.identityLoader;
+import static java.util.Arrays.asList;
+
+import com.google.common.cache.TestingCacheLoaders.IdentityLoader;
+import com.google.common.cache.TestingRemovalListeners.CountingRemovalListener;
+import com.google.common.collect.ImmutableMap;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Tests for {@link OffHeapTier}, and for caches built with {@link CacheBuilder#offHeapTier}.
+ */
+public class OffHeapTierTest extends TestCase {
+
+  /** Encodes integers in four bytes. */
+  static final CacheCodec<Integer> INTEGER_CODEC = new CacheCodec<Integer>() {
+    @Override public byte[] encode(Integer value) {
+      return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    @Override public Integer decode(ByteBuffer buffer) {
+      return buffer.getInt();
+    }
+  };
+
+  public void testSlabSize() {
+    assertEquals(1000, new OffHeapTier<String, Integer>(1000, INTEGER_CODEC).slabSize);
+    OffHeapTier<String, Integer> tier =
+        new OffHeapTier<String, Integer>(3 * OffHeapTier.MAXIMUM_SLAB_SIZE + 1, INTEGER_CODEC);
+    assertEquals(OffHeapTier.MAXIMUM_SLAB_SIZE, tier.slabSize);
+    assertEquals(3, tier.slabs.length);
+  }
+
+  public void testPutAndRemove() {
+    OffHeapTier<String, Integer> tier = new OffHeapTier<String, Integer>(1024, INTEGER_CODEC);
+    tier.put("a", 1);
+    tier.put("b", 2);
+    assertEquals(2, tier.size());
+    assertTrue(tier.contains("a"));
+
+    Map.Entry<String, Integer> entry = tier.promote("a");
+    assertEquals("a", entry.getKey());
+    assertEquals(Integer.valueOf(1), entry.getValue());
+    assertFalse(tier.contains("a"));
+    assertNull(tier.promote("a"));
+    assertEquals(Integer.valueOf(2), tier.promote("b").getValue());
+  }
+
+  public void testPut_replaces() {
+    OffHeapTier<String, Integer> tier = new OffHeapTier<String, Integer>(1024, INTEGER_CODEC);
+    tier.put("a", 1);
+    tier.put("a", 2);
+    assertEquals(1, tier.size());
+    assertEquals(Integer.valueOf(2), tier.promote("a").getValue());
+  }
+
+  public void testInvalidateAndClear() {
+    OffHeapTier<String, Integer> tier = new OffHeapTier<String, Integer>(1024, INTEGER_CODEC);
+    tier.put("a", 1);
+    tier.put("b", 2);
+    tier.invalidate("a");
+    assertNull(tier.promote("a"));
+    assertEquals(1, tier.size());
+
+    tier.clear();
+    assertEquals(0, tier.size());
+    assertNull(tier.promote("b"));
+  }
+
+  public void testSlabs_evictFirstInFirstOut() {
+    // four slabs of eight bytes, each holding two values
+    OffHeapTier<Integer, Integer> small = smallTier(4, 8);
+    for (int i = 0; i < 8; i++) {
+      small.put(i, i);
+    }
+    assertEquals(8, small.size());
+
+    // the ninth value reclaims the first slab
+    small.put(8, 8);
+    assertEquals(7, small.size());
+    assertFalse(small.contains(0));
+    assertFalse(small.contains(1));
+    for (int i = 2; i <= 8; i++) {
+      assertEquals(Integer.valueOf(i), small.promote(i).getValue());
+    }
+  }
+
+  public void testSlabs_reclaimSkipsStaleLocations() {
+    OffHeapTier<Integer, Integer> tier = smallTier(2, 8);
+    tier.put(0, 0);
+    tier.put(1, 1);
+    // 0 is stored again in the second slab, so reclaiming the first must not unindex it
+    tier.put(0, 10);
+    tier.put(2, 2);
+    tier.put(3, 3);
+    assertFalse(tier.contains(1));
+    assertEquals(Integer.valueOf(10), tier.promote(0).getValue());
+    assertEquals(Integer.valueOf(3), tier.promote(3).getValue());
+  }
+
+  public void testPut_tooLarge() {
+    OffHeapTier<String, Integer> tier = smallTier(1, 2);
+    tier.put("a", 1);
+    assertEquals(0, tier.size());
+  }
+
+  public void testCodecFailure() {
+    CacheCodec<Integer> codec = new CacheCodec<Integer>() {
+      @Override public byte[] encode(Integer value) {
+        if (value < 0) {
+          throw new IllegalArgumentException();
+        }
+        return INTEGER_CODEC.encode(value);
+      }
+
+      @Override public Integer decode(ByteBuffer buffer) {
+        int value = buffer.getInt();
+        if (value == 0) {
+          throw new IllegalStateException();
+        }
+        return value;
+      }
+    };
+    OffHeapTier<String, Integer> tier = new OffHeapTier<String, Integer>(1024, codec);
+    tier.put("a", 1);
+    tier.put("a", -1);
+    assertFalse(tier.contains("a"));
+
+    tier.put("b", 0);
+    assertNull(tier.promote("b"));
+    assertFalse(tier.contains("b"));
+  }
+
+  public void testCache_evictedValueIsPromoted() throws Exception {
+    IdentityLoader<Integer> loader = identityLoader();
+    CountingRemovalListener<Integer, Integer> listener =
+        TestingRemovalListeners.countingRemovalListener();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(2)
+        .removalListener(listener)
+        .recordStats()
+        .offHeapTier(1024, INTEGER_CODEC)
+        .build(loader);
+
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    cache.getUnchecked(3);
+    assertEquals(1, listener.getCount());
+    assertEquals(2, cache.size());
+    assertEquals(1, offHeapTier(cache).size());
+
+    // served from the tier, which evicts 2 in turn
+    assertEquals(Integer.valueOf(1), cache.get(1));
+    assertEquals(2, cache.stats().evictionCount());
+    assertEquals(3, cache.stats().loadCount());
+    assertEquals(1, cache.stats().hitCount());
+    assertTrue(offHeapTier(cache).contains(2));
+    assertFalse(offHeapTier(cache).contains(1));
+
+    assertEquals(Integer.valueOf(2), cache.getIfPresent(2));
+    assertEquals(3, cache.stats().loadCount());
+    CacheTesting.checkValidState(cache);
+  }
+
+  public void testCache_bulkReadsPromote() throws Exception {
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(2)
+        .recordStats()
+        .offHeapTier(1024, INTEGER_CODEC)
+        .build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    cache.getUnchecked(3);
+    assertTrue(offHeapTier(cache).contains(1));
+
+    assertEquals(ImmutableMap.of(1, 1), cache.getAllPresent(asList(1, 4)));
+    assertEquals(1, cache.stats().hitCount());
+    assertEquals(4, cache.stats().missCount());
+    assertTrue(offHeapTier(cache).contains(2));
+
+    // 2 is restored rather than loaded again
+    assertEquals(ImmutableMap.of(2, 2, 5, 5), cache.getAll(asList(2, 5)));
+    assertEquals(2, cache.stats().hitCount());
+    assertEquals(4, cache.stats().loadCount());
+    assertEquals(5, cache.stats().missCount());
+    CacheTesting.checkValidState(cache);
+  }
+
+  public void testCache_invalidateRemovesFromTier() {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .offHeapTier(1024, INTEGER_CODEC)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    cache.put(1, 1);
+    cache.put(2, 2);
+    assertTrue(offHeapTier(cache).contains(1));
+
+    cache.invalidate(1);
+    assertFalse(offHeapTier(cache).contains(1));
+    assertNull(cache.getIfPresent(1));
+
+    cache.put(3, 3);
+    cache.invalidateAll();
+    assertEquals(0, offHeapTier(cache).size());
+  }
+
+  public void testCache_putReplacesTierValue() {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .offHeapTier(1024, INTEGER_CODEC)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    cache.put(1, 1);
+    cache.put(2, 2);
+    assertTrue(offHeapTier(cache).contains(1));
+
+    cache.put(1, 10);
+    assertFalse(offHeapTier(cache).contains(1));
+    assertEquals(Integer.valueOf(10), cache.getIfPresent(1));
+  }
+
+  private static <K> OffHeapTier<K, Integer> smallTier(int slabCount, int slabSize) {
+    return new OffHeapTier<K, Integer>(slabCount * slabSize, slabSize, INTEGER_CODEC);
+  }
+
+  private static VictimTier<?, ?> offHeapTier(Cache<?, ?> cache) {
+    return CacheTesting.toLocalCache(cache).victimTier;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.LocalCache.ReferenceEntry;
+import com.google.common.cache.LocalCache.TimerWheel;
+import com.google.common.cache.LocalCacheTest.DummyEntry;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link TimerWheel}.
+ */
+public class TimerWheelTest extends TestCase {
+
+  public void testOffer_alreadyExpired() {
+    TimerWheel<Integer, Integer> timerWheel = new TimerWheel<Integer, Integer>(100);
+    ReferenceEntry<Integer, Integer> entry = entry(1, 100);
+    timerWheel.offer(entry);
+    assertTrue(timerWheel.contains(entry));
+    assertSame(entry, timerWheel.peek());
+    assertSame(entry, timerWheel.poll());
+    assertFalse(timerWheel.contains(entry));
+    assertNull(timerWheel.poll());
+  }
+
+  public void testOffer_notYetExpired() {
+    TimerWheel<Integer, Integer> timerWheel = new TimerWheel<Integer, Integer>(0);
+    ReferenceEntry<Integer, Integer> entry = entry(1, SECONDS.toNanos(10));
+    timerWheel.offer(entry);
+    assertTrue(timerWheel.contains(entry));
+    assertEquals(1, timerWheel.size());
+    assertNull(timerWheel.peek());
+
+    timerWheel.advance(SECONDS.toNanos(9));
+    assertNull(timerWheel.peek());
+    timerWheel.advance(SECONDS.toNanos(11));
+    assertSame(entry, timerWheel.poll());
+    assertTrue(timerWheel.isEmpty());
+  }
+
+  public void testOffer_reschedules() {
+    TimerWheel<Integer, Integer> timerWheel = new TimerWheel<Integer, Integer>(0);
+    ReferenceEntry<Integer, Integer> entry = entry(1, SECONDS.toNanos(10));
+    timerWheel.offer(entry);
+
+    entry.setExpirationTime(DAYS.toNanos(2));
+    timerWheel.offer(entry);
+    assertEquals(1, timerWheel.size());
+
+    timerWheel.advance(HOURS.toNanos(47));
+    assertNull(timerWheel.peek());
+    timerWheel.advance(HOURS.toNanos(49));
+    assertSame(entry, timerWheel.poll());
+  }
+
+  public void testRemove() {
+    TimerWheel<Integer, Integer> timerWheel = new TimerWheel<Integer, Integer>(0);
+    ReferenceEntry<Integer, Integer> entry = entry(1, MINUTES.toNanos(5));
+    timerWheel.offer(entry);
+    assertTrue(timerWheel.remove(entry));
+    assertFalse(timerWheel.contains(entry));
+    assertTrue(timerWheel.isEmpty());
+
+    timerWheel.advance(MINUTES.toNanos(10));
+    assertNull(timerWheel.peek());
+  }
+
+  public void testClear() {
+    TimerWheel<Integer, Integer> timerWheel = new TimerWheel<Integer, Integer>(0);
+    List<ReferenceEntry<Integer, Integer>> entries = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      ReferenceEntry<Integer, Integer> entry = entry(i, i * HOURS.toNanos(1));
+      entries.add(entry);
+      timerWheel.offer(entry);
+    }
+    assertEquals(10, timerWheel.size());
+
+    timerWheel.clear();
+    assertTrue(timerWheel.isEmpty());
+    for (ReferenceEntry<Integer, Integer> entry : entries) {
+      assertFalse(timerWheel.contains(entry));
+    }
+  }
+
+  public void testAdvance_cascades() {
+    long[] durations = {
+      SECONDS.toNanos(1), SECONDS.toNanos(30), MINUTES.toNanos(10), HOURS.toNanos(5),
+      DAYS.toNanos(3), DAYS.toNanos(30), DAYS.toNanos(365)
+    };
+    for (long duration : durations) {
+      TimerWheel<Integer, Integer> timerWheel = new TimerWheel<Integer, Integer>(0);
+      ReferenceEntry<Integer, Integer> entry = entry(1, duration);
+      timerWheel.offer(entry);
+
+      timerWheel.advance(duration - 1);
+      assertNull(timerWheel.peek());
+      timerWheel.advance(duration + TimerWheel.SPANS[0]);
+      assertSame(entry, timerWheel.poll());
+    }
+  }
+
+  public void testAdvance_negativeTime() {
+    long start = Long.MIN_VALUE + 1;
+    TimerWheel<Integer, Integer> timerWheel = new TimerWheel<Integer, Integer>(start);
+    ReferenceEntry<Integer, Integer> entry = entry(1, start + MINUTES.toNanos(90));
+    timerWheel.offer(entry);
+
+    timerWheel.advance(start + MINUTES.toNanos(89));
+    assertNull(timerWheel.peek());
+    timerWheel.advance(start + MINUTES.toNanos(91));
+    assertSame(entry, timerWheel.poll());
+  }
+
+  public void testAdvance_random() {
+    Random random = new Random(42);
+    long start = random.nextLong();
+    TimerWheel<Integer, Integer> timerWheel = new TimerWheel<Integer, Integer>(start);
+    Set<ReferenceEntry<Integer, Integer>> pending = Sets.newHashSet();
+    for (int i = 0; i < 1000; i++) {
+      long duration = (long) (Math.pow(random.nextDouble(), 4) * DAYS.toNanos(10));
+      ReferenceEntry<Integer, Integer> entry = entry(i, start + duration);
+      timerWheel.offer(entry);
+      pending.add(entry);
+    }
+
+    long now = start;
+    while (!pending.isEmpty()) {
+      now += (long) (Math.pow(random.nextDouble(), 3) * HOURS.toNanos(12));
+      timerWheel.advance(now);
+
+      // only expired entries are found, and only up to a bucket late
+      for (ReferenceEntry<Integer, Integer> entry; (entry = timerWheel.poll()) != null; ) {
+        assertTrue(timerWheel.isExpired(entry));
+        assertTrue(pending.remove(entry));
+      }
+      for (ReferenceEntry<Integer, Integer> entry : pending) {
+        assertTrue(entry.getExpirationTime() - now > -TimerWheel.SPANS[0]);
+      }
+      assertEquals(pending, ImmutableSet.copyOf(timerWheel));
+    }
+  }
+
+  private static ReferenceEntry<Integer, Integer> entry(int key, long expirationTime) {
+    ReferenceEntry<Integer, Integer> entry = DummyEntry.create(key, key, null);
+    entry.setExpirationTime(expirationTime);
+    return entry;
+  }
+}
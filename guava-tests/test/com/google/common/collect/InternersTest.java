@@ -23,6 +23,11 @@ import com.google.common.testing.NullPointerTester;
 import junit.framework.TestCase;
 
 import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Unit test for {@link Interners}.
@@ -79,6 +84,110 @@ public class InternersTest extends TestCase {
     assertSame(not, pool.intern(not));
   }
 
+  public void testBuilder_strong() {
+    String canonical = "a";
+    String not = new String("a");
+
+    Interner<String> pool = Interners.newBuilder().strong().build();
+    assertSame(canonical, pool.intern(canonical));
+    assertSame(canonical, pool.intern(not));
+  }
+
+  public void testBuilder_weakAfterGC() {
+    Integer canonical = new Integer(5);
+    Integer not = new Integer(5);
+
+    Interner<Integer> pool = Interners.newBuilder().weak().concurrencyLevel(1).build();
+    assertSame(canonical, pool.intern(canonical));
+
+    WeakReference<Integer> signal = new WeakReference<Integer>(canonical);
+    canonical = null;  // Hint to the JIT that canonical is unreachable
+
+    GcFinalization.awaitClear(signal);
+    assertSame(not, pool.intern(not));
+    assertSame(not, pool.intern(new Integer(5)));
+  }
+
+  public void testBuilder_growth() {
+    Interner<String> pool = Interners.newBuilder().concurrencyLevel(2).build();
+    List<String> canonicals = Lists.newArrayList();
+    for (int i = 0; i < 10000; i++) {
+      String canonical = Integer.toString(i);
+      canonicals.add(canonical);
+      assertSame(canonical, pool.intern(canonical));
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertSame(canonicals.get(i), pool.intern(Integer.toString(i)));
+    }
+  }
+
+  public void testBuilder_maximumSize() {
+    Interner<String> pool = Interners.newBuilder().concurrencyLevel(1).maximumSize(16).build();
+    String hot = "hot";
+    List<String> canonicals = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      String canonical = Integer.toString(i);
+      canonicals.add(canonical);
+      assertSame(canonical, pool.intern(canonical));
+      // an instance which is interned often is not evicted
+      assertSame(hot, pool.intern(hot));
+      assertSame(hot, pool.intern(new String(hot)));
+    }
+
+    int retained = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (pool.intern(Integer.toString(i)) == canonicals.get(i)) {
+        retained++;
+      }
+    }
+    assertTrue(retained < 16);
+  }
+
+  public void testBuilder_concurrentInterning() throws Exception {
+    final Interner<String> pool = Interners.newBuilder().weak().build();
+    final int count = 1000;
+    List<Callable<List<String>>> tasks = Lists.newArrayList();
+    for (int t = 0; t < 4; t++) {
+      tasks.add(new Callable<List<String>>() {
+        @Override public List<String> call() {
+          List<String> canonicals = Lists.newArrayList();
+          for (int i = 0; i < count; i++) {
+            canonicals.add(pool.intern(Integer.toString(i)));
+          }
+          return canonicals;
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+    try {
+      List<Future<List<String>>> futures = executor.invokeAll(tasks);
+      List<String> expected = futures.get(0).get();
+      for (Future<List<String>> future : futures) {
+        List<String> canonicals = future.get();
+        for (int i = 0; i < count; i++) {
+          assertSame(expected.get(i), canonicals.get(i));
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testBuilder_badArguments() {
+    try {
+      Interners.newBuilder().concurrencyLevel(0);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      Interners.newBuilder().maximumSize(0);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      Interners.newBuilder().maximumSize(1).maximumSize(1);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
   public void testAsFunction_simplistic() {
     String canonical = "a";
     String not = new String("a");
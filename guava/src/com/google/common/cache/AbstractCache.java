@@ -18,6 +18,7 @@ package com.google.common.cache;
 
 import com.google.common.annotations.Beta;
 import com.google.common.annotations.GwtCompatible;
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
@@ -95,6 +96,30 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
     }
   }
 
+  /**
+   * @since 13.0
+   */
+  @Override
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @since 13.0
+   */
+  @Override
+  public V computeIfPresent(K key, Function<? super V, ? extends V> remappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @since 13.0
+   */
+  @Override
+  public V merge(K key, V value, Function<? super V, ? extends V> remappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void cleanUp() {}
 
@@ -118,6 +143,14 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
     }
   }
 
+  /**
+   * @since 13.0
+   */
+  @Override
+  public void invalidateTag(Object tag) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void invalidateAll() {
     throw new UnsupportedOperationException();
@@ -128,6 +161,14 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * @since 13.0
+   */
+  @Override
+  public HotKeyStats<K> hotKeyStats() {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public ConcurrentMap<K, V> asMap() {
     throw new UnsupportedOperationException();
@@ -209,6 +250,9 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
     private final LongAdder loadExceptionCount = new LongAdder();
     private final LongAdder totalLoadTime = new LongAdder();
     private final LongAdder evictionCount = new LongAdder();
+    // Guarded by itself. Loads are far rarer and slower than hits, so a single locked array costs
+    // little, where an adder per bucket would make every counter and snapshot expensive.
+    private final long[] loadLatency = new long[LatencyDistribution.BUCKET_COUNT];
 
     /**
      * Constructs an instance with all counts initialized to zero.
@@ -235,12 +279,21 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
     public void recordLoadSuccess(long loadTime) {
       loadSuccessCount.increment();
       totalLoadTime.add(loadTime);
+      recordLoadLatency(loadTime);
     }
 
     @Override
     public void recordLoadException(long loadTime) {
       loadExceptionCount.increment();
       totalLoadTime.add(loadTime);
+      recordLoadLatency(loadTime);
+    }
+
+    private void recordLoadLatency(long loadTime) {
+      int bucket = LatencyDistribution.bucketIndex(loadTime);
+      synchronized (loadLatency) {
+        loadLatency[bucket]++;
+      }
     }
 
     @Override
@@ -250,13 +303,22 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
 
     @Override
     public CacheStats snapshot() {
+      LatencyDistribution loadLatencyDistribution;
+      synchronized (loadLatency) {
+        loadLatencyDistribution = new LatencyDistribution(loadLatency);
+      }
       return new CacheStats(
           hitCount.sum(),
           missCount.sum(),
           loadSuccessCount.sum(),
           loadExceptionCount.sum(),
           totalLoadTime.sum(),
-          evictionCount.sum());
+          evictionCount.sum(),
+          loadLatencyDistribution,
+          new long[RemovalCause.values().length],
+          0,
+          0,
+          0);
     }
 
     /**
@@ -270,6 +332,12 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
       loadExceptionCount.add(otherStats.loadExceptionCount());
       totalLoadTime.add(otherStats.totalLoadTime());
       evictionCount.add(otherStats.evictionCount());
+      LatencyDistribution otherLoadLatency = otherStats.loadLatency();
+      synchronized (loadLatency) {
+        for (int i = 0; i < loadLatency.length; i++) {
+          loadLatency[i] += otherLoadLatency.bucketCount(i);
+        }
+      }
     }
   }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A semi-persistent mapping from keys to values, whose values are loaded asynchronously. Unlike a
+ * {@link LoadingCache}, retrieving a value never blocks the calling thread: a missing value is
+ * loaded by a task submitted to an {@link java.util.concurrent.Executor}, and the caller is handed
+ * a {@link ListenableFuture} of the result, to which it may attach callbacks or transformations.
+ *
+ * <p>Implementations of this interface are expected to be thread-safe, and can be safely accessed
+ * by multiple concurrent threads.
+ *
+ * @since 13.0
+ */
+@Beta
+public interface AsyncLoadingCache<K, V> {
+
+  /**
+   * Returns a future of the value associated with {@code key} in this cache, first submitting a
+   * task to load that value if necessary. This method returns immediately, without waiting for
+   * the value to be loaded.
+   *
+   * <p>If the value for {@code key} is already being loaded, whether by a call to this method or
+   * by {@link LoadingCache#get} on the {@linkplain #synchronous synchronous view}, the returned
+   * future completes when that load does; no additional load is started. Cancelling the returned
+   * future does not affect the load, nor the futures returned to other callers.
+   *
+   * <p>The returned future fails with the exception thrown by {@link CacheLoader#load}, or with
+   * an {@link CacheLoader.InvalidCacheLoadException} if the loader returned {@code null}. A failed
+   * load is not cached, so a later call will try again.
+   *
+   * @throws NullPointerException if {@code key} is null
+   */
+  ListenableFuture<V> get(K key);
+
+  /**
+   * Returns a view of this cache as a {@link LoadingCache}, which blocks while waiting for values
+   * to load. The view shares its entries, statistics and in-flight loads with this cache, and is
+   * the means of invalidating entries and of inspecting the cache.
+   */
+  LoadingCache<K, V> synchronous();
+}
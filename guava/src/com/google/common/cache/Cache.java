@@ -18,6 +18,7 @@ package com.google.common.cache;
 
 import com.google.common.annotations.Beta;
 import com.google.common.annotations.GwtCompatible;
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ExecutionError;
 import com.google.common.util.concurrent.UncheckedExecutionException;
@@ -105,6 +106,46 @@ public interface Cache<K, V> {
    */
   void putAll(Map<? extends K,? extends V> m);
 
+  /**
+   * Returns the value associated with {@code key} in this cache, first computing it with {@code
+   * mappingFunction} and caching the result if there is none. Unlike {@link #get(Object,
+   * Callable)}, the function is applied while holding the lock which guards the entry, so it must
+   * be short and must not access this cache. If the function returns {@code null}, nothing is
+   * cached and {@code null} is returned; if it throws, the exception propagates and the cache is
+   * unchanged.
+   *
+   * @since 13.0
+   */
+  @Nullable
+  V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction);
+
+  /**
+   * If a value is associated with {@code key} in this cache, replaces it with the result of
+   * applying {@code remappingFunction} to it, or discards it if the result is {@code null}.
+   * Returns the new value, or {@code null} if there is none. The function is applied at most once,
+   * atomically with the replacement, and is subject to the same restrictions as in {@link
+   * #computeIfAbsent}.
+   *
+   * @since 13.0
+   */
+  @Nullable
+  V computeIfPresent(K key, Function<? super V, ? extends V> remappingFunction);
+
+  /**
+   * Associates {@code value} with {@code key} in this cache if there is no value associated with
+   * it; otherwise replaces the existing value with the result of applying {@code
+   * remappingFunction} to it, or discards it if the result is {@code null}. Returns the new value,
+   * or {@code null} if there is none. The function is applied at most once, atomically with the
+   * replacement, and is subject to the same restrictions as in {@link #computeIfAbsent}.
+   *
+   * <p>This is useful for accumulating values, such as counts, without the retry loop needed when
+   * doing the same through {@link ConcurrentMap#replace(Object, Object, Object)}.
+   *
+   * @since 13.0
+   */
+  @Nullable
+  V merge(K key, V value, Function<? super V, ? extends V> remappingFunction);
+
   /**
    * Discards any cached value for key {@code key}.
    */
@@ -117,6 +158,14 @@ public interface Cache<K, V> {
    */
   void invalidateAll(Iterable<?> keys);
 
+  /**
+   * Discards all entries whose tags, as computed by the cache's {@linkplain CacheBuilder#tagger
+   * tagger}, include {@code tag}.
+   *
+   * @since 13.0
+   */
+  void invalidateTag(Object tag);
+
   /**
    * Discards all entries in the cache.
    */
@@ -133,6 +182,14 @@ public interface Cache<K, V> {
    */
   CacheStats stats();
 
+  /**
+   * Returns a current snapshot of this cache's hottest keys, if it {@linkplain
+   * CacheBuilder#trackHotKeys tracks them}; otherwise the snapshot lists no keys.
+   *
+   * @since 13.0
+   */
+  HotKeyStats<K> hotKeyStats();
+
   /**
    * Returns a view of the entries stored in this cache as a thread-safe map. Modifications made to
    * the map directly affect the cache.
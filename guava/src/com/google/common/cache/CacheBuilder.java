@@ -34,15 +34,18 @@ import com.google.common.cache.AbstractCache.SimpleStatsCounter;
 import com.google.common.cache.AbstractCache.StatsCounter;
 import com.google.common.cache.LocalCache.Strength;
 
+import java.io.File;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.ConcurrentModificationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
 
 /**
  * <p>A builder of {@link LoadingCache} and {@link Cache} instances having any combination of the
@@ -133,7 +136,8 @@ import javax.annotation.CheckReturnValue;
  * {@linkplain #removalListener removalListener}, {@linkplain #expireAfterWrite expireAfterWrite},
  * {@linkplain #expireAfterAccess expireAfterAccess}, {@linkplain #weakKeys weakKeys},
  * {@linkplain #weakValues weakValues}, or {@linkplain #softValues softValues} perform periodic
- * maintenance.
+ * maintenance. If a {@linkplain #maintenanceExecutor maintenance executor} is specified, most of
+ * this work is performed on that executor instead.
  *
  * <p>The caches produced by {@code CacheBuilder} are serializable, and the deserialized caches
  * retain all the configuration properties of the original cache. Note that the serialized form does
@@ -229,6 +233,19 @@ public final class CacheBuilder<K, V> {
   long expireAfterWriteNanos = UNSET_INT;
   long expireAfterAccessNanos = UNSET_INT;
   long refreshNanos = UNSET_INT;
+  long refreshBatchNanos = UNSET_INT;
+  double refreshJitter;
+  int maxConcurrentRefreshes = UNSET_INT;
+  Expiry<? super K, ? super V> expiry;
+  Tagger<? super K, ? super V> tagger;
+
+  boolean frequencyAdmission;
+  boolean globalEviction;
+  double targetHeapOccupancy = UNSET_INT;
+  long tierMaximumBytes = UNSET_INT;
+  File diskTierDirectory;
+  CacheCodec<?> keyCodec;
+  CacheCodec<?> codec;
 
   Equivalence<Object> keyEquivalence;
   Equivalence<Object> valueEquivalence;
@@ -237,6 +254,20 @@ public final class CacheBuilder<K, V> {
   Ticker ticker;
 
   Supplier<? extends StatsCounter> statsCounterSupplier = NULL_STATS_COUNTER;
+  String name;
+  CacheRegistry registry;
+
+  Executor maintenanceExecutor;
+
+  Executor bulkLoadExecutor;
+  int bulkLoadParallelism = UNSET_INT;
+
+  long negativeResultNanos = UNSET_INT;
+  long negativeResultMaximumSize = UNSET_INT;
+  int threadLocalMaximumSize = UNSET_INT;
+  long threadLocalNanos = UNSET_INT;
+  int hotKeyCount = UNSET_INT;
+  int hotKeySampleRate = UNSET_INT;
 
   // TODO(fry): make constructor private and update tests to use newBuilder
   CacheBuilder() {}
@@ -496,6 +527,250 @@ public final class CacheBuilder<K, V> {
     return (Weigher<K1, V1>) Objects.firstNonNull(weigher, OneWeigher.INSTANCE);
   }
 
+  /**
+   * Specifies that size-based eviction should consult the recent popularity of entries before
+   * admitting a new entry into a full cache. Requires a {@linkplain #maximumSize(long) maximum
+   * size} or {@linkplain #maximumWeight(long) maximum weight}.
+   *
+   * <p>By default a bounded cache always admits a newly loaded or inserted entry and evicts the
+   * least-recently-used entries to make room for it. When this method is used the cache also keeps
+   * a compact, approximate frequency histogram of the keys that it has recently seen, regardless of
+   * whether they were retained. When the cache is full, a new entry only displaces the
+   * least-recently-used entry if its key has been requested more often; otherwise the new entry is
+   * evicted immediately (with a {@link RemovalCause#SIZE} notification) and the resident entry is
+   * retained. This keeps frequently used entries resident when the cache is subjected to scans of
+   * keys that are each used only once, at the cost of a few extra bytes per entry of capacity.
+   * Conversely, workloads in which newly added keys are immediately reused a few times and then
+   * abandoned may see a lower hit rate than with plain least-recently-used eviction.
+   *
+   * <p>A value that is evicted on admission is still returned to the caller that loaded it.
+   *
+   * @throws IllegalStateException if frequency admission was already requested
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> frequencyAdmission() {
+    checkState(!frequencyAdmission, "frequency admission was already requested");
+    frequencyAdmission = true;
+    return this;
+  }
+
+  boolean getFrequencyAdmission() {
+    return frequencyAdmission;
+  }
+
+  /**
+   * Specifies that size-based eviction should be decided against the cache as a whole rather than
+   * against each segment. Requires a {@linkplain #maximumSize(long) maximum size} or
+   * {@linkplain #maximumWeight(long) maximum weight}.
+   *
+   * <p>By default the maximum size or weight is divided evenly between the cache's internal
+   * segments (see {@link #concurrencyLevel}), and each segment evicts its own least-recently-used
+   * entries once it exceeds its share. When keys hash unevenly, a busy segment may then evict
+   * entries while the cache as a whole is well below its bound. When this method is used the
+   * segments share a single budget instead: once the total weight of the cache exceeds the
+   * maximum, the writing thread evicts the least-recently-used entry of whichever segment's
+   * least-recently-used entry was accessed longest ago, until the cache is within its bound again.
+   * Writes to different segments remain concurrent, and the concurrency level is no longer reduced
+   * for small maximum sizes.
+   *
+   * <p>The cross-segment ordering is approximate: it compares access times (read from the cache's
+   * {@linkplain #ticker ticker}) without locking, and only one thread at a time performs global
+   * eviction, so the cache may briefly exceed its maximum while writes race with eviction.
+   *
+   * @throws IllegalStateException if global eviction was already requested
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> globalEviction() {
+    checkState(!globalEviction, "global eviction was already requested");
+    globalEviction = true;
+    return this;
+  }
+
+  boolean getGlobalEviction() {
+    return globalEviction;
+  }
+
+  /**
+   * Specifies that the cache's {@linkplain #maximumSize(long) maximum size} or {@linkplain
+   * #maximumWeight(long) maximum weight} should shrink while the heap is under pressure, and grow
+   * back once the pressure has passed. This is an alternative to {@link #softValues}, which frees
+   * memory only once the garbage collector clears references, often clearing many of them at once
+   * and regardless of how valuable their entries are.
+   *
+   * <p>The pressure is measured as the fraction of the heap's old generation occupied after its
+   * latest garbage collection, as reported by {@link java.lang.management.MemoryPoolMXBean}. While
+   * it exceeds {@code targetOccupancy}, the cache's effective maximum is reduced by a tenth about
+   * once a second, down to a twentieth of the configured maximum, and the cache evicts entries
+   * through its usual policy as it performs maintenance. Once the occupancy is a tenth or more
+   * below the target, the effective maximum is raised by a tenth about once a second, back up to
+   * the configured maximum. Each cache adjusts itself independently.
+   *
+   * @param targetOccupancy the occupancy of the old generation above which the cache shrinks
+   * @throws IllegalArgumentException if {@code targetOccupancy} is not strictly between 0 and 1
+   * @throws IllegalStateException if heap pressure adaptation was already requested
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("java.lang.management")
+  public CacheBuilder<K, V> adaptToHeapPressure(double targetOccupancy) {
+    checkState(targetHeapOccupancy == UNSET_INT,
+        "heap pressure adaptation was already requested with a target of %s", targetHeapOccupancy);
+    checkArgument(targetOccupancy > 0 && targetOccupancy < 1,
+        "target occupancy must be between 0 and 1: %s", targetOccupancy);
+    this.targetHeapOccupancy = targetOccupancy;
+    return this;
+  }
+
+  double getTargetHeapOccupancy() {
+    return (targetHeapOccupancy == UNSET_INT) ? 0 : targetHeapOccupancy;
+  }
+
+  /**
+   * Specifies that entries evicted because of the cache's {@linkplain #maximumSize(long) maximum
+   * size} or {@linkplain #maximumWeight(long) maximum weight} should be kept, serialized by {@code
+   * codec}, in up to {@code maximumBytes} of memory outside of the Java heap. A later request for
+   * an evicted key through {@link Cache#getIfPresent}, {@link LoadingCache#get}, {@link
+   * Cache#get(Object, java.util.concurrent.Callable)}, or their bulk equivalents, decodes its
+   * value and restores the entry to the cache, rather than loading the value again. This allows a
+   * cache to retain many more values than the heap could comfortably hold, without those values
+   * being traced or copied by the garbage collector.
+   *
+   * <p>The off-heap tier is divided into slabs of at most a megabyte, which are filled in turn.
+   * Once every slab is full, the oldest slab is discarded in its entirety to make room, so values
+   * leave the tier in the order in which they were evicted into it. Values which cannot be encoded,
+   * or which are larger than a slab, are not retained. Keys, and the location of their values,
+   * are still kept on the heap.
+   *
+   * <p>Entries in the off-heap tier are not counted by {@link Cache#size}, do not appear in the
+   * {@link Cache#asMap} view, and are not reported to the {@linkplain #removalListener removal
+   * listener} when they are discarded from the tier. Invalidating or replacing a key removes any
+   * value it had in the tier. A restored entry is treated as newly written, so a cache with a tier
+   * cannot also expire or refresh its entries.
+   *
+   * <p><b>Important note:</b> Instead of returning <em>this</em> as a {@code CacheBuilder}
+   * instance, this method returns {@code CacheBuilder<K1, V1>}. From this point on, either the
+   * original reference or the returned reference may be used to complete configuration and build
+   * the cache, but only the "generic" one is type-safe. That is, it will properly prevent you from
+   * building caches whose value types are incompatible with the types accepted by the codec
+   * already provided; the {@code CacheBuilder} type cannot do this.
+   *
+   * @param maximumBytes the maximum amount of direct memory used to store evicted values
+   * @param codec the codec which serializes values
+   * @throws IllegalArgumentException if {@code maximumBytes} is not positive
+   * @throws IllegalStateException if an off-heap or disk tier was already requested
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> offHeapTier(
+      long maximumBytes, CacheCodec<V1> codec) {
+    checkVictimTierNotSet();
+    checkNotNull(codec);
+    checkArgument(maximumBytes > 0, "maximumBytes must be positive: %s", maximumBytes);
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.codec = codec;
+    me.tierMaximumBytes = maximumBytes;
+    return me;
+  }
+
+  /**
+   * Specifies that entries evicted because of the cache's {@linkplain #maximumSize(long) maximum
+   * size} or {@linkplain #maximumWeight(long) maximum weight} should be appended, serialized by
+   * {@code keyCodec} and {@code valueCodec}, to up to {@code maximumBytes} of memory-mapped files
+   * in {@code directory}. As with an {@linkplain #offHeapTier off-heap tier}, a later request for
+   * an evicted key restores its entry rather than loading it again. In addition, the files outlive
+   * the cache: a cache later built over the same directory, with the same maximum, reopens them
+   * and serves their entries, so that a restarted process need not reload its working set from
+   * the source of truth. Files written with a different maximum are discarded.
+   *
+   * <p>The files are divided into slabs of at most 16 megabytes, which are filled in turn and
+   * discarded oldest first once the tier is full. The tier keeps its copy of an entry that is
+   * restored to the cache, so that entries which were in use when the process stopped are also
+   * recovered; writing, invalidating or expiring the key discards the copy. The key of each
+   * record is read from the files when they are reopened, and kept on the heap together with the
+   * location of its value. Writes reach the files through the operating system's page cache, and
+   * are not forced to the storage device, so the most recent writes may be lost if the machine,
+   * rather than the process, stops.
+   *
+   * <p>Entries in the disk tier are not counted by {@link Cache#size}, do not appear in the {@link
+   * Cache#asMap} view, and are not reported to the {@linkplain #removalListener removal listener}
+   * when they are discarded from the tier. The tier does not record when its entries were written
+   * or last read, and an entry restored from it, even after a restart, is treated as newly
+   * written, so a cache with a disk tier cannot also expire or refresh its entries. The directory
+   * must not be used by more than one cache at a time, and is not carried over when the cache is
+   * serialized. If the directory cannot be created or its files cannot be mapped, building the
+   * cache throws an {@link IllegalStateException}.
+   *
+   * <p><b>Important note:</b> Instead of returning <em>this</em> as a {@code CacheBuilder}
+   * instance, this method returns {@code CacheBuilder<K1, V1>}. From this point on, either the
+   * original reference or the returned reference may be used to complete configuration and build
+   * the cache, but only the "generic" one is type-safe. That is, it will properly prevent you from
+   * building caches whose key or value types are incompatible with the types accepted by the
+   * codecs already provided; the {@code CacheBuilder} type cannot do this.
+   *
+   * @param directory the directory holding the files of the tier
+   * @param maximumBytes the maximum size of the files of the tier
+   * @param keyCodec the codec which serializes keys
+   * @param valueCodec the codec which serializes values
+   * @throws IllegalArgumentException if {@code maximumBytes} is not positive
+   * @throws IllegalStateException if an off-heap or disk tier was already requested
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> diskTier(File directory,
+      long maximumBytes, CacheCodec<K1> keyCodec, CacheCodec<V1> valueCodec) {
+    checkVictimTierNotSet();
+    checkNotNull(directory);
+    checkNotNull(keyCodec);
+    checkNotNull(valueCodec);
+    checkArgument(maximumBytes > 0, "maximumBytes must be positive: %s", maximumBytes);
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.diskTierDirectory = directory;
+    me.keyCodec = keyCodec;
+    me.codec = valueCodec;
+    me.tierMaximumBytes = maximumBytes;
+    return me;
+  }
+
+  private void checkVictimTierNotSet() {
+    checkState(codec == null, "%s was already set to %s bytes",
+        (diskTierDirectory == null) ? "offHeapTier" : "diskTier", tierMaximumBytes);
+  }
+
+  long getTierMaximumBytes() {
+    return (tierMaximumBytes == UNSET_INT) ? 0 : tierMaximumBytes;
+  }
+
+  @Nullable
+  File getDiskTierDirectory() {
+    return diskTierDirectory;
+  }
+
+  // Make a safe contravariant cast now so we don't have to do it over and over.
+  @SuppressWarnings("unchecked")
+  @Nullable
+  <K1 extends K> CacheCodec<K1> getKeyCodec() {
+    return (CacheCodec<K1>) keyCodec;
+  }
+
+  // Make a safe contravariant cast now so we don't have to do it over and over.
+  @SuppressWarnings("unchecked")
+  @Nullable
+  <V1 extends V> CacheCodec<V1> getCodec() {
+    return (CacheCodec<V1>) codec;
+  }
+
   /**
    * Specifies that each key (not value) stored in the cache should be strongly referenced.
    *
@@ -619,6 +894,7 @@ public final class CacheBuilder<K, V> {
   public CacheBuilder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
     checkState(expireAfterWriteNanos == UNSET_INT, "expireAfterWrite was already set to %s ns",
         expireAfterWriteNanos);
+    checkState(expiry == null, "expireAfterWrite can not be combined with expireAfter");
     checkArgument(duration >= 0, "duration cannot be negative: %s %s", duration, unit);
     this.expireAfterWriteNanos = unit.toNanos(duration);
     return this;
@@ -653,6 +929,7 @@ public final class CacheBuilder<K, V> {
   public CacheBuilder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
     checkState(expireAfterAccessNanos == UNSET_INT, "expireAfterAccess was already set to %s ns",
         expireAfterAccessNanos);
+    checkState(expiry == null, "expireAfterAccess can not be combined with expireAfter");
     checkArgument(duration >= 0, "duration cannot be negative: %s %s", duration, unit);
     this.expireAfterAccessNanos = unit.toNanos(duration);
     return this;
@@ -663,6 +940,55 @@ public final class CacheBuilder<K, V> {
         ? DEFAULT_EXPIRATION_NANOS : expireAfterAccessNanos;
   }
 
+  /**
+   * Specifies that each entry should be automatically removed from the cache once a duration
+   * computed by {@code expiry} has elapsed. The duration is computed when the entry is created, and
+   * recomputed each time its value is replaced or read, so that entries may have individual
+   * lifetimes, such as time-to-live values supplied by the source of the data. Expired entries
+   * are removed in amortized constant time using a hierarchical timer wheel, rather than by
+   * scanning the cache.
+   *
+   * <p>Expired entries may be counted in {@link Cache#size}, but will never be visible to read or
+   * write operations. Expired entries are cleaned up as part of the routine maintenance described
+   * in the class javadoc, with a granularity of about a second. A read which changes an entry's
+   * duration is applied immediately to that entry's visibility.
+   *
+   * <p><b>Important note:</b> Instead of returning <em>this</em> as a {@code CacheBuilder}
+   * instance, this method returns {@code CacheBuilder<K1, V1>}. From this point on, either the
+   * original reference or the returned reference may be used to complete configuration and build
+   * the cache, but only the "generic" one is type-safe. That is, it will properly prevent you from
+   * building caches whose key or value types are incompatible with the types accepted by the
+   * expiry already provided; the {@code CacheBuilder} type cannot do this.
+   *
+   * @param expiry the expiry to use in calculating the expiration time of cache entries
+   * @throws IllegalStateException if an expiry, {@link #expireAfterWrite} or
+   *     {@link #expireAfterAccess} was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> expireAfter(
+      Expiry<? super K1, ? super V1> expiry) {
+    checkState(this.expiry == null, "expiry was already set to %s", this.expiry);
+    checkState(expireAfterWriteNanos == UNSET_INT,
+        "expireAfter can not be combined with expireAfterWrite");
+    checkState(expireAfterAccessNanos == UNSET_INT,
+        "expireAfter can not be combined with expireAfterAccess");
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.expiry = checkNotNull(expiry);
+    return me;
+  }
+
+  // Make a safe contravariant cast now so we don't have to do it over and over.
+  @SuppressWarnings("unchecked")
+  @Nullable
+  <K1 extends K, V1 extends V> Expiry<K1, V1> getExpiry() {
+    return (Expiry<K1, V1>) expiry;
+  }
+
   /**
    * Specifies that active entries are eligible for automatic refresh once a fixed duration has
    * elapsed after the entry's creation, or the most recent replacement of its value. The semantics
@@ -677,7 +1003,7 @@ public final class CacheBuilder<K, V> {
    * <p>Currently automatic refreshes are performed when the first stale request for an entry
    * occurs. The request triggering refresh will make a blocking call to {@link CacheLoader#reload}
    * and immediately return the new value if the returned future is complete, and the old value
-   * otherwise.
+   * otherwise. {@link #refreshAhead} refreshes entries without waiting for them to be requested.
    *
    * <p><b>Note:</b> <i>all exceptions thrown during refresh will be logged and then swallowed</i>.
    *
@@ -702,6 +1028,291 @@ public final class CacheBuilder<K, V> {
     return (refreshNanos == UNSET_INT) ? DEFAULT_REFRESH_NANOS : refreshNanos;
   }
 
+  /**
+   * Specifies that automatic refreshes should be collected for up to {@code duration}, and then
+   * performed together by a single call to {@link CacheLoader#loadAll}, rather than by a call to
+   * {@link CacheLoader#reload} for each entry. This greatly reduces the number of calls made to
+   * the loader when many entries become eligible for refresh at about the same time, such as
+   * those loaded together by {@link LoadingCache#getAll}.
+   *
+   * <p>While its refresh is pending, an entry continues to return its old value. Pending
+   * refreshes are performed as part of the routine maintenance described in the class javadoc,
+   * by the first thread to find that {@code duration} has elapsed since the oldest of them became
+   * due. Entries which are missing from the map returned by {@code loadAll} keep their old
+   * values. If the loader does not implement {@code loadAll}, the collected refreshes fall back
+   * to {@link CacheLoader#reload}.
+   *
+   * <p><b>Note:</b> <i>all exceptions thrown during refresh will be logged and then swallowed</i>.
+   *
+   * @param duration the length of time to collect refreshes for before performing them
+   * @param unit the unit that {@code duration} is expressed in
+   * @throws IllegalArgumentException if {@code duration} is not positive
+   * @throws IllegalStateException if the refresh batching window was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> batchRefreshes(long duration, TimeUnit unit) {
+    checkNotNull(unit);
+    checkState(refreshBatchNanos == UNSET_INT, "refresh batching was already set to %s ns",
+        refreshBatchNanos);
+    checkArgument(duration > 0, "duration must be positive: %s %s", duration, unit);
+    this.refreshBatchNanos = unit.toNanos(duration);
+    return this;
+  }
+
+  long getRefreshBatchNanos() {
+    return (refreshBatchNanos == UNSET_INT) ? 0 : refreshBatchNanos;
+  }
+
+  /**
+   * Specifies that entries which are due for {@linkplain #refreshAfterWrite refresh} should be
+   * refreshed ahead of being read, and that refreshes should be spread out over time and limited in
+   * number, so that entries which were loaded together do not all reload at once.
+   *
+   * <p>Each entry becomes due for refresh after a fixed fraction of the refresh interval, chosen
+   * for that entry at random between {@code 1 - jitter} and {@code 1}. Entries which are due are
+   * refreshed as part of the routine maintenance described in the class javadoc, whether or not
+   * they are read, as well as when they are next read. At most {@code maxConcurrentRefreshes}
+   * automatic refreshes are in flight at any time; an entry which is due when that many are in
+   * flight is refreshed once one of them completes. Calls to {@link LoadingCache#refresh} are not
+   * limited.
+   *
+   * <p>While its refresh is in flight, an entry continues to return its old value. Refreshes
+   * started by maintenance are not waited for, so that reads are not slowed by them, and it is
+   * therefore recommended that {@link CacheLoader#reload} be implemented asynchronously.
+   *
+   * <p><b>Note:</b> <i>all exceptions thrown during refresh will be logged and then swallowed</i>.
+   *
+   * @param jitter the fraction of the refresh interval by which each entry's refresh may be
+   *     brought forward
+   * @param maxConcurrentRefreshes the maximum number of automatic refreshes in flight at once
+   * @throws IllegalArgumentException if {@code jitter} is negative or not less than one, or if
+   *     {@code maxConcurrentRefreshes} is not positive
+   * @throws IllegalStateException if refresh ahead was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> refreshAhead(double jitter, int maxConcurrentRefreshes) {
+    checkState(this.maxConcurrentRefreshes == UNSET_INT,
+        "refresh ahead was already set to %s concurrent refreshes", this.maxConcurrentRefreshes);
+    checkArgument(jitter >= 0.0 && jitter < 1.0, "jitter must be in [0, 1): %s", jitter);
+    checkArgument(maxConcurrentRefreshes > 0,
+        "maxConcurrentRefreshes must be positive: %s", maxConcurrentRefreshes);
+    this.refreshJitter = jitter;
+    this.maxConcurrentRefreshes = maxConcurrentRefreshes;
+    return this;
+  }
+
+  double getRefreshJitter() {
+    return refreshJitter;
+  }
+
+  int getMaxConcurrentRefreshes() {
+    return (maxConcurrentRefreshes == UNSET_INT) ? 0 : maxConcurrentRefreshes;
+  }
+
+  /**
+   * Specifies an executor on which caches built by this builder perform the routine maintenance
+   * described in the class javadoc, so that it does not add to the latency of the operations which
+   * trigger it. Reads and writes then only schedule maintenance: reclaimed and expired entries are
+   * removed, removal listeners are invoked and {@linkplain #batchRefreshes batched refreshes} are
+   * performed by a task run on {@code executor}, of which at most one is waiting at any time.
+   *
+   * <p>Write operations still remove reclaimed and expired entries from the segment which they
+   * modify, as they hold its lock anyway. If removal notifications accumulate faster than the
+   * maintenance task delivers them, or if {@code executor} rejects the task, the threads using the
+   * cache deliver them directly until the backlog is cleared. Calls to {@link Cache#cleanUp}
+   * always perform maintenance on the calling thread.
+   *
+   * @throws IllegalStateException if a maintenance executor was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> maintenanceExecutor(Executor executor) {
+    checkState(maintenanceExecutor == null, "maintenance executor was already set");
+    this.maintenanceExecutor = checkNotNull(executor);
+    return this;
+  }
+
+  @Nullable
+  Executor getMaintenanceExecutor() {
+    return maintenanceExecutor;
+  }
+
+  /**
+   * Specifies an executor on which {@link LoadingCache#getAll} loads missing keys concurrently,
+   * when the cache's {@link CacheLoader} does not implement {@link CacheLoader#loadAll loadAll}.
+   * Without it, {@code getAll} then loads the missing keys one at a time with {@link
+   * CacheLoader#load}.
+   *
+   * <p>The calling thread loads keys alongside up to {@code parallelism - 1} tasks submitted to
+   * {@code executor}, so at most {@code parallelism} keys are loaded at once by each call to {@code
+   * getAll}, and keys are still loaded if {@code executor} rejects the tasks. As with {@link
+   * LoadingCache#get}, a key which another thread is already loading is waited for rather than
+   * loaded again. If loading any key fails, no further loads are started and {@code getAll}
+   * throws the exception, once the loads in progress have completed.
+   *
+   * @param executor the executor which runs loads
+   * @param parallelism the maximum number of keys loaded at once by each call to {@code getAll}
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   * @throws IllegalStateException if a bulk load executor was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> bulkLoadExecutor(Executor executor, int parallelism) {
+    checkNotNull(executor);
+    checkState(bulkLoadExecutor == null, "bulk load executor was already set");
+    checkArgument(parallelism > 0, "parallelism must be positive: %s", parallelism);
+    this.bulkLoadExecutor = executor;
+    this.bulkLoadParallelism = parallelism;
+    return this;
+  }
+
+  @Nullable
+  Executor getBulkLoadExecutor() {
+    return bulkLoadExecutor;
+  }
+
+  int getBulkLoadParallelism() {
+    return (bulkLoadParallelism == UNSET_INT) ? 1 : bulkLoadParallelism;
+  }
+
+  /**
+   * Specifies that when the cache's {@link CacheLoader#load} returns {@code null} for a key, the
+   * absence of a value should be remembered for {@code duration}. Until then, {@link
+   * LoadingCache#get} and related methods fail for that key with the same {@link
+   * CacheLoader.InvalidCacheLoadException InvalidCacheLoadException} that the null result caused,
+   * without calling the loader again. Keys which {@link CacheLoader#loadAll} omits from its result
+   * are remembered in the same way. This spares the loader from repeated requests for keys which
+   * have no value, without having to wrap every value in an {@code Optional}.
+   *
+   * <p>Negative results are held apart from the cache's entries: they do not count towards its
+   * {@linkplain #maximumSize maximum size} or {@linkplain #maximumWeight weight}, are not visible
+   * through {@link Cache#asMap}, and do not generate removal notifications. At most {@code
+   * maximumSize} of them are held, the least recently used being evicted first. A negative result
+   * is discarded when a value is {@linkplain Cache#put put} for its key, when its key is
+   * {@linkplain Cache#invalidate invalidated} or {@linkplain LoadingCache#refresh refreshed}, and
+   * when the cache is {@linkplain Cache#invalidateAll invalidated}. Requests which fail because of
+   * a negative result are counted by {@link CacheStats#negativeHitCount}, rather than as hits or
+   * misses.
+   *
+   * @param duration the length of time for which a negative result is remembered
+   * @param unit the unit that {@code duration} is expressed in
+   * @param maximumSize the maximum number of negative results to remember
+   * @throws IllegalArgumentException if {@code duration} is not positive or {@code maximumSize}
+   *     is negative
+   * @throws IllegalStateException if negative result caching was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> cacheNegativeResults(long duration, TimeUnit unit, long maximumSize) {
+    checkNotNull(unit);
+    checkState(negativeResultNanos == UNSET_INT,
+        "negative result caching was already set to %s ns", negativeResultNanos);
+    checkArgument(duration > 0, "duration must be positive: %s %s", duration, unit);
+    checkArgument(maximumSize >= 0, "maximum size must not be negative");
+    this.negativeResultNanos = unit.toNanos(duration);
+    this.negativeResultMaximumSize = maximumSize;
+    return this;
+  }
+
+  long getNegativeResultNanos() {
+    return (negativeResultNanos == UNSET_INT) ? 0 : negativeResultNanos;
+  }
+
+  long getNegativeResultMaximumSize() {
+    return (negativeResultMaximumSize == UNSET_INT) ? 0 : negativeResultMaximumSize;
+  }
+
+  /**
+   * Specifies that each thread should keep up to {@code maximumSize} of the values it most recently
+   * read from the cache in a small cache of its own, and reuse each of them for up to {@code
+   * duration}. Reading such a value through {@link Cache#getIfPresent}, {@link LoadingCache#get}
+   * or {@link Cache#get(Object, java.util.concurrent.Callable)} then touches no state shared with
+   * other threads, which avoids contention on a handful of very frequently read keys.
+   *
+   * <p>The per-thread copies stay coherent with the cache: a copy is discarded as soon as its
+   * value is replaced, invalidated, evicted or removed in any other way, at the cost of reading
+   * a version number kept by the entry's segment. A value which expires may however still be
+   * returned from a per-thread copy for up to {@code duration}, and reads served by a copy are
+   * neither recorded in the {@linkplain #recordStats statistics} nor considered when ordering
+   * entries for {@linkplain #maximumSize eviction} or {@linkplain #expireAfterAccess expiration}.
+   * This is therefore only worthwhile for a small number of hot keys and a short {@code duration}.
+   *
+   * <p>Keys are compared using {@link Object#equals}, so this cannot be combined with {@link
+   * #weakKeys}.
+   *
+   * @param maximumSize the maximum number of values kept by each thread
+   * @param duration the length of time for which a thread may reuse a value it has read
+   * @param unit the unit that {@code duration} is expressed in
+   * @throws IllegalArgumentException if {@code maximumSize} or {@code duration} is not positive
+   * @throws IllegalStateException if the thread-local cache was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> threadLocalCache(int maximumSize, long duration, TimeUnit unit) {
+    checkNotNull(unit);
+    checkState(threadLocalMaximumSize == UNSET_INT,
+        "thread-local cache was already set to %s entries", threadLocalMaximumSize);
+    checkArgument(maximumSize > 0, "maximum size must be positive");
+    checkArgument(duration > 0, "duration must be positive: %s %s", duration, unit);
+    this.threadLocalMaximumSize = maximumSize;
+    this.threadLocalNanos = unit.toNanos(duration);
+    return this;
+  }
+
+  int getThreadLocalMaximumSize() {
+    return (threadLocalMaximumSize == UNSET_INT) ? 0 : threadLocalMaximumSize;
+  }
+
+  long getThreadLocalNanos() {
+    return (threadLocalNanos == UNSET_INT) ? 0 : threadLocalNanos;
+  }
+
+  /**
+   * Specifies that the tags of each entry should be computed by {@code tagger} when its value is
+   * set, and kept in an index so that {@link Cache#invalidateTag} can remove all of the entries
+   * with a tag in time proportional to their number, rather than to the size of the cache. The
+   * index is maintained under the same locks as the entries, so an entry is never visible without
+   * being indexed by its current tags.
+   *
+   * <p><b>Important note:</b> Instead of returning <em>this</em> as a {@code CacheBuilder}
+   * instance, this method returns {@code CacheBuilder<K1, V1>}. From this point on, either the
+   * original reference or the returned reference may be used to complete configuration and build
+   * the cache, but only the "generic" one is type-safe. That is, it will properly prevent you from
+   * building caches whose key or value types are incompatible with the types accepted by the
+   * tagger already provided; the {@code CacheBuilder} type cannot do this.
+   *
+   * @param tagger the tagger to use in calculating the tags of cache entries
+   * @throws IllegalStateException if a tagger was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> tagger(
+      Tagger<? super K1, ? super V1> tagger) {
+    checkState(this.tagger == null, "tagger was already set to %s", this.tagger);
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.tagger = checkNotNull(tagger);
+    return me;
+  }
+
+  // Make a safe contravariant cast now so we don't have to do it over and over.
+  @SuppressWarnings("unchecked")
+  @Nullable
+  <K1 extends K, V1 extends V> Tagger<K1, V1> getTagger() {
+    return (Tagger<K1, V1>) tagger;
+  }
+
   /**
    * Specifies a nanosecond-precision time source for use in determining when entries should be
    * expired. By default, {@link System#nanoTime} is used.
@@ -788,6 +1399,93 @@ public final class CacheBuilder<K, V> {
     return statsCounterSupplier;
   }
 
+  /**
+   * Specifies a name for the cache, under which it registers itself when built with the
+   * {@linkplain #registry registry}, by default the {@linkplain CacheRegistry#platformRegistry
+   * platform registry}. The registry can then report the cache's {@linkplain CacheMetrics
+   * metrics}, and publishes them as an MBean if it is so configured. Reading the metrics does not
+   * slow the cache down, but its statistics are all zero unless {@link #recordStats} is also
+   * specified.
+   *
+   * <p>A registry holds one cache under each name, so a cache built with a name already in use
+   * replaces the cache registered under it, such as one which the same builder built earlier.
+   *
+   * @param name the name of the cache within its registry
+   * @throws IllegalStateException if a name was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("javax.management")
+  public CacheBuilder<K, V> name(String name) {
+    checkState(this.name == null, "name was already set to %s", this.name);
+    this.name = checkNotNull(name);
+    return this;
+  }
+
+  @Nullable
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Specifies the registry with which the cache registers itself under its {@linkplain #name name},
+   * instead of the {@linkplain CacheRegistry#platformRegistry platform registry}.
+   *
+   * @throws IllegalStateException if a registry was already set
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("javax.management")
+  public CacheBuilder<K, V> registry(CacheRegistry registry) {
+    checkState(this.registry == null, "registry was already set to %s", this.registry);
+    this.registry = checkNotNull(registry);
+    return this;
+  }
+
+  CacheRegistry getRegistry() {
+    return (registry == null) ? CacheRegistry.platformRegistry() : registry;
+  }
+
+  /**
+   * Enables tracking of the cache's hottest keys, which are reported by {@link Cache#hotKeyStats}:
+   * the approximately {@code count} keys read most often, and the approximately {@code count} keys
+   * whose values took longest to load in total. Only one in every {@code sampleRate} reads is
+   * tracked, so the reported read counts are estimates scaled by {@code sampleRate}; values loaded
+   * together by {@link CacheLoader#loadAll} are not attributed to individual keys.
+   *
+   * <p>Each segment of the cache tracks at most {@code count} keys for each measure, using the
+   * <i>Space-Saving</i> algorithm, so the memory used does not depend on the number of distinct
+   * keys. A key which is not tracked takes the place of the tracked key with the smallest
+   * measure, inheriting that measure, so the measures reported may be overestimated, but any key
+   * accounting for a large enough share of reads or of load time is reported. The tracked keys
+   * are strongly referenced.
+   *
+   * @param count the number of keys to report for each measure
+   * @param sampleRate the number of reads per tracked read
+   * @throws IllegalArgumentException if {@code count} or {@code sampleRate} is not positive
+   * @throws IllegalStateException if hot key tracking was already enabled
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> trackHotKeys(int count, int sampleRate) {
+    checkState(hotKeyCount == UNSET_INT, "hot key tracking was already enabled for %s keys",
+        hotKeyCount);
+    checkArgument(count > 0, "count must be positive");
+    checkArgument(sampleRate > 0, "sample rate must be positive");
+    this.hotKeyCount = count;
+    this.hotKeySampleRate = sampleRate;
+    return this;
+  }
+
+  int getHotKeyCount() {
+    return (hotKeyCount == UNSET_INT) ? 0 : hotKeyCount;
+  }
+
+  int getHotKeySampleRate() {
+    return (hotKeySampleRate == UNSET_INT) ? 1 : hotKeySampleRate;
+  }
+
   /**
    * Builds a cache, which either returns an already-loaded value for a given key or atomically
    * computes or retrieves it using the supplied {@code CacheLoader}. If another thread is currently
@@ -803,9 +1501,100 @@ public final class CacheBuilder<K, V> {
   public <K1 extends K, V1 extends V> LoadingCache<K1, V1> build(
       CacheLoader<? super K1, V1> loader) {
     checkWeightWithWeigher();
+    checkSizeBasedEviction();
+    checkRefreshBatching();
+    checkThreadLocalCache();
+    checkRegistry();
     return new LocalCache.LocalLoadingCache<K1, V1>(this, loader);
   }
 
+  /**
+   * Builds a cache which loads values asynchronously. Rather than blocking, {@link
+   * AsyncLoadingCache#get} returns a future of the value; missing values are loaded by tasks
+   * submitted to {@code executor}, which invoke the supplied {@code CacheLoader}. The futures of
+   * values which are being loaded are stored in the cache, so that concurrent requests for the
+   * same key share a single load. Refreshes triggered by {@link #refreshAfterWrite} are also
+   * performed on {@code executor}.
+   *
+   * <p>This method does not alter the state of this {@code CacheBuilder} instance, so it can be
+   * invoked again to create multiple independent caches.
+   *
+   * @param loader the cache loader used to obtain new values
+   * @param executor the executor which runs loads
+   * @return a cache having the requested features
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> AsyncLoadingCache<K1, V1> buildAsync(
+      CacheLoader<? super K1, V1> loader, Executor executor) {
+    checkWeightWithWeigher();
+    checkSizeBasedEviction();
+    checkState(refreshBatchNanos == UNSET_INT,
+        "batchRefreshes is not supported by asynchronous caches");
+    checkState(maxConcurrentRefreshes == UNSET_INT,
+        "refreshAhead is not supported by asynchronous caches");
+    checkState(negativeResultNanos == UNSET_INT,
+        "cacheNegativeResults is not supported by asynchronous caches");
+    checkState(tagger == null, "tagger is not supported by asynchronous caches");
+    checkState(threadLocalMaximumSize == UNSET_INT,
+        "threadLocalCache is not supported by asynchronous caches");
+    checkState(hotKeyCount == UNSET_INT, "trackHotKeys is not supported by asynchronous caches");
+    checkRegistry();
+    return new LocalCache.LocalAsyncLoadingCache<K1, V1>(this, loader, executor);
+  }
+
+  /**
+   * Builds a cache with primitive {@code long} keys, which either returns an already-loaded value
+   * for a given key or atomically computes or retrieves it using the supplied {@code CacheLoader}.
+   * Its keys are stored in primitive arrays rather than in an entry per key, so the cache uses
+   * less memory per entry than one returned by {@link #build(CacheLoader)}, and reading a cached
+   * value does not allocate. Keys are only boxed in order to be passed to {@code loader} and to
+   * the removal listener, if one is passed to {@linkplain #buildLongKeyed(CacheLoader,
+   * RemovalListener) the other overload}.
+   *
+   * <p>Caches bounded by {@link #maximumSize} evict entries which have not been used recently,
+   * approximating least-recently-used eviction. Weighers, weak or soft references, custom
+   * expiration, batched refreshes, frequency admission, global eviction, off-heap or disk tiers,
+   * maintenance executors and bulk load executors are not supported, and neither is a listener set
+   * by {@link #removalListener}, as the type of its keys could not be checked.
+   *
+   * <p>This method does not alter the state of this {@code CacheBuilder} instance, so it can be
+   * invoked again to create multiple independent caches.
+   *
+   * @param loader the cache loader used to obtain new values
+   * @return a cache having the requested features
+   * @throws IllegalStateException if this builder uses a feature which long-keyed caches do not
+   *     support
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <V1 extends V> LongLoadingCache<V1> buildLongKeyed(CacheLoader<? super Long, V1> loader) {
+    return buildLongKeyed(loader, NullListener.INSTANCE);
+  }
+
+  /**
+   * Builds a cache with primitive {@code long} keys, as does {@link #buildLongKeyed(CacheLoader)},
+   * which notifies {@code listener} each time an entry is removed for any reason, as described by
+   * {@link #removalListener}.
+   *
+   * @param loader the cache loader used to obtain new values
+   * @param listener the listener to notify of removed entries, with boxed keys
+   * @return a cache having the requested features
+   * @throws IllegalStateException if this builder uses a feature which long-keyed caches do not
+   *     support
+   * @since 13.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <V1 extends V> LongLoadingCache<V1> buildLongKeyed(CacheLoader<? super Long, V1> loader,
+      RemovalListener<? super Long, ? super V1> listener) {
+    checkWeightWithWeigher();
+    checkLongKeyedCache();
+    return new LongLocalCache<V1>(this, loader, checkNotNull(listener));
+  }
+
   /**
    * Builds a cache which does not automatically load values when keys are requested.
    *
@@ -820,12 +1609,105 @@ public final class CacheBuilder<K, V> {
    */
   public <K1 extends K, V1 extends V> Cache<K1, V1> build() {
     checkWeightWithWeigher();
+    checkSizeBasedEviction();
     checkNonLoadingCache();
+    checkThreadLocalCache();
+    checkRegistry();
     return new LocalCache.LocalManualCache<K1, V1>(this);
   }
 
   private void checkNonLoadingCache() {
     checkState(refreshNanos == UNSET_INT, "refreshAfterWrite requires a LoadingCache");
+    checkState(refreshBatchNanos == UNSET_INT, "batchRefreshes requires a LoadingCache");
+    checkState(bulkLoadExecutor == null, "bulkLoadExecutor requires a LoadingCache");
+    checkState(maxConcurrentRefreshes == UNSET_INT, "refreshAhead requires a LoadingCache");
+    checkState(negativeResultNanos == UNSET_INT, "cacheNegativeResults requires a LoadingCache");
+  }
+
+  private void checkLongKeyedCache() {
+    checkState(removalListener == null,
+        "removalListener is not supported by long-keyed caches; pass it to buildLongKeyed instead");
+    checkState(weigher == null, "weigher is not supported by long-keyed caches");
+    checkState(keyStrength == null && valueStrength == null,
+        "weak or soft references are not supported by long-keyed caches");
+    checkState(keyEquivalence == null && valueEquivalence == null,
+        "custom equivalences are not supported by long-keyed caches");
+    checkState(expiry == null, "expireAfter is not supported by long-keyed caches");
+    checkState(refreshBatchNanos == UNSET_INT,
+        "batchRefreshes is not supported by long-keyed caches");
+    checkState(maxConcurrentRefreshes == UNSET_INT,
+        "refreshAhead is not supported by long-keyed caches");
+    checkState(negativeResultNanos == UNSET_INT,
+        "cacheNegativeResults is not supported by long-keyed caches");
+    checkState(tagger == null, "tagger is not supported by long-keyed caches");
+    checkState(threadLocalMaximumSize == UNSET_INT,
+        "threadLocalCache is not supported by long-keyed caches");
+    checkState(hotKeyCount == UNSET_INT, "trackHotKeys is not supported by long-keyed caches");
+    checkState(!frequencyAdmission, "frequencyAdmission is not supported by long-keyed caches");
+    checkState(!globalEviction, "globalEviction is not supported by long-keyed caches");
+    checkState(targetHeapOccupancy == UNSET_INT,
+        "adaptToHeapPressure is not supported by long-keyed caches");
+    checkState(name == null, "name is not supported by long-keyed caches");
+    checkState(codec == null, "tiers are not supported by long-keyed caches");
+    checkState(maintenanceExecutor == null,
+        "maintenanceExecutor is not supported by long-keyed caches");
+    checkState(bulkLoadExecutor == null,
+        "bulkLoadExecutor is not supported by long-keyed caches");
+  }
+
+  private void checkRefreshBatching() {
+    if (refreshBatchNanos != UNSET_INT) {
+      checkState(refreshNanos != UNSET_INT, "batchRefreshes requires refreshAfterWrite");
+    }
+    if (maxConcurrentRefreshes != UNSET_INT) {
+      checkState(refreshNanos != UNSET_INT, "refreshAhead requires refreshAfterWrite");
+      checkState(refreshBatchNanos == UNSET_INT,
+          "refreshAhead cannot be combined with batchRefreshes");
+      // entries are found to be due by scanning them in order of write time
+      checkState(expiry == null, "refreshAhead cannot be combined with expireAfter");
+    }
+  }
+
+  private void checkThreadLocalCache() {
+    if (threadLocalMaximumSize != UNSET_INT) {
+      // the per-thread caches are hash maps
+      checkState(getKeyEquivalence() == Equivalence.equals(),
+          "threadLocalCache cannot be combined with weakKeys");
+    }
+  }
+
+  private void checkRegistry() {
+    checkState(registry == null || name != null, "registry requires name");
+  }
+
+  private void checkSizeBasedEviction() {
+    boolean bounded = (maximumSize != UNSET_INT) || (maximumWeight != UNSET_INT);
+    if (codec != null) {
+      String tier = (diskTierDirectory == null) ? "offHeapTier" : "diskTier";
+      checkState(bounded, "%s requires maximumSize or maximumWeight", tier);
+      checkState(keyStrength == null || keyStrength == Strength.STRONG,
+          "%s requires strong keys", tier);
+      // an entry restored from the tier starts a new lifetime, so its access and write times, and
+      // the expiry and refresh which depend on them, are not kept
+      checkState(expireAfterWriteNanos == UNSET_INT,
+          "%s cannot be combined with expireAfterWrite", tier);
+      checkState(expireAfterAccessNanos == UNSET_INT,
+          "%s cannot be combined with expireAfterAccess", tier);
+      checkState(expiry == null, "%s cannot be combined with expireAfter", tier);
+      checkState(refreshNanos == UNSET_INT, "%s cannot be combined with refreshAfterWrite", tier);
+      // entries evicted to the tier are no longer indexed, so could not be invalidated by tag
+      checkState(tagger == null, "%s cannot be combined with tagger", tier);
+    }
+    if (frequencyAdmission) {
+      checkState(bounded, "frequencyAdmission requires maximumSize or maximumWeight");
+      checkState(!globalEviction, "frequencyAdmission cannot be combined with globalEviction");
+    }
+    if (globalEviction) {
+      checkState(bounded, "globalEviction requires maximumSize or maximumWeight");
+    }
+    if (targetHeapOccupancy != UNSET_INT) {
+      checkState(bounded, "adaptToHeapPressure requires maximumSize or maximumWeight");
+    }
   }
 
   private void checkWeightWithWeigher() {
@@ -868,6 +1750,49 @@ public final class CacheBuilder<K, V> {
     if (expireAfterAccessNanos != UNSET_INT) {
       s.add("expireAfterAccess", expireAfterAccessNanos + "ns");
     }
+    if (expiry != null) {
+      s.addValue("expiry");
+    }
+    if (tagger != null) {
+      s.addValue("tagger");
+    }
+    if (refreshBatchNanos != UNSET_INT) {
+      s.add("batchRefreshes", refreshBatchNanos + "ns");
+    }
+    if (maxConcurrentRefreshes != UNSET_INT) {
+      s.add("refreshJitter", refreshJitter);
+      s.add("maxConcurrentRefreshes", maxConcurrentRefreshes);
+    }
+    if (maintenanceExecutor != null) {
+      s.addValue("maintenanceExecutor");
+    }
+    if (bulkLoadExecutor != null) {
+      s.add("bulkLoadParallelism", bulkLoadParallelism);
+    }
+    if (negativeResultNanos != UNSET_INT) {
+      s.add("negativeResults", negativeResultNanos + "ns");
+      s.add("negativeResultMaximumSize", negativeResultMaximumSize);
+    }
+    if (threadLocalMaximumSize != UNSET_INT) {
+      s.add("threadLocalMaximumSize", threadLocalMaximumSize);
+      s.add("threadLocalDuration", threadLocalNanos + "ns");
+    }
+    if (hotKeyCount != UNSET_INT) {
+      s.add("hotKeyCount", hotKeyCount);
+      s.add("hotKeySampleRate", hotKeySampleRate);
+    }
+    if (frequencyAdmission) {
+      s.addValue("frequencyAdmission");
+    }
+    if (globalEviction) {
+      s.addValue("globalEviction");
+    }
+    if (targetHeapOccupancy != UNSET_INT) {
+      s.add("targetHeapOccupancy", targetHeapOccupancy);
+    }
+    if (tierMaximumBytes != UNSET_INT) {
+      s.add((diskTierDirectory == null) ? "offHeapTier" : "diskTier", tierMaximumBytes + "B");
+    }
     if (keyStrength != null) {
       s.add("keyStrength", Ascii.toLowerCase(keyStrength.toString()));
     }
@@ -883,6 +1808,9 @@ public final class CacheBuilder<K, V> {
     if (removalListener != null) {
       s.addValue("removalListener");
     }
+    if (name != null) {
+      s.add("name", name);
+    }
     return s.toString();
   }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts cache values to and from bytes, so that they may be stored outside of the Java heap.
+ * See {@link CacheBuilder#offHeapTier}.
+ *
+ * @since 13.0
+ */
+@Beta
+public interface CacheCodec<V> {
+
+  /**
+   * Returns the serialized form of {@code value}. The returned array is copied by the cache, and
+   * may be reused by the caller once this method returns.
+   */
+  byte[] encode(V value);
+
+  /**
+   * Returns the value serialized in the remaining bytes of {@code buffer}. The buffer is owned by
+   * the caller, and may be retained by the returned value.
+   */
+  V decode(ByteBuffer buffer);
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtCompatible;
+import com.google.common.base.Objects;
+
+/**
+ * A snapshot of the metrics of a cache {@linkplain CacheBuilder#name named} in a {@link
+ * CacheRegistry}. Instances of this class are immutable.
+ *
+ * @since 13.0
+ */
+@Beta
+@GwtCompatible
+public final class CacheMetrics {
+  private final String name;
+  private final CacheStats stats;
+  private final long size;
+  private final long weightedSize;
+
+  CacheMetrics(String name, CacheStats stats, long size, long weightedSize) {
+    this.name = checkNotNull(name);
+    this.stats = checkNotNull(stats);
+    this.size = size;
+    this.weightedSize = weightedSize;
+  }
+
+  /** Returns the name under which the cache was registered. */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * Returns the cache's cumulative statistics, including its eviction counts. These are all zero
+   * unless the cache was built with {@link CacheBuilder#recordStats}.
+   */
+  public CacheStats stats() {
+    return stats;
+  }
+
+  /** Returns the approximate number of entries in the cache. */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Returns the approximate total weight of the entries in the cache, as computed by its
+   * {@linkplain CacheBuilder#weigher weigher}; this is its size if it has none.
+   */
+  public long weightedSize() {
+    return weightedSize;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("name", name)
+        .add("size", size)
+        .add("weightedSize", weightedSize)
+        .add("stats", stats)
+        .toString();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtIncompatible;
+
+/**
+ * The management interface through which a {@link CacheRegistry} publishes the {@linkplain
+ * CacheMetrics metrics} of each cache it holds as a JMX MBean. Each attribute is read from the
+ * cache when it is requested; all of them are zero once the cache has been garbage collected.
+ *
+ * @since 13.0
+ */
+@Beta
+@GwtIncompatible("javax.management")
+public interface CacheMetricsMBean {
+  /** Returns the name under which the cache was registered. */
+  String getName();
+
+  /** See {@link CacheMetrics#size}. */
+  long getSize();
+
+  /** See {@link CacheMetrics#weightedSize}. */
+  long getWeightedSize();
+
+  /** See {@link CacheStats#requestCount}. */
+  long getRequestCount();
+
+  /** See {@link CacheStats#hitCount}. */
+  long getHitCount();
+
+  /** See {@link CacheStats#hitRate}. */
+  double getHitRate();
+
+  /** See {@link CacheStats#missCount}. */
+  long getMissCount();
+
+  /** See {@link CacheStats#missRate}. */
+  double getMissRate();
+
+  /** See {@link CacheStats#loadSuccessCount}. */
+  long getLoadSuccessCount();
+
+  /** See {@link CacheStats#loadExceptionCount}. */
+  long getLoadExceptionCount();
+
+  /** See {@link CacheStats#totalLoadTime}. */
+  long getTotalLoadTime();
+
+  /** See {@link CacheStats#averageLoadPenalty}. */
+  double getAverageLoadPenalty();
+
+  /** See {@link CacheStats#evictionCount()}. */
+  long getEvictionCount();
+
+  /** Returns the number of entries evicted because of the cache's maximum size or weight. */
+  long getSizeEvictionCount();
+
+  /** Returns the number of entries evicted because they expired. */
+  long getExpiredEvictionCount();
+
+  /** Returns the number of entries evicted because their key or value was garbage collected. */
+  long getCollectedEvictionCount();
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtIncompatible;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * A registry of caches, each of which registers itself under the {@linkplain CacheBuilder#name
+ * name} it was built with, through which the {@linkplain CacheMetrics metrics} of all of them can
+ * be read. A registry may also publish the metrics of each cache as a {@link CacheMetricsMBean},
+ * under an object name of the form {@code com.google.common.cache:type=Cache,name="<name>"}.
+ *
+ * <p>Metrics are read from the caches' existing {@link CacheStats} counters, sizes and weights
+ * only when a snapshot is taken or an MBean attribute is requested, so registration adds no
+ * overhead to the caches' operations. A registry holds its caches weakly: caches which are no
+ * longer in use are removed, and their MBeans unregistered, the next time a snapshot is taken or a
+ * cache is registered. A cache registered under a name already in use replaces the cache
+ * registered under it, so that rebuilding a cache does not depend on when the old one is
+ * collected.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @since 13.0
+ */
+@Beta
+@GwtIncompatible("javax.management")
+public final class CacheRegistry {
+  static final Logger logger = Logger.getLogger(CacheRegistry.class.getName());
+
+  /** The domain of the object names of the MBeans published by a registry. */
+  static final String DOMAIN = "com.google.common.cache";
+
+  /** Creates the platform registry lazily, so that the platform MBean server starts if needed. */
+  private static final class PlatformRegistryHolder {
+    static final CacheRegistry INSTANCE =
+        new CacheRegistry(ManagementFactory.getPlatformMBeanServer());
+  }
+
+  /**
+   * Returns the registry with which caches register themselves by default, which publishes their
+   * metrics to the {@linkplain ManagementFactory#getPlatformMBeanServer platform MBean server}.
+   */
+  public static CacheRegistry platformRegistry() {
+    return PlatformRegistryHolder.INSTANCE;
+  }
+
+  /** Returns a new registry which does not publish the metrics of its caches as MBeans. */
+  public static CacheRegistry create() {
+    return new CacheRegistry(null);
+  }
+
+  /** Returns a new registry which publishes its caches' metrics as MBeans to {@code server}. */
+  public static CacheRegistry create(MBeanServer server) {
+    return new CacheRegistry(checkNotNull(server));
+  }
+
+  @Nullable
+  final MBeanServer server;
+  final ConcurrentMap<String, Registration> registrations =
+      new ConcurrentHashMap<String, Registration>();
+
+  private CacheRegistry(@Nullable MBeanServer server) {
+    this.server = server;
+  }
+
+  /**
+   * Returns a snapshot of the metrics of each cache in this registry, keyed and ordered by the
+   * name under which it was registered.
+   */
+  public ImmutableSortedMap<String, CacheMetrics> snapshot() {
+    removeCollected();
+    ImmutableSortedMap.Builder<String, CacheMetrics> snapshot = ImmutableSortedMap.naturalOrder();
+    for (Registration registration : registrations.values()) {
+      LocalCache<?, ?> cache = registration.cache.get();
+      if (cache != null) {
+        snapshot.put(registration.name, registration.metrics(cache));
+      }
+    }
+    return snapshot.build();
+  }
+
+  /**
+   * Removes the cache registered under {@code name} from this registry, and unregisters its MBean,
+   * so that the name may be reused.
+   *
+   * @return whether a cache was registered under {@code name}
+   */
+  public synchronized boolean unregister(String name) {
+    Registration registration = registrations.remove(checkNotNull(name));
+    if (registration == null) {
+      return false;
+    }
+    unregisterMBean(registration);
+    return true;
+  }
+
+  /**
+   * Registers {@code cache} under {@code name}, replacing any cache already registered under it.
+   */
+  synchronized void register(String name, LocalCache<?, ?> cache) {
+    removeCollected();
+    Registration registration = new Registration(name, cache);
+    Registration replaced = registrations.put(name, registration);
+    if (replaced != null) {
+      unregisterMBean(replaced);
+    }
+    if (server != null) {
+      try {
+        ObjectName objectName = objectName(name);
+        server.registerMBean(
+            new StandardMBean(new MetricsBean(registration), CacheMetricsMBean.class), objectName);
+        registration.objectName = objectName;
+      } catch (JMException e) {
+        // the metrics remain available through snapshot()
+        logger.log(Level.WARNING, "Exception thrown when registering the MBean of " + name, e);
+      }
+    }
+  }
+
+  private synchronized void removeCollected() {
+    for (Iterator<Registration> i = registrations.values().iterator(); i.hasNext(); ) {
+      Registration registration = i.next();
+      if (registration.cache.get() == null) {
+        i.remove();
+        unregisterMBean(registration);
+      }
+    }
+  }
+
+  private void unregisterMBean(Registration registration) {
+    if (registration.objectName == null) {
+      return;
+    }
+    try {
+      server.unregisterMBean(registration.objectName);
+    } catch (JMException e) {
+      logger.log(Level.WARNING,
+          "Exception thrown when unregistering the MBean of " + registration.name, e);
+    }
+  }
+
+  @VisibleForTesting
+  static ObjectName objectName(String name) throws JMException {
+    return new ObjectName(DOMAIN + ":type=Cache,name=" + ObjectName.quote(name));
+  }
+
+  /** A cache registered under a name. */
+  static final class Registration {
+    final String name;
+    final WeakReference<LocalCache<?, ?>> cache;
+
+    /** The name of the MBean publishing the cache's metrics, or null if there is none. */
+    @Nullable
+    ObjectName objectName;
+
+    Registration(String name, LocalCache<?, ?> cache) {
+      this.name = checkNotNull(name);
+      this.cache = new WeakReference<LocalCache<?, ?>>(cache);
+    }
+
+    CacheMetrics metrics(@Nullable LocalCache<?, ?> cache) {
+      return (cache == null)
+          ? new CacheMetrics(name, CacheBuilder.EMPTY_STATS, 0, 0)
+          : new CacheMetrics(name, cache.stats(), cache.longSize(), cache.weightedSize());
+    }
+  }
+
+  /** Publishes the metrics of a registered cache, reading them afresh for each attribute. */
+  static final class MetricsBean implements CacheMetricsMBean {
+    final Registration registration;
+
+    MetricsBean(Registration registration) {
+      this.registration = registration;
+    }
+
+    CacheMetrics metrics() {
+      return registration.metrics(registration.cache.get());
+    }
+
+    @Override
+    public String getName() {
+      return registration.name;
+    }
+
+    @Override
+    public long getSize() {
+      return metrics().size();
+    }
+
+    @Override
+    public long getWeightedSize() {
+      return metrics().weightedSize();
+    }
+
+    @Override
+    public long getRequestCount() {
+      return metrics().stats().requestCount();
+    }
+
+    @Override
+    public long getHitCount() {
+      return metrics().stats().hitCount();
+    }
+
+    @Override
+    public double getHitRate() {
+      return metrics().stats().hitRate();
+    }
+
+    @Override
+    public long getMissCount() {
+      return metrics().stats().missCount();
+    }
+
+    @Override
+    public double getMissRate() {
+      return metrics().stats().missRate();
+    }
+
+    @Override
+    public long getLoadSuccessCount() {
+      return metrics().stats().loadSuccessCount();
+    }
+
+    @Override
+    public long getLoadExceptionCount() {
+      return metrics().stats().loadExceptionCount();
+    }
+
+    @Override
+    public long getTotalLoadTime() {
+      return metrics().stats().totalLoadTime();
+    }
+
+    @Override
+    public double getAverageLoadPenalty() {
+      return metrics().stats().averageLoadPenalty();
+    }
+
+    @Override
+    public long getEvictionCount() {
+      return metrics().stats().evictionCount();
+    }
+
+    @Override
+    public long getSizeEvictionCount() {
+      return metrics().stats().evictionCount(RemovalCause.SIZE);
+    }
+
+    @Override
+    public long getExpiredEvictionCount() {
+      return metrics().stats().evictionCount(RemovalCause.EXPIRED);
+    }
+
+    @Override
+    public long getCollectedEvictionCount() {
+      return metrics().stats().evictionCount(RemovalCause.COLLECTED);
+    }
+  }
+}
@@ -17,11 +17,14 @@
 package com.google.common.cache;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.annotations.Beta;
 import com.google.common.annotations.GwtCompatible;
 import com.google.common.base.Objects;
 
+import java.util.Arrays;
+
 import javax.annotation.Nullable;
 
 /**
@@ -42,7 +45,11 @@ import javax.annotation.Nullable;
  * <li>Cache lookups that encounter a missing cache entry that is still loading will wait
  *     for loading to complete (whether successful or not) and then increment {@code missCount}.
  * </ul>
- * <li>When an entry is evicted from the cache, {@code evictionCount} is incremented.
+ * <li>When an entry is evicted from the cache, {@code evictionCount} is incremented, as is the
+ *     eviction count for the {@linkplain RemovalCause cause} of the eviction.
+ * <li>When a thread has to wait for another to release a lock on part of the cache, {@code
+ *     lockContentionCount} is incremented, and the time spent waiting, in nanoseconds, is added
+ *     to {@code totalLockWaitTime}.
  * <li>No stats are modified when a cache entry is invalidated or manually removed.
  * <li>No stats are modified by operations invoked on the {@linkplain Cache#asMap asMap} view of
  *     the cache.
@@ -60,6 +67,11 @@ public final class CacheStats {
   private final long loadExceptionCount;
   private final long totalLoadTime;
   private final long evictionCount;
+  private final LatencyDistribution loadLatency;
+  private final long[] evictionCounts;
+  private final long lockContentionCount;
+  private final long totalLockWaitTime;
+  private final long negativeHitCount;
 
   /**
    * Constructs a new {@code CacheStats} instance.
@@ -69,12 +81,32 @@ public final class CacheStats {
    */
   public CacheStats(long hitCount, long missCount, long loadSuccessCount,
       long loadExceptionCount, long totalLoadTime, long evictionCount) {
+    this(hitCount, missCount, loadSuccessCount, loadExceptionCount, totalLoadTime, evictionCount,
+        LatencyDistribution.EMPTY, new long[RemovalCause.values().length], 0, 0, 0);
+  }
+
+  /**
+   * Constructs a new {@code CacheStats} instance, including the distribution of load times, the
+   * number of evictions indexed by the ordinal of their {@link RemovalCause}, lock contention and
+   * negative hits.
+   */
+  CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadExceptionCount,
+      long totalLoadTime, long evictionCount, LatencyDistribution loadLatency,
+      long[] evictionCounts, long lockContentionCount, long totalLockWaitTime,
+      long negativeHitCount) {
     checkArgument(hitCount >= 0);
     checkArgument(missCount >= 0);
     checkArgument(loadSuccessCount >= 0);
     checkArgument(loadExceptionCount >= 0);
     checkArgument(totalLoadTime >= 0);
     checkArgument(evictionCount >= 0);
+    checkArgument(evictionCounts.length == RemovalCause.values().length);
+    for (long count : evictionCounts) {
+      checkArgument(count >= 0);
+    }
+    checkArgument(lockContentionCount >= 0);
+    checkArgument(totalLockWaitTime >= 0);
+    checkArgument(negativeHitCount >= 0);
 
     this.hitCount = hitCount;
     this.missCount = missCount;
@@ -82,6 +114,11 @@ public final class CacheStats {
     this.loadExceptionCount = loadExceptionCount;
     this.totalLoadTime = totalLoadTime;
     this.evictionCount = evictionCount;
+    this.loadLatency = checkNotNull(loadLatency);
+    this.evictionCounts = evictionCounts.clone();
+    this.lockContentionCount = lockContentionCount;
+    this.totalLockWaitTime = totalLockWaitTime;
+    this.negativeHitCount = negativeHitCount;
   }
 
   /**
@@ -204,6 +241,61 @@ public final class CacheStats {
     return evictionCount;
   }
 
+  /**
+   * Returns the number of times an entry has been evicted for the given reason. The counts for
+   * the causes which are {@linkplain RemovalCause#wasEvicted evictions} sum to {@link
+   * #evictionCount} for caches built by {@link CacheBuilder}; the counts for other causes are
+   * always zero.
+   *
+   * @since 13.0
+   */
+  public long evictionCount(RemovalCause cause) {
+    return evictionCounts[cause.ordinal()];
+  }
+
+  /**
+   * Returns the distribution of the times spent loading new values, whose sum is {@link
+   * #totalLoadTime}. Like {@code totalLoadTime}, it includes loads which threw exceptions.
+   *
+   * @since 13.0
+   */
+  public LatencyDistribution loadLatency() {
+    return loadLatency;
+  }
+
+  /**
+   * Returns the number of times a thread has had to wait for another to release the lock on a
+   * segment of the cache (see {@link CacheBuilder#concurrencyLevel}). Frequent contention
+   * suggests that the concurrency level should be raised.
+   *
+   * @since 13.0
+   */
+  public long lockContentionCount() {
+    return lockContentionCount;
+  }
+
+  /**
+   * Returns the total number of nanoseconds that threads have spent waiting to acquire the locks
+   * on segments of the cache.
+   *
+   * @since 13.0
+   */
+  public long totalLockWaitTime() {
+    return totalLockWaitTime;
+  }
+
+  /**
+   * Returns the number of times a {@link LoadingCache} has failed a request using a cached
+   * {@linkplain CacheBuilder#cacheNegativeResults negative result}, rather than by calling its
+   * {@link CacheLoader}. These requests are not included in {@link #hitCount} or {@link
+   * #missCount}.
+   *
+   * @since 13.0
+   */
+  public long negativeHitCount() {
+    return negativeHitCount;
+  }
+
   /**
    * Returns a new {@code CacheStats} representing the difference between this {@code CacheStats}
    * and {@code other}. Negative values, which aren't supported by {@code CacheStats} will be
@@ -216,7 +308,12 @@ public final class CacheStats {
         Math.max(0, loadSuccessCount - other.loadSuccessCount),
         Math.max(0, loadExceptionCount - other.loadExceptionCount),
         Math.max(0, totalLoadTime - other.totalLoadTime),
-        Math.max(0, evictionCount - other.evictionCount));
+        Math.max(0, evictionCount - other.evictionCount),
+        loadLatency.minus(other.loadLatency),
+        combineEvictionCounts(other, -1),
+        Math.max(0, lockContentionCount - other.lockContentionCount),
+        Math.max(0, totalLockWaitTime - other.totalLockWaitTime),
+        Math.max(0, negativeHitCount - other.negativeHitCount));
   }
 
   /**
@@ -232,13 +329,27 @@ public final class CacheStats {
         loadSuccessCount + other.loadSuccessCount,
         loadExceptionCount + other.loadExceptionCount,
         totalLoadTime + other.totalLoadTime,
-        evictionCount + other.evictionCount);
+        evictionCount + other.evictionCount,
+        loadLatency.plus(other.loadLatency),
+        combineEvictionCounts(other, 1),
+        lockContentionCount + other.lockContentionCount,
+        totalLockWaitTime + other.totalLockWaitTime,
+        negativeHitCount + other.negativeHitCount);
+  }
+
+  private long[] combineEvictionCounts(CacheStats other, int sign) {
+    long[] combined = new long[evictionCounts.length];
+    for (int i = 0; i < combined.length; i++) {
+      combined[i] = Math.max(0, evictionCounts[i] + sign * other.evictionCounts[i]);
+    }
+    return combined;
   }
 
   @Override
   public int hashCode() {
     return Objects.hashCode(hitCount, missCount, loadSuccessCount, loadExceptionCount,
-        totalLoadTime, evictionCount);
+        totalLoadTime, evictionCount, loadLatency, Arrays.hashCode(evictionCounts),
+        lockContentionCount, totalLockWaitTime, negativeHitCount);
   }
 
   @Override
@@ -250,7 +361,12 @@ public final class CacheStats {
           && loadSuccessCount == other.loadSuccessCount
           && loadExceptionCount == other.loadExceptionCount
           && totalLoadTime == other.totalLoadTime
-          && evictionCount == other.evictionCount;
+          && evictionCount == other.evictionCount
+          && loadLatency.equals(other.loadLatency)
+          && Arrays.equals(evictionCounts, other.evictionCounts)
+          && lockContentionCount == other.lockContentionCount
+          && totalLockWaitTime == other.totalLockWaitTime
+          && negativeHitCount == other.negativeHitCount;
     }
     return false;
   }
@@ -264,6 +380,10 @@ public final class CacheStats {
         .add("loadExceptionCount", loadExceptionCount)
         .add("totalLoadTime", totalLoadTime)
         .add("evictionCount", evictionCount)
+        .add("loadLatency", loadLatency)
+        .add("lockContentionCount", lockContentionCount)
+        .add("totalLockWaitTime", totalLockWaitTime)
+        .add("negativeHitCount", negativeHitCount)
         .toString();
   }
 }
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.OffHeapTier.Location;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.primitives.Longs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A persistent victim tier, which appends the entries evicted from a {@link LocalCache} to
+ * memory-mapped files in a directory. When a cache is built over a directory written by
+ * an earlier cache, the tier reopens its files and serves their entries, so that a restarted
+ * process need not reload its working set from the source of truth.
+ *
+ * <p>Like {@link OffHeapTier}, the tier is a ring of fixed-size slabs which are filled in turn,
+ * the oldest slab being reclaimed in its entirety when the ring wraps; here each slab is a file.
+ * A slab begins with a header holding its sequence number and the extent of its valid records,
+ * and is followed by records of a key and either a value or a tombstone. The header is updated
+ * after each record is written, so a record which was only partially written when the process
+ * stopped is ignored. Reopening the tier scans the keys of each slab in sequence order to rebuild
+ * the on-heap index; values are not read until they are promoted. Writes reach the files through
+ * the operating system's page cache, and are not forced to the storage device.
+ *
+ * <p>Unlike the off-heap tier, this tier keeps its copy of a promoted value, so that a restart
+ * also recovers entries which were restored to the cache. Any later write or removal of the key
+ * by the cache invalidates the copy, which appends a tombstone so that the stale value is not
+ * recovered either. Evicting a key whose copy is still current does not write it again.
+ *
+ * <p>A directory must not be used by more than one tier at a time.
+ */
+final class DiskTier<K, V> implements VictimTier<K, V> {
+
+  /** The size of the largest slab, in bytes. */
+  static final int MAXIMUM_SLAB_SIZE = 1 << 24;
+
+  static final int MAGIC = 0x47434454;
+
+  // slab header layout
+  static final int MAGIC_OFFSET = 0;
+  static final int SLAB_COUNT_OFFSET = 4;
+  static final int SEQUENCE_OFFSET = 8;
+  static final int LIMIT_OFFSET = 16;
+  static final int HEADER_SIZE = 20;
+
+  /** The value length of a record which invalidates its key. */
+  static final int TOMBSTONE = -1;
+
+  /** The size of the lengths preceding the key and value of each record. */
+  static final int RECORD_HEADER_SIZE = 8;
+
+  final File directory;
+
+  final long maximumBytes;
+
+  final CacheCodec<K> keyCodec;
+
+  final CacheCodec<V> valueCodec;
+
+  final int slabSize;
+
+  @GuardedBy("this")
+  final MappedByteBuffer[] slabs;
+
+  /** The locations written to each slab, so that they may be unindexed when it is reclaimed. */
+  @GuardedBy("this")
+  final List<List<Location<K>>> slabLocations;
+
+  final ConcurrentMap<Object, Location<K>> index = Maps.newConcurrentMap();
+
+  /** The slab currently being written to. */
+  @GuardedBy("this")
+  int currentSlab;
+
+  /** The offset within the current slab at which the next record is written. */
+  @GuardedBy("this")
+  int position;
+
+  /** The sequence number given to the next slab to be reclaimed. */
+  @GuardedBy("this")
+  long nextSequence = 1;
+
+  DiskTier(File directory, long maximumBytes, CacheCodec<K> keyCodec, CacheCodec<V> valueCodec)
+      throws IOException {
+    this(directory, maximumBytes, (int) Math.min(maximumBytes, MAXIMUM_SLAB_SIZE), keyCodec,
+        valueCodec);
+  }
+
+  @VisibleForTesting
+  DiskTier(File directory, long maximumBytes, int slabSize, CacheCodec<K> keyCodec,
+      CacheCodec<V> valueCodec) throws IOException {
+    checkArgument(maximumBytes > 0, "maximumBytes must be positive: %s", maximumBytes);
+    checkArgument(slabSize > HEADER_SIZE && slabSize <= maximumBytes);
+    this.directory = checkNotNull(directory);
+    this.maximumBytes = maximumBytes;
+    this.keyCodec = checkNotNull(keyCodec);
+    this.valueCodec = checkNotNull(valueCodec);
+    this.slabSize = slabSize;
+
+    int slabCount = (int) Math.min(maximumBytes / slabSize, Integer.MAX_VALUE);
+    this.slabs = new MappedByteBuffer[slabCount];
+    this.slabLocations = Lists.newArrayListWithCapacity(slabCount);
+    for (int i = 0; i < slabCount; i++) {
+      slabLocations.add(Lists.<Location<K>>newArrayList());
+    }
+    open();
+  }
+
+  /** Maps the slab files, recovering the records of those written by an earlier tier. */
+  private synchronized void open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create directory " + directory);
+    }
+
+    boolean recoverable = true;
+    for (int i = 0; i < slabs.length; i++) {
+      File file = slabFile(i);
+      boolean existed = (file.length() == slabSize);
+      slabs[i] = Files.map(file, MapMode.READ_WRITE, slabSize);
+      recoverable &= existed && (slabs[i].getInt(MAGIC_OFFSET) == MAGIC)
+          && (slabs[i].getInt(SLAB_COUNT_OFFSET) == slabs.length);
+    }
+
+    if (recoverable) {
+      recover();
+    } else {
+      // written with a different configuration, or not at all
+      for (MappedByteBuffer slab : slabs) {
+        slab.putLong(SEQUENCE_OFFSET, 0);
+        slab.putInt(LIMIT_OFFSET, HEADER_SIZE);
+        slab.putInt(SLAB_COUNT_OFFSET, slabs.length);
+        slab.putInt(MAGIC_OFFSET, MAGIC);
+      }
+      startSlab(0);
+    }
+  }
+
+  /** Replays the records of each slab in the order in which the slabs were written. */
+  @GuardedBy("this")
+  private void recover() {
+    List<Integer> order = Lists.newArrayListWithCapacity(slabs.length);
+    for (int i = 0; i < slabs.length; i++) {
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override public int compare(Integer a, Integer b) {
+        return Longs.compare(
+            slabs[a].getLong(SEQUENCE_OFFSET), slabs[b].getLong(SEQUENCE_OFFSET));
+      }
+    });
+
+    long lastSequence = 0;
+    for (int slab : order) {
+      long sequence = slabs[slab].getLong(SEQUENCE_OFFSET);
+      if (sequence == 0) {
+        continue;
+      }
+      int limit = replay(slab);
+      currentSlab = slab;
+      position = limit;
+      lastSequence = sequence;
+    }
+
+    if (lastSequence == 0) {
+      startSlab(0);
+    } else {
+      nextSequence = lastSequence + 1;
+    }
+  }
+
+  /** Indexes the records of {@code slab}, returning the end of its last valid record. */
+  @GuardedBy("this")
+  private int replay(int slab) {
+    ByteBuffer buffer = slabs[slab].duplicate();
+    int limit = buffer.getInt(LIMIT_OFFSET);
+    if (limit < HEADER_SIZE || limit > slabSize) {
+      limit = HEADER_SIZE;
+      slabs[slab].putInt(LIMIT_OFFSET, limit);
+    }
+    buffer.limit(limit);
+
+    int offset = HEADER_SIZE;
+    while (offset + RECORD_HEADER_SIZE <= limit) {
+      int keyLength = buffer.getInt(offset);
+      int valueLength = buffer.getInt(offset + 4);
+      int keyOffset = offset + RECORD_HEADER_SIZE;
+      int end = keyOffset + keyLength + Math.max(valueLength, 0);
+      if (keyLength < 0 || valueLength < TOMBSTONE || end > limit || end < keyOffset) {
+        break;
+      }
+      buffer.limit(keyOffset + keyLength).position(keyOffset);
+      K key;
+      try {
+        key = keyCodec.decode(buffer.slice());
+      } catch (RuntimeException e) {
+        LocalCache.logger.log(Level.WARNING, "Exception thrown by the cache key codec", e);
+        key = null;
+      }
+      buffer.limit(limit);
+
+      if (key != null) {
+        if (valueLength == TOMBSTONE) {
+          index.remove(key);
+        } else {
+          Location<K> location = new Location<K>(key, slab, keyOffset + keyLength, valueLength);
+          slabLocations.get(slab).add(location);
+          index.put(key, location);
+        }
+      }
+      offset = end;
+    }
+    return offset;
+  }
+
+  /**
+   * Stores {@code value} as the value for {@code key}, unless the tier already holds its current
+   * value. Values which fail to encode, or which do not fit in a slab, are not stored.
+   */
+  @Override
+  public void put(K key, V value) {
+    if (index.containsKey(key)) {
+      // still current, as the cache invalidates the copy whenever it writes the key
+      return;
+    }
+    byte[] keyBytes;
+    byte[] valueBytes;
+    try {
+      keyBytes = keyCodec.encode(key);
+      valueBytes = valueCodec.encode(value);
+    } catch (RuntimeException e) {
+      LocalCache.logger.log(Level.WARNING, "Exception thrown by the cache codec", e);
+      return;
+    }
+
+    synchronized (this) {
+      int valueOffset = append(keyBytes, valueBytes, valueBytes.length);
+      if (valueOffset >= 0) {
+        Location<K> location = new Location<K>(key, currentSlab, valueOffset, valueBytes.length);
+        slabLocations.get(currentSlab).add(location);
+        index.put(key, location);
+      }
+    }
+  }
+
+  /**
+   * Returns the value for {@code key}, together with the key under which it was stored, or {@code
+   * null} if there is none. The tier keeps its copy of the value.
+   */
+  @Override
+  @Nullable
+  public Map.Entry<K, V> promote(Object key) {
+    Location<K> location;
+    byte[] bytes;
+    synchronized (this) {
+      location = index.get(key);
+      if (location == null) {
+        return null;
+      }
+      bytes = new byte[location.length];
+      ByteBuffer source = slabs[location.slab].duplicate();
+      source.position(location.offset);
+      source.get(bytes);
+    }
+
+    try {
+      return Maps.immutableEntry(location.key, valueCodec.decode(ByteBuffer.wrap(bytes)));
+    } catch (RuntimeException e) {
+      LocalCache.logger.log(Level.WARNING, "Exception thrown by the cache codec", e);
+      invalidate(key);
+      return null;
+    }
+  }
+
+  @Override
+  public boolean contains(Object key) {
+    return index.containsKey(key);
+  }
+
+  /** Discards the value for {@code key}, if any, appending a tombstone so it stays discarded. */
+  @Override
+  public void invalidate(Object key) {
+    Location<K> location = index.remove(key);
+    if (location == null) {
+      return;
+    }
+    byte[] keyBytes;
+    try {
+      keyBytes = keyCodec.encode(location.key);
+    } catch (RuntimeException e) {
+      LocalCache.logger.log(Level.WARNING, "Exception thrown by the cache key codec", e);
+      return;
+    }
+    synchronized (this) {
+      append(keyBytes, null, TOMBSTONE);
+    }
+  }
+
+  @Override
+  public synchronized void clear() {
+    index.clear();
+    for (int i = 0; i < slabs.length; i++) {
+      slabs[i].putLong(SEQUENCE_OFFSET, 0);
+      slabs[i].putInt(LIMIT_OFFSET, HEADER_SIZE);
+      slabLocations.get(i).clear();
+    }
+    startSlab(0);
+  }
+
+  @Override
+  public int size() {
+    return index.size();
+  }
+
+  /**
+   * Appends a record to the current slab, moving on to the next slab if it does not fit. Returns
+   * the offset of the value within the current slab, or -1 if the record is larger than a slab.
+   */
+  @GuardedBy("this")
+  int append(byte[] keyBytes, @Nullable byte[] valueBytes, int valueLength) {
+    long recordSize = (long) RECORD_HEADER_SIZE + keyBytes.length + Math.max(valueLength, 0);
+    if (recordSize > slabSize - HEADER_SIZE) {
+      return -1;
+    }
+    if (position + recordSize > slabSize) {
+      startSlab((currentSlab + 1) % slabs.length);
+    }
+
+    MappedByteBuffer slab = slabs[currentSlab];
+    ByteBuffer destination = slab.duplicate();
+    destination.position(position);
+    destination.putInt(keyBytes.length).putInt(valueLength).put(keyBytes);
+    if (valueBytes != null) {
+      destination.put(valueBytes);
+    }
+    int valueOffset = position + RECORD_HEADER_SIZE + keyBytes.length;
+    position = destination.position();
+    // publish the record only once it is completely written
+    slab.putInt(LIMIT_OFFSET, position);
+    return valueOffset;
+  }
+
+  /** Reclaims {@code slab}, unindexing its values, and makes it the current slab. */
+  @GuardedBy("this")
+  void startSlab(int slab) {
+    List<Location<K>> locations = slabLocations.get(slab);
+    for (Location<K> location : locations) {
+      // values which were invalidated or stored again are no longer indexed at this location
+      index.remove(location.key, location);
+    }
+    locations.clear();
+
+    slabs[slab].putInt(LIMIT_OFFSET, HEADER_SIZE);
+    slabs[slab].putLong(SEQUENCE_OFFSET, nextSequence++);
+    currentSlab = slab;
+    position = HEADER_SIZE;
+  }
+
+  File slabFile(int slab) {
+    return new File(directory, "slab-" + slab);
+  }
+}
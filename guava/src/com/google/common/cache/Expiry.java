@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied.  See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * Calculates when cache entries expire. A duration is computed when an entry is created, and may
+ * be recomputed each time it is updated or read. All times and durations are in nanoseconds, as
+ * reported by the cache's {@linkplain CacheBuilder#ticker ticker}.
+ *
+ * <p>Each method returns the length of time, starting at {@code currentTime}, after which the entry
+ * expires. A duration of zero or less means that the entry expires immediately. Implementations
+ * that do not wish to change an entry's expiration on update or read may simply return
+ * {@code currentDuration}.
+ *
+ * <p>These methods are invoked on the thread performing the cache operation, and in the case of
+ * creation and update while holding an internal lock, so they should be fast.
+ *
+ * @since 13.0
+ */
+@Beta
+public interface Expiry<K, V> {
+
+  /**
+   * Returns the duration until the entry expires, following its creation.
+   *
+   * @param key the key of the new entry
+   * @param value the value of the new entry
+   * @param currentTime the current time, in nanoseconds
+   */
+  long expireAfterCreate(K key, V value, long currentTime);
+
+  /**
+   * Returns the duration until the entry expires, following the replacement of its value.
+   *
+   * @param key the key of the entry
+   * @param value the new value of the entry
+   * @param currentTime the current time, in nanoseconds
+   * @param currentDuration the entry's remaining duration before the update, in nanoseconds
+   */
+  long expireAfterUpdate(K key, V value, long currentTime, long currentDuration);
+
+  /**
+   * Returns the duration until the entry expires, following a read of its value.
+   *
+   * @param key the key of the entry
+   * @param value the value of the entry
+   * @param currentTime the current time, in nanoseconds
+   * @param currentDuration the entry's remaining duration before the read, in nanoseconds
+   */
+  long expireAfterRead(K key, V value, long currentTime, long currentDuration);
+}
@@ -17,6 +17,7 @@
 package com.google.common.cache;
 
 import com.google.common.annotations.Beta;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ForwardingObject;
 import com.google.common.collect.ImmutableMap;
@@ -86,6 +87,30 @@ public abstract class ForwardingCache<K, V> extends ForwardingObject implements
     delegate().putAll(m);
   }
 
+  /**
+   * @since 13.0
+   */
+  @Override
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    return delegate().computeIfAbsent(key, mappingFunction);
+  }
+
+  /**
+   * @since 13.0
+   */
+  @Override
+  public V computeIfPresent(K key, Function<? super V, ? extends V> remappingFunction) {
+    return delegate().computeIfPresent(key, remappingFunction);
+  }
+
+  /**
+   * @since 13.0
+   */
+  @Override
+  public V merge(K key, V value, Function<? super V, ? extends V> remappingFunction) {
+    return delegate().merge(key, value, remappingFunction);
+  }
+
   @Override
   public void invalidate(Object key) {
     delegate().invalidate(key);
@@ -99,6 +124,14 @@ public abstract class ForwardingCache<K, V> extends ForwardingObject implements
     delegate().invalidateAll(keys);
   }
 
+  /**
+   * @since 13.0
+   */
+  @Override
+  public void invalidateTag(Object tag) {
+    delegate().invalidateTag(tag);
+  }
+
   @Override
   public void invalidateAll() {
     delegate().invalidateAll();
@@ -114,6 +147,14 @@ public abstract class ForwardingCache<K, V> extends ForwardingObject implements
     return delegate().stats();
   }
 
+  /**
+   * @since 13.0
+   */
+  @Override
+  public HotKeyStats<K> hotKeyStats() {
+    return delegate().hotKeyStats();
+  }
+
   @Override
   public ConcurrentMap<K, V> asMap() {
     return delegate().asMap();
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A probabilistic multiset for estimating the popularity of an element within a time window. The
+ * maximum frequency of an element is limited to 15 (4-bits) and an aging process periodically
+ * halves the popularity of all elements.
+ *
+ * <p>The sketch is a count-min sketch with four rows of 4-bit counters packed into a single
+ * {@code long[]}. Each element selects one 64-bit word and, within that word, one counter per row.
+ * The estimated frequency is the minimum of the four counters, which bounds the error caused by
+ * hash collisions. Once the number of recorded increments reaches ten times the capacity, every
+ * counter is halved so that the sketch favors recent popularity over historic popularity.
+ *
+ * <p>This class is not thread-safe; it is always accessed under its owning segment's lock.
+ */
+final class FrequencySketch {
+
+  /** An odd mixing constant for each of the four rows. */
+  static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+  /** Clears the bit shifted into the top of each 4-bit counter when halving. */
+  static final long RESET_MASK = 0x7777777777777777L;
+
+  /** The largest table allocated, regardless of the requested capacity. */
+  static final int MAXIMUM_TABLE_SIZE = 1 << 24;
+
+  long[] table;
+  int tableMask;
+  int sampleSize;
+  int size;
+
+  FrequencySketch(long expectedSize) {
+    ensureCapacity(expectedSize);
+  }
+
+  /**
+   * Grows the sketch so that it can accurately track {@code expectedSize} distinct elements. The
+   * previous counts are discarded if the table is resized.
+   */
+  void ensureCapacity(long expectedSize) {
+    checkArgument(expectedSize >= 0);
+    int maximum = (int) Math.min(Math.max(expectedSize, 1), MAXIMUM_TABLE_SIZE);
+    if ((table != null) && (table.length >= maximum)) {
+      return;
+    }
+
+    int tableSize = 1;
+    while (tableSize < maximum) {
+      tableSize <<= 1;
+    }
+    table = new long[tableSize];
+    tableMask = tableSize - 1;
+    sampleSize = (int) Math.min(10L * tableSize, Integer.MAX_VALUE);
+    size = 0;
+  }
+
+  /**
+   * Returns the estimated number of occurrences of an element with the given (spread) hash, up to
+   * the maximum of 15.
+   */
+  int frequency(int hash) {
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Increments the popularity of the element with the given (spread) hash if it does not exceed
+   * the maximum of 15. The popularity of all elements is periodically halved once the number of
+   * increments reaches the sample size.
+   */
+  void increment(int hash) {
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      added |= incrementAt(index, start + i);
+    }
+
+    if (added && (++size == sampleSize)) {
+      reset();
+    }
+  }
+
+  /**
+   * Increments the specified counter by 1 if it is not already at its maximum, returning whether
+   * an increment was performed.
+   */
+  boolean incrementAt(int i, int j) {
+    int offset = j << 2;
+    long mask = (0xfL << offset);
+    if ((table[i] & mask) != mask) {
+      table[i] += (1L << offset);
+      return true;
+    }
+    return false;
+  }
+
+  /** Halves every counter and adjusts the sample size accordingly. */
+  @VisibleForTesting
+  void reset() {
+    int count = 0;
+    for (int i = 0; i < table.length; i++) {
+      count += Long.bitCount(table[i] & 0x1111111111111111L);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    size = (size >>> 1) - (count >>> 2);
+  }
+
+  /**
+   * Returns the table index for the counter of the {@code i}th row.
+   */
+  int indexOf(int hash, int i) {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 32;
+    return ((int) h) & tableMask;
+  }
+}
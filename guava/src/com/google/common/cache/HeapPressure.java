@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scales the maximum weight of a cache according to how full the heap's old generation was after
+ * its latest collection. While the occupancy exceeds its target, the scale shrinks by a fixed
+ * fraction at every check, so that the cache evicts its least valuable entries a few at a time
+ * through its normal eviction policy; once the occupancy falls sufficiently below the target, the
+ * scale grows back in the same way. Occupancy is measured after collection, rather than
+ * currently, so that garbage awaiting collection does not cause needless eviction, and the scale
+ * changes only once for each such measurement: a check made before the old generation has been
+ * collected again leaves it alone, since the stale reading takes no account of the entries which
+ * the last change has evicted.
+ *
+ * <p>Checks are made at most once every {@link #CHECK_INTERVAL_NANOS} by whichever thread is
+ * performing the cache's maintenance, and are otherwise free.
+ */
+class HeapPressure {
+
+  /** The minimum time between two checks of the heap occupancy. */
+  static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** The fraction of its current value by which the scale changes at each check. */
+  static final double STEP = 0.1;
+
+  /** The smallest scale, which keeps a cache from emptying entirely under sustained pressure. */
+  static final double MINIMUM_SCALE = 0.05;
+
+  /** How far below its target the occupancy must be before the scale grows. */
+  static final double HYSTERESIS = 0.1;
+
+  /** The heap pools which hold long-lived objects, being those which support usage thresholds. */
+  static final ImmutableList<MemoryPoolMXBean> TENURED_POOLS = tenuredPools();
+
+  /** The collectors which collect any of the {@link #TENURED_POOLS}. */
+  static final ImmutableList<GarbageCollectorMXBean> TENURED_COLLECTORS = tenuredCollectors();
+
+  final double targetOccupancy;
+  final Ticker ticker;
+  final AtomicLong nextCheck;
+
+  /**
+   * The {@linkplain #collectionCount collection count} when the scale was last adjusted, or -1 if
+   * it never has been. Only accessed by the thread which won the latest check.
+   */
+  volatile long lastCollectionCount = -1;
+
+  /** The fraction of the configured maximum weight to which the cache is currently limited. */
+  volatile double scale = 1.0;
+
+  HeapPressure(double targetOccupancy, Ticker ticker) {
+    this.targetOccupancy = targetOccupancy;
+    this.ticker = ticker;
+    this.nextCheck = new AtomicLong(ticker.read());
+  }
+
+  /** Returns {@code weight} scaled down according to the current heap pressure. */
+  long scaledWeight(long weight) {
+    double scale = this.scale;
+    return (scale == 1.0) ? weight : (long) (weight * scale);
+  }
+
+  /** Checks the heap occupancy and adjusts the scale, if it is time to. */
+  void check() {
+    long now = ticker.read();
+    long next = nextCheck.get();
+    if ((now - next < 0) || !nextCheck.compareAndSet(next, now + CHECK_INTERVAL_NANOS)) {
+      return;
+    }
+    long collectionCount = collectionCount();
+    if (collectionCount == lastCollectionCount) {
+      return; // the occupancy has not been measured since the last adjustment
+    }
+    lastCollectionCount = collectionCount;
+    double occupancy = occupancy();
+    if (occupancy > targetOccupancy) {
+      scale = Math.max(MINIMUM_SCALE, scale * (1 - STEP));
+    } else if (occupancy < targetOccupancy - HYSTERESIS) {
+      scale = Math.min(1.0, scale * (1 + STEP));
+    }
+  }
+
+  /**
+   * Returns the highest fraction of its maximum size that any tenured pool occupied after its
+   * latest collection, or 0 if that is unknown.
+   */
+  @VisibleForTesting
+  double occupancy() {
+    double occupancy = 0;
+    for (MemoryPoolMXBean pool : TENURED_POOLS) {
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (usage == null) {
+        continue;
+      }
+      long max = (usage.getMax() > 0) ? usage.getMax() : usage.getCommitted();
+      if (max > 0) {
+        occupancy = Math.max(occupancy, (double) usage.getUsed() / max);
+      }
+    }
+    return occupancy;
+  }
+
+  /**
+   * Returns the total number of collections made by the {@link #TENURED_COLLECTORS}, which has
+   * changed whenever the {@linkplain #occupancy occupancy} may have been measured again.
+   */
+  @VisibleForTesting
+  long collectionCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean collector : TENURED_COLLECTORS) {
+      count += Math.max(0, collector.getCollectionCount()); // -1 if undefined
+    }
+    return count;
+  }
+
+  static ImmutableList<MemoryPoolMXBean> tenuredPools() {
+    ImmutableList.Builder<MemoryPoolMXBean> pools = ImmutableList.builder();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      // the young generation's pools support collection usage, but not usage thresholds
+      if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+          && pool.isCollectionUsageThresholdSupported()) {
+        pools.add(pool);
+      }
+    }
+    return pools.build();
+  }
+
+  static ImmutableList<GarbageCollectorMXBean> tenuredCollectors() {
+    ImmutableSet.Builder<String> poolNames = ImmutableSet.builder();
+    for (MemoryPoolMXBean pool : TENURED_POOLS) {
+      poolNames.add(pool.getName());
+    }
+    Set<String> tenuredPoolNames = poolNames.build();
+    ImmutableList.Builder<GarbageCollectorMXBean> collectors = ImmutableList.builder();
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      for (String poolName : collector.getMemoryPoolNames()) {
+        if (tenuredPoolNames.contains(poolName)) {
+          collectors.add(collector);
+          break;
+        }
+      }
+    }
+    return collectors.build();
+  }
+}
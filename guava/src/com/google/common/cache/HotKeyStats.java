@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtCompatible;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The hottest keys of a {@link Cache} which {@linkplain CacheBuilder#trackHotKeys tracks them},
+ * as estimated at the time of the snapshot. Instances of this class are immutable.
+ *
+ * <p>Each list holds entries mapping a key to its estimated measure, in decreasing order of that
+ * measure. Estimates are approximate: they may include the measures of other keys which were
+ * displaced from tracking, and reads are sampled.
+ *
+ * @since 13.0
+ */
+@Beta
+@GwtCompatible
+public final class HotKeyStats<K> {
+  private final ImmutableList<Map.Entry<K, Long>> byReadCount;
+  private final ImmutableList<Map.Entry<K, Long>> byLoadTime;
+
+  HotKeyStats(List<Map.Entry<K, Long>> byReadCount, List<Map.Entry<K, Long>> byLoadTime) {
+    this.byReadCount = ImmutableList.copyOf(checkNotNull(byReadCount));
+    this.byLoadTime = ImmutableList.copyOf(checkNotNull(byLoadTime));
+  }
+
+  /**
+   * Returns the keys read most often, with their estimated number of reads. Reads served by a
+   * {@linkplain CacheBuilder#threadLocalCache thread-local cache} are not counted.
+   */
+  public List<Map.Entry<K, Long>> byReadCount() {
+    return byReadCount;
+  }
+
+  /**
+   * Returns the keys whose values took longest to load in total, whether successfully or not,
+   * with that total time in nanoseconds.
+   */
+  public List<Map.Entry<K, Long>> byLoadTime() {
+    return byLoadTime;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("byReadCount", byReadCount)
+        .add("byLoadTime", byLoadTime)
+        .toString();
+  }
+}
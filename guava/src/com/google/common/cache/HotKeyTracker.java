@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the keys with the largest total weight among those recorded, in space bounded by its
+ * capacity, using the Space-Saving algorithm of Metwally, Agrawal and El Abbadi. Once the capacity
+ * is reached, a key which is not tracked replaces the tracked key with the smallest total, and
+ * inherits that total. Totals are therefore overestimated by at most the smallest tracked total,
+ * and every key whose true total exceeds that is tracked.
+ *
+ * <p>The counters are kept in a binary min-heap indexed by key, so recording takes logarithmic
+ * time. This class is thread-safe.
+ */
+final class HotKeyTracker<K> {
+
+  static final class Counter<K> {
+    K key;
+    long total;
+    int index;
+
+    Counter(K key, int index) {
+      this.key = key;
+      this.index = index;
+    }
+  }
+
+  private final Map<K, Counter<K>> counters;
+  private final Counter<K>[] heap;
+  private int size;
+
+  @SuppressWarnings("unchecked") // generic array creation
+  HotKeyTracker(int capacity) {
+    this.counters = Maps.newHashMapWithExpectedSize(capacity);
+    this.heap = new Counter[capacity];
+  }
+
+  /** Adds {@code weight} to the total of {@code key}. */
+  synchronized void record(K key, long weight) {
+    Counter<K> counter = counters.get(key);
+    if (counter == null && size < heap.length) {
+      counter = new Counter<K>(key, size);
+      counter.total = weight;
+      heap[size++] = counter;
+      counters.put(key, counter);
+      siftUp(counter);
+      return;
+    }
+    if (counter == null) {
+      counter = heap[0];
+      counters.remove(counter.key);
+      counter.key = key;
+      counters.put(key, counter);
+    }
+    counter.total += weight;
+    siftDown(counter);
+  }
+
+  /** Adds an entry for each tracked key and its total to {@code entries}. */
+  synchronized void addTo(List<Map.Entry<K, Long>> entries) {
+    for (int i = 0; i < size; i++) {
+      entries.add(Maps.immutableEntry(heap[i].key, heap[i].total));
+    }
+  }
+
+  /** Moves {@code counter}, which was just added, towards the root of the heap. */
+  private void siftUp(Counter<K> counter) {
+    int index = counter.index;
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (heap[parent].total <= counter.total) {
+        break;
+      }
+      heap[index] = heap[parent];
+      heap[index].index = index;
+      index = parent;
+    }
+    heap[index] = counter;
+    counter.index = index;
+  }
+
+  /** Moves {@code counter}, whose total has increased, towards the leaves of the heap. */
+  private void siftDown(Counter<K> counter) {
+    int index = counter.index;
+    int half = size >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      int right = child + 1;
+      if (right < size && heap[right].total < heap[child].total) {
+        child = right;
+      }
+      if (counter.total <= heap[child].total) {
+        break;
+      }
+      heap[index] = heap[child];
+      heap[index].index = index;
+      index = child;
+    }
+    heap[index] = counter;
+    counter.index = index;
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtCompatible;
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * The distribution of a set of durations, such as the times a {@link Cache} spent loading values
+ * (see {@link CacheStats#loadLatency}). Instances of this class are immutable.
+ *
+ * <p>Durations are counted in buckets whose widths grow with the durations they hold: each power
+ * of two nanoseconds is divided into eight buckets, so that a reported percentile exceeds the
+ * true value by at most one eighth. Durations longer than about eighteen minutes are counted as
+ * eighteen minutes. Distributions can be combined with {@link #plus} and {@link #minus} without
+ * any loss of accuracy.
+ *
+ * @since 13.0
+ */
+@Beta
+@GwtCompatible
+public final class LatencyDistribution {
+
+  /** The number of buckets per power of two, at and above {@code 2 * SUB_BUCKETS}. */
+  private static final int SUB_BUCKETS = 8;
+  private static final int SUB_BUCKET_BITS = 3;
+
+  /** The longest duration which is distinguished from longer ones, in nanoseconds. */
+  static final long MAXIMUM_DURATION = (1L << 40) - 1;
+
+  static final int BUCKET_COUNT = bucketIndex(MAXIMUM_DURATION) + 1;
+
+  static final LatencyDistribution EMPTY = new LatencyDistribution(new long[0]);
+
+  /** The number of durations in each bucket, without trailing empty buckets. */
+  private final long[] counts;
+  private final long count;
+
+  /**
+   * Creates a distribution from the number of durations in each bucket. The array is copied.
+   */
+  LatencyDistribution(long[] counts) {
+    int length = counts.length;
+    while (length > 0 && counts[length - 1] == 0) {
+      length--;
+    }
+    this.counts = copyOf(counts, length);
+    long total = 0;
+    for (long bucketCount : this.counts) {
+      checkArgument(bucketCount >= 0);
+      total += bucketCount;
+    }
+    this.count = total;
+  }
+
+  /** Returns the bucket counting durations of {@code nanos}. */
+  static int bucketIndex(long nanos) {
+    long value = Math.max(0, Math.min(nanos, MAXIMUM_DURATION));
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /** Returns the longest duration counted by {@code bucket}. */
+  static long bucketUpperBound(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS - 1) {
+      return bucket;
+    }
+    int next = bucket + 1;
+    int exponent = next / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long lowerBoundOfNext =
+        (long) (SUB_BUCKETS + next % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    return lowerBoundOfNext - 1;
+  }
+
+  // Arrays.copyOf() requires Java 6
+  private static long[] copyOf(long[] original, int length) {
+    long[] copy = new long[length];
+    System.arraycopy(original, 0, copy, 0, Math.min(original.length, length));
+    return copy;
+  }
+
+  /**
+   * Returns the number of durations in this distribution.
+   */
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Returns the duration, in nanoseconds, below or at which the given percentage of the durations
+   * in this distribution fall; for example, {@code percentile(99)} is the 99th percentile. The
+   * result is rounded up to the longest duration counted by its bucket. Returns zero if the
+   * distribution is empty.
+   *
+   * @throws IllegalArgumentException if {@code percentile} is not between 0 and 100, inclusive
+   */
+  public long percentile(double percentile) {
+    checkArgument(percentile >= 0.0 && percentile <= 100.0,
+        "percentile must be between 0 and 100: %s", percentile);
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        return bucketUpperBound(bucket);
+      }
+    }
+    return bucketUpperBound(counts.length - 1);
+  }
+
+  /**
+   * Returns a new {@code LatencyDistribution} holding the durations of this distribution which
+   * are not in {@code other}. Negative counts are rounded up to zero.
+   */
+  public LatencyDistribution minus(LatencyDistribution other) {
+    long[] difference = copyOf(counts, counts.length);
+    for (int i = 0; i < Math.min(counts.length, other.counts.length); i++) {
+      difference[i] = Math.max(0, counts[i] - other.counts[i]);
+    }
+    return new LatencyDistribution(difference);
+  }
+
+  /**
+   * Returns a new {@code LatencyDistribution} holding the durations of both this distribution
+   * and {@code other}.
+   */
+  public LatencyDistribution plus(LatencyDistribution other) {
+    long[] sum = copyOf(counts, Math.max(counts.length, other.counts.length));
+    for (int i = 0; i < other.counts.length; i++) {
+      sum[i] += other.counts[i];
+    }
+    return new LatencyDistribution(sum);
+  }
+
+  /** Returns the number of durations in {@code bucket}. */
+  long bucketCount(int bucket) {
+    return (bucket < counts.length) ? counts[bucket] : 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(counts);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object object) {
+    if (object instanceof LatencyDistribution) {
+      LatencyDistribution other = (LatencyDistribution) object;
+      return Arrays.equals(counts, other.counts);
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("count", count)
+        .add("p50", percentile(50))
+        .add("p99", percentile(99))
+        .add("p999", percentile(99.9))
+        .toString();
+  }
+}
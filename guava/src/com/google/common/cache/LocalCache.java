@@ -25,6 +25,7 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Equivalence;
+import com.google.common.base.Function;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
 import com.google.common.cache.AbstractCache.SimpleStatsCounter;
@@ -35,11 +36,16 @@ import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.CacheLoader.UnsupportedLoadingOperationException;
 import com.google.common.collect.AbstractSequentialIterator;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -48,6 +54,7 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.common.util.concurrent.Uninterruptibles;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
@@ -61,16 +68,22 @@ import java.util.AbstractQueue;
 import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -141,6 +154,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
    */
   static final int DRAIN_THRESHOLD = 0x3F;
 
+  /** The longest duration that an {@link Expiry} may specify (about 146 years). */
+  static final long MAXIMUM_EXPIRY_NANOS = Long.MAX_VALUE >> 1;
+
   /**
    * Maximum number of entries to be drained in a single cleanup run. This applies independently to
    * the cleanup queue and both reference queues.
@@ -148,6 +164,19 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   // TODO(fry): empirically optimize this
   static final int DRAIN_MAX = 16;
 
+  /**
+   * Maximum number of entries to be examined for due refreshes in a single cleanup run, when
+   * refreshing ahead. Entries whose jittered refresh is not yet due do not end the scan, but are
+   * counted against this.
+   */
+  static final int REFRESH_SCAN_MAX = 64;
+
+  /**
+   * Maximum number of removal notifications which may wait for the maintenance executor. Beyond
+   * this, the threads using the cache deliver notifications themselves.
+   */
+  static final int MAXIMUM_PENDING_NOTIFICATIONS = 1024;
+
   // Fields
 
   static final Logger logger = Logger.getLogger(LocalCache.class.getName());
@@ -190,6 +219,30 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   /** Weigher to weigh cache entries. */
   final Weigher<K, V> weigher;
 
+  /**
+   * Whether a new entry must be more popular than the eviction victim in order to be retained by a
+   * full segment.
+   */
+  final boolean frequencyAdmission;
+
+  /**
+   * Whether size-based eviction is decided against the cache as a whole, rather than against each
+   * segment's share of the maximum weight.
+   */
+  final boolean globalEviction;
+
+  /** The total weight of all segments. Null unless the cache evicts globally. */
+  @Nullable
+  final LongAdder globalWeight;
+
+  /** Held by the thread currently performing global eviction. Null unless evicting globally. */
+  @Nullable
+  final ReentrantLock globalEvictionLock;
+
+  /** Scales the maximum weight under heap pressure. Null unless adapting to heap pressure. */
+  @Nullable
+  final HeapPressure heapPressure;
+
   /** How long after the last access to an entry the map will retain that entry. */
   final long expireAfterAccessNanos;
 
@@ -199,10 +252,62 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   /** How long after the last write an entry becomes a candidate for refresh. */
   final long refreshNanos;
 
+  /** How long due refreshes are collected before being reloaded in bulk, or 0 if they aren't. */
+  final long refreshBatchNanos;
+
+  /** Refreshes which are due, waiting to be reloaded in bulk. */
+  final Queue<PendingRefresh<K, V>> pendingRefreshes;
+
+  /** The time at which the oldest of the pending refreshes became due. */
+  volatile long refreshBatchStart;
+
+  /** Held by the thread currently taking the pending refreshes. Null unless batching refreshes. */
+  @Nullable
+  final ReentrantLock refreshBatchLock;
+
+  /** The fraction of the refresh interval by which each entry's refresh may be brought forward. */
+  final double refreshJitter;
+
+  /** The maximum number of automatic refreshes in flight at once, or 0 if they aren't limited. */
+  final int maxConcurrentRefreshes;
+
+  /** The number of automatic refreshes in flight. Null unless refreshing ahead. */
+  @Nullable
+  final AtomicInteger refreshesInFlight;
+
+  /** Releases a permit taken from {@link #refreshesInFlight} once its refresh completes. */
+  final Runnable releaseRefreshPermit = new Runnable() {
+    @Override
+    public void run() {
+      refreshesInFlight.decrementAndGet();
+    }
+  };
+
+  /** Refreshes which maintenance has found to be due, waiting to be reloaded unlocked. */
+  final Queue<PendingRefresh<K, V>> dueRefreshes;
+
+  /** Computes per-entry expiration times. Null unless entries expire after variable durations. */
+  @Nullable
+  final Expiry<K, V> expiry;
+
+  /** Computes the tags by which entries are indexed. Null unless entries are tagged. */
+  @Nullable
+  final Tagger<K, V> tagger;
+
+  /**
+   * Holds the values of entries evicted by size. Null unless the cache has an off-heap or disk
+   * tier.
+   */
+  @Nullable
+  final VictimTier<K, V> victimTier;
+
   /** Entries waiting to be consumed by the removal listener. */
   // TODO(fry): define a new type which creates event objects and automates the clear logic
   final Queue<RemovalNotification<K, V>> removalNotificationQueue;
 
+  /** The approximate number of notifications in the removal notification queue. */
+  final AtomicInteger pendingNotificationCount = new AtomicInteger();
+
   /**
    * A listener that is invoked when an entry is removed due to expiration or garbage collection of
    * soft/weak entries.
@@ -221,12 +326,56 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
    */
   final StatsCounter globalStatsCounter;
 
+  /** Whether statistics are recorded, including those kept by the segments themselves. */
+  final boolean recordsStats;
+
   /**
    * The default cache loader to use on loading operations.
    */
   @Nullable
   final CacheLoader<? super K, V> defaultLoader;
 
+  /** Performs routine maintenance. Null if maintenance is performed by the calling threads. */
+  @Nullable
+  final Executor maintenanceExecutor;
+
+  /** Loads the missing keys of {@link #getAll} concurrently, or null to load them serially. */
+  @Nullable
+  final Executor bulkLoadExecutor;
+
+  /** The maximum number of keys which each call to {@link #getAll} loads at once. */
+  final int bulkLoadParallelism;
+
+  /**
+   * Remembers the keys for which the default loader recently found no value. Null unless caching
+   * negative results.
+   */
+  @Nullable
+  final LocalCache<K, Boolean> negativeResults;
+
+  /** The number of requests failed because of a negative result, if recording statistics. */
+  final LongAdder negativeHitCount = new LongAdder();
+
+  /** The number of keys reported for each measure of hot keys, or 0 if they aren't tracked. */
+  final int hotKeyCount;
+
+  /** The number of reads per read tracked as a hot key. */
+  final int hotKeySampleRate;
+
+  /** Keeps per-thread copies of recently read values. Null unless configured. */
+  @Nullable
+  final ThreadLocalCache<K, V> threadLocalCache;
+
+  /** Whether a maintenance task has been submitted to the maintenance executor and not started. */
+  final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
+  final Runnable maintenanceTask = new Runnable() {
+    @Override
+    public void run() {
+      performMaintenance();
+    }
+  };
+
   /**
    * Creates a new, empty map with the specified strategy, initial capacity and concurrency level.
    */
@@ -242,9 +391,30 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     maxWeight = builder.getMaximumWeight();
     weigher = builder.getWeigher();
+    frequencyAdmission = builder.getFrequencyAdmission();
+    globalEviction = builder.getGlobalEviction();
+    globalWeight = evictsGlobally() ? new LongAdder() : null;
+    globalEvictionLock = evictsGlobally() ? new ReentrantLock() : null;
+    heapPressure = (builder.getTargetHeapOccupancy() == 0)
+        ? null
+        : new HeapPressure(builder.getTargetHeapOccupancy(), builder.getTicker(true));
     expireAfterAccessNanos = builder.getExpireAfterAccessNanos();
     expireAfterWriteNanos = builder.getExpireAfterWriteNanos();
     refreshNanos = builder.getRefreshNanos();
+    refreshBatchNanos = builder.getRefreshBatchNanos();
+    pendingRefreshes = batchesRefreshes()
+        ? new ConcurrentLinkedQueue<PendingRefresh<K, V>>()
+        : LocalCache.<PendingRefresh<K, V>>discardingQueue();
+    refreshBatchLock = batchesRefreshes() ? new ReentrantLock() : null;
+    refreshJitter = builder.getRefreshJitter();
+    maxConcurrentRefreshes = builder.getMaxConcurrentRefreshes();
+    refreshesInFlight = refreshesAhead() ? new AtomicInteger() : null;
+    dueRefreshes = refreshesAhead()
+        ? new ConcurrentLinkedQueue<PendingRefresh<K, V>>()
+        : LocalCache.<PendingRefresh<K, V>>discardingQueue();
+    expiry = builder.getExpiry();
+    tagger = builder.getTagger();
+    victimTier = newVictimTier(builder);
 
     removalListener = builder.getRemovalListener();
     removalNotificationQueue = (removalListener == NullListener.INSTANCE)
@@ -252,9 +422,22 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         : new ConcurrentLinkedQueue<RemovalNotification<K, V>>();
 
     ticker = builder.getTicker(recordsTime());
-    entryFactory = EntryFactory.getFactory(keyStrength, usesAccessEntries(), usesWriteEntries());
+    entryFactory = expiresVariably()
+        ? EntryFactory.getVariableFactory(keyStrength)
+        : EntryFactory.getFactory(keyStrength, usesAccessEntries(), usesWriteEntries());
     globalStatsCounter = builder.getStatsCounterSupplier().get();
+    recordsStats = (builder.getStatsCounterSupplier() != CacheBuilder.NULL_STATS_COUNTER);
     defaultLoader = loader;
+    maintenanceExecutor = builder.getMaintenanceExecutor();
+    bulkLoadExecutor = builder.getBulkLoadExecutor();
+    bulkLoadParallelism = builder.getBulkLoadParallelism();
+    negativeResults = newNegativeResults(builder);
+    hotKeyCount = builder.getHotKeyCount();
+    hotKeySampleRate = builder.getHotKeySampleRate();
+    threadLocalCache = (builder.getThreadLocalMaximumSize() == 0)
+        ? null
+        : new ThreadLocalCache<K, V>(builder.getThreadLocalMaximumSize(),
+            builder.getThreadLocalNanos(), builder.getTicker(true));
 
     int initialCapacity = Math.min(builder.getInitialCapacity(), MAXIMUM_CAPACITY);
     if (evictsBySize() && !customWeigher()) {
@@ -269,7 +452,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     int segmentShift = 0;
     int segmentCount = 1;
     while (segmentCount < concurrencyLevel
-           && (!evictsBySize() || segmentCount * 20 <= maxWeight)) {
+           && (!evictsBySize() || evictsGlobally() || segmentCount * 20 <= maxWeight)) {
       ++segmentShift;
       segmentCount <<= 1;
     }
@@ -288,7 +471,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       segmentSize <<= 1;
     }
 
-    if (evictsBySize()) {
+    if (evictsGlobally()) {
+      // Any segment may hold the entire weight; evictGlobally enforces the overall maximum
+      for (int i = 0; i < this.segments.length; ++i) {
+        this.segments[i] =
+            createSegment(segmentSize, maxWeight, builder.getStatsCounterSupplier().get());
+      }
+    } else if (evictsBySize()) {
       // Ensure sum of segment max weights = overall max weights
       long maxSegmentWeight = maxWeight / segmentCount + 1;
       long remainder = maxWeight % segmentCount;
@@ -305,6 +494,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
             createSegment(segmentSize, UNSET_INT, builder.getStatsCounterSupplier().get());
       }
     }
+
+    if (builder.getName() != null) {
+      // last, so that the registry never sees a partially constructed cache
+      builder.getRegistry().register(builder.getName(), this);
+    }
   }
 
   boolean evictsBySize() {
@@ -315,8 +509,63 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return weigher != OneWeigher.INSTANCE;
   }
 
+  boolean admitsByFrequency() {
+    return frequencyAdmission && evictsBySize();
+  }
+
+  boolean evictsGlobally() {
+    return globalEviction && evictsBySize();
+  }
+
+  /** Returns {@code maxWeight}, which is either a segment's or the cache's, under heap pressure. */
+  long effectiveMaxWeight(long maxWeight) {
+    return (heapPressure == null) ? maxWeight : heapPressure.scaledWeight(maxWeight);
+  }
+
   boolean expires() {
-    return expiresAfterWrite() || expiresAfterAccess();
+    return expiresAfterWrite() || expiresAfterAccess() || expiresVariably();
+  }
+
+  boolean expiresVariably() {
+    return expiry != null;
+  }
+
+  @Nullable
+  static <K, V> VictimTier<K, V> newVictimTier(CacheBuilder<? super K, ? super V> builder) {
+    CacheCodec<V> codec = builder.getCodec();
+    if (codec == null) {
+      return null;
+    }
+    File directory = builder.getDiskTierDirectory();
+    if (directory == null) {
+      return new OffHeapTier<K, V>(builder.getTierMaximumBytes(), codec);
+    }
+    CacheCodec<K> keyCodec = builder.getKeyCodec();
+    try {
+      return new DiskTier<K, V>(directory, builder.getTierMaximumBytes(), keyCodec, codec);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to open the disk tier in " + directory, e);
+    }
+  }
+
+  /**
+   * Returns a cache of the negative results of {@code builder}, which shares this cache's ticker
+   * and key equivalence, or null if it doesn't cache negative results.
+   */
+  @Nullable
+  LocalCache<K, Boolean> newNegativeResults(CacheBuilder<? super K, ? super V> builder) {
+    long negativeResultNanos = builder.getNegativeResultNanos();
+    if (negativeResultNanos == 0) {
+      return null;
+    }
+    CacheBuilder<Object, Object> negativeBuilder = CacheBuilder.newBuilder()
+        .concurrencyLevel(concurrencyLevel)
+        .maximumSize(builder.getNegativeResultMaximumSize())
+        .expireAfterWrite(negativeResultNanos, TimeUnit.NANOSECONDS)
+        .ticker(builder.getTicker(true))
+        .setKeyStrength(keyStrength)
+        .keyEquivalence(keyEquivalence);
+    return new LocalCache<K, Boolean>(negativeBuilder, null);
   }
 
   boolean expiresAfterWrite() {
@@ -331,12 +580,20 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return refreshNanos > 0;
   }
 
+  boolean batchesRefreshes() {
+    return refreshes() && (refreshBatchNanos > 0);
+  }
+
+  boolean refreshesAhead() {
+    return refreshes() && (maxConcurrentRefreshes > 0);
+  }
+
   boolean usesAccessQueue() {
     return expiresAfterAccess() || evictsBySize();
   }
 
   boolean usesWriteQueue() {
-    return expiresAfterWrite();
+    return expiresAfterWrite() || refreshesAhead();
   }
 
   boolean recordsWrite() {
@@ -344,11 +601,22 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   }
 
   boolean recordsAccess() {
-    return expiresAfterAccess();
+    return expiresAfterAccess() || evictsGlobally();
   }
 
   boolean recordsTime() {
-    return recordsWrite() || recordsAccess();
+    return recordsWrite() || recordsAccess() || expiresVariably();
+  }
+
+  /**
+   * Returns whether reads are recorded in the segments' recency queues, to be replayed under lock.
+   */
+  boolean buffersReads() {
+    return usesAccessQueue() || expiresVariably() || tracksHotKeys();
+  }
+
+  boolean tracksHotKeys() {
+    return hotKeyCount > 0;
   }
 
   boolean usesWriteEntries() {
@@ -369,8 +637,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
   enum Strength {
     /*
-     * TODO(kevinb): If we strongly reference the value and aren't loading, we needn't wrap the
-     * value. This could save ~8 bytes per entry.
+     * Strongly-keyed entries hold strong values inline (see StrongEntry); these references are
+     * only used for weakly-keyed entries and for detached copies of values.
      */
 
     STRONG {
@@ -544,6 +812,41 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         copyWriteEntry(original, newEntry);
         return newEntry;
       }
+    },
+
+    STRONG_VARIABLE {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new StrongVariableEntry<K, V>(key, hash, next);
+      }
+
+      @Override
+      <K, V> ReferenceEntry<K, V> copyEntry(
+          Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
+        ReferenceEntry<K, V> newEntry = super.copyEntry(segment, original, newNext);
+        copyAccessEntry(original, newEntry);
+        copyWriteEntry(original, newEntry);
+        newEntry.setExpirationTime(original.getExpirationTime());
+        return newEntry;
+      }
+    },
+    WEAK_VARIABLE {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new WeakVariableEntry<K, V>(segment.keyReferenceQueue, key, hash, next);
+      }
+
+      @Override
+      <K, V> ReferenceEntry<K, V> copyEntry(
+          Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
+        ReferenceEntry<K, V> newEntry = super.copyEntry(segment, original, newNext);
+        copyAccessEntry(original, newEntry);
+        copyWriteEntry(original, newEntry);
+        newEntry.setExpirationTime(original.getExpirationTime());
+        return newEntry;
+      }
     };
 
     /**
@@ -569,6 +872,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return factories[flags];
     }
 
+    /**
+     * Returns the factory for entries that expire after a variable duration. These entries support
+     * both access order and write order; the write order links are used by the timer wheel.
+     */
+    static EntryFactory getVariableFactory(Strength keyStrength) {
+      return (keyStrength == Strength.WEAK) ? WEAK_VARIABLE : STRONG_VARIABLE;
+    }
+
     /**
      * Creates a new entry.
      *
@@ -844,6 +1155,21 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      * Sets the previous entry in the write queue.
      */
     void setPreviousInWriteQueue(ReferenceEntry<K, V> previous);
+
+    /*
+     * Implemented by entries that expire after a variable duration. Such entries are kept in a
+     * timer wheel, which links them through the write queue pointers above.
+     */
+
+    /**
+     * Returns the time that this entry expires, in ns.
+     */
+    long getExpirationTime();
+
+    /**
+     * Sets the entry expiration time in ns.
+     */
+    void setExpirationTime(long time);
   }
 
   private enum NullEntry implements ReferenceEntry<Object, Object> {
@@ -919,6 +1245,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     @Override
     public void setPreviousInWriteQueue(ReferenceEntry<Object, Object> previous) {}
+
+    @Override
+    public long getExpirationTime() {
+      return 0;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {}
   }
 
   static abstract class AbstractReferenceEntry<K, V> implements ReferenceEntry<K, V> {
@@ -1006,6 +1340,16 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
       throw new UnsupportedOperationException();
     }
+
+    @Override
+    public long getExpirationTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      throw new UnsupportedOperationException();
+    }
   }
 
   @SuppressWarnings("unchecked") // impl never uses a parameter or returns any non-null value
@@ -1058,8 +1402,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
   /**
    * Used for strongly-referenced keys.
+   *
+   * <p>A strongly-referenced value is stored in the entry itself, together with its weight, rather
+   * than in a separate {@link StrongValueReference}: the entry then acts as its own value
+   * reference. Under compressed object pointers the weight fits in the padding of every strong
+   * entry type, so an inlined value costs no more than the reference to its value reference did.
+   * Other value references, such as those of loading or weak values, are stored in the same field.
    */
-  static class StrongEntry<K, V> implements ReferenceEntry<K, V> {
+  static class StrongEntry<K, V> implements ReferenceEntry<K, V>, ValueReference<K, V> {
     final K key;
 
     StrongEntry(K key, int hash, @Nullable ReferenceEntry<K, V> next) {
@@ -1137,22 +1487,114 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       throw new UnsupportedOperationException();
     }
 
-    // The code below is exactly the same for each entry type.
+    // null expiration
 
-    final int hash;
-    final ReferenceEntry<K, V> next;
-    volatile ValueReference<K, V> valueReference = unset();
+    @Override
+    public long getExpirationTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
+    // inlined values
+
+    /** Either the value of this entry or its {@link ValueReference}. */
+    volatile Object value = unset();
+
+    /** The weight of an inlined value, which is written before the value. */
+    int weight;
 
     @Override
     public ValueReference<K, V> getValueReference() {
-      return valueReference;
+      Object value = this.value;
+      return (value instanceof ValueReference) ? LocalCache.<K, V>asValueReference(value) : this;
     }
 
     @Override
     public void setValueReference(ValueReference<K, V> valueReference) {
-      this.valueReference = valueReference;
+      // an inlined value is set by setInlineValue, and is its own reference
+      if (valueReference != this) {
+        this.value = valueReference;
+      }
+    }
+
+    /**
+     * Stores {@code value} in this entry, unless it is itself a {@link ValueReference}, which would
+     * be indistinguishable from one. Returns whether the value was stored.
+     */
+    boolean setInlineValue(V value, int weight) {
+      if (value instanceof ValueReference) {
+        return false;
+      }
+      this.weight = weight;
+      this.value = value;
+      return true;
+    }
+
+    // ValueReference methods, which read through to the current value reference if the value is
+    // no longer inlined
+
+    @Override
+    @SuppressWarnings("unchecked") // only values of type V are stored directly
+    public V get() {
+      Object value = this.value;
+      return (value instanceof ValueReference)
+          ? LocalCache.<K, V>asValueReference(value).get()
+          : (V) value;
+    }
+
+    @Override
+    public V waitForValue() throws ExecutionException {
+      Object value = this.value;
+      return (value instanceof ValueReference)
+          ? LocalCache.<K, V>asValueReference(value).waitForValue()
+          : get();
     }
 
+    @Override
+    public int getWeight() {
+      Object value = this.value;
+      return (value instanceof ValueReference)
+          ? LocalCache.<K, V>asValueReference(value).getWeight()
+          : weight;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getEntry() {
+      return this;
+    }
+
+    @Override
+    public ValueReference<K, V> copyFor(
+        ReferenceQueue<V> queue, V value, ReferenceEntry<K, V> entry) {
+      // entries are copied by the factory which created them, so entry is a StrongEntry too
+      StrongEntry<K, V> strongEntry = (StrongEntry<K, V>) entry;
+      return strongEntry.setInlineValue(value, weight)
+          ? strongEntry
+          : new WeightedStrongValueReference<K, V>(value, weight);
+    }
+
+    @Override
+    public void notifyNewValue(V newValue) {}
+
+    @Override
+    public boolean isLoading() {
+      return false;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    // The code below is exactly the same for each entry type.
+
+    final int hash;
+    final ReferenceEntry<K, V> next;
+
     @Override
     public int getHash() {
       return hash;
@@ -1164,6 +1606,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  @SuppressWarnings("unchecked") // entries only store value references of their own types
+  static <K, V> ValueReference<K, V> asValueReference(Object value) {
+    return (ValueReference<K, V>) value;
+  }
+
   static final class StrongAccessEntry<K, V> extends StrongEntry<K, V>
       implements ReferenceEntry<K, V> {
     StrongAccessEntry(K key, int hash, @Nullable ReferenceEntry<K, V> next) {
@@ -1258,7 +1705,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
-  static final class StrongAccessWriteEntry<K, V>
+  static class StrongAccessWriteEntry<K, V>
       extends StrongEntry<K, V> implements ReferenceEntry<K, V> {
     StrongAccessWriteEntry(K key, int hash, @Nullable ReferenceEntry<K, V> next) {
       super(key, hash, next);
@@ -1345,6 +1792,27 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  static final class StrongVariableEntry<K, V>
+      extends StrongAccessWriteEntry<K, V> implements ReferenceEntry<K, V> {
+    StrongVariableEntry(K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(key, hash, next);
+    }
+
+    // The code below is exactly the same for each variable entry type.
+
+    volatile long expirationTime = Long.MAX_VALUE;
+
+    @Override
+    public long getExpirationTime() {
+      return expirationTime;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      this.expirationTime = time;
+    }
+  }
+
   /**
    * Used for weakly-referenced keys.
    */
@@ -1424,6 +1892,18 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       throw new UnsupportedOperationException();
     }
 
+    // null expiration
+
+    @Override
+    public long getExpirationTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
     // The code below is exactly the same for each entry type.
 
     final int hash;
@@ -1547,7 +2027,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
-  static final class WeakAccessWriteEntry<K, V>
+  static class WeakAccessWriteEntry<K, V>
       extends WeakEntry<K, V> implements ReferenceEntry<K, V> {
     WeakAccessWriteEntry(
         ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
@@ -1635,12 +2115,34 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
-  /**
-   * References a weak value.
-   */
-  static class WeakValueReference<K, V>
-      extends WeakReference<V> implements ValueReference<K, V> {
-    final ReferenceEntry<K, V> entry;
+  static final class WeakVariableEntry<K, V>
+      extends WeakAccessWriteEntry<K, V> implements ReferenceEntry<K, V> {
+    WeakVariableEntry(
+        ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(queue, key, hash, next);
+    }
+
+    // The code below is exactly the same for each variable entry type.
+
+    volatile long expirationTime = Long.MAX_VALUE;
+
+    @Override
+    public long getExpirationTime() {
+      return expirationTime;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      this.expirationTime = time;
+    }
+  }
+
+  /**
+   * References a weak value.
+   */
+  static class WeakValueReference<K, V>
+      extends WeakReference<V> implements ValueReference<K, V> {
+    final ReferenceEntry<K, V> entry;
 
     WeakValueReference(ReferenceQueue<V> queue, V referent, ReferenceEntry<K, V> entry) {
       super(referent, queue);
@@ -1970,9 +2472,21 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         && (now - entry.getWriteTime() > expireAfterWriteNanos)) {
       return true;
     }
+    if (expiresVariably() && (now - entry.getExpirationTime() >= 0)) {
+      return true;
+    }
     return false;
   }
 
+  /**
+   * Returns the time at which an entry expires if its {@link Expiry} returned {@code duration} at
+   * time {@code now}. Durations are clamped so that expiration times can be compared by
+   * subtraction without overflow.
+   */
+  static long expirationTime(long now, long duration) {
+    return now + Math.max(0, Math.min(duration, MAXIMUM_EXPIRY_NANOS));
+  }
+
   // queues
 
   @GuardedBy("Segment.this")
@@ -2001,6 +2515,315 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     nulled.setPreviousInWriteQueue(nullEntry);
   }
 
+  /**
+   * Evicts entries until the total weight of the cache is within its maximum, if the cache evicts
+   * globally. Each victim is the least-recently-used entry of the segment whose least-recently-used
+   * entry was accessed longest ago; the segments' access queues are peeked without locking, so the
+   * choice is approximate. Only one thread evicts at a time, and others return immediately; the
+   * evicting thread rechecks the total after releasing the eviction lock so that concurrent writes
+   * are not left unaccounted for.
+   *
+   * <p>This must not be called while holding a segment lock, as it acquires the lock of the
+   * segment it evicts from.
+   */
+  void evictGlobally() {
+    if (globalWeight == null) {
+      return;
+    }
+    long maxWeight = effectiveMaxWeight(this.maxWeight);
+    while (globalWeight.sum() > maxWeight) {
+      if (!globalEvictionLock.tryLock()) {
+        return;
+      }
+      try {
+        while (globalWeight.sum() > maxWeight) {
+          Segment<K, V> segment = nextGlobalEvictionSegment();
+          if ((segment == null) || !segment.evictForGlobalWeight()) {
+            // eviction will be retried on the next write
+            return;
+          }
+        }
+      } finally {
+        globalEvictionLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Returns the segment whose least-recently-used entry has the oldest access time, or {@code null}
+   * if all segments appear to be empty.
+   */
+  @Nullable
+  Segment<K, V> nextGlobalEvictionSegment() {
+    Segment<K, V> victim = null;
+    long oldestAccessTime = Long.MAX_VALUE;
+    for (Segment<K, V> segment : segments) {
+      if (segment.count == 0) {
+        continue;
+      }
+      // racy read of a structure guarded by the segment lock; a stale entry only skews the choice
+      ReferenceEntry<K, V> e = segment.accessQueue.peek();
+      if (e == null) {
+        continue;
+      }
+      long accessTime = e.getAccessTime();
+      if ((victim == null) || (accessTime < oldestAccessTime)) {
+        victim = segment;
+        oldestAccessTime = accessTime;
+      }
+    }
+    return victim;
+  }
+
+  /**
+   * Adds a refresh which has become due to the current batch. The loading value reference must
+   * already have been inserted, so that the entry is not refreshed twice.
+   */
+  void enqueueRefresh(K key, int hash, LoadingValueReference<K, V> valueReference, long now) {
+    if (pendingRefreshes.isEmpty()) {
+      // racy, but at worst a batch is reloaded slightly early or late
+      refreshBatchStart = now;
+    }
+    pendingRefreshes.add(new PendingRefresh<K, V>(key, hash, valueReference));
+  }
+
+  /**
+   * Reloads the pending refreshes in bulk once the oldest of them has waited for the batching
+   * window. This should be called without holding any segment lock.
+   */
+  void reloadPendingRefreshes() {
+    if (!refreshBatchDue() || !refreshBatchLock.tryLock()) {
+      return;
+    }
+    List<PendingRefresh<K, V>> batch = Lists.newArrayList();
+    try {
+      PendingRefresh<K, V> refresh;
+      while ((refresh = pendingRefreshes.poll()) != null) {
+        batch.add(refresh);
+      }
+    } finally {
+      refreshBatchLock.unlock();
+    }
+    if (!batch.isEmpty()) {
+      reloadAll(batch);
+    }
+  }
+
+  /** Returns whether the oldest pending refresh has waited for the batching window. */
+  boolean refreshBatchDue() {
+    return !pendingRefreshes.isEmpty() && (ticker.read() - refreshBatchStart >= refreshBatchNanos);
+  }
+
+  /**
+   * Returns whether {@code entry} is due for refresh. When refreshing ahead, each entry's refresh
+   * is brought forward by a fraction of the refresh interval up to the jitter, which is derived
+   * from its hash and write time so that it is stable until the entry is next written.
+   */
+  boolean isRefreshDue(ReferenceEntry<K, V> entry, long now) {
+    return now - entry.getWriteTime() > refreshDelay(entry);
+  }
+
+  long refreshDelay(ReferenceEntry<K, V> entry) {
+    if (refreshJitter == 0.0) {
+      return refreshNanos;
+    }
+    int bits = rehash(entry.getHash() ^ (int) entry.getWriteTime()) >>> 8;
+    double fraction = refreshJitter * bits / (1 << 24);
+    return refreshNanos - (long) (refreshNanos * fraction);
+  }
+
+  /** Returns the shortest delay after which any entry may become due for refresh. */
+  long minimumRefreshDelay() {
+    return refreshNanos - (long) (refreshNanos * refreshJitter);
+  }
+
+  /**
+   * Takes a permit for an automatic refresh, returning false if the maximum number are already in
+   * flight. Always succeeds unless refreshing ahead.
+   */
+  boolean acquireRefreshPermit() {
+    if (refreshesInFlight == null) {
+      return true;
+    }
+    while (true) {
+      int inFlight = refreshesInFlight.get();
+      if (inFlight >= maxConcurrentRefreshes) {
+        return false;
+      }
+      if (refreshesInFlight.compareAndSet(inFlight, inFlight + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Starts reloading the refreshes which maintenance has found to be due, without waiting for them
+   * to complete. This should be called without holding any segment lock.
+   */
+  void reloadDueRefreshes() {
+    PendingRefresh<K, V> refresh;
+    while ((refresh = dueRefreshes.poll()) != null) {
+      segmentFor(refresh.hash).loadAsync(
+          refresh.key, refresh.hash, refresh.valueReference, defaultLoader)
+          .addListener(releaseRefreshPermit, sameThreadExecutor);
+    }
+  }
+
+  /** Returns whether the default loader recently found no value for {@code key}. */
+  boolean hasNegativeResult(Object key) {
+    return (negativeResults != null) && negativeResults.containsKey(key);
+  }
+
+  /**
+   * Counts a request failed because of a negative result, and returns the exception to fail it
+   * with.
+   */
+  InvalidCacheLoadException negativeHit(Object key) {
+    if (recordsStats) {
+      negativeHitCount.increment();
+    }
+    return new InvalidCacheLoadException("CacheLoader recently returned null for key " + key + ".");
+  }
+
+  /** Remembers that the default loader found no value for {@code key}. */
+  void recordNegativeResult(K key) {
+    negativeResults.put(key, Boolean.TRUE);
+    // racy, but a value stored concurrently must not be hidden once it is removed
+    if (containsKey(key)) {
+      negativeResults.remove(key);
+    }
+  }
+
+  void discardNegativeResult(Object key) {
+    if (negativeResults != null) {
+      negativeResults.remove(key);
+    }
+  }
+
+  /**
+   * Submits the maintenance task to the maintenance executor, unless it is already waiting to run.
+   * Returns false if the executor rejected it, in which case the caller should perform the
+   * maintenance itself.
+   */
+  boolean scheduleMaintenance() {
+    if (maintenanceScheduled.get() || !maintenanceScheduled.compareAndSet(false, true)) {
+      return true;
+    }
+    try {
+      maintenanceExecutor.execute(maintenanceTask);
+      return true;
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Exception thrown when scheduling maintenance", t);
+      maintenanceScheduled.set(false);
+      return false;
+    }
+  }
+
+  /**
+   * Returns whether the pending removal notifications and refreshes can be left to the maintenance
+   * executor, scheduling the maintenance task if there are any. Returns false if the calling
+   * thread should process them itself: if there is no maintenance executor, if it rejected the
+   * task, or if too many notifications are already waiting for it.
+   */
+  boolean deferMaintenance() {
+    if (maintenanceExecutor == null) {
+      return false;
+    }
+    int pending = pendingNotificationCount.get();
+    if (pending > MAXIMUM_PENDING_NOTIFICATIONS) {
+      return false;
+    }
+    return ((pending <= 0) && !refreshBatchDue() && dueRefreshes.isEmpty())
+        || scheduleMaintenance();
+  }
+
+  /**
+   * Performs routine maintenance for every segment. This is run by the maintenance executor.
+   */
+  void performMaintenance() {
+    maintenanceScheduled.set(false);
+    long now = ticker.read();
+    for (Segment<K, V> segment : segments) {
+      segment.runLockedCleanup(now);
+    }
+    checkHeapPressure();
+    evictGlobally();
+    processPendingNotifications();
+    reloadPendingRefreshes();
+    reloadDueRefreshes();
+  }
+
+  /**
+   * Adjusts the effective maximum weight to the heap pressure, if it is time to. When it shrinks,
+   * the segments evict down to it as they next perform cleanup, or immediately when evicting
+   * globally.
+   */
+  void checkHeapPressure() {
+    if (heapPressure != null) {
+      heapPressure.check();
+    }
+  }
+
+  /**
+   * Reloads a batch of refreshes with a single call to {@link CacheLoader#loadAll}, falling back
+   * to {@link CacheLoader#reload} if bulk loading is not supported. Errors are logged and
+   * swallowed, and leave the old values in place.
+   */
+  void reloadAll(List<PendingRefresh<K, V>> batch) {
+    Set<K> keys = Sets.newLinkedHashSet();
+    for (PendingRefresh<K, V> refresh : batch) {
+      keys.add(refresh.key);
+    }
+
+    Stopwatch stopwatch = new Stopwatch().start();
+    Map<K, V> result = null;
+    Throwable failure = null;
+    try {
+      @SuppressWarnings("unchecked") // safe since all keys extend K
+      Map<K, V> map = (Map<K, V>) defaultLoader.loadAll(keys);
+      result = map;
+    } catch (UnsupportedLoadingOperationException e) {
+      for (PendingRefresh<K, V> refresh : batch) {
+        segmentFor(refresh.hash).loadAsync(
+            refresh.key, refresh.hash, refresh.valueReference, defaultLoader);
+      }
+      return;
+    } catch (Throwable t) {
+      if (t instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      failure = t;
+    }
+    if ((failure == null) && (result == null)) {
+      failure = new InvalidCacheLoadException(defaultLoader + " returned null map from loadAll");
+    }
+
+    if (failure != null) {
+      globalStatsCounter.recordLoadException(stopwatch.elapsedTime(NANOSECONDS));
+      logger.log(Level.WARNING, "Exception thrown during refresh", failure);
+      for (PendingRefresh<K, V> refresh : batch) {
+        refresh.valueReference.setException(failure);
+        segmentFor(refresh.hash).removeLoadingValue(
+            refresh.key, refresh.hash, refresh.valueReference);
+      }
+      return;
+    }
+
+    globalStatsCounter.recordLoadSuccess(stopwatch.elapsedTime(NANOSECONDS));
+    for (PendingRefresh<K, V> refresh : batch) {
+      Segment<K, V> segment = segmentFor(refresh.hash);
+      V newValue = result.get(refresh.key);
+      if (newValue == null) {
+        // keep the old value, which will be refreshed again when next read
+        refresh.valueReference.set(refresh.valueReference.get());
+        segment.removeLoadingValue(refresh.key, refresh.hash, refresh.valueReference);
+      } else {
+        segment.storeLoadedValue(refresh.key, refresh.hash, refresh.valueReference, newValue);
+        refresh.valueReference.set(newValue);
+      }
+    }
+  }
+
   /**
    * Notifies listeners that an entry has been automatically removed due to expiration, eviction,
    * or eligibility for garbage collection. This should be called every time expireEntries or
@@ -2009,6 +2832,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   void processPendingNotifications() {
     RemovalNotification<K, V> notification;
     while ((notification = removalNotificationQueue.poll()) != null) {
+      pendingNotificationCount.decrementAndGet();
       try {
         removalListener.onRemoval(notification);
       } catch (Throwable e) {
@@ -2077,6 +2901,22 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @GuardedBy("Segment.this")
     int totalWeight;
 
+    /**
+     * Advanced whenever a value is replaced or removed, so that {@linkplain ThreadLocalCache
+     * thread-local copies} of values read earlier can tell that they may be stale. Only maintained
+     * when the cache has a thread-local cache. Copies hold this counter rather than the segment, so
+     * that they do not keep a discarded cache reachable from the threads which read it.
+     *
+     * <p>The epoch is advanced as the lock is released, after the change has been made, so that a
+     * reader which sees the new epoch also sees the new value. Were it advanced first, a reader
+     * could read the new epoch and then the old value, and keep a copy which looks current.
+     */
+    final AtomicInteger epoch = new AtomicInteger();
+
+    /** Whether a value has been replaced or removed since the lock was acquired. */
+    @GuardedBy("Segment.this")
+    boolean epochAdvancePending;
+
     /**
      * Number of updates that alter the size of the table. This is used during bulk-read methods to
      * make sure they see a consistent snapshot: If modCounts change during a traversal of segments
@@ -2116,15 +2956,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     /**
      * The recency queue is used to record which entries were accessed for updating the access
      * list's ordering. It is drained as a batch operation when either the DRAIN_THRESHOLD is
-     * crossed or a write occurs on the segment.
-     */
-    final Queue<ReferenceEntry<K, V>> recencyQueue;
-
-    /**
-     * A counter of the number of reads since the last write, used to drain queues on a small
-     * fraction of read operations.
+     * crossed or a write occurs on the segment. Reads are striped across fixed-size ring buffers
+     * and may be dropped under contention, so recording a read never allocates. The buffer also
+     * counts the reads since the last cleanup, used to drain queues on a small fraction of read
+     * operations; entries are only recorded if the cache uses an access queue.
      */
-    final AtomicInteger readCount = new AtomicInteger();
+    final ReadBuffer<ReferenceEntry<K, V>> recencyQueue = new ReadBuffer<ReferenceEntry<K, V>>();
 
     /**
      * A queue of elements currently in the map, ordered by write time. Elements are added to the
@@ -2133,6 +2970,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @GuardedBy("Segment.this")
     final Queue<ReferenceEntry<K, V>> writeQueue;
 
+    /**
+     * The entries currently in the map, scheduled by expiration time. Null unless entries expire
+     * after variable durations, in which case this is also the segment's {@link #writeQueue}.
+     */
+    @GuardedBy("Segment.this")
+    final TimerWheel<K, V> timerWheel;
+
     /**
      * A queue of elements currently in the map, ordered by access time. Elements are added to the
      * tail of the queue on access (note that writes count as accesses).
@@ -2140,9 +2984,48 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @GuardedBy("Segment.this")
     final Queue<ReferenceEntry<K, V>> accessQueue;
 
+    /**
+     * Estimates the recent popularity of keys in this segment, including keys which are no longer
+     * present. Null unless the cache admits entries by frequency.
+     */
+    @GuardedBy("Segment.this")
+    final FrequencySketch frequencySketch;
+
+    /** Track the keys read most often and loaded longest. Null unless hot keys are tracked. */
+    @Nullable
+    final HotKeyTracker<K> readHotKeys;
+
+    @Nullable
+    final HotKeyTracker<K> loadHotKeys;
+
+    /** The number of reads since one was last tracked as a hot key. */
+    @GuardedBy("Segment.this")
+    int unsampledReads;
+
     /** Accumulates cache statistics. */
     final StatsCounter statsCounter;
 
+    /** The number of evictions from this segment, indexed by the ordinal of their cause. */
+    @GuardedBy("Segment.this")
+    final long[] evictionCounts = new long[RemovalCause.values().length];
+
+    /** The number of times a thread had to wait to acquire this segment's lock. */
+    volatile long lockContentionCount;
+
+    /** The total number of nanoseconds threads have waited to acquire this segment's lock. */
+    volatile long lockWaitNanos;
+
+    /** The entries of this segment with each tag. Null unless entries are tagged. */
+    @GuardedBy("Segment.this")
+    final Map<Object, Set<ReferenceEntry<K, V>>> entriesByTag;
+
+    /**
+     * The tags of each tagged entry of this segment, by identity, so that they can be unindexed
+     * when the entry is removed or replaced by a copy. Null unless entries are tagged.
+     */
+    @GuardedBy("Segment.this")
+    final Map<ReferenceEntry<K, V>, Object[]> tagsByEntry;
+
     Segment(LocalCache<K, V> map, int initialCapacity, long maxSegmentWeight,
         StatsCounter statsCounter) {
       this.map = map;
@@ -2156,17 +3039,34 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       valueReferenceQueue = map.usesValueReferences()
            ? new ReferenceQueue<V>() : null;
 
-      recencyQueue = map.usesAccessQueue()
-          ? new ConcurrentLinkedQueue<ReferenceEntry<K, V>>()
-          : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+      timerWheel = map.expiresVariably()
+          ? new TimerWheel<K, V>(map.ticker.read())
+          : null;
 
-      writeQueue = map.usesWriteQueue()
-          ? new WriteQueue<K, V>()
-          : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+      if (timerWheel != null) {
+        writeQueue = timerWheel;
+      } else {
+        writeQueue = map.usesWriteQueue()
+            ? new WriteQueue<K, V>()
+            : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+      }
 
       accessQueue = map.usesAccessQueue()
           ? new AccessQueue<K, V>()
           : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+
+      frequencySketch = map.admitsByFrequency()
+          ? new FrequencySketch(initialCapacity)
+          : null;
+      readHotKeys = map.tracksHotKeys() ? new HotKeyTracker<K>(map.hotKeyCount) : null;
+      loadHotKeys = map.tracksHotKeys() ? new HotKeyTracker<K>(map.hotKeyCount) : null;
+
+      entriesByTag = (map.tagger != null)
+          ? Maps.<Object, Set<ReferenceEntry<K, V>>>newHashMap()
+          : null;
+      tagsByEntry = (map.tagger != null)
+          ? Maps.<ReferenceEntry<K, V>, Object[]>newIdentityHashMap()
+          : null;
     }
 
     AtomicReferenceArray<ReferenceEntry<K, V>> newEntryArray(int size) {
@@ -2182,6 +3082,33 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       this.table = newTable;
     }
 
+    /**
+     * Acquires this segment's lock, counting the times it had to wait for another thread to
+     * release the lock when recording statistics.
+     */
+    @Override
+    public void lock() {
+      if (!map.recordsStats) {
+        super.lock();
+      } else if (!tryLock()) {
+        long start = System.nanoTime();
+        super.lock();
+        // the counters are only written while holding the lock
+        lockContentionCount++;
+        lockWaitNanos += System.nanoTime() - start;
+      }
+    }
+
+    /** Releases this segment's lock, first advancing its epoch if a value was superseded. */
+    @Override
+    public void unlock() {
+      if (epochAdvancePending) {
+        epochAdvancePending = false;
+        epoch.incrementAndGet();
+      }
+      super.unlock();
+    }
+
     @GuardedBy("Segment.this")
     ReferenceEntry<K, V> newEntry(K key, int hash, @Nullable ReferenceEntry<K, V> next) {
       return map.entryFactory.newEntry(this, key, hash, next);
@@ -2207,25 +3134,121 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
       ReferenceEntry<K, V> newEntry = map.entryFactory.copyEntry(this, original, newNext);
       newEntry.setValueReference(valueReference.copyFor(this.valueReferenceQueue, value, newEntry));
+      if (tagsByEntry != null) {
+        Object[] tags = untag(original);
+        if (tags != null) {
+          tag(newEntry, tags);
+        }
+      }
       return newEntry;
     }
 
+    /** Indexes {@code entry} by the tags of its new value, in place of those of its old value. */
+    @GuardedBy("Segment.this")
+    void retag(ReferenceEntry<K, V> entry, K key, V value) {
+      Object[] tags = Iterables.toArray(map.tagger.tags(key, value), Object.class);
+      untag(entry);
+      if (tags.length > 0) {
+        tag(entry, tags);
+      }
+    }
+
+    @GuardedBy("Segment.this")
+    void tag(ReferenceEntry<K, V> entry, Object[] tags) {
+      tagsByEntry.put(entry, tags);
+      for (Object tag : tags) {
+        Set<ReferenceEntry<K, V>> entries = entriesByTag.get(tag);
+        if (entries == null) {
+          entries = Sets.newIdentityHashSet();
+          entriesByTag.put(tag, entries);
+        }
+        entries.add(entry);
+      }
+    }
+
+    /** Removes {@code entry} from the tag index, returning its tags if it had any. */
+    @GuardedBy("Segment.this")
+    @Nullable
+    Object[] untag(ReferenceEntry<K, V> entry) {
+      if (tagsByEntry == null) {
+        return null;
+      }
+      Object[] tags = tagsByEntry.remove(entry);
+      if (tags != null) {
+        for (Object tag : tags) {
+          Set<ReferenceEntry<K, V>> entries = entriesByTag.get(tag);
+          if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+            entriesByTag.remove(tag);
+          }
+        }
+      }
+      return tags;
+    }
+
     /**
      * Sets a new value of an entry. Adds newly created entries at the end of the access queue.
      */
     @GuardedBy("Segment.this")
     void setValue(ReferenceEntry<K, V> entry, K key, V value, long now) {
+      if (map.victimTier != null) {
+        // any copy held by the victim tier is now stale
+        map.victimTier.invalidate(key);
+      }
+      restoreValue(entry, key, value, now);
+    }
+
+    /**
+     * Sets a new value of an entry, keeping any copy of the value held by the victim tier. Used
+     * directly only when the value was just promoted from that tier.
+     */
+    @GuardedBy("Segment.this")
+    void restoreValue(ReferenceEntry<K, V> entry, K key, V value, long now) {
       ValueReference<K, V> previous = entry.getValueReference();
       int weight = map.weigher.weigh(key, value);
       checkState(weight >= 0, "Weights must be non-negative");
+      if (map.expiresVariably()) {
+        long duration = previous.isActive()
+            ? map.expiry.expireAfterUpdate(key, value, now, entry.getExpirationTime() - now)
+            : map.expiry.expireAfterCreate(key, value, now);
+        entry.setExpirationTime(expirationTime(now, duration));
+      }
 
-      ValueReference<K, V> valueReference =
-          map.valueStrength.referenceValue(this, entry, value, weight);
-      entry.setValueReference(valueReference);
+      if (!inlineValue(entry, value, weight)) {
+        ValueReference<K, V> valueReference =
+            map.valueStrength.referenceValue(this, entry, value, weight);
+        entry.setValueReference(valueReference);
+      }
+      if (tagsByEntry != null) {
+        retag(entry, key, value);
+      }
       recordWrite(entry, weight, now);
       previous.notifyNewValue(value);
     }
 
+    /**
+     * Stores a strongly-referenced value in a strongly-keyed entry itself, rather than in a new
+     * {@link StrongValueReference}. Returns false if the value needs a reference.
+     */
+    @GuardedBy("Segment.this")
+    boolean inlineValue(ReferenceEntry<K, V> entry, V value, int weight) {
+      return (map.valueStrength == Strength.STRONG) && (entry instanceof StrongEntry)
+          && ((StrongEntry<K, V>) entry).setInlineValue(value, weight);
+    }
+
+    /**
+     * Returns a reference to the current value of {@code entry} which stays unchanged when the
+     * entry's value changes. An entry holding its value inline is itself the reference to its
+     * value, so its value is copied into a separate reference.
+     */
+    @GuardedBy("Segment.this")
+    ValueReference<K, V> detachValueReference(
+        ReferenceEntry<K, V> entry, ValueReference<K, V> valueReference) {
+      return (valueReference == entry)
+          ? map.valueStrength.<K, V>referenceValue(
+              this, entry, valueReference.get(), valueReference.getWeight())
+          : valueReference;
+    }
+
     // loading
 
     V get(K key, int hash, CacheLoader<? super K, V> loader) throws ExecutionException {
@@ -2249,6 +3272,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         }
 
         // at this point e is either null or expired;
+        V victim = promoteVictim(key, hash);
+        if (victim != null) {
+          statsCounter.recordHits(1);
+          return victim;
+        }
+        if (loader == map.defaultLoader && map.hasNegativeResult(key)) {
+          throw map.negativeHit(key);
+        }
         return lockedGetOrLoad(key, hash, loader);
       } catch (ExecutionException ee) {
         Throwable cause = ee.getCause();
@@ -2367,16 +3398,200 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
-    // at most one of loadSync/loadAsync may be called for any given LoadingValueReference
-
-    V loadSync(K key, int hash, LoadingValueReference<K, V> loadingValueReference,
-        CacheLoader<? super K, V> loader) throws ExecutionException {
-      ListenableFuture<V> loadingFuture = loadingValueReference.loadFuture(key, loader);
-      return getAndRecordStats(key, hash, loadingValueReference, loadingFuture);
-    }
-
-    ListenableFuture<V> loadAsync(final K key, final int hash,
-        final LoadingValueReference<K, V> loadingValueReference, CacheLoader<? super K, V> loader) {
+    ListenableFuture<V> getAsync(K key, int hash, CacheLoader<? super K, V> loader,
+        Executor executor) {
+      try {
+        if (count != 0) { // read-volatile
+          // don't call getLiveEntry, which would ignore loading values
+          ReferenceEntry<K, V> e = getEntry(key, hash);
+          if (e != null) {
+            long now = map.ticker.read();
+            V value = getLiveValue(e, now);
+            if (value != null) {
+              recordRead(e, now);
+              statsCounter.recordHits(1);
+              scheduleRefreshAsync(e, key, hash, now, loader, executor);
+              return Futures.immediateFuture(value);
+            }
+            ValueReference<K, V> valueReference = e.getValueReference();
+            if (valueReference.isLoading()) {
+              statsCounter.recordMisses(1);
+              return loadingFuture(key, valueReference);
+            }
+          }
+        }
+
+        // at this point e is either null or expired;
+        V victim = promoteVictim(key, hash);
+        if (victim != null) {
+          statsCounter.recordHits(1);
+          return Futures.immediateFuture(victim);
+        }
+        return lockedGetOrLoadAsync(key, hash, loader, executor);
+      } finally {
+        postReadCleanup();
+      }
+    }
+
+    ListenableFuture<V> lockedGetOrLoadAsync(final K key, final int hash,
+        final CacheLoader<? super K, V> loader, Executor executor) {
+      ReferenceEntry<K, V> e;
+      ValueReference<K, V> valueReference = null;
+      LoadingValueReference<K, V> loadingValueReference = null;
+      boolean createNewEntry = true;
+
+      lock();
+      try {
+        // re-read ticker once inside the lock
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        int newCount = this.count - 1;
+        AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+        int index = hash & (table.length() - 1);
+        ReferenceEntry<K, V> first = table.get(index);
+
+        for (e = first; e != null; e = e.getNext()) {
+          K entryKey = e.getKey();
+          if (e.getHash() == hash && entryKey != null
+              && map.keyEquivalence.equivalent(key, entryKey)) {
+            valueReference = e.getValueReference();
+            if (valueReference.isLoading()) {
+              createNewEntry = false;
+            } else {
+              V value = valueReference.get();
+              if (value == null) {
+                enqueueNotification(entryKey, hash, valueReference, RemovalCause.COLLECTED);
+              } else if (map.isExpired(e, now)) {
+                enqueueNotification(entryKey, hash, valueReference, RemovalCause.EXPIRED);
+              } else {
+                recordLockedRead(e, now);
+                statsCounter.recordHits(1);
+                // we were concurrent with loading; don't consider refresh
+                return Futures.immediateFuture(value);
+              }
+
+              // immediately reuse invalid entries
+              writeQueue.remove(e);
+              accessQueue.remove(e);
+              this.count = newCount; // write-volatile
+            }
+            break;
+          }
+        }
+
+        if (createNewEntry) {
+          loadingValueReference = new LoadingValueReference<K, V>();
+
+          if (e == null) {
+            e = newEntry(key, hash, first);
+            e.setValueReference(loadingValueReference);
+            table.set(index, e);
+          } else {
+            e.setValueReference(loadingValueReference);
+          }
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+
+      statsCounter.recordMisses(1);
+      if (!createNewEntry) {
+        // The entry already exists. Share its load.
+        return loadingFuture(key, valueReference);
+      }
+
+      final LoadingValueReference<K, V> newValueReference = loadingValueReference;
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              loadSync(key, hash, newValueReference, loader);
+            } catch (Exception e) {
+              // the failure is reported through the loading future
+            }
+          }
+        });
+      } catch (RuntimeException t) {
+        // most likely a RejectedExecutionException
+        newValueReference.setException(t);
+        removeLoadingValue(key, hash, newValueReference);
+      }
+      return loadingFuture(key, newValueReference);
+    }
+
+    /**
+     * Returns a future of the value being loaded by {@code valueReference}. The future fails if
+     * the loader returns null, and cancelling it does not affect the load nor any other caller.
+     */
+    ListenableFuture<V> loadingFuture(final K key, ValueReference<K, V> valueReference) {
+      final SettableFuture<V> future = SettableFuture.create();
+      Futures.addCallback(((LoadingValueReference<K, V>) valueReference).futureValue,
+          new FutureCallback<V>() {
+            @Override
+            public void onSuccess(@Nullable V value) {
+              if (value == null) {
+                onFailure(new InvalidCacheLoadException(
+                    "CacheLoader returned null for key " + key + "."));
+              } else {
+                future.set(value);
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              LoadingValueReference.setException(future, t);
+            }
+          });
+      return future;
+    }
+
+    /**
+     * Submits a refresh of {@code entry} to {@code executor} if it is due, unless another thread
+     * is already refreshing it.
+     */
+    void scheduleRefreshAsync(ReferenceEntry<K, V> entry, final K key, final int hash, long now,
+        final CacheLoader<? super K, V> loader, Executor executor) {
+      if (map.refreshes() && (now - entry.getWriteTime() > map.refreshNanos)) {
+        final LoadingValueReference<K, V> loadingValueReference =
+            insertLoadingValueReference(key, hash);
+        if (loadingValueReference == null) {
+          return;
+        }
+        try {
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              loadAsync(key, hash, loadingValueReference, loader);
+            }
+          });
+        } catch (RuntimeException t) {
+          logger.log(Level.WARNING, "Exception thrown during refresh", t);
+          removeLoadingValue(key, hash, loadingValueReference);
+        }
+      }
+    }
+
+    // at most one of loadSync/loadAsync may be called for any given LoadingValueReference
+
+    V loadSync(K key, int hash, LoadingValueReference<K, V> loadingValueReference,
+        CacheLoader<? super K, V> loader) throws ExecutionException {
+      ListenableFuture<V> loadingFuture = loadingValueReference.loadFuture(key, loader);
+      try {
+        return getAndRecordStats(key, hash, loadingValueReference, loadingFuture);
+      } catch (InvalidCacheLoadException e) {
+        // the loader returned null
+        if (map.negativeResults != null && loader == map.defaultLoader) {
+          map.recordNegativeResult(key);
+        }
+        throw e;
+      }
+    }
+
+    ListenableFuture<V> loadAsync(final K key, final int hash,
+        final LoadingValueReference<K, V> loadingValueReference, CacheLoader<? super K, V> loader) {
       final ListenableFuture<V> loadingFuture = loadingValueReference.loadFuture(key, loader);
       loadingFuture.addListener(
           new Runnable() {
@@ -2414,12 +3629,28 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           statsCounter.recordLoadException(loadingValueReference.elapsedNanos());
           removeLoadingValue(key, hash, loadingValueReference);
         }
+        if (loadHotKeys != null) {
+          loadHotKeys.record(key, loadingValueReference.elapsedNanos());
+        }
       }
     }
 
     V scheduleRefresh(ReferenceEntry<K, V> entry, K key, int hash, V oldValue, long now,
         CacheLoader<? super K, V> loader) {
-      if (map.refreshes() && (now - entry.getWriteTime() > map.refreshNanos)) {
+      if (map.refreshes() && map.isRefreshDue(entry, now)) {
+        if (map.refreshesAhead()) {
+          refreshAhead(key, hash, loader);
+          return oldValue;
+        }
+        if (map.batchesRefreshes() && (loader == map.defaultLoader)) {
+          LoadingValueReference<K, V> loadingValueReference =
+              insertLoadingValueReference(key, hash);
+          if (loadingValueReference != null) {
+            map.enqueueRefresh(key, hash, loadingValueReference, now);
+          }
+          map.reloadPendingRefreshes();
+          return oldValue;
+        }
         V newValue = refresh(key, hash, loader);
         if (newValue != null) {
           return newValue;
@@ -2428,6 +3659,24 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return oldValue;
     }
 
+    /**
+     * Starts refreshing the value associated with {@code key} if a refresh permit is available,
+     * unless another thread is already refreshing it. The refresh is not waited for, so the caller
+     * continues to see the old value until it completes.
+     */
+    void refreshAhead(K key, int hash, CacheLoader<? super K, V> loader) {
+      if (!map.acquireRefreshPermit()) {
+        return;
+      }
+      LoadingValueReference<K, V> loadingValueReference = insertLoadingValueReference(key, hash);
+      if (loadingValueReference == null) {
+        map.releaseRefreshPermit.run();
+        return;
+      }
+      loadAsync(key, hash, loadingValueReference, loader)
+          .addListener(map.releaseRefreshPermit, sameThreadExecutor);
+    }
+
     /**
      * Refreshes the value associated with {@code key}, unless another thread is already doing so.
      * Returns the newly refreshed value associated with {@code key} if it was refreshed inline, or
@@ -2485,7 +3734,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
             // continue returning old value while loading
             ++modCount;
             LoadingValueReference<K, V> loadingValueReference =
-                new LoadingValueReference<K, V>(valueReference);
+                new LoadingValueReference<K, V>(detachValueReference(e, valueReference));
             e.setValueReference(loadingValueReference);
             return loadingValueReference;
           }
@@ -2509,7 +3758,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      * Cleanup collected entries when the lock is available.
      */
     void tryDrainReferenceQueues() {
-      if (tryLock()) {
+      if (!deferCleanup() && tryLock()) {
         try {
           drainReferenceQueues();
         } finally {
@@ -2585,7 +3834,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     /**
      * Records the relative order in which this read was performed by adding {@code entry} to the
      * recency queue. At write-time, or when the queue is full past the threshold, the queue will
-     * be drained and the entries therein processed.
+     * be drained and the entries therein processed. The read is silently dropped if the calling
+     * thread's buffer is full or contended.
      *
      * <p>Note: locked reads should use {@link #recordLockedRead}.
      */
@@ -2593,7 +3843,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (map.recordsAccess()) {
         entry.setAccessTime(now);
       }
-      recencyQueue.add(entry);
+      if (map.expiresVariably()) {
+        expireAfterRead(entry, now);
+      }
+      if (map.buffersReads()) {
+        recencyQueue.offer(entry);
+      }
     }
 
     /**
@@ -2609,6 +3864,38 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         entry.setAccessTime(now);
       }
       accessQueue.add(entry);
+      if (map.expiresVariably()) {
+        expireAfterRead(entry, now);
+        timerWheel.add(entry);
+      }
+      recordFrequency(entry);
+      recordHotKeyRead(entry);
+    }
+
+    /** Records one in every {@code hotKeySampleRate} reads with the hot key tracker, if any. */
+    @GuardedBy("Segment.this")
+    void recordHotKeyRead(ReferenceEntry<K, V> entry) {
+      if (readHotKeys != null && ++unsampledReads == map.hotKeySampleRate) {
+        unsampledReads = 0;
+        K key = entry.getKey();
+        if (key != null) {
+          readHotKeys.record(key, map.hotKeySampleRate);
+        }
+      }
+    }
+
+    /**
+     * Recomputes the expiration time of {@code entry} following a read. Its position in the timer
+     * wheel is updated when the read is replayed under lock, or lazily when its old bucket expires.
+     */
+    void expireAfterRead(ReferenceEntry<K, V> entry, long now) {
+      K key = entry.getKey();
+      V value = entry.getValueReference().get();
+      if ((key != null) && (value != null)) {
+        long duration =
+            map.expiry.expireAfterRead(key, value, now, entry.getExpirationTime() - now);
+        entry.setExpirationTime(expirationTime(now, duration));
+      }
     }
 
     /**
@@ -2619,7 +3906,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     void recordWrite(ReferenceEntry<K, V> entry, int weight, long now) {
       // we are already under lock, so drain the recency queue immediately
       drainRecencyQueue();
-      totalWeight += weight;
+      addWeight(weight);
 
       if (map.recordsAccess()) {
         entry.setAccessTime(now);
@@ -2629,6 +3916,29 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
       accessQueue.add(entry);
       writeQueue.add(entry);
+      recordFrequency(entry);
+    }
+
+    /**
+     * Adjusts the total weight of this segment, and of the cache if it evicts globally.
+     */
+    @GuardedBy("Segment.this")
+    void addWeight(int weight) {
+      totalWeight += weight;
+      if (map.globalWeight != null) {
+        map.globalWeight.add(weight);
+      }
+    }
+
+    /**
+     * Records an access to {@code entry}'s key in the frequency sketch, if the cache admits entries
+     * by frequency.
+     */
+    @GuardedBy("Segment.this")
+    void recordFrequency(ReferenceEntry<K, V> entry) {
+      if (frequencySketch != null) {
+        frequencySketch.increment(entry.getHash());
+      }
     }
 
     /**
@@ -2641,6 +3951,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     void drainRecencyQueue() {
       ReferenceEntry<K, V> e;
       while ((e = recencyQueue.poll()) != null) {
+        recordHotKeyRead(e);
         // An entry may be in the recency queue despite it being removed from
         // the map . This can occur when the entry was concurrently read while a
         // writer is removing it from the segment or after a clear has removed
@@ -2648,6 +3959,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         if (accessQueue.contains(e)) {
           accessQueue.add(e);
         }
+        if ((timerWheel != null) && timerWheel.contains(e)) {
+          timerWheel.add(e);
+        }
+        recordFrequency(e);
       }
     }
 
@@ -2657,7 +3972,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      * Cleanup expired entries when the lock is available.
      */
     void tryExpireEntries(long now) {
-      if (tryLock()) {
+      if (!deferCleanup() && tryLock()) {
         try {
           expireEntries(now);
         } finally {
@@ -2667,11 +3982,58 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Marks the entries which are due for refresh as loading, and queues them to be reloaded once
+     * the lock is released, for as long as refresh permits are available. Entries are scanned in
+     * order of write time, and the scan stops at the first entry which cannot be due yet whatever
+     * its jitter, or once {@code DRAIN_MAX} refreshes have been scheduled.
+     */
+    @GuardedBy("Segment.this")
+    void scheduleDueRefreshes(long now) {
+      long minimumDelay = map.minimumRefreshDelay();
+      int scanned = 0;
+      int scheduled = 0;
+      for (ReferenceEntry<K, V> e : writeQueue) {
+        if (now - e.getWriteTime() <= minimumDelay
+            || scanned++ == REFRESH_SCAN_MAX || scheduled == DRAIN_MAX) {
+          break;
+        }
+        K key = e.getKey();
+        ValueReference<K, V> valueReference = e.getValueReference();
+        if (key == null || valueReference.isLoading() || valueReference.get() == null
+            || !map.isRefreshDue(e, now)) {
+          continue;
+        }
+        if (!map.acquireRefreshPermit()) {
+          break;
+        }
+        ++modCount;
+        LoadingValueReference<K, V> loadingValueReference =
+            new LoadingValueReference<K, V>(detachValueReference(e, valueReference));
+        e.setValueReference(loadingValueReference);
+        map.dueRefreshes.add(new PendingRefresh<K, V>(key, e.getHash(), loadingValueReference));
+        scheduled++;
+      }
+    }
+
     @GuardedBy("Segment.this")
     void expireEntries(long now) {
       drainRecencyQueue();
 
       ReferenceEntry<K, V> e;
+      if (timerWheel != null) {
+        timerWheel.advance(now);
+        while ((e = timerWheel.peek()) != null) {
+          if (timerWheel.isExpired(e)) {
+            if (!removeEntry(e, e.getHash(), RemovalCause.EXPIRED)) {
+              throw new AssertionError();
+            }
+          } else {
+            // a concurrent read extended its lifetime
+            timerWheel.add(e);
+          }
+        }
+      }
       while ((e = writeQueue.peek()) != null && map.isExpired(e, now)) {
         if (!removeEntry(e, e.getHash(), RemovalCause.EXPIRED)) {
           throw new AssertionError();
@@ -2694,33 +4056,93 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @GuardedBy("Segment.this")
     void enqueueNotification(@Nullable K key, int hash, ValueReference<K, V> valueReference,
         RemovalCause cause) {
-      totalWeight -= valueReference.getWeight();
+      if (map.threadLocalCache != null) {
+        // every value which is replaced or removed passes through here
+        epochAdvancePending = true;
+      }
+      addWeight(-valueReference.getWeight());
       if (cause.wasEvicted()) {
         statsCounter.recordEviction();
+        if (map.recordsStats) {
+          evictionCounts[cause.ordinal()]++;
+        }
       }
       if (map.removalNotificationQueue != DISCARDING_QUEUE) {
         V value = valueReference.get();
         RemovalNotification<K, V> notification = new RemovalNotification<K, V>(key, value, cause);
         map.removalNotificationQueue.offer(notification);
+        map.pendingNotificationCount.incrementAndGet();
+      }
+      if (map.victimTier != null && key != null) {
+        V value = valueReference.get();
+        if (cause == RemovalCause.SIZE && value != null) {
+          map.victimTier.put(key, value);
+        } else {
+          map.victimTier.invalidate(key);
+        }
       }
     }
 
     /**
      * Performs eviction if the segment is full. This should only be called prior to adding a new
      * entry and increasing {@code count}.
+     *
+     * @param newest the entry that was just added to the segment, or {@code null} if the write
+     *     only updated an existing mapping; when the cache admits entries by frequency, it is
+     *     evicted in place of the least-recently-used entry unless its key is more popular
      */
     @GuardedBy("Segment.this")
-    void evictEntries() {
+    void evictEntries(@Nullable ReferenceEntry<K, V> newest) {
       if (!map.evictsBySize()) {
         return;
       }
 
       drainRecencyQueue();
+      long maxSegmentWeight = map.effectiveMaxWeight(this.maxSegmentWeight);
       while (totalWeight > maxSegmentWeight) {
+        ReferenceEntry<K, V> e = getNextEvictable();
+        if (newest != null && frequencySketch != null) {
+          if (e != newest && newest.getValueReference().getWeight() > 0 && !admit(newest, e)) {
+            e = newest;
+          }
+          // only the first victim competes with the candidate
+          newest = null;
+        }
+        if (!removeEntry(e, e.getHash(), RemovalCause.SIZE)) {
+          throw new AssertionError();
+        }
+      }
+    }
+
+    /**
+     * Returns whether {@code candidate} should be retained at the expense of {@code victim}, based
+     * on the estimated recent popularity of their keys.
+     */
+    @GuardedBy("Segment.this")
+    boolean admit(ReferenceEntry<K, V> candidate, ReferenceEntry<K, V> victim) {
+      return frequencySketch.frequency(candidate.getHash())
+          > frequencySketch.frequency(victim.getHash());
+    }
+
+    /**
+     * Evicts this segment's least-recently-used entry on behalf of {@link
+     * LocalCache#evictGlobally}, returning whether an entry was evicted. Notifications are left for
+     * the caller to process.
+     */
+    boolean evictForGlobalWeight() {
+      lock();
+      try {
+        drainRecencyQueue();
+        if (totalWeight <= 0) {
+          return false;
+        }
         ReferenceEntry<K, V> e = getNextEvictable();
         if (!removeEntry(e, e.getHash(), RemovalCause.SIZE)) {
           throw new AssertionError();
         }
+        return true;
+      } finally {
+        unlock();
       }
     }
 
@@ -2865,14 +4287,124 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           }
         }
 
-        return false;
-      } finally {
-        postReadCleanup();
+        return false;
+      } finally {
+        postReadCleanup();
+      }
+    }
+
+    @Nullable
+    V put(K key, int hash, V value, boolean onlyIfAbsent) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+        return putLocked(key, hash, value, onlyIfAbsent, now, true);
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    /**
+     * Puts the entries of {@code keys} and {@code values} from index {@code from}, inclusive, to
+     * {@code to}, exclusive, whose hashes are in {@code hashes}, acquiring the segment lock once.
+     * Size-based eviction is deferred until all of the entries have been written, so it bypasses
+     * the admission policy and may evict some of them.
+     */
+    void putAll(K[] keys, int[] hashes, V[] values, int from, int to) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+        for (int i = from; i < to; i++) {
+          putLocked(keys[i], hashes[i], values[i], false, now, false);
+        }
+        evictEntries(null);
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    @GuardedBy("Segment.this")
+    @Nullable
+    V putLocked(K key, int hash, V value, boolean onlyIfAbsent, long now, boolean evict) {
+      int newCount = this.count + 1;
+      if (newCount > this.threshold) { // ensure capacity
+        expand();
+        newCount = this.count + 1;
+      }
+
+      AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+      int index = hash & (table.length() - 1);
+      ReferenceEntry<K, V> first = table.get(index);
+
+      // Look for an existing entry.
+      for (ReferenceEntry<K, V> e = first; e != null; e = e.getNext()) {
+        K entryKey = e.getKey();
+        if (e.getHash() == hash && entryKey != null
+            && map.keyEquivalence.equivalent(key, entryKey)) {
+          // We found an existing entry.
+
+          ValueReference<K, V> valueReference = e.getValueReference();
+          V entryValue = valueReference.get();
+
+          if (entryValue == null) {
+            ++modCount;
+            if (valueReference.isActive()) {
+              enqueueNotification(key, hash, valueReference, RemovalCause.COLLECTED);
+              setValue(e, key, value, now);
+              newCount = this.count; // count remains unchanged
+            } else {
+              setValue(e, key, value, now);
+              newCount = this.count + 1;
+            }
+            this.count = newCount; // write-volatile
+            if (evict) {
+              evictEntries(e);
+            }
+            return null;
+          } else if (onlyIfAbsent) {
+            // Mimic
+            // "if (!map.containsKey(key)) ...
+            // else return map.get(key);
+            recordLockedRead(e, now);
+            return entryValue;
+          } else {
+            // clobber existing entry, count remains unchanged
+            ++modCount;
+            enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
+            setValue(e, key, value, now);
+            if (evict) {
+              evictEntries(null);
+            }
+            return entryValue;
+          }
+        }
+      }
+
+      // Create a new entry.
+      ++modCount;
+      ReferenceEntry<K, V> newEntry = newEntry(key, hash, first);
+      setValue(newEntry, key, value, now);
+      table.set(index, newEntry);
+      newCount = this.count + 1;
+      this.count = newCount; // write-volatile
+      if (evict) {
+        evictEntries(newEntry);
       }
+      return null;
     }
 
+    /**
+     * Replaces the value associated with {@code key} with the result of applying {@code remapping}
+     * to it, or to {@code null} if there is none, and returns the resulting value. A {@code null}
+     * result removes the entry, and returning the input unchanged leaves the segment untouched.
+     * The function is applied once, while holding the segment lock.
+     */
     @Nullable
-    V put(K key, int hash, V value, boolean onlyIfAbsent) {
+    V compute(K key, int hash, Function<? super V, ? extends V> remapping) {
       lock();
       try {
         long now = map.ticker.read();
@@ -2881,62 +4413,79 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         int newCount = this.count + 1;
         if (newCount > this.threshold) { // ensure capacity
           expand();
-          newCount = this.count + 1;
         }
 
         AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
         int index = hash & (table.length() - 1);
         ReferenceEntry<K, V> first = table.get(index);
 
-        // Look for an existing entry.
-        for (ReferenceEntry<K, V> e = first; e != null; e = e.getNext()) {
+        ReferenceEntry<K, V> e;
+        for (e = first; e != null; e = e.getNext()) {
           K entryKey = e.getKey();
           if (e.getHash() == hash && entryKey != null
               && map.keyEquivalence.equivalent(key, entryKey)) {
-            // We found an existing entry.
+            break;
+          }
+        }
 
-            ValueReference<K, V> valueReference = e.getValueReference();
-            V entryValue = valueReference.get();
+        ValueReference<K, V> valueReference = null;
+        V oldValue = null;
+        if (e != null) {
+          valueReference = e.getValueReference();
+          oldValue = valueReference.get();
+          RemovalCause cause = null;
+          if (oldValue == null && valueReference.isActive()) {
+            cause = RemovalCause.COLLECTED;
+          } else if (oldValue != null && map.isExpired(e, now)) {
+            cause = RemovalCause.EXPIRED;
+          }
+          if (cause != null) {
+            // unlink the dead entry so that the function sees it as absent
+            ++modCount;
+            ReferenceEntry<K, V> newFirst =
+                removeValueFromChain(first, e, key, hash, valueReference, cause);
+            table.set(index, newFirst);
+            this.count = this.count - 1; // write-volatile
+            first = newFirst;
+            e = null;
+            oldValue = null;
+          }
+        }
 
-            if (entryValue == null) {
-              ++modCount;
-              if (valueReference.isActive()) {
-                enqueueNotification(key, hash, valueReference, RemovalCause.COLLECTED);
-                setValue(e, key, value, now);
-                newCount = this.count; // count remains unchanged
-              } else {
-                setValue(e, key, value, now);
-                newCount = this.count + 1;
-              }
-              this.count = newCount; // write-volatile
-              evictEntries();
-              return null;
-            } else if (onlyIfAbsent) {
-              // Mimic
-              // "if (!map.containsKey(key)) ...
-              // else return map.get(key);
-              recordLockedRead(e, now);
-              return entryValue;
-            } else {
-              // clobber existing entry, count remains unchanged
-              ++modCount;
-              enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
-              setValue(e, key, value, now);
-              evictEntries();
-              return entryValue;
-            }
+        V newValue = remapping.apply(oldValue);
+        if (newValue == oldValue) {
+          if (e != null && oldValue != null) {
+            recordLockedRead(e, now);
           }
+          return newValue;
         }
 
-        // Create a new entry.
         ++modCount;
-        ReferenceEntry<K, V> newEntry = newEntry(key, hash, first);
-        setValue(newEntry, key, value, now);
-        table.set(index, newEntry);
-        newCount = this.count + 1;
-        this.count = newCount; // write-volatile
-        evictEntries();
-        return null;
+        if (newValue == null) {
+          // mirrors remove(key): a value being refreshed is left to its loader
+          ReferenceEntry<K, V> newFirst =
+              removeValueFromChain(first, e, key, hash, valueReference, RemovalCause.EXPLICIT);
+          table.set(index, newFirst);
+          this.count = this.count - 1; // write-volatile
+          return null;
+        } else if (oldValue != null) {
+          // count remains unchanged
+          enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
+          setValue(e, key, newValue, now);
+          evictEntries(null);
+        } else if (e != null) {
+          // replaces a value which is still loading
+          setValue(e, key, newValue, now);
+          this.count = this.count + 1; // write-volatile
+          evictEntries(e);
+        } else {
+          ReferenceEntry<K, V> newEntry = newEntry(key, hash, first);
+          setValue(newEntry, key, newValue, now);
+          table.set(index, newEntry);
+          this.count = this.count + 1; // write-volatile
+          evictEntries(newEntry);
+        }
+        return newValue;
       } finally {
         unlock();
         postWriteCleanup();
@@ -2967,6 +4516,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       int newCount = count;
       AtomicReferenceArray<ReferenceEntry<K, V>> newTable = newEntryArray(oldCapacity << 1);
       threshold = newTable.length() * 3 / 4;
+      if (frequencySketch != null) {
+        frequencySketch.ensureCapacity(newTable.length());
+      }
       int newMask = newTable.length() - 1;
       for (int oldIndex = 0; oldIndex < oldCapacity; ++oldIndex) {
         // We need to guarantee that any existing reads of old Map can
@@ -3049,7 +4601,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               ++modCount;
               enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
               setValue(e, key, newValue, now);
-              evictEntries();
+              evictEntries(null);
               return true;
             } else {
               // Mimic
@@ -3101,7 +4653,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
             ++modCount;
             enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
             setValue(e, key, newValue, now);
-            evictEntries();
+            evictEntries(null);
             return entryValue;
           }
         }
@@ -3119,6 +4671,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       try {
         long now = map.ticker.read();
         preWriteCleanup(now);
+        if (map.victimTier != null) {
+          map.victimTier.invalidate(key);
+        }
 
         int newCount = this.count - 1;
         AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
@@ -3159,6 +4714,56 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Restores the entry for {@code key} from the victim tier, returning its value, or {@code
+     * null} if the tier has no value for the key or the segment already has an entry for it.
+     */
+    @Nullable
+    V promoteVictim(Object key, int hash) {
+      if (map.victimTier == null || !map.victimTier.contains(key)) {
+        return null;
+      }
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        int newCount = this.count + 1;
+        if (newCount > this.threshold) { // ensure capacity
+          expand();
+          newCount = this.count + 1;
+        }
+
+        AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+        int index = hash & (table.length() - 1);
+        ReferenceEntry<K, V> first = table.get(index);
+
+        for (ReferenceEntry<K, V> e = first; e != null; e = e.getNext()) {
+          K entryKey = e.getKey();
+          if (e.getHash() == hash && entryKey != null
+              && map.keyEquivalence.equivalent(key, entryKey)) {
+            // loaded or written since it was evicted
+            return null;
+          }
+        }
+
+        Map.Entry<K, V> victim = map.victimTier.promote(key);
+        if (victim == null) {
+          return null;
+        }
+        ++modCount;
+        ReferenceEntry<K, V> newEntry = newEntry(victim.getKey(), hash, first);
+        restoreValue(newEntry, victim.getKey(), victim.getValue(), now);
+        table.set(index, newEntry);
+        this.count = newCount; // write-volatile
+        evictEntries(newEntry);
+        return victim.getValue();
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
     boolean storeLoadedValue(K key, int hash, LoadingValueReference<K, V> oldValueReference,
         V newValue) {
       lock();
@@ -3187,7 +4792,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
             if (oldValueReference == valueReference
                 || (entryValue == null && valueReference != UNSET)) {
               ++modCount;
-              if (oldValueReference.isActive()) {
+              boolean refreshed = oldValueReference.isActive();
+              if (refreshed) {
                 RemovalCause cause =
                     (entryValue == null) ? RemovalCause.COLLECTED : RemovalCause.REPLACED;
                 enqueueNotification(key, hash, oldValueReference, cause);
@@ -3195,7 +4801,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               }
               setValue(e, key, newValue, now);
               this.count = newCount; // write-volatile
-              evictEntries();
+              evictEntries(refreshed ? null : e);
               return true;
             }
 
@@ -3211,7 +4817,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         setValue(newEntry, key, newValue, now);
         table.set(index, newEntry);
         this.count = newCount; // write-volatile
-        evictEntries();
+        evictEntries(newEntry);
         return true;
       } finally {
         unlock();
@@ -3264,6 +4870,40 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Removes the entries with {@code tag}, in time proportional to their number.
+     */
+    void invalidateTag(Object tag) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        Set<ReferenceEntry<K, V>> entries;
+        // removing an entry unindexes it, and reindexes the entries copied to unlink it
+        while ((entries = entriesByTag.get(tag)) != null) {
+          ReferenceEntry<K, V> e = entries.iterator().next();
+          int hash = e.getHash();
+          ValueReference<K, V> valueReference = e.getValueReference();
+          RemovalCause cause = (valueReference.get() != null)
+              ? RemovalCause.EXPLICIT
+              : RemovalCause.COLLECTED;
+
+          ++modCount;
+          AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+          int index = hash & (table.length() - 1);
+          ReferenceEntry<K, V> newFirst = removeValueFromChain(
+              table.get(index), e, e.getKey(), hash, valueReference, cause);
+          int newCount = this.count - 1;
+          table.set(index, newFirst);
+          this.count = newCount; // write-volatile
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
     void clear() {
       if (count != 0) { // read-volatile
         lock();
@@ -3283,7 +4923,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           clearReferenceQueues();
           writeQueue.clear();
           accessQueue.clear();
-          readCount.set(0);
+          recencyQueue.resetReadCounts();
+          if (tagsByEntry != null) {
+            entriesByTag.clear();
+            tagsByEntry.clear();
+          }
 
           ++modCount;
           count = 0; // write-volatile
@@ -3302,6 +4946,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       enqueueNotification(key, hash, valueReference, cause);
       writeQueue.remove(entry);
       accessQueue.remove(entry);
+      untag(entry);
 
       if (valueReference.isLoading()) {
         valueReference.notifyNewValue(null);
@@ -3315,6 +4960,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @Nullable
     ReferenceEntry<K, V> removeEntryFromChain(ReferenceEntry<K, V> first,
         ReferenceEntry<K, V> entry) {
+      untag(entry);
       int newCount = count;
       ReferenceEntry<K, V> newFirst = entry.getNext();
       for (ReferenceEntry<K, V> e = first; e != entry; e = e.getNext()) {
@@ -3335,6 +4981,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       enqueueNotification(entry, RemovalCause.COLLECTED);
       writeQueue.remove(entry);
       accessQueue.remove(entry);
+      untag(entry);
     }
 
     /**
@@ -3461,14 +5108,23 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     /**
      * Performs routine cleanup following a read. Normally cleanup happens during writes. If cleanup
-     * is not observed after a sufficient number of reads, try cleaning up from the read thread.
+     * is not observed after a sufficient number of reads, try cleaning up from the read thread, or
+     * schedule the cleanup on the maintenance executor if there is one.
      */
     void postReadCleanup() {
-      if ((readCount.incrementAndGet() & DRAIN_THRESHOLD) == 0) {
+      if (recencyQueue.recordReadAndCheck(DRAIN_THRESHOLD) && !deferCleanup()) {
         cleanUp();
       }
     }
 
+    /**
+     * Returns whether cleanup needed by a read has been left to the maintenance executor, rather
+     * than being performed by the reading thread.
+     */
+    boolean deferCleanup() {
+      return (map.maintenanceExecutor != null) && map.scheduleMaintenance();
+    }
+
     /**
      * Performs routine cleanup prior to executing a write. This should be called every time a
      * write thread acquires the segment lock, immediately after acquiring the lock.
@@ -3498,7 +5154,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         try {
           drainReferenceQueues();
           expireEntries(now); // calls drainRecencyQueue
-          readCount.set(0);
+          if (map.refreshesAhead()) {
+            scheduleDueRefreshes(now);
+          }
+          if (map.heapPressure != null) {
+            // evict down to a maximum which may have shrunk since the last write
+            evictEntries(null);
+          }
+          recencyQueue.resetReadCounts();
         } finally {
           unlock();
         }
@@ -3508,7 +5171,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     void runUnlockedCleanup() {
       // locked cleanup may generate notifications we can send unlocked
       if (!isHeldByCurrentThread()) {
-        map.processPendingNotifications();
+        map.checkHeapPressure();
+        map.evictGlobally();
+        if (!map.deferMaintenance()) {
+          map.processPendingNotifications();
+          map.reloadPendingRefreshes();
+          map.reloadDueRefreshes();
+        }
       }
     }
 
@@ -3552,7 +5221,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return setException(futureValue, t);
     }
 
-    private static boolean setException(SettableFuture<?> future, Throwable t) {
+    static boolean setException(SettableFuture<?> future, Throwable t) {
       try {
         return future.setException(t);
       } catch (Error e) {
@@ -3633,6 +5302,19 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
   // Queues
 
+  /** A refresh which has become due, and is waiting to be reloaded. */
+  static final class PendingRefresh<K, V> {
+    final K key;
+    final int hash;
+    final LoadingValueReference<K, V> valueReference;
+
+    PendingRefresh(K key, int hash, LoadingValueReference<K, V> valueReference) {
+      this.key = key;
+      this.hash = hash;
+      this.valueReference = valueReference;
+    }
+  }
+
   /**
    * A custom queue for managing eviction order. Note that this is tightly integrated with {@code
    * ReferenceEntry}, upon which it relies to perform its linking.
@@ -3662,23 +5344,239 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         return nextWrite;
       }
 
-      @Override
-      public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
-        this.nextWrite = next;
+      @Override
+      public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
+        this.nextWrite = next;
+      }
+
+      ReferenceEntry<K, V> previousWrite = this;
+
+      @Override
+      public ReferenceEntry<K, V> getPreviousInWriteQueue() {
+        return previousWrite;
+      }
+
+      @Override
+      public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
+        this.previousWrite = previous;
+      }
+    };
+
+    // implements Queue
+
+    @Override
+    public boolean offer(ReferenceEntry<K, V> entry) {
+      // unlink
+      connectWriteOrder(entry.getPreviousInWriteQueue(), entry.getNextInWriteQueue());
+
+      // add to tail
+      connectWriteOrder(head.getPreviousInWriteQueue(), entry);
+      connectWriteOrder(entry, head);
+
+      return true;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> peek() {
+      ReferenceEntry<K, V> next = head.getNextInWriteQueue();
+      return (next == head) ? null : next;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> poll() {
+      ReferenceEntry<K, V> next = head.getNextInWriteQueue();
+      if (next == head) {
+        return null;
+      }
+
+      remove(next);
+      return next;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o) {
+      ReferenceEntry<K, V> e = (ReferenceEntry) o;
+      ReferenceEntry<K, V> previous = e.getPreviousInWriteQueue();
+      ReferenceEntry<K, V> next = e.getNextInWriteQueue();
+      connectWriteOrder(previous, next);
+      nullifyWriteOrder(e);
+
+      return next != NullEntry.INSTANCE;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o) {
+      ReferenceEntry<K, V> e = (ReferenceEntry) o;
+      return e.getNextInWriteQueue() != NullEntry.INSTANCE;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return head.getNextInWriteQueue() == head;
+    }
+
+    @Override
+    public int size() {
+      int size = 0;
+      for (ReferenceEntry<K, V> e = head.getNextInWriteQueue(); e != head;
+          e = e.getNextInWriteQueue()) {
+        size++;
+      }
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      ReferenceEntry<K, V> e = head.getNextInWriteQueue();
+      while (e != head) {
+        ReferenceEntry<K, V> next = e.getNextInWriteQueue();
+        nullifyWriteOrder(e);
+        e = next;
+      }
+
+      head.setNextInWriteQueue(head);
+      head.setPreviousInWriteQueue(head);
+    }
+
+    @Override
+    public Iterator<ReferenceEntry<K, V>> iterator() {
+      return new AbstractSequentialIterator<ReferenceEntry<K, V>>(peek()) {
+        @Override
+        protected ReferenceEntry<K, V> computeNext(ReferenceEntry<K, V> previous) {
+          ReferenceEntry<K, V> next = previous.getNextInWriteQueue();
+          return (next == head) ? null : next;
+        }
+      };
+    }
+  }
+
+  /**
+   * A hierarchical timer wheel for entries that expire after variable durations. Each level of the
+   * wheel is an array of buckets covering a fixed span of time, and each bucket is a circular
+   * doubly-linked list of entries, linked through the entries' write queue pointers. An entry is
+   * placed in the finest level whose range covers its remaining duration. As time advances, the
+   * buckets that the current time has passed are emptied: entries which have expired are moved to
+   * a list of expired entries, and the rest cascade into finer levels. Scheduling, rescheduling and
+   * removal are constant time, and advancing is amortized constant time per entry, so expiration
+   * never needs to scan the segment. The price is precision: an entry is only found to be expired
+   * once the time has passed the bucket of the finest level that holds it, which may be up to
+   * {@code SPANS[0]} (about a second) after its expiration time. Reads check the exact expiration
+   * time, so this only delays the removal of entries which are already invisible.
+   *
+   * <p>As a {@link Queue}, {@link #offer} (re)schedules an entry according to its current
+   * expiration time, and {@link #peek} and {@link #poll} only return entries which were found to be
+   * expired by the last call to {@link #advance}. This lets the timer wheel stand in for the
+   * {@link WriteQueue}, whose links it shares; the two are never used by the same cache.
+   */
+  static final class TimerWheel<K, V> extends AbstractQueue<ReferenceEntry<K, V>> {
+
+    /** The number of buckets in each level of the wheel. */
+    static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+
+    /** The span of time, in ns, covered by a bucket of each level. All are powers of two. */
+    static final long[] SPANS = {
+      Long.highestOneBit(TimeUnit.SECONDS.toNanos(1)) << 1, // 1.07s
+      Long.highestOneBit(TimeUnit.MINUTES.toNanos(1)) << 1, // 1.14m
+      Long.highestOneBit(TimeUnit.HOURS.toNanos(1)) << 1,   // 1.22h
+      Long.highestOneBit(TimeUnit.DAYS.toNanos(1)) << 1,    // 1.63d
+      BUCKETS[3] * (Long.highestOneBit(TimeUnit.DAYS.toNanos(1)) << 1), // 6.5d
+      BUCKETS[3] * (Long.highestOneBit(TimeUnit.DAYS.toNanos(1)) << 1), // 6.5d
+    };
+
+    /** The shift that converts a time into a bucket tick, for each level. */
+    static final long[] SHIFT = {
+      Long.numberOfTrailingZeros(SPANS[0]),
+      Long.numberOfTrailingZeros(SPANS[1]),
+      Long.numberOfTrailingZeros(SPANS[2]),
+      Long.numberOfTrailingZeros(SPANS[3]),
+      Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    final ReferenceEntry<K, V>[][] wheel;
+
+    /** Entries found to be expired by {@link #advance}, which the segment has yet to remove. */
+    final ReferenceEntry<K, V> expired = new Sentinel<K, V>();
+
+    /** The time, in ns, that the wheel was last advanced to. */
+    long nanos;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long nanos) {
+      this.nanos = nanos;
+      wheel = new ReferenceEntry[BUCKETS.length][];
+      for (int i = 0; i < wheel.length; i++) {
+        wheel[i] = new ReferenceEntry[BUCKETS[i]];
+        for (int j = 0; j < wheel[i].length; j++) {
+          wheel[i][j] = new Sentinel<K, V>();
+        }
+      }
+    }
+
+    /**
+     * Advances the wheel to {@code currentTime}, moving the entries of every bucket that has been
+     * passed either to the expired list or to the bucket matching their remaining duration.
+     */
+    void advance(long currentTime) {
+      long previousTime = nanos;
+      if (currentTime - previousTime <= 0) {
+        return;
+      }
+      nanos = currentTime;
+      for (int i = 0; i < SHIFT.length; i++) {
+        long previousTicks = previousTime >> SHIFT[i];
+        long currentTicks = currentTime >> SHIFT[i];
+        if (currentTicks - previousTicks <= 0) {
+          break;
+        }
+        expire(i, previousTicks, currentTicks - previousTicks);
+      }
+    }
+
+    /**
+     * Empties the buckets of level {@code index} from the one at {@code previousTicks} onwards,
+     * rescheduling their entries.
+     */
+    void expire(int index, long previousTicks, long delta) {
+      ReferenceEntry<K, V>[] timerWheel = wheel[index];
+      int mask = timerWheel.length - 1;
+      int steps = (int) Math.min(delta + 1, timerWheel.length);
+      int start = (int) (previousTicks & mask);
+      for (int i = start; i < start + steps; i++) {
+        ReferenceEntry<K, V> sentinel = timerWheel[i & mask];
+        ReferenceEntry<K, V> e = sentinel.getNextInWriteQueue();
+        sentinel.setNextInWriteQueue(sentinel);
+        sentinel.setPreviousInWriteQueue(sentinel);
+        while (e != sentinel) {
+          ReferenceEntry<K, V> next = e.getNextInWriteQueue();
+          nullifyWriteOrder(e);
+          offer(e);
+          e = next;
+        }
       }
+    }
 
-      ReferenceEntry<K, V> previousWrite = this;
+    /** Returns whether {@code entry} had expired as of the last time that the wheel advanced. */
+    boolean isExpired(ReferenceEntry<K, V> entry) {
+      return entry.getExpirationTime() - nanos <= 0;
+    }
 
-      @Override
-      public ReferenceEntry<K, V> getPreviousInWriteQueue() {
-        return previousWrite;
+    /** Returns the bucket that an entry expiring at {@code time} belongs in. */
+    ReferenceEntry<K, V> findBucket(long time) {
+      if (time - nanos <= 0) {
+        return expired;
       }
-
-      @Override
-      public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
-        this.previousWrite = previous;
+      long duration = time - nanos;
+      int length = wheel.length - 1;
+      for (int i = 0; i < length; i++) {
+        if (duration < SPANS[i + 1]) {
+          long ticks = time >> SHIFT[i];
+          return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+        }
       }
-    };
+      return wheel[length][0];
+    }
 
     // implements Queue
 
@@ -3687,27 +5585,26 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       // unlink
       connectWriteOrder(entry.getPreviousInWriteQueue(), entry.getNextInWriteQueue());
 
-      // add to tail
-      connectWriteOrder(head.getPreviousInWriteQueue(), entry);
-      connectWriteOrder(entry, head);
+      // add to the tail of its bucket
+      ReferenceEntry<K, V> sentinel = findBucket(entry.getExpirationTime());
+      connectWriteOrder(sentinel.getPreviousInWriteQueue(), entry);
+      connectWriteOrder(entry, sentinel);
 
       return true;
     }
 
     @Override
     public ReferenceEntry<K, V> peek() {
-      ReferenceEntry<K, V> next = head.getNextInWriteQueue();
-      return (next == head) ? null : next;
+      ReferenceEntry<K, V> next = expired.getNextInWriteQueue();
+      return (next == expired) ? null : next;
     }
 
     @Override
     public ReferenceEntry<K, V> poll() {
-      ReferenceEntry<K, V> next = head.getNextInWriteQueue();
-      if (next == head) {
-        return null;
+      ReferenceEntry<K, V> next = peek();
+      if (next != null) {
+        remove(next);
       }
-
-      remove(next);
       return next;
     }
 
@@ -3731,43 +5628,82 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
 
     @Override
-    public boolean isEmpty() {
-      return head.getNextInWriteQueue() == head;
+    public int size() {
+      return Iterators.size(iterator());
     }
 
     @Override
-    public int size() {
-      int size = 0;
-      for (ReferenceEntry<K, V> e = head.getNextInWriteQueue(); e != head;
-          e = e.getNextInWriteQueue()) {
-        size++;
+    public void clear() {
+      clear(expired);
+      for (ReferenceEntry<K, V>[] timerWheel : wheel) {
+        for (ReferenceEntry<K, V> sentinel : timerWheel) {
+          clear(sentinel);
+        }
       }
-      return size;
     }
 
-    @Override
-    public void clear() {
-      ReferenceEntry<K, V> e = head.getNextInWriteQueue();
-      while (e != head) {
+    void clear(ReferenceEntry<K, V> sentinel) {
+      ReferenceEntry<K, V> e = sentinel.getNextInWriteQueue();
+      while (e != sentinel) {
         ReferenceEntry<K, V> next = e.getNextInWriteQueue();
         nullifyWriteOrder(e);
         e = next;
       }
-
-      head.setNextInWriteQueue(head);
-      head.setPreviousInWriteQueue(head);
+      sentinel.setNextInWriteQueue(sentinel);
+      sentinel.setPreviousInWriteQueue(sentinel);
     }
 
+    /** Iterates over the expired entries first, and then over the buckets in no useful order. */
     @Override
     public Iterator<ReferenceEntry<K, V>> iterator() {
-      return new AbstractSequentialIterator<ReferenceEntry<K, V>>(peek()) {
+      List<Iterator<ReferenceEntry<K, V>>> buckets = Lists.newArrayList();
+      buckets.add(bucketIterator(expired));
+      for (ReferenceEntry<K, V>[] timerWheel : wheel) {
+        for (ReferenceEntry<K, V> sentinel : timerWheel) {
+          buckets.add(bucketIterator(sentinel));
+        }
+      }
+      return Iterators.unmodifiableIterator(Iterators.concat(buckets.iterator()));
+    }
+
+    Iterator<ReferenceEntry<K, V>> bucketIterator(final ReferenceEntry<K, V> sentinel) {
+      ReferenceEntry<K, V> first = sentinel.getNextInWriteQueue();
+      return new AbstractSequentialIterator<ReferenceEntry<K, V>>(
+          (first == sentinel) ? null : first) {
         @Override
         protected ReferenceEntry<K, V> computeNext(ReferenceEntry<K, V> previous) {
           ReferenceEntry<K, V> next = previous.getNextInWriteQueue();
-          return (next == head) ? null : next;
+          return (next == sentinel) ? null : next;
         }
       };
     }
+
+    /** The head of a bucket. */
+    static final class Sentinel<K, V> extends AbstractReferenceEntry<K, V> {
+      ReferenceEntry<K, V> nextWrite = this;
+
+      @Override
+      public ReferenceEntry<K, V> getNextInWriteQueue() {
+        return nextWrite;
+      }
+
+      @Override
+      public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
+        this.nextWrite = next;
+      }
+
+      ReferenceEntry<K, V> previousWrite = this;
+
+      @Override
+      public ReferenceEntry<K, V> getPreviousInWriteQueue() {
+        return previousWrite;
+      }
+
+      @Override
+      public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
+        this.previousWrite = previous;
+      }
+    }
   }
 
   /**
@@ -3913,6 +5849,32 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     for (Segment<?, ?> segment : segments) {
       segment.cleanUp();
     }
+    if (negativeResults != null) {
+      negativeResults.cleanUp();
+    }
+  }
+
+  /** Orders hot keys by their measure. */
+  static final Ordering<Map.Entry<?, Long>> HOT_KEY_ORDERING = new Ordering<Map.Entry<?, Long>>() {
+    @Override
+    public int compare(Map.Entry<?, Long> left, Map.Entry<?, Long> right) {
+      return Longs.compare(left.getValue(), right.getValue());
+    }
+  };
+
+  HotKeyStats<K> hotKeyStats() {
+    List<Map.Entry<K, Long>> byReadCount = Lists.newArrayList();
+    List<Map.Entry<K, Long>> byLoadTime = Lists.newArrayList();
+    if (tracksHotKeys()) {
+      // each key is tracked by its own segment only, so the segments' keys are distinct
+      for (Segment<K, V> segment : segments) {
+        segment.readHotKeys.addTo(byReadCount);
+        segment.loadHotKeys.addTo(byLoadTime);
+      }
+      byReadCount = HOT_KEY_ORDERING.greatestOf(byReadCount, hotKeyCount);
+      byLoadTime = HOT_KEY_ORDERING.greatestOf(byLoadTime, hotKeyCount);
+    }
+    return new HotKeyStats<K>(byReadCount, byLoadTime);
   }
 
   // ConcurrentMap methods
@@ -3958,6 +5920,39 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return sum;
   }
 
+  /**
+   * Returns the approximate total weight of the entries in this cache. The segments' weights are
+   * read without locking them, so may be slightly stale.
+   */
+  long weightedSize() {
+    Segment<K, V>[] segments = this.segments;
+    long sum = 0;
+    for (int i = 0; i < segments.length; ++i) {
+      sum += segments[i].totalWeight;
+    }
+    return sum;
+  }
+
+  /** Returns a snapshot of the statistics recorded by the segments and by this cache. */
+  CacheStats stats() {
+    SimpleStatsCounter aggregator = new SimpleStatsCounter();
+    aggregator.incrementBy(globalStatsCounter);
+    long[] evictionCounts = new long[RemovalCause.values().length];
+    long lockContentionCount = 0;
+    long lockWaitNanos = 0;
+    for (Segment<K, V> segment : segments) {
+      aggregator.incrementBy(segment.statsCounter);
+      for (int i = 0; i < evictionCounts.length; i++) {
+        evictionCounts[i] += segment.evictionCounts[i];
+      }
+      lockContentionCount += segment.lockContentionCount;
+      lockWaitNanos += segment.lockWaitNanos;
+    }
+    return aggregator.snapshot().plus(new CacheStats(0, 0, 0, 0, 0, 0,
+        LatencyDistribution.EMPTY, evictionCounts, lockContentionCount, lockWaitNanos,
+        negativeHitCount.sum()));
+  }
+
   @Override
   public int size() {
     return Ints.saturatedCast(longSize());
@@ -3975,32 +5970,79 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
   @Nullable
   public V getIfPresent(Object key) {
-    int hash = hash(checkNotNull(key));
-    V value = segmentFor(hash).get(key, hash);
+    checkNotNull(key);
+    if (threadLocalCache != null) {
+      V value = threadLocalCache.get(key);
+      if (value != null) {
+        return value;
+      }
+    }
+    int hash = hash(key);
+    Segment<K, V> segment = segmentFor(hash);
+    int epoch = segment.epoch.get(); // before the value
+    V value = segment.get(key, hash);
+    if (value == null) {
+      value = segment.promoteVictim(key, hash);
+    }
     if (value == null) {
       globalStatsCounter.recordMisses(1);
     } else {
       globalStatsCounter.recordHits(1);
+      if (threadLocalCache != null) {
+        threadLocalCache.put(key, value, segment.epoch, epoch);
+      }
     }
     return value;
   }
 
   V get(K key, CacheLoader<? super K, V> loader) throws ExecutionException {
-    int hash = hash(checkNotNull(key));
-    return segmentFor(hash).get(key, hash, loader);
+    checkNotNull(key);
+    if (threadLocalCache == null) {
+      int hash = hash(key);
+      return segmentFor(hash).get(key, hash, loader);
+    }
+    V value = threadLocalCache.get(key);
+    if (value == null) {
+      int hash = hash(key);
+      Segment<K, V> segment = segmentFor(hash);
+      int epoch = segment.epoch.get(); // before the value
+      value = segment.get(key, hash, loader);
+      threadLocalCache.put(key, value, segment.epoch, epoch);
+    }
+    return value;
   }
 
   V getOrLoad(K key) throws ExecutionException {
     return get(key, defaultLoader);
   }
 
+  ListenableFuture<V> getAsync(K key, Executor executor) {
+    int hash = hash(checkNotNull(key));
+    return segmentFor(hash).getAsync(key, hash, defaultLoader, executor);
+  }
+
+  /**
+   * Returns the value of {@code key} if it is in the cache, restoring it from the victim tier if
+   * it was evicted there, or null otherwise. Does not record any statistics.
+   */
+  @Nullable
+  V getOrPromote(@Nullable Object key) {
+    if (key == null) {
+      return null;
+    }
+    int hash = hash(key);
+    Segment<K, V> segment = segmentFor(hash);
+    V value = segment.get(key, hash);
+    return (value == null) ? segment.promoteVictim(key, hash) : value;
+  }
+
   ImmutableMap<K, V> getAllPresent(Iterable<?> keys) {
     int hits = 0;
     int misses = 0;
 
     Map<K, V> result = Maps.newLinkedHashMap();
     for (Object key : keys) {
-      V value = get(key);
+      V value = getOrPromote(key);
       if (value == null) {
         misses++;
       } else {
@@ -4023,7 +6065,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     Map<K, V> result = Maps.newLinkedHashMap();
     Set<K> keysToLoad = Sets.newLinkedHashSet();
     for (K key : keys) {
-      V value = get(key);
+      V value = getOrPromote(key);
       if (!result.containsKey(key)) {
         result.put(key, value);
         if (value == null) {
@@ -4036,21 +6078,51 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
 
     try {
+      for (K key : keysToLoad) {
+        if (hasNegativeResult(key)) {
+          misses--; // counted as a negative hit instead
+          throw negativeHit(key);
+        }
+      }
       if (!keysToLoad.isEmpty()) {
         try {
           Map<K, V> newEntries = loadAll(keysToLoad, defaultLoader);
+          K missingKey = null;
           for (K key : keysToLoad) {
             V value = newEntries.get(key);
             if (value == null) {
-              throw new InvalidCacheLoadException("loadAll failed to return a value for " + key);
+              if (negativeResults == null) {
+                throw new InvalidCacheLoadException("loadAll failed to return a value for " + key);
+              }
+              recordNegativeResult(key);
+              if (missingKey == null) {
+                missingKey = key;
+              }
+            } else {
+              result.put(key, value);
             }
-            result.put(key, value);
+          }
+          if (missingKey != null) {
+            throw new InvalidCacheLoadException(
+                "loadAll failed to return a value for " + missingKey);
           }
         } catch (UnsupportedLoadingOperationException e) {
           // loadAll not implemented, fallback to load
-          for (K key : keysToLoad) {
-            misses--; // get will count this miss
-            result.put(key, get(key, defaultLoader));
+          if (bulkLoadExecutor != null && keysToLoad.size() > 1) {
+            BulkLoad bulkLoad = new BulkLoad(keysToLoad);
+            try {
+              bulkLoad.load();
+            } finally {
+              misses -= bulkLoad.startedCount.get(); // get counted these misses
+            }
+            for (K key : keysToLoad) {
+              result.put(key, bulkLoad.values.get(key));
+            }
+          } else {
+            for (K key : keysToLoad) {
+              misses--; // get will count this miss
+              result.put(key, get(key, defaultLoader));
+            }
           }
         }
       }
@@ -4061,6 +6133,98 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  /**
+   * Loads a set of keys with {@link #get(Object, CacheLoader)}, on the calling thread and on up
+   * to {@code bulkLoadParallelism - 1} tasks run by the bulk load executor. Each runner takes
+   * keys from a shared queue until it is empty or a load has failed. The calling thread only waits
+   * for tasks which started before the last runner finished; tasks which start later exit without
+   * loading anything, so a busy executor, or one whose threads are themselves calling {@code
+   * getAll}, delays the loads but cannot deadlock them.
+   */
+  final class BulkLoad implements Runnable {
+    final Queue<K> pendingKeys;
+    final ConcurrentMap<K, V> values = new ConcurrentHashMap<K, V>();
+
+    /** The number of keys whose loads were started, each of which get counts as a miss. */
+    final AtomicInteger startedCount = new AtomicInteger();
+
+    /** The first exception thrown by a load, after which no further loads are started. */
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    /** The number of tasks to submit to the bulk load executor. */
+    final int taskCount;
+
+    /**
+     * The number of runners loading keys, starting with the calling thread, or 0 once they have
+     * all finished, after which no runner may start.
+     */
+    final AtomicInteger activeRunners = new AtomicInteger(1);
+
+    /** Released when the last active runner finishes. */
+    final CountDownLatch done = new CountDownLatch(1);
+
+    BulkLoad(Set<K> keys) {
+      this.pendingKeys = new ConcurrentLinkedQueue<K>(keys);
+      this.taskCount = Math.min(bulkLoadParallelism, keys.size()) - 1;
+    }
+
+    /**
+     * Loads all of the keys, or throws the first exception thrown by a load once the loads in
+     * progress have completed.
+     */
+    void load() throws ExecutionException {
+      for (int i = 0; i < taskCount; i++) {
+        try {
+          bulkLoadExecutor.execute(this);
+        } catch (Throwable t) {
+          // the calling thread loads the keys which the rejected tasks would have
+          logger.log(Level.WARNING, "Exception thrown when scheduling bulk load", t);
+          break;
+        }
+      }
+      loadPendingKeys();
+      Uninterruptibles.awaitUninterruptibly(done);
+
+      Throwable t = failure.get();
+      if (t instanceof ExecutionException) {
+        throw (ExecutionException) t;
+      } else if (t instanceof RuntimeException) {
+        throw (RuntimeException) t;
+      } else if (t instanceof Error) {
+        throw (Error) t;
+      }
+    }
+
+    @Override
+    public void run() {
+      for (int active; (active = activeRunners.get()) > 0; ) {
+        if (activeRunners.compareAndSet(active, active + 1)) {
+          loadPendingKeys();
+          return;
+        }
+      }
+    }
+
+    /** Loads keys from the queue, then leaves the active runners. */
+    void loadPendingKeys() {
+      try {
+        K key;
+        while (failure.get() == null && (key = pendingKeys.poll()) != null) {
+          startedCount.incrementAndGet();
+          try {
+            values.put(key, get(key, defaultLoader));
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      } finally {
+        if (activeRunners.decrementAndGet() == 0) {
+          done.countDown();
+        }
+      }
+    }
+  }
+
   /**
    * Returns the result of calling {@link CacheLoader#loadAll}, or null if {@code loader} doesn't
    * implement {@code loadAll}.
@@ -4150,6 +6314,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
   void refresh(K key) {
     int hash = hash(checkNotNull(key));
+    discardNegativeResult(key);
     segmentFor(hash).refresh(key, hash, defaultLoader);
   }
 
@@ -4209,7 +6374,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     checkNotNull(key);
     checkNotNull(value);
     int hash = hash(key);
-    return segmentFor(hash).put(key, hash, value, false);
+    V oldValue = segmentFor(hash).put(key, hash, value, false);
+    discardNegativeResult(key);
+    return oldValue;
   }
 
   @Override
@@ -4217,13 +6384,130 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     checkNotNull(key);
     checkNotNull(value);
     int hash = hash(key);
-    return segmentFor(hash).put(key, hash, value, true);
+    V oldValue = segmentFor(hash).put(key, hash, value, true);
+    discardNegativeResult(key);
+    return oldValue;
+  }
+
+  @Nullable
+  V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+    checkNotNull(mappingFunction);
+    return compute(key, new Function<V, V>() {
+      @Override
+      public V apply(@Nullable V oldValue) {
+        return (oldValue == null) ? mappingFunction.apply(key) : oldValue;
+      }
+    });
+  }
+
+  @Nullable
+  V computeIfPresent(K key, final Function<? super V, ? extends V> remappingFunction) {
+    checkNotNull(remappingFunction);
+    return compute(key, new Function<V, V>() {
+      @Override
+      public V apply(@Nullable V oldValue) {
+        return (oldValue == null) ? null : remappingFunction.apply(oldValue);
+      }
+    });
+  }
+
+  @Nullable
+  V merge(K key, final V value, final Function<? super V, ? extends V> remappingFunction) {
+    checkNotNull(value);
+    checkNotNull(remappingFunction);
+    return compute(key, new Function<V, V>() {
+      @Override
+      public V apply(@Nullable V oldValue) {
+        return (oldValue == null) ? value : remappingFunction.apply(oldValue);
+      }
+    });
+  }
+
+  /**
+   * Atomically replaces the value associated with {@code key} with the result of applying {@code
+   * remapping} to it, or to {@code null} if there is none.
+   */
+  @Nullable
+  V compute(K key, Function<? super V, ? extends V> remapping) {
+    checkNotNull(key);
+    int hash = hash(key);
+    Segment<K, V> segment = segmentFor(hash);
+    // an evicted value is still present as far as the function is concerned
+    segment.promoteVictim(key, hash);
+    V newValue = segment.compute(key, hash, remapping);
+    if (newValue != null) {
+      discardNegativeResult(key);
+    }
+    return newValue;
   }
 
   @Override
   public void putAll(Map<? extends K, ? extends V> m) {
+    int size = m.size();
+    if (size <= 1) {
+      for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+        put(e.getKey(), e.getValue());
+      }
+      return;
+    }
+
+    // group the entries by segment, so that each segment is locked and cleaned up once
+    int[] hashes = new int[size];
+    int[] segmentSizes = new int[segments.length];
+    @SuppressWarnings("unchecked") // only contains keys of m
+    K[] keys = (K[]) new Object[size];
+    @SuppressWarnings("unchecked") // only contains values of m
+    V[] values = (V[]) new Object[size];
+    List<Entry<K, V>> extraEntries = null;
+    int count = 0;
     for (Entry<? extends K, ? extends V> e : m.entrySet()) {
-      put(e.getKey(), e.getValue());
+      if (count == size) {
+        // m grew concurrently; these entries are put after the others, once all are checked
+        if (extraEntries == null) {
+          extraEntries = Lists.newArrayList();
+        }
+        extraEntries.add(Maps.immutableEntry(checkNotNull(e.getKey()), checkNotNull(e.getValue())));
+        continue;
+      }
+      keys[count] = checkNotNull(e.getKey());
+      values[count] = checkNotNull(e.getValue());
+      hashes[count] = hash(keys[count]);
+      segmentSizes[(hashes[count] >>> segmentShift) & segmentMask]++;
+      count++;
+    }
+
+    // counting sort by segment
+    int[] offsets = new int[segments.length + 1];
+    for (int s = 0; s < segments.length; s++) {
+      offsets[s + 1] = offsets[s] + segmentSizes[s];
+    }
+    int[] next = offsets.clone();
+    int[] sortedHashes = new int[count];
+    @SuppressWarnings("unchecked")
+    K[] sortedKeys = (K[]) new Object[count];
+    @SuppressWarnings("unchecked")
+    V[] sortedValues = (V[]) new Object[count];
+    for (int i = 0; i < count; i++) {
+      int position = next[(hashes[i] >>> segmentShift) & segmentMask]++;
+      sortedHashes[position] = hashes[i];
+      sortedKeys[position] = keys[i];
+      sortedValues[position] = values[i];
+    }
+
+    for (int s = 0; s < segments.length; s++) {
+      if (segmentSizes[s] > 0) {
+        segments[s].putAll(sortedKeys, sortedHashes, sortedValues, offsets[s], offsets[s + 1]);
+      }
+    }
+    if (negativeResults != null) {
+      for (K key : sortedKeys) {
+        negativeResults.remove(key);
+      }
+    }
+    if (extraEntries != null) {
+      for (Entry<K, V> e : extraEntries) {
+        put(e.getKey(), e.getValue());
+      }
     }
   }
 
@@ -4233,6 +6517,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return null;
     }
     int hash = hash(key);
+    discardNegativeResult(key);
     return segmentFor(hash).remove(key, hash);
   }
 
@@ -4269,6 +6554,22 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     for (Segment<K, V> segment : segments) {
       segment.clear();
     }
+    if (victimTier != null) {
+      victimTier.clear();
+    }
+    if (negativeResults != null) {
+      negativeResults.clear();
+    }
+  }
+
+  void invalidateTag(Object tag) {
+    checkNotNull(tag);
+    if (tagger == null) {
+      return;
+    }
+    for (Segment<K, V> segment : segments) {
+      segment.invalidateTag(tag);
+    }
   }
 
   void invalidateAll(Iterable<?> keys) {
@@ -4620,8 +6921,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     final Equivalence<Object> valueEquivalence;
     final long expireAfterWriteNanos;
     final long expireAfterAccessNanos;
+    final Expiry<K, V> expiry;
+    final Tagger<K, V> tagger;
     final long maxWeight;
     final Weigher<K, V> weigher;
+    final boolean frequencyAdmission;
+    final boolean globalEviction;
+    final long offHeapMaximumBytes;
+    final CacheCodec<V> codec;
     final int concurrencyLevel;
     final RemovalListener<? super K, ? super V> removalListener;
     final Ticker ticker;
@@ -4637,8 +6944,17 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           cache.valueEquivalence,
           cache.expireAfterWriteNanos,
           cache.expireAfterAccessNanos,
+          cache.expiry,
+          cache.tagger,
           cache.maxWeight,
           cache.weigher,
+          cache.frequencyAdmission,
+          cache.globalEviction,
+          // a disk tier is bound to its directory, so is not recreated
+          (cache.victimTier instanceof OffHeapTier)
+              ? ((OffHeapTier<K, V>) cache.victimTier).maximumBytes : UNSET_INT,
+          (cache.victimTier instanceof OffHeapTier)
+              ? ((OffHeapTier<K, V>) cache.victimTier).codec : null,
           cache.concurrencyLevel,
           cache.removalListener,
           cache.ticker,
@@ -4648,8 +6964,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     private ManualSerializationProxy(
         Strength keyStrength, Strength valueStrength,
         Equivalence<Object> keyEquivalence, Equivalence<Object> valueEquivalence,
-        long expireAfterWriteNanos, long expireAfterAccessNanos, long maxWeight,
-        Weigher<K, V> weigher, int concurrencyLevel,
+        long expireAfterWriteNanos, long expireAfterAccessNanos, Expiry<K, V> expiry,
+        Tagger<K, V> tagger, long maxWeight, Weigher<K, V> weigher, boolean frequencyAdmission,
+        boolean globalEviction,
+        long offHeapMaximumBytes, CacheCodec<V> codec, int concurrencyLevel,
         RemovalListener<? super K, ? super V> removalListener,
         Ticker ticker, CacheLoader<? super K, V> loader) {
       this.keyStrength = keyStrength;
@@ -4658,8 +6976,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       this.valueEquivalence = valueEquivalence;
       this.expireAfterWriteNanos = expireAfterWriteNanos;
       this.expireAfterAccessNanos = expireAfterAccessNanos;
+      this.expiry = expiry;
+      this.tagger = tagger;
       this.maxWeight = maxWeight;
       this.weigher = weigher;
+      this.frequencyAdmission = frequencyAdmission;
+      this.globalEviction = globalEviction;
+      this.offHeapMaximumBytes = offHeapMaximumBytes;
+      this.codec = codec;
       this.concurrencyLevel = concurrencyLevel;
       this.removalListener = removalListener;
       this.ticker = (ticker == Ticker.systemTicker() || ticker == NULL_TICKER)
@@ -4682,6 +7006,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (expireAfterAccessNanos > 0) {
         builder.expireAfterAccess(expireAfterAccessNanos, TimeUnit.NANOSECONDS);
       }
+      if (expiry != null) {
+        builder.expireAfter(expiry);
+      }
+      if (tagger != null) {
+        builder.tagger(tagger);
+      }
       if (weigher != OneWeigher.INSTANCE) {
         builder.weigher(weigher);
         if (maxWeight != UNSET_INT) {
@@ -4692,6 +7022,15 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           builder.maximumSize(maxWeight);
         }
       }
+      if (frequencyAdmission && maxWeight != UNSET_INT) {
+        builder.frequencyAdmission();
+      }
+      if (globalEviction && maxWeight != UNSET_INT) {
+        builder.globalEviction();
+      }
+      if (codec != null && maxWeight != UNSET_INT) {
+        builder.offHeapTier(offHeapMaximumBytes, codec);
+      }
       if (ticker != null) {
         builder.ticker(ticker);
       }
@@ -4813,6 +7152,21 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       localCache.putAll(m);
     }
 
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+      return localCache.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public V computeIfPresent(K key, Function<? super V, ? extends V> remappingFunction) {
+      return localCache.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public V merge(K key, V value, Function<? super V, ? extends V> remappingFunction) {
+      return localCache.merge(key, value, remappingFunction);
+    }
+
     @Override
     public void invalidate(Object key) {
       checkNotNull(key);
@@ -4824,6 +7178,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       localCache.invalidateAll(keys);
     }
 
+    @Override
+    public void invalidateTag(Object tag) {
+      localCache.invalidateTag(tag);
+    }
+
     @Override
     public void invalidateAll() {
       localCache.clear();
@@ -4841,12 +7200,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     @Override
     public CacheStats stats() {
-      SimpleStatsCounter aggregator = new SimpleStatsCounter();
-      aggregator.incrementBy(localCache.globalStatsCounter);
-      for (Segment<K, V> segment : localCache.segments) {
-        aggregator.incrementBy(segment.statsCounter);
-      }
-      return aggregator.snapshot();
+      return localCache.stats();
+    }
+
+    @Override
+    public HotKeyStats<K> hotKeyStats() {
+      return localCache.hotKeyStats();
     }
 
     @Override
@@ -4871,6 +7230,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       super(new LocalCache<K, V>(builder, checkNotNull(loader)));
     }
 
+    LocalLoadingCache(LocalCache<K, V> localCache) {
+      super(localCache);
+    }
+
     // LoadingCache methods
 
     @Override
@@ -4910,4 +7273,27 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return new LoadingSerializationProxy<K, V>(localCache);
     }
   }
+
+  static class LocalAsyncLoadingCache<K, V> implements AsyncLoadingCache<K, V> {
+    final LocalCache<K, V> localCache;
+    final Executor executor;
+    final LoadingCache<K, V> synchronous;
+
+    LocalAsyncLoadingCache(CacheBuilder<? super K, ? super V> builder,
+        CacheLoader<? super K, V> loader, Executor executor) {
+      this.localCache = new LocalCache<K, V>(builder, checkNotNull(loader));
+      this.executor = checkNotNull(executor);
+      this.synchronous = new LocalLoadingCache<K, V>(localCache);
+    }
+
+    @Override
+    public ListenableFuture<V> get(K key) {
+      return localCache.getAsync(key, executor);
+    }
+
+    @Override
+    public LoadingCache<K, V> synchronous() {
+      return synchronous;
+    }
+  }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A semi-persistent mapping from primitive {@code long} keys to values, whose values are
+ * automatically loaded by the cache. It behaves like a {@link LoadingCache} whose keys are
+ * {@code Long}s, but stores its keys in primitive arrays rather than in an entry object per key,
+ * so that it uses considerably less memory per entry and does not allocate when a lookup finds
+ * its value. Instances are built by {@link CacheBuilder#buildLongKeyed}.
+ *
+ * <p>Implementations of this interface are expected to be thread-safe, and can be safely accessed
+ * by multiple concurrent threads.
+ *
+ * @since 13.0
+ */
+@Beta
+public interface LongLoadingCache<V> {
+
+  /**
+   * Returns the value associated with {@code key} in this cache, or {@code null} if there is no
+   * cached value for {@code key}.
+   */
+  @Nullable
+  V getIfPresent(long key);
+
+  /**
+   * Returns the value associated with {@code key} in this cache, first loading that value if
+   * necessary. No observable state associated with this cache is modified until loading
+   * completes. Like {@link LoadingCache#get}, if another thread is currently loading the value
+   * for {@code key}, this waits for that load to complete rather than starting another.
+   *
+   * @throws ExecutionException if a checked exception was thrown while loading the value
+   * @throws UncheckedExecutionException if an unchecked exception was thrown while loading the
+   *     value
+   * @throws ExecutionError if an error was thrown while loading the value
+   */
+  V get(long key) throws ExecutionException;
+
+  /**
+   * Returns the value associated with {@code key} in this cache, first loading that value if
+   * necessary. Unlike {@link #get}, this method does not throw a checked exception, and thus
+   * should only be used in situations where checked exceptions are not thrown by the cache loader.
+   *
+   * @throws UncheckedExecutionException if an exception was thrown while loading the value
+   * @throws ExecutionError if an error was thrown while loading the value
+   */
+  V getUnchecked(long key);
+
+  /**
+   * Associates {@code value} with {@code key} in this cache. If the cache previously contained a
+   * value associated with {@code key}, the old value is replaced by {@code value}.
+   */
+  void put(long key, V value);
+
+  /**
+   * Discards any cached value for key {@code key}.
+   */
+  void invalidate(long key);
+
+  /**
+   * Discards all entries in the cache.
+   */
+  void invalidateAll();
+
+  /**
+   * Loads a new value for key {@code key}, possibly asynchronously, as {@link
+   * LoadingCache#refresh} does. While the new value is loading the previous value (if any) will
+   * continue to be returned by {@code get(key)}.
+   */
+  void refresh(long key);
+
+  /**
+   * Returns the approximate number of entries in this cache.
+   */
+  long size();
+
+  /**
+   * Returns a current snapshot of this cache's cumulative statistics. All stats are initialized
+   * to zero, and are monotonically increasing over the lifetime of the cache.
+   */
+  CacheStats stats();
+
+  /**
+   * Performs any pending maintenance operations needed by the cache. Exactly which activities are
+   * performed -- if any -- is implementation-dependent.
+   */
+  void cleanUp();
+}
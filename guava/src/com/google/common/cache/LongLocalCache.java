@@ -0,0 +1,1078 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.AbstractCache.SimpleStatsCounter;
+import com.google.common.cache.AbstractCache.StatsCounter;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.LocalCache.LoadingValueReference;
+import com.google.common.cache.LocalCache.StrongValueReference;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * The implementation of {@link LongLoadingCache}. Like {@link LocalCache}, it is divided into
+ * segments which are locked for writes and read without locking. Unlike it, each segment keeps
+ * its entries in parallel arrays, indexed by an open-addressed hash table with linear probing, so
+ * that an entry costs a {@code long} key, a value reference, and only those timestamps and
+ * reference bits which the cache's configuration requires.
+ *
+ * <p>As readers do not lock, a slot of a table is only ever assigned one key: removing an entry
+ * leaves a tombstone in its slot, which may only be reused by the same key, and tombstones are
+ * discarded when the table is rebuilt. Writes to the values of slots are volatile, and readers
+ * read the value of a slot before its key, so a reader always sees the key which a value was
+ * stored with.
+ *
+ * <p>Size-based eviction uses the CLOCK approximation of least-recently-used eviction: reads and
+ * writes set the reference bit of an entry, and eviction sweeps the table, clearing set bits, until
+ * it finds an entry whose bit is clear. Expired entries are removed when the sweep or a read finds
+ * them, by a short scan on each write, and by {@link #cleanUp}.
+ */
+class LongLocalCache<V> implements LongLoadingCache<V> {
+
+  /** The maximum capacity of the table of a segment. */
+  static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /** The maximum number of segments to allow. */
+  static final int MAX_SEGMENTS = 1 << 16;
+
+  static final int MINIMUM_TABLE_SIZE = 4;
+
+  /** The number of slots which each write scans for expired entries. */
+  static final int EXPIRATION_SCAN_LENGTH = 16;
+
+  /** The value of a slot whose entry has been removed. */
+  static final Object TOMBSTONE = new Object();
+
+  static final Logger logger = Logger.getLogger(LongLocalCache.class.getName());
+
+  final int segmentMask;
+  final int segmentShift;
+  final Segment<V>[] segments;
+
+  /** The maximum number of entries, or -1 if the cache is not bounded by size. */
+  final long maxSize;
+
+  final long expireAfterAccessNanos;
+  final long expireAfterWriteNanos;
+  final long refreshNanos;
+
+  final Ticker ticker;
+
+  /** Entries waiting to be consumed by the removal listener. */
+  final Queue<RemovalNotification<Long, V>> removalNotificationQueue;
+  final RemovalListener<Long, V> removalListener;
+
+  /** Whether statistics are recorded, including those kept by the segments themselves. */
+  final boolean recordsStats;
+
+  final CacheLoader<? super Long, V> loader;
+
+  @SuppressWarnings("unchecked") // the listener is only ever passed Long keys and V values
+  LongLocalCache(CacheBuilder<?, ?> builder, CacheLoader<? super Long, V> loader,
+      RemovalListener<? super Long, ? super V> removalListener) {
+    int concurrencyLevel = Math.min(builder.getConcurrencyLevel(), MAX_SEGMENTS);
+    maxSize = builder.getMaximumWeight();
+    expireAfterAccessNanos = builder.getExpireAfterAccessNanos();
+    expireAfterWriteNanos = builder.getExpireAfterWriteNanos();
+    refreshNanos = builder.getRefreshNanos();
+    ticker = builder.getTicker(recordsWrite() || expiresAfterAccess());
+
+    this.removalListener = (RemovalListener<Long, V>) removalListener;
+    removalNotificationQueue = (removalListener == CacheBuilder.NullListener.INSTANCE)
+        ? LocalCache.<RemovalNotification<Long, V>>discardingQueue()
+        : new ConcurrentLinkedQueue<RemovalNotification<Long, V>>();
+    recordsStats = (builder.getStatsCounterSupplier() != CacheBuilder.NULL_STATS_COUNTER);
+    this.loader = checkNotNull(loader);
+
+    int initialCapacity = Math.min(builder.getInitialCapacity(), MAXIMUM_CAPACITY);
+    if (evictsBySize()) {
+      initialCapacity = (int) Math.min(initialCapacity, maxSize);
+    }
+
+    // as in LocalCache, ensure that each segment of a bounded cache gets at least 10 entries
+    int segmentShift = 0;
+    int segmentCount = 1;
+    while (segmentCount < concurrencyLevel && (!evictsBySize() || segmentCount * 20 <= maxSize)) {
+      ++segmentShift;
+      segmentCount <<= 1;
+    }
+    this.segmentShift = 32 - segmentShift;
+    segmentMask = segmentCount - 1;
+    segments = new Segment[segmentCount];
+
+    int segmentCapacity = initialCapacity / segmentCount;
+    if (segmentCapacity * segmentCount < initialCapacity) {
+      ++segmentCapacity;
+    }
+    int tableSize = MINIMUM_TABLE_SIZE;
+    while (tableSize < MAXIMUM_CAPACITY && thresholdFor(tableSize) < segmentCapacity) {
+      tableSize <<= 1;
+    }
+
+    // Ensure sum of segment maximum sizes = overall maximum size
+    long maxSegmentSize = maxSize / segmentCount + 1;
+    long remainder = maxSize % segmentCount;
+    for (int i = 0; i < segments.length; ++i) {
+      if (evictsBySize() && i == remainder) {
+        maxSegmentSize--;
+      }
+      segments[i] = new Segment<V>(this, tableSize, evictsBySize() ? maxSegmentSize : -1,
+          builder.getStatsCounterSupplier().get());
+    }
+  }
+
+  boolean evictsBySize() {
+    return maxSize >= 0;
+  }
+
+  boolean expiresAfterWrite() {
+    return expireAfterWriteNanos > 0;
+  }
+
+  boolean expiresAfterAccess() {
+    return expireAfterAccessNanos > 0;
+  }
+
+  boolean expires() {
+    return expiresAfterWrite() || expiresAfterAccess();
+  }
+
+  boolean refreshes() {
+    return refreshNanos > 0;
+  }
+
+  boolean recordsWrite() {
+    return expiresAfterWrite() || refreshes();
+  }
+
+  /** Returns the number of slots which may be occupied before a table is rebuilt. */
+  static int thresholdFor(int tableSize) {
+    return tableSize / 4 * 3;
+  }
+
+  /**
+   * Spreads the hash code of {@code key}, as {@link LocalCache#hash} spreads the hash code of a
+   * {@code Long}.
+   */
+  static int hash(long key) {
+    return LocalCache.rehash((int) (key ^ (key >>> 32)));
+  }
+
+  Segment<V> segmentFor(int hash) {
+    return segments[(hash >>> segmentShift) & segmentMask];
+  }
+
+  Table newTable(int capacity) {
+    return new Table(capacity, recordsWrite(), expiresAfterAccess(), evictsBySize());
+  }
+
+  /** Returns whether the entry in {@code slot} has expired at time {@code now}. */
+  boolean isExpired(Table table, int slot, long now) {
+    if (expiresAfterAccess() && (now - table.accessTimes.get(slot) > expireAfterAccessNanos)) {
+      return true;
+    }
+    if (expiresAfterWrite() && (now - table.writeTimes.get(slot) > expireAfterWriteNanos)) {
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Notifies the removal listener of entries which have been removed. This should be called
+   * without holding any segment lock.
+   */
+  void processPendingNotifications() {
+    RemovalNotification<Long, V> notification;
+    while ((notification = removalNotificationQueue.poll()) != null) {
+      try {
+        removalListener.onRemoval(notification);
+      } catch (Throwable e) {
+        logger.log(Level.WARNING, "Exception thrown by removal listener", e);
+      }
+    }
+  }
+
+  // LongLoadingCache methods
+
+  @Override
+  @Nullable
+  public V getIfPresent(long key) {
+    int hash = hash(key);
+    return segmentFor(hash).getIfPresent(key, hash);
+  }
+
+  @Override
+  public V get(long key) throws ExecutionException {
+    int hash = hash(key);
+    return segmentFor(hash).get(key, hash, loader);
+  }
+
+  @Override
+  public V getUnchecked(long key) {
+    try {
+      return get(key);
+    } catch (ExecutionException e) {
+      throw new UncheckedExecutionException(e.getCause());
+    }
+  }
+
+  @Override
+  public void put(long key, V value) {
+    checkNotNull(value);
+    int hash = hash(key);
+    segmentFor(hash).put(key, hash, value);
+  }
+
+  @Override
+  public void invalidate(long key) {
+    int hash = hash(key);
+    segmentFor(hash).remove(key, hash);
+  }
+
+  @Override
+  public void invalidateAll() {
+    for (Segment<V> segment : segments) {
+      segment.clear();
+    }
+  }
+
+  @Override
+  public void refresh(long key) {
+    int hash = hash(key);
+    segmentFor(hash).refresh(key, hash, loader);
+  }
+
+  @Override
+  public long size() {
+    long sum = 0;
+    for (Segment<V> segment : segments) {
+      sum += segment.count;
+    }
+    return sum;
+  }
+
+  @Override
+  public CacheStats stats() {
+    SimpleStatsCounter aggregator = new SimpleStatsCounter();
+    long[] evictionCounts = new long[RemovalCause.values().length];
+    long lockContentionCount = 0;
+    long lockWaitNanos = 0;
+    for (Segment<V> segment : segments) {
+      aggregator.incrementBy(segment.statsCounter);
+      for (int i = 0; i < evictionCounts.length; i++) {
+        evictionCounts[i] += segment.evictionCounts[i];
+      }
+      lockContentionCount += segment.lockContentionCount;
+      lockWaitNanos += segment.lockWaitNanos;
+    }
+    return aggregator.snapshot().plus(new CacheStats(0, 0, 0, 0, 0, 0,
+        LatencyDistribution.EMPTY, evictionCounts, lockContentionCount, lockWaitNanos, 0));
+  }
+
+  @Override
+  public void cleanUp() {
+    for (Segment<V> segment : segments) {
+      segment.cleanUp();
+    }
+  }
+
+  /**
+   * The arrays of the hash table of a segment, which are replaced together when the table is
+   * rebuilt.
+   */
+  static final class Table {
+    final long[] keys;
+
+    /** Null for slots which are empty, and otherwise a value, a loading value or a tombstone. */
+    final AtomicReferenceArray<Object> values;
+
+    /** Null unless entries expire after write or are refreshed. */
+    @Nullable
+    final AtomicLongArray writeTimes;
+
+    /** Null unless entries expire after access. */
+    @Nullable
+    final AtomicLongArray accessTimes;
+
+    /**
+     * Reference bits for CLOCK eviction, or null if the cache is not bounded by size. Reads set
+     * bits without locking; as eviction only needs to know whether an entry was used recently, a
+     * lost update merely costs that entry its second chance.
+     */
+    @Nullable
+    final byte[] referenced;
+
+    Table(int capacity, boolean recordsWrite, boolean recordsAccess, boolean evictsBySize) {
+      keys = new long[capacity];
+      values = new AtomicReferenceArray<Object>(capacity);
+      writeTimes = recordsWrite ? new AtomicLongArray(capacity) : null;
+      accessTimes = recordsAccess ? new AtomicLongArray(capacity) : null;
+      referenced = evictsBySize ? new byte[capacity] : null;
+    }
+
+    int capacity() {
+      return keys.length;
+    }
+  }
+
+  /**
+   * A segment of the cache, which guards the writes to its table with its lock.
+   */
+  @SuppressWarnings("serial") // This class is never serialized.
+  static final class Segment<V> extends ReentrantLock {
+    final LongLocalCache<V> map;
+
+    /** The maximum number of entries in this segment, or -1 if it is not bounded by size. */
+    final long maxSegmentSize;
+
+    final StatsCounter statsCounter;
+
+    /**
+     * The number of entries with values in this segment, including those which are being
+     * refreshed and those which have expired but not yet been removed.
+     */
+    volatile int count;
+
+    volatile Table table;
+
+    /** The number of slots of the table which are not empty, including tombstones. */
+    @GuardedBy("Segment.this")
+    int occupied;
+
+    /** The next slot to be considered for eviction. */
+    @GuardedBy("Segment.this")
+    int clockHand;
+
+    /** The last slot scanned for expired entries. */
+    @GuardedBy("Segment.this")
+    int expirationHand;
+
+    /** The number of evictions for each {@link RemovalCause}, indexed by ordinal. */
+    @GuardedBy("Segment.this")
+    final long[] evictionCounts = new long[RemovalCause.values().length];
+
+    volatile long lockContentionCount;
+    volatile long lockWaitNanos;
+
+    Segment(LongLocalCache<V> map, int initialCapacity, long maxSegmentSize,
+        StatsCounter statsCounter) {
+      this.map = map;
+      this.maxSegmentSize = maxSegmentSize;
+      this.statsCounter = checkNotNull(statsCounter);
+      this.table = map.newTable(initialCapacity);
+    }
+
+    /**
+     * Acquires this segment's lock, counting the times it had to wait for another thread to
+     * release the lock when recording statistics.
+     */
+    @Override
+    public void lock() {
+      if (!map.recordsStats) {
+        super.lock();
+      } else if (!tryLock()) {
+        long start = System.nanoTime();
+        super.lock();
+        // the counters are only written while holding the lock
+        lockContentionCount++;
+        lockWaitNanos += System.nanoTime() - start;
+      }
+    }
+
+    /** Returns the slot of {@code key} in {@code table}, or -1 if it has none. */
+    static int indexOf(Table table, long key, int hash) {
+      int mask = table.capacity() - 1;
+      for (int i = hash & mask; ; i = (i + 1) & mask) {
+        if (table.values.get(i) == null) {
+          return -1;
+        }
+        // the key is read after the value, which was written after it
+        if (table.keys[i] == key) {
+          return i;
+        }
+      }
+    }
+
+    /**
+     * Returns the value held by {@code slot}, which holds {@code value}, or null if it is absent,
+     * loading or expired.
+     */
+    @Nullable
+    V getLiveValue(Table table, int slot, Object value, long now) {
+      V liveValue;
+      if (value instanceof LoadingValueReference) {
+        // the previous value, if the entry is being refreshed
+        liveValue = LongLocalCache.Segment.<V>loadingValue(value).get();
+      } else if (value == TOMBSTONE) {
+        return null;
+      } else {
+        liveValue = cast(value);
+      }
+      if (liveValue == null || map.isExpired(table, slot, now)) {
+        return null;
+      }
+      return liveValue;
+    }
+
+    void recordRead(Table table, int slot, long now) {
+      if (table.accessTimes != null) {
+        table.accessTimes.lazySet(slot, now);
+      }
+      if (table.referenced != null && table.referenced[slot] == 0) {
+        table.referenced[slot] = 1;
+      }
+    }
+
+    @SuppressWarnings("unchecked") // values are only ever stored as V
+    static <V> V cast(Object value) {
+      return (V) value;
+    }
+
+    // loading values are only ever stored as LoadingValueReference<Long, V>
+    @SuppressWarnings("unchecked")
+    static <V> LoadingValueReference<Long, V> loadingValue(Object value) {
+      return (LoadingValueReference<Long, V>) value;
+    }
+
+    static boolean isValue(@Nullable Object value) {
+      return value != null && value != TOMBSTONE && !(value instanceof LoadingValueReference);
+    }
+
+    // reads
+
+    @Nullable
+    V getIfPresent(long key, int hash) {
+      Table table = this.table;
+      int slot = indexOf(table, key, hash);
+      if (slot >= 0) {
+        Object value = table.values.get(slot);
+        long now = map.ticker.read();
+        V liveValue = getLiveValue(table, slot, value, now);
+        if (liveValue != null) {
+          recordRead(table, slot, now);
+          statsCounter.recordHits(1);
+          return liveValue;
+        }
+        if (isValue(value)) {
+          tryExpire(key, hash, now);
+        }
+      }
+      statsCounter.recordMisses(1);
+      return null;
+    }
+
+    V get(long key, int hash, CacheLoader<? super Long, V> loader) throws ExecutionException {
+      try {
+        Table table = this.table;
+        int slot = indexOf(table, key, hash);
+        if (slot >= 0) {
+          Object value = table.values.get(slot);
+          long now = map.ticker.read();
+          V liveValue = getLiveValue(table, slot, value, now);
+          if (liveValue != null) {
+            recordRead(table, slot, now);
+            statsCounter.recordHits(1);
+            return scheduleRefresh(key, hash, table, slot, value, liveValue, now, loader);
+          }
+          if (value instanceof LoadingValueReference) {
+            return waitForLoadingValue(key, LongLocalCache.Segment.<V>loadingValue(value));
+          }
+        }
+        return lockedGetOrLoad(key, hash, loader);
+      } catch (ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        if (cause instanceof Error) {
+          throw new ExecutionError((Error) cause);
+        } else if (cause instanceof RuntimeException) {
+          throw new UncheckedExecutionException(cause);
+        }
+        throw ee;
+      }
+    }
+
+    V lockedGetOrLoad(long key, int hash, CacheLoader<? super Long, V> loader)
+        throws ExecutionException {
+      LoadingValueReference<Long, V> loadingValueReference = null;
+      LoadingValueReference<Long, V> existingLoad = null;
+
+      lock();
+      try {
+        // re-read ticker once inside the lock
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        Table table = this.table;
+        int slot = indexOf(table, key, hash);
+        if (slot >= 0) {
+          Object value = table.values.get(slot);
+          if (value instanceof LoadingValueReference) {
+            existingLoad = loadingValue(value);
+          } else if (value != TOMBSTONE) {
+            V liveValue = cast(value);
+            if (!map.isExpired(table, slot, now)) {
+              recordRead(table, slot, now);
+              statsCounter.recordHits(1);
+              // we were concurrent with loading; don't consider refresh
+              return liveValue;
+            }
+            removeEntry(table, slot, liveValue, RemovalCause.EXPIRED);
+          }
+        }
+
+        if (existingLoad == null) {
+          loadingValueReference = new LoadingValueReference<Long, V>();
+          insert(key, hash, loadingValueReference, now);
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+
+      if (existingLoad != null) {
+        return waitForLoadingValue(key, existingLoad);
+      }
+      try {
+        // Synchronizes on the loading value to allow failing fast when a recursive load is
+        // detected.
+        synchronized (loadingValueReference) {
+          return loadSync(key, hash, loadingValueReference, loader);
+        }
+      } finally {
+        statsCounter.recordMisses(1);
+      }
+    }
+
+    V waitForLoadingValue(long key, LoadingValueReference<Long, V> loadingValueReference)
+        throws ExecutionException {
+      checkState(!Thread.holdsLock(loadingValueReference), "Recursive load");
+      try {
+        V value = loadingValueReference.waitForValue();
+        if (value == null) {
+          throw new InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+        }
+        return value;
+      } finally {
+        statsCounter.recordMisses(1);
+      }
+    }
+
+    V loadSync(long key, int hash, LoadingValueReference<Long, V> loadingValueReference,
+        CacheLoader<? super Long, V> loader) throws ExecutionException {
+      ListenableFuture<V> loadingFuture = loadingValueReference.loadFuture(key, loader);
+      return getAndRecordStats(key, hash, loadingValueReference, loadingFuture);
+    }
+
+    ListenableFuture<V> loadAsync(final long key, final int hash,
+        final LoadingValueReference<Long, V> loadingValueReference,
+        CacheLoader<? super Long, V> loader) {
+      final ListenableFuture<V> loadingFuture = loadingValueReference.loadFuture(key, loader);
+      loadingFuture.addListener(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                V newValue = getAndRecordStats(key, hash, loadingValueReference, loadingFuture);
+                // update loadingFuture for the sake of other pending requests
+                loadingValueReference.set(newValue);
+              } catch (Throwable t) {
+                logger.log(Level.WARNING, "Exception thrown during refresh", t);
+                loadingValueReference.setException(t);
+              }
+            }
+          }, LocalCache.sameThreadExecutor);
+      return loadingFuture;
+    }
+
+    /**
+     * Waits uninterruptibly for {@code newValue} to be loaded, and then records loading stats.
+     */
+    V getAndRecordStats(long key, int hash, LoadingValueReference<Long, V> loadingValueReference,
+        ListenableFuture<V> newValue) throws ExecutionException {
+      V value = null;
+      try {
+        value = getUninterruptibly(newValue);
+        if (value == null) {
+          throw new InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+        }
+        statsCounter.recordLoadSuccess(loadingValueReference.elapsedNanos());
+        storeLoadedValue(key, hash, loadingValueReference, value);
+        return value;
+      } finally {
+        if (value == null) {
+          statsCounter.recordLoadException(loadingValueReference.elapsedNanos());
+          removeLoadingValue(key, hash, loadingValueReference);
+        }
+      }
+    }
+
+    V scheduleRefresh(long key, int hash, Table table, int slot, Object value, V oldValue,
+        long now, CacheLoader<? super Long, V> loader) {
+      if (map.refreshes() && !(value instanceof LoadingValueReference)
+          && (now - table.writeTimes.get(slot) > map.refreshNanos)) {
+        V newValue = refresh(key, hash, loader);
+        if (newValue != null) {
+          return newValue;
+        }
+      }
+      return oldValue;
+    }
+
+    /**
+     * Refreshes the value associated with {@code key}, unless another thread is already doing so.
+     * Returns the newly refreshed value if it was refreshed inline, or {@code null} if another
+     * thread is performing the refresh or if an error occurs during refresh.
+     */
+    @Nullable
+    V refresh(long key, int hash, CacheLoader<? super Long, V> loader) {
+      LoadingValueReference<Long, V> loadingValueReference =
+          insertLoadingValueReference(key, hash);
+      if (loadingValueReference == null) {
+        return null;
+      }
+
+      ListenableFuture<V> result = loadAsync(key, hash, loadingValueReference, loader);
+      if (result.isDone()) {
+        try {
+          return getUninterruptibly(result);
+        } catch (Throwable t) {
+          // don't let refresh exceptions propagate; error was already logged
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Returns a newly inserted {@code LoadingValueReference}, which holds the current value of
+     * {@code key} if it has one, or null if the key is already loading.
+     */
+    @Nullable
+    LoadingValueReference<Long, V> insertLoadingValueReference(long key, int hash) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        Table table = this.table;
+        int slot = indexOf(table, key, hash);
+        if (slot >= 0) {
+          Object value = table.values.get(slot);
+          if (value instanceof LoadingValueReference) {
+            // refresh is a no-op if loading is pending
+            return null;
+          } else if (value != TOMBSTONE) {
+            V oldValue = cast(value);
+            if (!map.isExpired(table, slot, now)) {
+              LoadingValueReference<Long, V> loadingValueReference =
+                  new LoadingValueReference<Long, V>(new StrongValueReference<Long, V>(oldValue));
+              // the timestamps of the old value are kept until the new value is stored
+              table.values.set(slot, loadingValueReference);
+              return loadingValueReference;
+            }
+            removeEntry(table, slot, oldValue, RemovalCause.EXPIRED);
+          }
+        }
+        LoadingValueReference<Long, V> loadingValueReference =
+            new LoadingValueReference<Long, V>();
+        insert(key, hash, loadingValueReference, now);
+        return loadingValueReference;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    // writes
+
+    void put(long key, int hash, V value) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        Table table = this.table;
+        int slot = indexOf(table, key, hash);
+        Object existing = (slot < 0) ? null : table.values.get(slot);
+        if (existing instanceof LoadingValueReference) {
+          LoadingValueReference<Long, V> loadingValueReference = loadingValue(existing);
+          V oldValue = loadingValueReference.get();
+          if (oldValue != null) {
+            enqueueNotification(key, oldValue, RemovalCause.REPLACED);
+          } else {
+            ++count; // write-volatile
+          }
+          // unblocks pending loads, which will return the new value
+          loadingValueReference.notifyNewValue(value);
+          setValue(table, slot, value, now);
+        } else if (isValue(existing)) {
+          V oldValue = cast(existing);
+          RemovalCause cause = map.isExpired(table, slot, now)
+              ? RemovalCause.EXPIRED
+              : RemovalCause.REPLACED;
+          enqueueNotification(key, oldValue, cause);
+          setValue(table, slot, value, now);
+        } else {
+          insert(key, hash, value, now);
+          ++count; // write-volatile
+        }
+        evictEntries(now);
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    boolean storeLoadedValue(long key, int hash,
+        LoadingValueReference<Long, V> loadingValueReference, V newValue) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        Table table = this.table;
+        int slot = indexOf(table, key, hash);
+        Object existing = (slot < 0) ? null : table.values.get(slot);
+        if (existing == loadingValueReference) {
+          V oldValue = loadingValueReference.get();
+          if (oldValue != null) {
+            enqueueNotification(key, oldValue, RemovalCause.REPLACED);
+          } else {
+            ++count; // write-volatile
+          }
+          setValue(table, slot, newValue, now);
+        } else if (existing == null || existing == TOMBSTONE) {
+          // the entry was removed while loading
+          insert(key, hash, newValue, now);
+          ++count; // write-volatile
+        } else {
+          // the loaded value was already clobbered by a write
+          enqueueNotification(key, newValue, RemovalCause.REPLACED);
+          return false;
+        }
+        evictEntries(now);
+        return true;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    boolean removeLoadingValue(long key, int hash,
+        LoadingValueReference<Long, V> loadingValueReference) {
+      lock();
+      try {
+        Table table = this.table;
+        int slot = indexOf(table, key, hash);
+        if (slot >= 0 && table.values.get(slot) == loadingValueReference) {
+          V oldValue = loadingValueReference.get();
+          // a failed refresh keeps the previous value
+          table.values.set(slot, (oldValue == null) ? TOMBSTONE : oldValue);
+          return true;
+        }
+        return false;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    void remove(long key, int hash) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        Table table = this.table;
+        int slot = indexOf(table, key, hash);
+        if (slot < 0) {
+          return;
+        }
+        Object value = table.values.get(slot);
+        if (value instanceof LoadingValueReference) {
+          LoadingValueReference<Long, V> loadingValueReference = loadingValue(value);
+          V oldValue = loadingValueReference.get();
+          if (oldValue == null) {
+            // as in LocalCache, an entry which is still being loaded is not removed
+            return;
+          }
+          loadingValueReference.notifyNewValue(null);
+          table.values.set(slot, TOMBSTONE);
+          --count; // write-volatile
+          enqueueNotification(key, oldValue, RemovalCause.EXPLICIT);
+        } else if (value != TOMBSTONE) {
+          RemovalCause cause = map.isExpired(table, slot, now)
+              ? RemovalCause.EXPIRED
+              : RemovalCause.EXPLICIT;
+          removeEntry(table, slot, LongLocalCache.Segment.<V>cast(value), cause);
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    void clear() {
+      lock();
+      try {
+        Table table = this.table;
+        for (int i = 0; i < table.capacity(); i++) {
+          Object value = table.values.get(i);
+          V oldValue = (value instanceof LoadingValueReference)
+              ? LongLocalCache.Segment.<V>loadingValue(value).get()
+              : isValue(value) ? LongLocalCache.Segment.<V>cast(value) : null;
+          if (oldValue != null) {
+            enqueueNotification(table.keys[i], oldValue, RemovalCause.EXPLICIT);
+          }
+        }
+        // pending loads will store their values in the new table
+        this.table = map.newTable(table.capacity());
+        occupied = 0;
+        clockHand = 0;
+        expirationHand = 0;
+        count = 0; // write-volatile
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    void cleanUp() {
+      lock();
+      try {
+        if (map.expires()) {
+          long now = map.ticker.read();
+          Table table = this.table;
+          for (int i = 0; i < table.capacity(); i++) {
+            removeIfExpired(table, i, now);
+          }
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    /** Removes the entry for {@code key} if it has expired, unless the lock is unavailable. */
+    void tryExpire(long key, int hash, long now) {
+      if (tryLock()) {
+        try {
+          Table table = this.table;
+          int slot = indexOf(table, key, hash);
+          if (slot >= 0) {
+            removeIfExpired(table, slot, now);
+          }
+        } finally {
+          unlock();
+        }
+        postWriteCleanup();
+      }
+    }
+
+    // table maintenance
+
+    /**
+     * Stores {@code value} in a slot for {@code key}, which has no entry in the table, rebuilding
+     * the table if it is too full. The caller adjusts {@link #count}.
+     */
+    @GuardedBy("Segment.this")
+    void insert(long key, int hash, Object value, long now) {
+      Table table = this.table;
+      int mask = table.capacity() - 1;
+      int slot = hash & mask;
+      while (table.values.get(slot) != null) {
+        if (table.keys[slot] == key) {
+          // reuse the tombstone of the same key
+          setValue(table, slot, value, now);
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      if (occupied >= thresholdFor(table.capacity())) {
+        rebuild();
+        insert(key, hash, value, now);
+        return;
+      }
+      table.keys[slot] = key;
+      setValue(table, slot, value, now);
+      occupied++;
+    }
+
+    @GuardedBy("Segment.this")
+    void setValue(Table table, int slot, Object value, long now) {
+      if (table.writeTimes != null) {
+        table.writeTimes.lazySet(slot, now);
+      }
+      if (table.accessTimes != null) {
+        table.accessTimes.lazySet(slot, now);
+      }
+      if (table.referenced != null) {
+        table.referenced[slot] = 1;
+      }
+      // publishes the key and timestamps
+      table.values.set(slot, value);
+    }
+
+    /**
+     * Replaces the table by one without tombstones, doubling its capacity if more than half of it
+     * is in use.
+     */
+    @GuardedBy("Segment.this")
+    void rebuild() {
+      Table oldTable = this.table;
+      int oldCapacity = oldTable.capacity();
+      int used = 0;
+      for (int i = 0; i < oldCapacity; i++) {
+        Object value = oldTable.values.get(i);
+        if (value != null && value != TOMBSTONE) {
+          used++;
+        }
+      }
+      int newCapacity = (used > oldCapacity / 2 && oldCapacity < MAXIMUM_CAPACITY)
+          ? oldCapacity << 1
+          : oldCapacity;
+
+      Table newTable = map.newTable(newCapacity);
+      int mask = newCapacity - 1;
+      for (int i = 0; i < oldCapacity; i++) {
+        Object value = oldTable.values.get(i);
+        if (value == null || value == TOMBSTONE) {
+          continue;
+        }
+        long key = oldTable.keys[i];
+        int slot = hash(key) & mask;
+        while (newTable.values.get(slot) != null) {
+          slot = (slot + 1) & mask;
+        }
+        newTable.keys[slot] = key;
+        if (newTable.writeTimes != null) {
+          newTable.writeTimes.lazySet(slot, oldTable.writeTimes.get(i));
+        }
+        if (newTable.accessTimes != null) {
+          newTable.accessTimes.lazySet(slot, oldTable.accessTimes.get(i));
+        }
+        if (newTable.referenced != null) {
+          newTable.referenced[slot] = oldTable.referenced[i];
+        }
+        newTable.values.lazySet(slot, value);
+      }
+      occupied = used;
+      clockHand = 0;
+      expirationHand = 0;
+      this.table = newTable; // write-volatile
+    }
+
+    @GuardedBy("Segment.this")
+    void removeEntry(Table table, int slot, V value, RemovalCause cause) {
+      table.values.set(slot, TOMBSTONE);
+      --count; // write-volatile
+      enqueueNotification(table.keys[slot], value, cause);
+    }
+
+    @GuardedBy("Segment.this")
+    void removeIfExpired(Table table, int slot, long now) {
+      Object value = table.values.get(slot);
+      if (isValue(value) && map.isExpired(table, slot, now)) {
+        removeEntry(table, slot, LongLocalCache.Segment.<V>cast(value), RemovalCause.EXPIRED);
+      }
+    }
+
+    @GuardedBy("Segment.this")
+    void enqueueNotification(long key, V value, RemovalCause cause) {
+      if (cause.wasEvicted()) {
+        statsCounter.recordEviction();
+        if (map.recordsStats) {
+          evictionCounts[cause.ordinal()]++;
+        }
+      }
+      if (map.removalNotificationQueue != LocalCache.DISCARDING_QUEUE) {
+        map.removalNotificationQueue.offer(new RemovalNotification<Long, V>(key, value, cause));
+      }
+    }
+
+    /**
+     * Scans a few slots for expired entries. This should be called every time a write thread
+     * acquires the segment lock, immediately after acquiring the lock.
+     */
+    @GuardedBy("Segment.this")
+    void preWriteCleanup(long now) {
+      if (map.expires()) {
+        Table table = this.table;
+        int mask = table.capacity() - 1;
+        for (int i = 0; i < EXPIRATION_SCAN_LENGTH; i++) {
+          expirationHand = (expirationHand + 1) & mask;
+          removeIfExpired(table, expirationHand, now);
+        }
+      }
+    }
+
+    /**
+     * Evicts entries until the segment is within its maximum size, advancing the clock hand past
+     * recently used entries after clearing their reference bits.
+     */
+    @GuardedBy("Segment.this")
+    void evictEntries(long now) {
+      if (maxSegmentSize < 0) {
+        return;
+      }
+      Table table = this.table;
+      int mask = table.capacity() - 1;
+      // two sweeps clear every reference bit, so only entries being loaded can survive them
+      for (int scanned = 0; count > maxSegmentSize && scanned <= 2 * mask + 2; scanned++) {
+        int slot = clockHand;
+        clockHand = (slot + 1) & mask;
+        Object value = table.values.get(slot);
+        if (!isValue(value)) {
+          continue;
+        }
+        if (map.isExpired(table, slot, now)) {
+          removeEntry(table, slot, LongLocalCache.Segment.<V>cast(value), RemovalCause.EXPIRED);
+        } else if (table.referenced[slot] != 0) {
+          table.referenced[slot] = 0;
+        } else {
+          removeEntry(table, slot, LongLocalCache.Segment.<V>cast(value), RemovalCause.SIZE);
+        }
+      }
+    }
+
+    /**
+     * Delivers removal notifications once the lock has been released.
+     */
+    void postWriteCleanup() {
+      if (!isHeldByCurrentThread()) {
+        map.processPendingNotifications();
+      }
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A bounded store of serialized values in direct memory, used as a victim tier for entries evicted
+ * from a {@link LocalCache}. Keeping large values outside of the Java heap spares the garbage
+ * collector from tracing and copying them.
+ *
+ * <p>Memory is divided into fixed-size slabs of direct buffers, which are allocated on first use.
+ * Values are appended to the current slab, and when it is full the next slab is reclaimed in its
+ * entirety, wrapping around as a ring. Eviction is therefore first-in first-out at the granularity
+ * of a slab, and never fragments memory. The index from keys to the location of their values is
+ * kept on the heap.
+ *
+ * <p>Appending and reading are serialized by a lock, while invalidation only updates the index.
+ * A promoted value is removed from the tier, as the cache now holds it.
+ */
+final class OffHeapTier<K, V> implements VictimTier<K, V> {
+
+  /** The size of the largest slab, in bytes. */
+  static final int MAXIMUM_SLAB_SIZE = 1 << 20;
+
+  final long maximumBytes;
+
+  final CacheCodec<V> codec;
+
+  final int slabSize;
+
+  /** The slabs, allocated lazily as not every cache fills its tier. */
+  @GuardedBy("this")
+  final ByteBuffer[] slabs;
+
+  /** The locations written to each slab, so that they may be unindexed when it is reclaimed. */
+  @GuardedBy("this")
+  final List<List<Location<K>>> slabLocations;
+
+  final ConcurrentMap<Object, Location<K>> index = Maps.newConcurrentMap();
+
+  /** The slab currently being written to. */
+  @GuardedBy("this")
+  int currentSlab;
+
+  /** The offset within the current slab at which the next value is written. */
+  @GuardedBy("this")
+  int position;
+
+  OffHeapTier(long maximumBytes, CacheCodec<V> codec) {
+    this(maximumBytes, (int) Math.min(maximumBytes, MAXIMUM_SLAB_SIZE), codec);
+  }
+
+  @VisibleForTesting
+  OffHeapTier(long maximumBytes, int slabSize, CacheCodec<V> codec) {
+    checkArgument(maximumBytes > 0, "maximumBytes must be positive: %s", maximumBytes);
+    checkArgument(slabSize > 0 && slabSize <= maximumBytes);
+    this.maximumBytes = maximumBytes;
+    this.codec = checkNotNull(codec);
+    this.slabSize = slabSize;
+    int slabCount = (int) Math.min(maximumBytes / slabSize, Integer.MAX_VALUE);
+    this.slabs = new ByteBuffer[slabCount];
+    this.slabLocations = Lists.newArrayListWithCapacity(slabCount);
+    for (int i = 0; i < slabCount; i++) {
+      slabLocations.add(Lists.<Location<K>>newArrayList());
+    }
+  }
+
+  /**
+   * Stores {@code value} as the value for {@code key}, replacing any previous value. Values which
+   * fail to encode, or which do not fit in a slab, are not stored.
+   */
+  @Override
+  public void put(K key, V value) {
+    byte[] bytes;
+    try {
+      bytes = codec.encode(value);
+    } catch (RuntimeException e) {
+      LocalCache.logger.log(Level.WARNING, "Exception thrown by the cache codec", e);
+      index.remove(key);
+      return;
+    }
+    if (bytes.length > slabSize) {
+      index.remove(key);
+      return;
+    }
+
+    synchronized (this) {
+      if (position + bytes.length > slabSize) {
+        currentSlab = (currentSlab + 1) % slabs.length;
+        position = 0;
+        reclaim(currentSlab);
+      }
+      ByteBuffer slab = slabs[currentSlab];
+      if (slab == null) {
+        slabs[currentSlab] = slab = ByteBuffer.allocateDirect(slabSize);
+      }
+      ByteBuffer destination = slab.duplicate();
+      destination.position(position);
+      destination.put(bytes);
+
+      Location<K> location = new Location<K>(key, currentSlab, position, bytes.length);
+      slabLocations.get(currentSlab).add(location);
+      index.put(key, location);
+      position += bytes.length;
+    }
+  }
+
+  /**
+   * Removes the value for {@code key}, returning it together with the key under which it was
+   * stored, or {@code null} if there was none.
+   */
+  @Override
+  @Nullable
+  public Map.Entry<K, V> promote(Object key) {
+    Location<K> location;
+    byte[] bytes;
+    synchronized (this) {
+      location = index.remove(key);
+      if (location == null) {
+        return null;
+      }
+      bytes = new byte[location.length];
+      ByteBuffer source = slabs[location.slab].duplicate();
+      source.position(location.offset);
+      source.get(bytes);
+    }
+
+    try {
+      return Maps.immutableEntry(location.key, codec.decode(ByteBuffer.wrap(bytes)));
+    } catch (RuntimeException e) {
+      LocalCache.logger.log(Level.WARNING, "Exception thrown by the cache codec", e);
+      return null;
+    }
+  }
+
+  @Override
+  public boolean contains(Object key) {
+    return index.containsKey(key);
+  }
+
+  /** Discards the value for {@code key}, if any. Its space is reclaimed with its slab. */
+  @Override
+  public void invalidate(Object key) {
+    index.remove(key);
+  }
+
+  @Override
+  public synchronized void clear() {
+    index.clear();
+    for (List<Location<K>> locations : slabLocations) {
+      locations.clear();
+    }
+    currentSlab = 0;
+    position = 0;
+  }
+
+  @Override
+  public int size() {
+    return index.size();
+  }
+
+  /** Unindexes the values written to {@code slab}, which is about to be overwritten. */
+  @GuardedBy("this")
+  void reclaim(int slab) {
+    List<Location<K>> locations = slabLocations.get(slab);
+    for (Location<K> location : locations) {
+      // values which were invalidated or stored again are no longer indexed at this location
+      index.remove(location.key, location);
+    }
+    locations.clear();
+  }
+
+  /** Where a value is stored. Compared by identity, so that a stale location is never unindexed. */
+  static final class Location<K> {
+    final K key;
+    final int slab;
+    final int offset;
+    final int length;
+
+    Location(K key, int slab, int offset, int length) {
+      this.key = key;
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.collect.Lists;
+
+import java.util.AbstractQueue;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * A lossy, bounded, multiple-producer / single-consumer buffer used to record reads without
+ * acquiring the segment lock. Producers are spread over stripes selected by thread, and each stripe
+ * is a fixed-size ring buffer, so recording a read never allocates and rarely contends with other
+ * threads.
+ *
+ * <p>Unlike a {@link java.util.Queue} proper, {@link #offer} may discard the element: when the
+ * calling thread's stripe is full, or when another thread wins the race for the same slot. A lost
+ * read only means that the access order is slightly less precise, which is acceptable for a
+ * replacement policy. A single thread never loses elements so long as the buffer is drained at
+ * least once every {@link #BUFFER_SIZE} offers.
+ *
+ * <p>{@link #poll}, {@link #peek} and {@link #clear} must only be called by one thread at a time,
+ * in practice while holding the owning segment's lock. {@link #size} and {@link #iterator} return
+ * a best-effort snapshot and are intended for testing.
+ */
+final class ReadBuffer<E> extends AbstractQueue<E> {
+
+  /** The number of CPUs, used to bound the number of stripes. */
+  static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+  /** The maximum number of stripes; the actual count is the next power of two of {@link #NCPU}. */
+  static final int MAXIMUM_STRIPES = 16;
+
+  /** The number of elements each stripe can hold before further offers are dropped. */
+  static final int BUFFER_SIZE = 64;
+
+  static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+  /** Lazily created stripes, so that threads that never read from a segment cost nothing. */
+  final AtomicReferenceArray<Stripe<E>> stripes;
+
+  final int stripeMask;
+
+  ReadBuffer() {
+    int stripeCount = 1;
+    while (stripeCount < Math.min(NCPU, MAXIMUM_STRIPES)) {
+      stripeCount <<= 1;
+    }
+    stripes = new AtomicReferenceArray<Stripe<E>>(stripeCount);
+    stripeMask = stripeCount - 1;
+  }
+
+  /**
+   * Records {@code e} in the calling thread's stripe, returning {@code false} if it was dropped
+   * because the stripe is full or contended.
+   */
+  @Override
+  public boolean offer(E e) {
+    return stripe().offer(e);
+  }
+
+  /**
+   * Counts a read by the calling thread, returning {@code true} once every {@code threshold + 1}
+   * reads (where {@code threshold} is one less than a power of two). The count is striped in the
+   * same way as the buffer itself, so that readers do not all increment a single shared counter.
+   */
+  boolean recordReadAndCheck(int threshold) {
+    return (stripe().readCount.incrementAndGet() & threshold) == 0;
+  }
+
+  /** Resets the read counts of all stripes. */
+  void resetReadCounts() {
+    for (int i = 0; i < stripes.length(); i++) {
+      Stripe<E> stripe = stripes.get(i);
+      if (stripe != null) {
+        stripe.readCount.set(0);
+      }
+    }
+  }
+
+  @Override
+  public E poll() {
+    for (int i = 0; i < stripes.length(); i++) {
+      Stripe<E> stripe = stripes.get(i);
+      if (stripe != null) {
+        E e = stripe.poll();
+        if (e != null) {
+          return e;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public E peek() {
+    for (int i = 0; i < stripes.length(); i++) {
+      Stripe<E> stripe = stripes.get(i);
+      if (stripe != null) {
+        E e = stripe.peek();
+        if (e != null) {
+          return e;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (int i = 0; i < stripes.length(); i++) {
+      Stripe<E> stripe = stripes.get(i);
+      if (stripe != null) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    List<E> snapshot = Lists.newArrayList();
+    for (int i = 0; i < stripes.length(); i++) {
+      Stripe<E> stripe = stripes.get(i);
+      if (stripe != null) {
+        stripe.copyInto(snapshot);
+      }
+    }
+    return Collections.unmodifiableList(snapshot).iterator();
+  }
+
+  /** Returns the calling thread's stripe, creating it if necessary. */
+  Stripe<E> stripe() {
+    int index = threadHash() & stripeMask;
+    Stripe<E> stripe = stripes.get(index);
+    if (stripe == null) {
+      stripes.compareAndSet(index, null, new Stripe<E>());
+      stripe = stripes.get(index);
+    }
+    return stripe;
+  }
+
+  /** Spreads the current thread's id so that consecutive ids map to different stripes. */
+  static int threadHash() {
+    long id = Thread.currentThread().getId();
+    return LocalCache.rehash((int) (id ^ (id >>> 32)));
+  }
+
+  /**
+   * A single ring buffer. The write counter is claimed by producers with a CAS before the slot is
+   * published; the read counter is only advanced by the consumer. A claimed slot that has not yet
+   * been published reads as null, in which case the consumer stops and picks it up on the next
+   * drain.
+   */
+  static final class Stripe<E> {
+    final AtomicLong writeCounter = new AtomicLong();
+    volatile long readCounter;
+
+    /** A counter of the reads performed by the threads sharing this stripe. */
+    final AtomicInteger readCount = new AtomicInteger();
+
+    /** The slots, allocated on the first offer as many segments never record reads. */
+    volatile AtomicReferenceArray<E> buffer;
+
+    boolean offer(E e) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      if (tail - head >= BUFFER_SIZE) {
+        return false;
+      }
+      if (!writeCounter.compareAndSet(tail, tail + 1)) {
+        return false;
+      }
+      buffer().lazySet((int) tail & BUFFER_MASK, e);
+      return true;
+    }
+
+    @Nullable
+    E poll() {
+      AtomicReferenceArray<E> buffer = this.buffer;
+      long head = readCounter;
+      if ((buffer == null) || (head == writeCounter.get())) {
+        return null;
+      }
+      int index = (int) head & BUFFER_MASK;
+      E e = buffer.get(index);
+      if (e == null) {
+        return null;
+      }
+      buffer.lazySet(index, null);
+      readCounter = head + 1;
+      return e;
+    }
+
+    @Nullable
+    E peek() {
+      AtomicReferenceArray<E> buffer = this.buffer;
+      return ((buffer == null) || (readCounter == writeCounter.get()))
+          ? null
+          : buffer.get((int) readCounter & BUFFER_MASK);
+    }
+
+    int size() {
+      long size = writeCounter.get() - readCounter;
+      return (int) Math.max(0, Math.min(size, BUFFER_SIZE));
+    }
+
+    void copyInto(List<E> list) {
+      AtomicReferenceArray<E> buffer = this.buffer;
+      if (buffer == null) {
+        return;
+      }
+      long tail = writeCounter.get();
+      for (long i = readCounter; i < tail; i++) {
+        E e = buffer.get((int) i & BUFFER_MASK);
+        if (e == null) {
+          break;
+        }
+        list.add(e);
+      }
+    }
+
+    AtomicReferenceArray<E> buffer() {
+      AtomicReferenceArray<E> buffer = this.buffer;
+      if (buffer == null) {
+        synchronized (this) {
+          buffer = this.buffer;
+          if (buffer == null) {
+            this.buffer = buffer = new AtomicReferenceArray<E>(BUFFER_SIZE);
+          }
+        }
+      }
+      return buffer;
+    }
+  }
+}
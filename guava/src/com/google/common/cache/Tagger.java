@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied.  See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * Calculates the tags of cache entries, by which groups of related entries can be {@linkplain
+ * Cache#invalidateTag invalidated} together, such as all of the entries belonging to a tenant or
+ * derived from a common source.
+ *
+ * <p>Tags are computed each time an entry's value is set, while holding an internal lock, so this
+ * method should be fast. Tags are compared using {@link Object#equals}, and should be immutable.
+ *
+ * @since 13.0
+ */
+@Beta
+public interface Tagger<K, V> {
+
+  /**
+   * Returns the tags of a cache entry, which may be empty.
+   */
+  Iterable<?> tags(K key, V value);
+}
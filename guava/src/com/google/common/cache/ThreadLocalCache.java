@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.LocalCache.Segment;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A small cache of recently read values kept by each thread in front of a {@link LocalCache}, so
+ * that the hottest reads need not touch any of the cache's mutable state.
+ *
+ * <p>Each copy remembers the {@linkplain Segment#epoch epoch} of the segment which held its value,
+ * as read before the value was read. A segment advances its epoch after it discards or replaces a
+ * value, so a copy whose epoch is still current cannot have been superseded. Copies are also
+ * discarded once they are older than the staleness bound, which limits how long a value may be
+ * read after it expires from the cache.
+ *
+ * <p>Neither the per-thread maps nor their copies refer back to the cache, so a cache which is no
+ * longer used can be collected even while the threads which read it are still alive.
+ */
+final class ThreadLocalCache<K, V> {
+
+  static final class Copy<V> {
+    final V value;
+    final AtomicInteger segmentEpoch;
+    final int epoch;
+    final long expirationTime;
+
+    Copy(V value, AtomicInteger segmentEpoch, int epoch, long expirationTime) {
+      this.value = value;
+      this.segmentEpoch = segmentEpoch;
+      this.epoch = epoch;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+  /** An access-ordered map holding at most {@code maximumSize} copies. */
+  static final class CopyMap<V> extends LinkedHashMap<Object, Copy<V>> {
+    final int maximumSize;
+
+    CopyMap(int maximumSize) {
+      super(16, 0.75f, true);
+      this.maximumSize = maximumSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, Copy<V>> eldest) {
+      return size() > maximumSize;
+    }
+
+    private static final long serialVersionUID = 0;
+  }
+
+  /** Supplies each thread's map, referring to nothing but the maximum size. */
+  static final class Copies<V> extends ThreadLocal<CopyMap<V>> {
+    final int maximumSize;
+
+    Copies(int maximumSize) {
+      this.maximumSize = maximumSize;
+    }
+
+    @Override
+    protected CopyMap<V> initialValue() {
+      return new CopyMap<V>(maximumSize);
+    }
+  }
+
+  final int maximumSize;
+  final long stalenessNanos;
+  final Ticker ticker;
+  final Copies<V> copies;
+
+  ThreadLocalCache(int maximumSize, long stalenessNanos, Ticker ticker) {
+    this.maximumSize = maximumSize;
+    this.stalenessNanos = stalenessNanos;
+    this.ticker = ticker;
+    this.copies = new Copies<V>(maximumSize);
+  }
+
+  /**
+   * Returns the current thread's copy of the value for {@code key}, or {@code null} if it has no
+   * copy which is still valid.
+   */
+  @Nullable
+  V get(Object key) {
+    Map<Object, Copy<V>> map = copies.get();
+    if (map.isEmpty()) {
+      return null;
+    }
+    Copy<V> copy = map.get(key);
+    if (copy == null) {
+      return null;
+    }
+    if (copy.epoch != copy.segmentEpoch.get() || ticker.read() - copy.expirationTime >= 0) {
+      map.remove(key);
+      return null;
+    }
+    return copy.value;
+  }
+
+  /**
+   * Keeps a copy of {@code value} for the current thread, where {@code epoch} is the value of
+   * {@code segmentEpoch} read before {@code value} was.
+   */
+  void put(Object key, V value, AtomicInteger segmentEpoch, int epoch) {
+    copies.get().put(
+        key, new Copy<V>(value, segmentEpoch, epoch, ticker.read() + stalenessNanos));
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A secondary store for the values of entries evicted by size from a {@link LocalCache}, outside
+ * of the Java heap. The cache offers each such value to the tier, and consults the tier before
+ * loading a value which it does not hold.
+ *
+ * <p>The cache invalidates a key in the tier whenever it writes or removes that key, so a value
+ * held by the tier is always the latest value of its key. Callers serialize operations on any
+ * given key, as the segments of a {@code LocalCache} do by holding the segment lock.
+ */
+interface VictimTier<K, V> {
+
+  /**
+   * Stores {@code value}, which was just evicted from the cache, as the value for {@code key}.
+   * Values which cannot be stored are dropped.
+   */
+  void put(K key, V value);
+
+  /**
+   * Returns the value for {@code key} together with the key under which it was stored, or {@code
+   * null} if there is none, as the entry is restored to the cache. The tier may either discard
+   * its copy or keep it until the key is invalidated.
+   */
+  @Nullable
+  Map.Entry<K, V> promote(Object key);
+
+  /** Returns whether the tier may have a value for {@code key}. */
+  boolean contains(Object key);
+
+  /** Discards the value for {@code key}, if any. */
+  void invalidate(Object key);
+
+  /** Discards all values. */
+  void clear();
+
+  /** Returns the number of values in the tier. */
+  int size();
+}
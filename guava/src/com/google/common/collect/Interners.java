@@ -14,13 +14,13 @@
 
 package com.google.common.collect;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.annotations.Beta;
 import com.google.common.annotations.GwtIncompatible;
-import com.google.common.base.Equivalence;
 import com.google.common.base.Function;
-import com.google.common.collect.MapMakerInternalMap.ReferenceEntry;
 
 import java.util.concurrent.ConcurrentMap;
 
@@ -60,43 +60,101 @@ public final class Interners {
    */
   @GwtIncompatible("java.lang.ref.WeakReference")
   public static <E> Interner<E> newWeakInterner() {
-    return new WeakInterner<E>();
+    return newBuilder().weak().build();
   }
 
-  private static class WeakInterner<E> implements Interner<E> {
-    // MapMaker is our friend, we know about this type
-    private final MapMakerInternalMap<E, Dummy> map = new MapMaker()
-          .weakKeys()
-          .keyEquivalence(Equivalence.equals())
-          .makeCustomMap();
-
-    @Override public E intern(E sample) {
-      while (true) {
-        // trying to read the canonical...
-        ReferenceEntry<E, Dummy> entry = map.getEntry(sample);
-        if (entry != null) {
-          E canonical = entry.getKey();
-          if (canonical != null) { // only matters if weak/soft keys are used
-            return canonical;
-          }
-        }
-
-        // didn't see it, trying to put it instead...
-        Dummy sneaky = map.putIfAbsent(sample, Dummy.VALUE);
-        if (sneaky == null) {
-          return sample;
-        } else {
-          /* Someone beat us to it! Trying again...
-           *
-           * Technically this loop not guaranteed to terminate, so theoretically (extremely
-           * unlikely) this thread might starve, but even then, there is always going to be another
-           * thread doing progress here.
-           */
-        }
-      }
+  /**
+   * Returns a new builder of interners which are designed for high throughput: finding an instance
+   * which was already interned takes no lock and allocates nothing, and interning a new instance
+   * allocates at most a single entry. By default, the interners retain a strong reference to each
+   * instance they have interned, and are not bounded in size.
+   *
+   * @since 13.0
+   */
+  public static InternerBuilder newBuilder() {
+    return new InternerBuilder();
+  }
+
+  /**
+   * A builder of {@link Interner} instances, obtained from {@link Interners#newBuilder}.
+   *
+   * @since 13.0
+   */
+  @Beta
+  public static final class InternerBuilder {
+    private static final int UNSET_INT = -1;
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 4;
+
+    private boolean weak;
+    private int concurrencyLevel = UNSET_INT;
+    private long maximumSize = UNSET_INT;
+
+    private InternerBuilder() {}
+
+    /**
+     * Specifies that the interner should retain a strong reference to each instance it has
+     * interned, which is the default.
+     */
+    public InternerBuilder strong() {
+      weak = false;
+      return this;
+    }
+
+    /**
+     * Specifies that the interner should retain a weak reference to each instance it has interned,
+     * and so not prevent these instances from being garbage-collected. The entries of collected
+     * instances are reclaimed as the interner inserts new instances, rather than through a {@link
+     * java.lang.ref.ReferenceQueue}.
+     */
+    @GwtIncompatible("java.lang.ref.WeakReference")
+    public InternerBuilder weak() {
+      weak = true;
+      return this;
+    }
+
+    /**
+     * Guides the allowed concurrency among interning operations, as with {@link
+     * MapMaker#concurrencyLevel}: the interner is divided into this many independently locked
+     * shards. Interning an instance which was already interned takes no lock regardless. Defaults
+     * to 4.
+     *
+     * @throws IllegalArgumentException if {@code concurrencyLevel} is nonpositive
+     * @throws IllegalStateException if a concurrency level was already set
+     */
+    public InternerBuilder concurrencyLevel(int concurrencyLevel) {
+      checkState(this.concurrencyLevel == UNSET_INT, "concurrency level was already set to %s",
+          this.concurrencyLevel);
+      checkArgument(concurrencyLevel > 0);
+      this.concurrencyLevel = concurrencyLevel;
+      return this;
+    }
+
+    /**
+     * Specifies the maximum number of instances the interner may retain. When the number of
+     * instances approaches the maximum, the interner evicts instances which have not been
+     * interned recently, approximating least-recently-used eviction. Interning an instance equal
+     * to one which was evicted returns a new canonical instance, so a bounded interner only
+     * approximates the guarantees of {@link Interner#intern}; it is nonetheless useful to
+     * deduplicate an unbounded stream of values, such as strings parsed from logs.
+     *
+     * @throws IllegalArgumentException if {@code maximumSize} is nonpositive
+     * @throws IllegalStateException if a maximum size was already set
+     */
+    public InternerBuilder maximumSize(long maximumSize) {
+      checkState(this.maximumSize == UNSET_INT, "maximum size was already set to %s",
+          this.maximumSize);
+      checkArgument(maximumSize > 0, "maximum size must be positive");
+      this.maximumSize = maximumSize;
+      return this;
     }
 
-    private enum Dummy { VALUE }
+    /** Returns a new interner with the requested features. */
+    public <E> Interner<E> build() {
+      int concurrencyLevel = (this.concurrencyLevel == UNSET_INT)
+          ? DEFAULT_CONCURRENCY_LEVEL
+          : this.concurrencyLevel;
+      return new ShardedInterner<E>(weak, concurrencyLevel, maximumSize);
+    }
   }
 
   /**
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.collect;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.GwtIncompatible;
+import com.google.common.primitives.Ints;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * An interner which stores its canonical instances, strongly or weakly, in open-addressed hash
+ * tables spread across independently locked shards. Finding an instance which was already interned
+ * takes no lock and allocates nothing; interning a new instance locks its shard and allocates at
+ * most a single entry, so there is never a lost race to retry.
+ *
+ * <p>Weakly referenced entries are not registered with a reference queue. Once their instances
+ * have been collected, they are reused by later insertions which probe past them, and discarded
+ * when their table is rehashed.
+ *
+ * <p>A shard of a bounded interner evicts an entry before growing beyond its share of the maximum
+ * size, choosing one with the CLOCK algorithm: entries are marked when they are found, and the
+ * clock hand sweeps the table, unmarking marked entries and evicting the first unmarked one. New
+ * entries start unmarked, so instances which are interned only once are evicted first.
+ */
+@GwtIncompatible("java.util.concurrent.atomic.AtomicReferenceArray")
+final class ShardedInterner<E> implements Interner<E> {
+
+  /** The largest number of shards, which must be a power of two. */
+  static final int MAX_SHARDS = 1 << 16;
+
+  /** The initial capacity of each shard's table, which must be a power of two. */
+  static final int INITIAL_CAPACITY = 16;
+
+  /** The largest capacity of a shard's table, which must be a power of two. */
+  static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /** Marks a slot whose entry was evicted, so that lookups probe past it. */
+  static final Entry<Object> TOMBSTONE = new StrongEntry<Object>(null, 0);
+
+  final Shard<E>[] shards;
+  final int shardShift;
+  final int shardMask;
+
+  /**
+   * Creates a new interner.
+   *
+   * @param maximumSize the maximum number of instances to retain, or -1 if unbounded
+   */
+  ShardedInterner(boolean weak, int concurrencyLevel, long maximumSize) {
+    boolean bounded = (maximumSize >= 0);
+    int shardBits = 0;
+    int shardCount = 1;
+    // as with caches, ensure that a bounded shard holds enough entries for eviction to be sensible
+    while (shardCount < Math.min(concurrencyLevel, MAX_SHARDS)
+        && (!bounded || shardCount * 32L <= maximumSize)) {
+      ++shardBits;
+      shardCount <<= 1;
+    }
+    shardShift = 32 - shardBits;
+    shardMask = shardCount - 1;
+
+    shards = newShardArray(shardCount);
+    for (int i = 0; i < shardCount; i++) {
+      int maximumShardSize = bounded
+          ? Ints.saturatedCast(maximumSize / shardCount + ((i < maximumSize % shardCount) ? 1 : 0))
+          : Integer.MAX_VALUE;
+      shards[i] = new Shard<E>(weak, maximumShardSize);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E> Shard<E>[] newShardArray(int size) {
+    return new Shard[size];
+  }
+
+  @Override
+  public E intern(E sample) {
+    // the high bits choose the shard and the low bits the slot, so both must be well spread
+    int hash = MapMakerInternalMap.rehash(checkNotNull(sample).hashCode());
+    Shard<E> shard = shards[(hash >>> shardShift) & shardMask];
+    E canonical = shard.get(sample, hash);
+    return (canonical == null) ? shard.intern(sample, hash) : canonical;
+  }
+
+  /** An interned instance, with its hash and its mark for the CLOCK algorithm. */
+  interface Entry<E> {
+    /** Returns the interned instance, or null if it was collected or this is a tombstone. */
+    @Nullable
+    E get();
+
+    int getHash();
+
+    boolean isMarked();
+
+    void setMarked(boolean marked);
+  }
+
+  static final class StrongEntry<E> implements Entry<E> {
+    final E instance;
+    final int hash;
+    // written without synchronization, as a lost mark only makes eviction less accurate
+    boolean marked;
+
+    StrongEntry(@Nullable E instance, int hash) {
+      this.instance = instance;
+      this.hash = hash;
+    }
+
+    @Override
+    public E get() {
+      return instance;
+    }
+
+    @Override
+    public int getHash() {
+      return hash;
+    }
+
+    @Override
+    public boolean isMarked() {
+      return marked;
+    }
+
+    @Override
+    public void setMarked(boolean marked) {
+      this.marked = marked;
+    }
+  }
+
+  static final class WeakEntry<E> extends WeakReference<E> implements Entry<E> {
+    final int hash;
+    boolean marked;
+
+    WeakEntry(E instance, int hash) {
+      super(instance);
+      this.hash = hash;
+    }
+
+    @Override
+    public int getHash() {
+      return hash;
+    }
+
+    @Override
+    public boolean isMarked() {
+      return marked;
+    }
+
+    @Override
+    public void setMarked(boolean marked) {
+      this.marked = marked;
+    }
+  }
+
+  /**
+   * A shard of the interner: an open-addressed, linearly probed table which is read without
+   * locking, and written under the shard's lock. Writes only ever replace a slot's entry, or fill
+   * an empty slot, so a concurrent reader either sees an entry in its entirety or misses it and
+   * looks again under the lock. Rehashing publishes a new table, leaving the old one intact for
+   * readers which are still probing it.
+   */
+  @SuppressWarnings("serial") // This class is never serialized.
+  static final class Shard<E> extends ReentrantLock {
+    final boolean weak;
+    final int maximumSize;
+
+    volatile AtomicReferenceArray<Entry<E>> table;
+
+    /** The number of entries, including collected ones, but not tombstones. */
+    @GuardedBy("Shard.this")
+    int count;
+
+    /** The number of slots which are not empty, including tombstones. */
+    @GuardedBy("Shard.this")
+    int used;
+
+    /** The table is rehashed when the number of used slots exceeds this threshold. */
+    @GuardedBy("Shard.this")
+    int threshold;
+
+    /** The position of the CLOCK algorithm's hand. */
+    @GuardedBy("Shard.this")
+    int hand;
+
+    Shard(boolean weak, int maximumSize) {
+      this.weak = weak;
+      this.maximumSize = maximumSize;
+      this.table = new AtomicReferenceArray<Entry<E>>(INITIAL_CAPACITY);
+      this.threshold = INITIAL_CAPACITY * 3 / 4;
+    }
+
+    /** Returns the canonical instance equal to {@code sample}, or null if there is none. */
+    @Nullable
+    E get(E sample, int hash) {
+      AtomicReferenceArray<Entry<E>> table = this.table;
+      int mask = table.length() - 1;
+      for (int i = hash & mask; ; i = (i + 1) & mask) {
+        Entry<E> entry = table.get(i);
+        if (entry == null) {
+          return null;
+        }
+        if (entry.getHash() == hash) {
+          E canonical = entry.get();
+          if (canonical != null && sample.equals(canonical)) {
+            mark(entry);
+            return canonical;
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the canonical instance equal to {@code sample}, interning {@code sample} if another
+     * thread has not done so since it was looked for.
+     */
+    E intern(E sample, int hash) {
+      lock();
+      try {
+        AtomicReferenceArray<Entry<E>> table = this.table;
+        int mask = table.length() - 1;
+        int reusable = -1;
+        int i = hash & mask;
+        for (Entry<E> entry; (entry = table.get(i)) != null; i = (i + 1) & mask) {
+          E canonical = entry.get();
+          if (canonical == null) {
+            if (reusable < 0) {
+              reusable = i;
+            }
+          } else if (entry.getHash() == hash && sample.equals(canonical)) {
+            mark(entry);
+            return canonical;
+          }
+        }
+
+        if (count >= maximumSize) {
+          evictEntry(table);
+        }
+        Entry<E> newEntry =
+            weak ? new WeakEntry<E>(sample, hash) : new StrongEntry<E>(sample, hash);
+        if (reusable >= 0) {
+          if (table.get(reusable) != TOMBSTONE) {
+            count--; // the entry being replaced was collected
+          }
+          table.set(reusable, newEntry);
+        } else {
+          table.set(i, newEntry);
+          used++;
+        }
+        count++;
+        if (used > threshold) {
+          rehash();
+        }
+        return sample;
+      } finally {
+        unlock();
+      }
+    }
+
+    void mark(Entry<E> entry) {
+      // only bounded shards evict, and reading first avoids needlessly dirtying the cache line
+      if (maximumSize != Integer.MAX_VALUE && !entry.isMarked()) {
+        entry.setMarked(true);
+      }
+    }
+
+    /** Replaces the entry chosen by the CLOCK algorithm with a tombstone. */
+    @GuardedBy("Shard.this")
+    void evictEntry(AtomicReferenceArray<Entry<E>> table) {
+      int mask = table.length() - 1;
+      for (; ; hand = (hand + 1) & mask) {
+        Entry<E> entry = table.get(hand);
+        if (entry == null || entry == TOMBSTONE) {
+          continue;
+        }
+        if (entry.isMarked() && entry.get() != null) {
+          entry.setMarked(false);
+          continue;
+        }
+        table.set(hand, ShardedInterner.<E>tombstone());
+        count--;
+        hand = (hand + 1) & mask;
+        return;
+      }
+    }
+
+    /**
+     * Copies the live entries to a new table, dropping tombstones and collected entries. The new
+     * table is twice as large if the live entries would otherwise fill more than three eighths of
+     * it, so that rehashing is amortized over at least as many insertions as there are entries.
+     */
+    @GuardedBy("Shard.this")
+    void rehash() {
+      AtomicReferenceArray<Entry<E>> oldTable = table;
+      int oldCapacity = oldTable.length();
+      int live = 0;
+      for (int i = 0; i < oldCapacity; i++) {
+        Entry<E> entry = oldTable.get(i);
+        if (entry != null && entry.get() != null) {
+          live++;
+        }
+      }
+
+      int newCapacity = oldCapacity;
+      while (live * 8L > newCapacity * 3L && newCapacity < MAXIMUM_CAPACITY) {
+        newCapacity <<= 1;
+      }
+      AtomicReferenceArray<Entry<E>> newTable = new AtomicReferenceArray<Entry<E>>(newCapacity);
+      int newMask = newCapacity - 1;
+      int newCount = 0;
+      for (int i = 0; i < oldCapacity; i++) {
+        Entry<E> entry = oldTable.get(i);
+        if (entry != null && entry.get() != null) {
+          int j = entry.getHash() & newMask;
+          while (newTable.get(j) != null) {
+            j = (j + 1) & newMask;
+          }
+          newTable.set(j, entry);
+          newCount++;
+        }
+      }
+      count = newCount;
+      used = newCount;
+      threshold = newCapacity / 4 * 3;
+      hand = 0;
+      table = newTable;
+    }
+  }
+
+  @SuppressWarnings("unchecked") // the tombstone never returns an instance
+  static <E> Entry<E> tombstone() {
+    return (Entry<E>) TOMBSTONE;
+  }
+}